@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.Transaction;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import emlab.gen.domain.agent.DecarbonizationModel;
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.repository.Reps;
+import emlab.gen.role.market.SubmitOffersToElectricitySpotMarketRole;
+import emlab.gen.role.operating.DetermineFuelMixRole;
+import emlab.gen.util.Utils;
+
+/**
+ * The world the benchmarks run in: a Spring context on an impermanent graph database, seeded by one of the scenarios, whose power
+ * plants are read from a CSV file. The {@link #TOY_MODEL} uses scenarioA-ToyModel-csvReader.xml with toyModelPowerPlants.csv, the
+ * {@link #CWE_AND_UK} model uses scenarioU-pureETS-resTarget.xml with powerPlantsCWEandUK.csv. After {@link #prepareTick(long)} the
+ * fuel mixes are determined and the offers to the electricity spot markets submitted, as at the start of a tick of the simulation.
+ * 
+ * The benchmarks are packaged by mvn package in emlab-benchmarks and run with java -jar target/benchmarks.jar, optionally followed by a
+ * pattern that selects benchmarks and -rf json -rff result.json to keep the results for comparison with a later run.
+ * 
+ * @author JCRichstein
+ * 
+ */
+public class BenchmarkWorld {
+
+    public static final String TOY_MODEL = "toyModel";
+    public static final String CWE_AND_UK = "cweAndUk";
+
+    static final String CONTEXT = "classpath:emlab-benchmark-context.xml";
+
+    private final ClassPathXmlApplicationContext context;
+    private final Reps reps;
+
+    /**
+     * @param model
+     *            {@link #TOY_MODEL} or {@link #CWE_AND_UK}
+     */
+    public BenchmarkWorld(String model) {
+        context = new ClassPathXmlApplicationContext(CONTEXT, findScenario(model));
+        reps = context.getBean(Reps.class);
+    }
+
+    static String findScenario(String model) {
+        if (TOY_MODEL.equals(model)) {
+            return "classpath:scenarios/scenarioA-ToyModel-csvReader.xml";
+        } else if (CWE_AND_UK.equals(model)) {
+            return "classpath:scenarioBenchmark-CWEandUK.xml";
+        }
+        throw new IllegalArgumentException("Unknown benchmark model: " + model);
+    }
+
+    public Reps getReps() {
+        return reps;
+    }
+
+    public <T> T getBean(Class<T> clazz) {
+        return context.getBean(clazz);
+    }
+
+    public Transaction beginTx() {
+        return reps.template.getGraphDatabaseService().beginTx();
+    }
+
+    public DecarbonizationModel getModel() {
+        return reps.genericRepository.findFirst(DecarbonizationModel.class);
+    }
+
+    /**
+     * Determines the fuel mixes and submits the spot market offers of all producers, and starts the tick scoped cache.
+     * 
+     * @param tick
+     *            the tick
+     */
+    public void prepareTick(long tick) {
+        reps.tickScopedCache.startTick(tick);
+        DetermineFuelMixRole determineFuelMixRole = getBean(DetermineFuelMixRole.class);
+        SubmitOffersToElectricitySpotMarketRole submitOffersRole = getBean(SubmitOffersToElectricitySpotMarketRole.class);
+        List<EnergyProducer> producers = Utils.asList(reps.genericRepository.findAll(EnergyProducer.class));
+        Transaction tx = beginTx();
+        try {
+            for (EnergyProducer producer : producers) {
+                determineFuelMixRole.act(producer);
+            }
+            for (EnergyProducer producer : producers) {
+                submitOffersRole.act(producer);
+            }
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+    }
+
+    public List<PowerPlant> findOperationalPowerPlants(long tick) {
+        return Utils.asList(reps.powerPlantRepository.findOperationalPowerPlants(tick));
+    }
+
+    /**
+     * @return the last known price of every substance, as the roles see them
+     */
+    public Map<Substance, Double> findFuelPrices() {
+        DetermineFuelMixRole role = getBean(DetermineFuelMixRole.class);
+        Map<Substance, Double> fuelPrices = new HashMap<Substance, Double>();
+        for (Substance substance : reps.genericRepository.findAll(Substance.class)) {
+            fuelPrices.put(substance, role.findLastKnownPriceForSubstance(substance));
+        }
+        return fuelPrices;
+    }
+
+    public void close() {
+        context.close();
+    }
+
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import emlab.gen.domain.agent.Government;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.role.operating.DetermineFuelMixRole;
+
+/**
+ * Benchmarks {@link emlab.gen.role.AbstractEnergyProducerRole#calculateFuelMix} for all operational plants, with the fuel mixes of a
+ * tick cached or, with the tick scoped cache switched off, solved for every plant.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FuelMixBenchmark {
+
+    static final long TICK = 0;
+
+    @Param({ BenchmarkWorld.TOY_MODEL, BenchmarkWorld.CWE_AND_UK })
+    String model;
+
+    @Param({ "false", "true" })
+    boolean cached;
+
+    BenchmarkWorld world;
+    DetermineFuelMixRole role;
+    List<PowerPlant> plants;
+    Map<Substance, Double> fuelPrices;
+    double co2Price;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld(model);
+        world.prepareTick(TICK);
+        role = world.getBean(DetermineFuelMixRole.class);
+        plants = world.findOperationalPowerPlants(TICK);
+        fuelPrices = world.findFuelPrices();
+        co2Price = world.getReps().genericRepository.findFirst(Government.class).getCO2Tax(TICK);
+        if (!cached) {
+            world.getReps().tickScopedCache.invalidate();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.close();
+    }
+
+    @Benchmark
+    public void calculateFuelMixes(Blackhole blackhole) {
+        Transaction tx = world.beginTx();
+        try {
+            for (PowerPlant plant : plants) {
+                blackhole.consume(role.calculateFuelMix(plant, fuelPrices, co2Price));
+            }
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.repository.Reps;
+import emlab.gen.util.Utils;
+
+/**
+ * Benchmarks the capacity aggregations of the investment roles over all markets and technologies, answered by the Gremlin queries of
+ * the {@link emlab.gen.repository.PowerPlantRepository}, by its native traversals, or by the
+ * {@link emlab.gen.repository.PowerPlantFleetTable}.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PowerPlantAggregationBenchmark {
+
+    static final String GREMLIN = "gremlin";
+    static final String NATIVE = "native";
+    static final String FLEET_TABLE = "fleetTable";
+
+    static final long TICK = 0;
+    static final long FUTURE_TICK = 7;
+
+    @Param({ BenchmarkWorld.TOY_MODEL, BenchmarkWorld.CWE_AND_UK })
+    String model;
+
+    @Param({ GREMLIN, NATIVE, FLEET_TABLE })
+    String implementation;
+
+    BenchmarkWorld world;
+    Reps reps;
+    List<ElectricitySpotMarket> markets;
+    List<PowerGeneratingTechnology> technologies;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld(model);
+        reps = world.getReps();
+        markets = Utils.asList(reps.marketRepository.findAllElectricitySpotMarkets());
+        technologies = Utils.asList(reps.genericRepository.findAll(PowerGeneratingTechnology.class));
+        Transaction tx = world.beginTx();
+        try {
+            world.getModel().setNativeTraversalsEnabled(NATIVE.equals(implementation));
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+        // The fleet table is only used while a tick is running.
+        if (FLEET_TABLE.equals(implementation)) {
+            reps.tickScopedCache.startTick(TICK);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.close();
+    }
+
+    @Benchmark
+    public double calculateCapacities() {
+        double capacity = 0d;
+        boolean fleetTable = FLEET_TABLE.equals(implementation);
+        for (ElectricitySpotMarket market : markets) {
+            for (PowerGeneratingTechnology technology : technologies) {
+                capacity += fleetTable ? reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(
+                        market, technology, FUTURE_TICK) : reps.powerPlantRepository
+                        .calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, technology, FUTURE_TICK);
+            }
+            capacity += fleetTable ? reps.powerPlantFleetTable.calculateCapacityOfPowerPlantsByMarketInPipeline(market, TICK)
+                    : reps.powerPlantRepository.calculateCapacityOfPowerPlantsByMarketInPipeline(market, TICK);
+        }
+        for (PowerGeneratingTechnology technology : technologies) {
+            capacity += fleetTable ? reps.powerPlantFleetTable.calculateCapacityOfOperationalPowerPlantsByTechnology(technology, TICK)
+                    : reps.powerPlantRepository.calculateCapacityOfOperationalPowerPlantsByTechnology(technology, TICK);
+        }
+        return capacity;
+    }
+
+}
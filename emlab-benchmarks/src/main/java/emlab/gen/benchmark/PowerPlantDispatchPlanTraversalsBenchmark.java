@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.repository.PowerPlantDispatchPlanRepository;
+import emlab.gen.repository.Reps;
+import emlab.gen.util.Utils;
+
+/**
+ * Benchmarks every query of the {@link PowerPlantDispatchPlanRepository} that has a native traversal in
+ * {@link emlab.gen.repository.PowerPlantDispatchPlanTraversals}, answered by the Cypher or Gremlin query or by the native traversal.
+ * The dispatch plans are those of the offers submitted in {@link BenchmarkWorld#prepareTick(long)}, of which every other one is
+ * accepted, so that the queries for accepted plans find some. Each benchmark runs its query for all the plants, producers, markets and
+ * segments it takes, and iterates over the plans found.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PowerPlantDispatchPlanTraversalsBenchmark {
+
+    static final String QUERY = "query";
+    static final String NATIVE = "native";
+
+    static final long TICK = 0;
+
+    @Param({ BenchmarkWorld.TOY_MODEL, BenchmarkWorld.CWE_AND_UK })
+    String model;
+
+    @Param({ QUERY, NATIVE })
+    String implementation;
+
+    BenchmarkWorld world;
+    PowerPlantDispatchPlanRepository powerPlantDispatchPlanRepository;
+    List<ElectricitySpotMarket> markets;
+    List<Segment> segments;
+    List<EnergyProducer> producers;
+    List<PowerPlant> plants;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld(model);
+        Reps reps = world.getReps();
+        powerPlantDispatchPlanRepository = reps.powerPlantDispatchPlanRepository;
+        markets = Utils.asList(reps.marketRepository.findAllElectricitySpotMarkets());
+        segments = Utils.asList(reps.segmentRepository.findAll());
+        producers = Utils.asList(reps.genericRepository.findAll(EnergyProducer.class));
+        plants = world.findOperationalPowerPlants(TICK);
+        Transaction tx = world.beginTx();
+        try {
+            world.getModel().setNativeTraversalsEnabled(NATIVE.equals(implementation));
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+        world.prepareTick(TICK);
+        tx = world.beginTx();
+        try {
+            boolean accepted = false;
+            for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForTime(TICK)) {
+                if (accepted) {
+                    plan.setStatus(Bid.ACCEPTED);
+                }
+                accepted = !accepted;
+            }
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.close();
+    }
+
+    @Benchmark
+    public int findAllPowerPlantDispatchPlanForPowerPlantForSegmentForTime() {
+        int plans = 0;
+        for (PowerPlant plant : plants) {
+            for (Segment segment : segments) {
+                plans += count(powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlanForPowerPlantForSegmentForTime(
+                        plant, segment, TICK));
+            }
+        }
+        return plans;
+    }
+
+    @Benchmark
+    public int findOnePowerPlantDispatchPlanForPowerPlantForSegmentForTime() {
+        int plans = 0;
+        for (PowerPlant plant : plants) {
+            for (Segment segment : segments) {
+                PowerPlantDispatchPlan plan = powerPlantDispatchPlanRepository.findOnePowerPlantDispatchPlanForPowerPlantForSegmentForTime(
+                        plant, segment, TICK);
+                plans += plan == null ? 0 : 1;
+            }
+        }
+        return plans;
+    }
+
+    @Benchmark
+    public int findAllPowerPlantDispatchPlansForPowerPlantForTime() {
+        int plans = 0;
+        for (PowerPlant plant : plants) {
+            plans += count(powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForPowerPlantForTime(plant, TICK));
+        }
+        return plans;
+    }
+
+    @Benchmark
+    public int findAllPowerPlantDispatchPlansForPowerPlantsOfOwnerForTime() {
+        int plans = 0;
+        for (EnergyProducer producer : producers) {
+            plans += count(powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForPowerPlantsOfOwnerForTime(producer, TICK));
+        }
+        return plans;
+    }
+
+    @Benchmark
+    public int findAllPowerPlantDispatchPlansForEnergyProducerForTime() {
+        int plans = 0;
+        for (EnergyProducer producer : producers) {
+            plans += count(powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForEnergyProducerForTime(producer, TICK));
+        }
+        return plans;
+    }
+
+    @Benchmark
+    public int findAllAcceptedPowerPlantDispatchPlansForEnergyProducerForTime() {
+        int plans = 0;
+        for (EnergyProducer producer : producers) {
+            plans += count(powerPlantDispatchPlanRepository.findAllAcceptedPowerPlantDispatchPlansForEnergyProducerForTime(producer, TICK));
+        }
+        return plans;
+    }
+
+    @Benchmark
+    public int findAllPowerPlantDispatchPlansForEnergyProducerForTimeAndSegment() {
+        int plans = 0;
+        for (EnergyProducer producer : producers) {
+            for (Segment segment : segments) {
+                plans += count(powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForEnergyProducerForTimeAndSegment(
+                        segment, producer, TICK));
+            }
+        }
+        return plans;
+    }
+
+    @Benchmark
+    public int findAllAcceptedPowerPlantDispatchPlansForEnergyProducerForTimeAndSegment() {
+        int plans = 0;
+        for (EnergyProducer producer : producers) {
+            for (Segment segment : segments) {
+                plans += count(powerPlantDispatchPlanRepository.findAllAcceptedPowerPlantDispatchPlansForEnergyProducerForTimeAndSegment(
+                        segment, producer, TICK));
+            }
+        }
+        return plans;
+    }
+
+    @Benchmark
+    public int findAllAcceptedPowerPlantDispatchPlansForMarketSegmentAndTime() {
+        int plans = 0;
+        for (ElectricitySpotMarket market : markets) {
+            for (Segment segment : segments) {
+                plans += count(powerPlantDispatchPlanRepository.findAllAcceptedPowerPlantDispatchPlansForMarketSegmentAndTime(
+                        market, segment, TICK));
+            }
+        }
+        return plans;
+    }
+
+    static int count(Iterable<?> items) {
+        int count = 0;
+        for (Object item : items) {
+            count++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerGridNode;
+import emlab.gen.repository.PowerPlantRepository;
+import emlab.gen.repository.Reps;
+import emlab.gen.util.Utils;
+
+/**
+ * Benchmarks every query of the {@link PowerPlantRepository} that has a native traversal in
+ * {@link emlab.gen.repository.PowerPlantTraversals}, answered by the Gremlin script or by the native traversal. Each benchmark runs its
+ * query for all the markets, technologies, owners or nodes it takes, and iterates over the plants found.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PowerPlantTraversalsBenchmark {
+
+    static final String GREMLIN = "gremlin";
+    static final String NATIVE = "native";
+
+    static final long TICK = 0;
+    static final long FUTURE_TICK = 7;
+
+    @Param({ BenchmarkWorld.TOY_MODEL, BenchmarkWorld.CWE_AND_UK })
+    String model;
+
+    @Param({ GREMLIN, NATIVE })
+    String implementation;
+
+    BenchmarkWorld world;
+    PowerPlantRepository powerPlantRepository;
+    List<ElectricitySpotMarket> markets;
+    List<PowerGeneratingTechnology> technologies;
+    List<EnergyProducer> owners;
+    List<PowerGridNode> nodes;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld(model);
+        Reps reps = world.getReps();
+        powerPlantRepository = reps.powerPlantRepository;
+        markets = Utils.asList(reps.marketRepository.findAllElectricitySpotMarkets());
+        technologies = Utils.asList(reps.genericRepository.findAll(PowerGeneratingTechnology.class));
+        owners = Utils.asList(reps.genericRepository.findAll(EnergyProducer.class));
+        nodes = Utils.asList(reps.genericRepository.findAll(PowerGridNode.class));
+        Transaction tx = world.beginTx();
+        try {
+            world.getModel().setNativeTraversalsEnabled(NATIVE.equals(implementation));
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+        // Caches the model, so that the switch between the
+        // implementations costs the same for both.
+        reps.tickScopedCache.startTick(TICK);
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.close();
+    }
+
+    @Benchmark
+    public int findOperationalPowerPlants() {
+        return count(powerPlantRepository.findOperationalPowerPlants(TICK));
+    }
+
+    @Benchmark
+    public int findAllPowerPlantsDismantledBeforeTick() {
+        return count(powerPlantRepository.findAllPowerPlantsDismantledBeforeTick(FUTURE_TICK));
+    }
+
+    @Benchmark
+    public int findOperationalPowerPlantsAsList() {
+        return count(powerPlantRepository.findOperationalPowerPlantsAsList(TICK));
+    }
+
+    @Benchmark
+    public double calculateCapacityOfOperationalPowerPlants() {
+        return powerPlantRepository.calculateCapacityOfOperationalPowerPlants(TICK);
+    }
+
+    @Benchmark
+    public double calculatePeakCapacityOfOperationalPowerPlants() {
+        return powerPlantRepository.calculatePeakCapacityOfOperationalPowerPlants(TICK);
+    }
+
+    @Benchmark
+    public int findOperationalPowerPlantsByOwner() {
+        int plants = 0;
+        for (EnergyProducer owner : owners) {
+            plants += count(powerPlantRepository.findOperationalPowerPlantsByOwner(owner, TICK));
+        }
+        return plants;
+    }
+
+    @Benchmark
+    public int findOperationalPowerPlantsWithFuelsGreaterZeroByOwner() {
+        int plants = 0;
+        for (EnergyProducer owner : owners) {
+            plants += count(powerPlantRepository.findOperationalPowerPlantsWithFuelsGreaterZeroByOwner(owner, TICK));
+        }
+        return plants;
+    }
+
+    @Benchmark
+    public int findOperationalPowerPlantsByTechnology() {
+        int plants = 0;
+        for (PowerGeneratingTechnology technology : technologies) {
+            plants += count(powerPlantRepository.findOperationalPowerPlantsByTechnology(technology, TICK));
+        }
+        return plants;
+    }
+
+    @Benchmark
+    public double calculateCapacityOfOperationalPowerPlantsByTechnology() {
+        double capacity = 0;
+        for (PowerGeneratingTechnology technology : technologies) {
+            capacity += powerPlantRepository.calculateCapacityOfOperationalPowerPlantsByTechnology(technology, TICK);
+        }
+        return capacity;
+    }
+
+    @Benchmark
+    public int findOperationalPowerPlantsByPowerGridNode() {
+        int plants = 0;
+        for (PowerGridNode node : nodes) {
+            plants += count(powerPlantRepository.findOperationalPowerPlantsByPowerGridNode(node, TICK));
+        }
+        return plants;
+    }
+
+    @Benchmark
+    public int findOperationalPowerPlantsInMarket() {
+        int plants = 0;
+        for (ElectricitySpotMarket market : markets) {
+            plants += count(powerPlantRepository.findOperationalPowerPlantsInMarket(market, TICK));
+        }
+        return plants;
+    }
+
+    @Benchmark
+    public double calculateCapacityOfOperationalPowerPlantsInMarket() {
+        double capacity = 0;
+        for (ElectricitySpotMarket market : markets) {
+            capacity += powerPlantRepository.calculateCapacityOfOperationalPowerPlantsInMarket(market, TICK);
+        }
+        return capacity;
+    }
+
+    @Benchmark
+    public double calculatePeakCapacityOfOperationalPowerPlantsInMarket() {
+        double capacity = 0;
+        for (ElectricitySpotMarket market : markets) {
+            capacity += powerPlantRepository.calculatePeakCapacityOfOperationalPowerPlantsInMarket(market, TICK);
+        }
+        return capacity;
+    }
+
+    @Benchmark
+    public int findExpectedOperationalPowerPlantsInMarket() {
+        int plants = 0;
+        for (ElectricitySpotMarket market : markets) {
+            plants += count(powerPlantRepository.findExpectedOperationalPowerPlantsInMarket(market, FUTURE_TICK));
+        }
+        return plants;
+    }
+
+    @Benchmark
+    public double calculateCapacityOfExpectedOperationalPowerPlantsInMarket() {
+        double capacity = 0;
+        for (ElectricitySpotMarket market : markets) {
+            capacity += powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarket(market, FUTURE_TICK);
+        }
+        return capacity;
+    }
+
+    @Benchmark
+    public double calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology() {
+        double capacity = 0;
+        for (ElectricitySpotMarket market : markets) {
+            for (PowerGeneratingTechnology technology : technologies) {
+                capacity += powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(
+                        market, technology, FUTURE_TICK);
+            }
+        }
+        return capacity;
+    }
+
+    @Benchmark
+    public double calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology() {
+        double capacity = 0;
+        for (PowerGridNode node : nodes) {
+            for (PowerGeneratingTechnology technology : technologies) {
+                capacity += powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(
+                        node, technology, FUTURE_TICK);
+            }
+        }
+        return capacity;
+    }
+
+    @Benchmark
+    public double calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology() {
+        double capacity = 0;
+        for (ElectricitySpotMarket market : markets) {
+            for (PowerGeneratingTechnology technology : technologies) {
+                for (EnergyProducer owner : owners) {
+                    capacity += powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(
+                            market, technology, FUTURE_TICK, owner);
+                }
+            }
+        }
+        return capacity;
+    }
+
+    @Benchmark
+    public double calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner() {
+        double capacity = 0;
+        for (ElectricitySpotMarket market : markets) {
+            for (EnergyProducer owner : owners) {
+                capacity += powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(
+                        market, FUTURE_TICK, owner);
+            }
+        }
+        return capacity;
+    }
+
+    @Benchmark
+    public int findPowerPlantsInMarket() {
+        int plants = 0;
+        for (ElectricitySpotMarket market : markets) {
+            plants += count(powerPlantRepository.findPowerPlantsInMarket(market));
+        }
+        return plants;
+    }
+
+    @Benchmark
+    public int findOperationalPowerPlantsByOwnerAndMarket() {
+        int plants = 0;
+        for (ElectricitySpotMarket market : markets) {
+            for (EnergyProducer owner : owners) {
+                plants += count(powerPlantRepository.findOperationalPowerPlantsByOwnerAndMarket(owner, market, TICK));
+            }
+        }
+        return plants;
+    }
+
+    @Benchmark
+    public int findPowerPlantsByOwnerAndMarketInPipeline() {
+        int plants = 0;
+        for (ElectricitySpotMarket market : markets) {
+            for (EnergyProducer owner : owners) {
+                plants += count(powerPlantRepository.findPowerPlantsByOwnerAndMarketInPipeline(owner, market, TICK));
+            }
+        }
+        return plants;
+    }
+
+    @Benchmark
+    public int findPowerPlantsByTechnologyInPipeline() {
+        int plants = 0;
+        for (PowerGeneratingTechnology technology : technologies) {
+            plants += count(powerPlantRepository.findPowerPlantsByTechnologyInPipeline(technology, TICK));
+        }
+        return plants;
+    }
+
+    @Benchmark
+    public double calculateCapacityOfPowerPlantsByTechnologyInPipeline() {
+        double capacity = 0;
+        for (PowerGeneratingTechnology technology : technologies) {
+            capacity += powerPlantRepository.calculateCapacityOfPowerPlantsByTechnologyInPipeline(technology, TICK);
+        }
+        return capacity;
+    }
+
+    @Benchmark
+    public double calculateCapacityOfPowerPlantsByMarketInPipeline() {
+        double capacity = 0;
+        for (ElectricitySpotMarket market : markets) {
+            capacity += powerPlantRepository.calculateCapacityOfPowerPlantsByMarketInPipeline(market, TICK);
+        }
+        return capacity;
+    }
+
+    static int count(Iterable<?> items) {
+        int count = 0;
+        for (Object item : items) {
+            count++;
+        }
+        return count;
+    }
+
+}
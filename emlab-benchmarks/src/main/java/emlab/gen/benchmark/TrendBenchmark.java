@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.trend.TriangularTrend;
+import emlab.gen.util.GeometricTrendRegression;
+import emlab.gen.util.Utils;
+
+/**
+ * Benchmarks the evaluation of the triangular trends, whose values are generated once and then read back, and the demand forecast of
+ * the investors, a {@link GeometricTrendRegression} over the demand growth trend of every market, built anew or taken from the
+ * {@link emlab.gen.repository.ForecastCache}.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TrendBenchmark {
+
+    static final int HORIZON = 50;
+    static final long TICK = 10;
+    static final long FUTURE_TICK = 17;
+    static final int YEARS_LOOKING_BACK = 5;
+
+    @Param({ BenchmarkWorld.TOY_MODEL, BenchmarkWorld.CWE_AND_UK })
+    String model;
+
+    BenchmarkWorld world;
+    List<TriangularTrend> trends;
+    List<ElectricitySpotMarket> markets;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld(model);
+        trends = Utils.asList(world.getReps().genericRepository.findAll(TriangularTrend.class));
+        markets = Utils.asList(world.getReps().marketRepository.findAllElectricitySpotMarkets());
+        // Generate all values up front, so that the benchmarks only read them.
+        Transaction tx = world.beginTx();
+        try {
+            for (TriangularTrend trend : trends) {
+                trend.getValue(HORIZON);
+            }
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+        world.getReps().tickScopedCache.startTick(TICK);
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.close();
+    }
+
+    @Benchmark
+    public double evaluateTriangularTrends() {
+        double sum = 0d;
+        for (TriangularTrend trend : trends) {
+            for (long time = 0; time <= HORIZON; time++) {
+                sum += trend.getValue(time);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double forecastDemand() {
+        double sum = 0d;
+        for (ElectricitySpotMarket market : markets) {
+            GeometricTrendRegression gtr = new GeometricTrendRegression();
+            for (long time = TICK; time > TICK - YEARS_LOOKING_BACK && time >= 0; time = time - 1) {
+                gtr.addData(time, market.getDemandGrowthTrend().getValue(time));
+            }
+            sum += gtr.predict(FUTURE_TICK);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double forecastDemandWithCache() {
+        double sum = 0d;
+        for (ElectricitySpotMarket market : markets) {
+            sum += world.getReps().forecastCache.predictDemandGrowth(market, YEARS_LOOKING_BACK, TICK, FUTURE_TICK);
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import emlab.gen.benchmark.BenchmarkWorld;
+import emlab.gen.domain.agent.Government;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.util.Utils;
+
+/**
+ * Benchmarks the construction of the expected merit order and electricity prices of every market, as an investor does it in
+ * {@link InvestInPowerGenerationTechnologiesRole#act} before it evaluates the technologies.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MarketInformationBenchmark {
+
+    static final long TICK = 0;
+    static final long FUTURE_TICK = 7;
+
+    @Param({ BenchmarkWorld.TOY_MODEL, BenchmarkWorld.CWE_AND_UK })
+    String model;
+
+    BenchmarkWorld world;
+    InvestInPowerGenerationTechnologiesRole role;
+    List<ElectricitySpotMarket> markets;
+    Map<ElectricitySpotMarket, Double> expectedDemand;
+    Map<Substance, Double> fuelPrices;
+    double co2Price;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld(model);
+        world.prepareTick(TICK);
+        role = world.getBean(InvestInPowerGenerationTechnologiesRole.class);
+        markets = Utils.asList(world.getReps().marketRepository.findAllElectricitySpotMarkets());
+        expectedDemand = new HashMap<ElectricitySpotMarket, Double>();
+        for (ElectricitySpotMarket market : markets) {
+            expectedDemand.put(market, 1d);
+        }
+        fuelPrices = world.findFuelPrices();
+        co2Price = world.getReps().genericRepository.findFirst(Government.class).getCO2Tax(FUTURE_TICK);
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.close();
+    }
+
+    @Benchmark
+    public void createMarketInformation(Blackhole blackhole) {
+        Transaction tx = world.beginTx();
+        try {
+            for (ElectricitySpotMarket market : markets) {
+                blackhole.consume(role.new MarketInformation(market, expectedDemand, fuelPrices, co2Price, FUTURE_TICK));
+            }
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+    }
+
+}
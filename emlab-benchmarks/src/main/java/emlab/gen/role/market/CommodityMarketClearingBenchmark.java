@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the in-memory clearing of a commodity market by {@link CommodityMarketClearing}, including the sort of the bids, for a
+ * fixed, seeded set of supply and demand bids of each side.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CommodityMarketClearingBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    int numberOfBids;
+
+    @Param({ "false", "true" })
+    boolean auction;
+
+    double[] supplyPrices;
+    double[] supplyAmounts;
+    double[] demandPrices;
+    double[] demandAmounts;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        supplyPrices = new double[numberOfBids];
+        supplyAmounts = new double[numberOfBids];
+        demandPrices = new double[numberOfBids];
+        demandAmounts = new double[numberOfBids];
+        for (int i = 0; i < numberOfBids; i++) {
+            // Rounded prices, so that there are ties.
+            supplyPrices[i] = Math.round(random.nextDouble() * 100);
+            supplyAmounts[i] = 1000 * random.nextDouble();
+            demandPrices[i] = Math.round(random.nextDouble() * 100);
+            demandAmounts[i] = 1000 * random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public double clear() {
+        CommodityMarketClearing clearing = new CommodityMarketClearing(supplyPrices, supplyAmounts, demandPrices, demandAmounts, auction);
+        clearing.clear(Double.NaN, Double.NaN);
+        return clearing.getClearingPrice();
+    }
+
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import emlab.gen.benchmark.BenchmarkWorld;
+import emlab.gen.domain.agent.DecarbonizationModel;
+import emlab.gen.domain.agent.Government;
+import emlab.gen.domain.agent.NationalGovernment;
+import emlab.gen.domain.market.CO2Auction;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.technology.Interconnector;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.repository.Reps;
+import emlab.gen.util.Utils;
+
+/**
+ * Benchmarks the in-memory clearing of the electricity spot markets of one tick: clearing all segments at a given CO2 price, and the
+ * secant search and the exact {@link CO2CapSolver} for the CO2 price that meets the cap, as
+ * {@link ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole} does it. It is in the package of the role to reach the snapshot of the
+ * merit order.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ElectricitySpotMarketBenchmark {
+
+    static final long TICK = 0;
+    static final int MAXIMUM_NUMBER_OF_ITERATIONS = 15;
+
+    @Param({ BenchmarkWorld.TOY_MODEL, BenchmarkWorld.CWE_AND_UK })
+    String model;
+
+    BenchmarkWorld world;
+    ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole role;
+    DecarbonizationModel decarbonizationModel;
+    Government government;
+    ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole.MeritOrderSnapshot snapshot;
+    double interconnectorCapacity;
+    double startingCO2Price;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld(model);
+        world.prepareTick(TICK);
+        Reps reps = world.getReps();
+        role = world.getBean(ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole.class);
+        decarbonizationModel = world.getModel();
+        government = reps.genericRepository.findFirst(Government.class);
+        interconnectorCapacity = reps.genericRepository.findFirst(Interconnector.class).getCapacity();
+
+        Map<Substance, Double> fuelPrices = world.findFuelPrices();
+        Map<ElectricitySpotMarket, Double> nationalMinCo2Prices = new HashMap<ElectricitySpotMarket, Double>();
+        for (NationalGovernment nationalGovernment : reps.genericRepository.findAll(NationalGovernment.class)) {
+            nationalMinCo2Prices.put(reps.marketRepository.findElectricitySpotMarketByNationalGovernment(nationalGovernment),
+                    nationalGovernment.getMinNationalCo2PriceTrend().getValue(TICK));
+        }
+
+        snapshot = role.loadMeritOrderSnapshot(Utils.asList(reps.segmentRepository.findAll()));
+        role.createCO2PriceEmissionsEvaluator(snapshot, interconnectorCapacity, nationalMinCo2Prices, government.getCO2Tax(TICK),
+                fuelPrices);
+        startingCO2Price = role.findLastKnownPriceOnMarket(reps.genericRepository.findFirst(CO2Auction.class));
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.close();
+    }
+
+    @Benchmark
+    public double[][] clearAllSegments() {
+        role.clearAllSegmentsInMemory(snapshot, interconnectorCapacity, (int) decarbonizationModel.getNumberOfMarketClearingThreads());
+        return snapshot.prices;
+    }
+
+    @Benchmark
+    public double searchCO2Price() {
+        ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole.CO2SecantSearch co2SecantSearch = role.new CO2SecantSearch();
+        co2SecantSearch.co2Price = startingCO2Price;
+        int iteration = 0;
+        while (!co2SecantSearch.stable && iteration++ <= MAXIMUM_NUMBER_OF_ITERATIONS) {
+            co2SecantSearch = role.co2PriceSecantSearchUpdate(co2SecantSearch, decarbonizationModel, government,
+                    snapshot.evaluator.calculateEmissions(co2SecantSearch.co2Price));
+        }
+        return co2SecantSearch.co2Price;
+    }
+
+    /**
+     * Solves for the exact CO2 price, or, like the role, falls back to the secant search if there are multi-fuel plants.
+     */
+    @Benchmark
+    public double solveCO2Price() {
+        if (snapshot.evaluator.hasFuelMixOptions()) {
+            return searchCO2Price();
+        }
+        return new CO2CapSolver(snapshot.evaluator).findClearingPrice(government.getCo2Cap(TICK), government.getMinCo2Price(TICK),
+                government.getCo2Penalty(TICK));
+    }
+
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the clearing of one segment by a {@link MarketCoupling}, for a fixed, seeded merit order and network: a ring of markets
+ * with twice as many cross links as markets, or a single interconnector between two markets.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MarketCouplingBenchmark {
+
+    @Param({ "2", "10", "30" })
+    int numberOfMarkets;
+
+    @Param({ "1000", "5000" })
+    int numberOfBids;
+
+    InMemoryMeritOrder meritOrder;
+    MarketCoupling coupling;
+    double[] loads;
+    double[] valueOfLostLoad;
+    double[] prices;
+    double[] supplies;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        meritOrder = new InMemoryMeritOrder(numberOfBids, numberOfMarkets, 1);
+        for (int i = 0; i < numberOfBids; i++) {
+            double bid = random.nextDouble() * 100;
+            meritOrder.setPlan(i, random.nextInt(numberOfMarkets), 0, bid, bid, random.nextDouble() * 100, 0, 1);
+        }
+        meritOrder.setSegmentLengthInHours(0, 1);
+        meritOrder.sortMeritOrder();
+
+        int numberOfInterconnectors = numberOfMarkets == 2 ? 1 : 3 * numberOfMarkets;
+        int[] firstMarkets = new int[numberOfInterconnectors];
+        int[] secondMarkets = new int[numberOfInterconnectors];
+        double[] capacities = new double[numberOfInterconnectors];
+        for (int i = 0; i < numberOfInterconnectors; i++) {
+            firstMarkets[i] = i < numberOfMarkets ? i : random.nextInt(numberOfMarkets);
+            secondMarkets[i] = i < numberOfMarkets ? (i + 1) % numberOfMarkets : (firstMarkets[i] + 1 + random
+                    .nextInt(numberOfMarkets - 1)) % numberOfMarkets;
+            capacities[i] = random.nextDouble() * 500;
+        }
+        coupling = new MarketCoupling(numberOfMarkets, 1, firstMarkets, secondMarkets, capacities);
+
+        // Loads that take about 40% of the offered capacity.
+        loads = new double[numberOfMarkets];
+        valueOfLostLoad = new double[numberOfMarkets];
+        for (int m = 0; m < numberOfMarkets; m++) {
+            loads[m] = random.nextDouble() * 40 * numberOfBids / numberOfMarkets;
+            valueOfLostLoad[m] = 2000;
+        }
+        prices = new double[numberOfMarkets];
+        supplies = new double[numberOfMarkets];
+    }
+
+    @Benchmark
+    public double[] clearSegment() {
+        coupling.clearSegment(meritOrder, 0, loads, valueOfLostLoad, prices, supplies);
+        return prices;
+    }
+
+}
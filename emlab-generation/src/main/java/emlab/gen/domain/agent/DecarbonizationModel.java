@@ -53,6 +53,24 @@ public class DecarbonizationModel extends AbstractAgent implements Agent {
     @SimulationParameter(label = "Deletion age")
     private long deletionAge;
 
+    @SimulationParameter(label = "In-memory electricity market clearing")
+    private boolean inMemoryMarketClearingEnabled;
+
+    @SimulationParameter(label = "Threads for in-memory market clearing")
+    private long numberOfMarketClearingThreads;
+
+    @SimulationParameter(label = "Threads for evaluating investment options")
+    private long numberOfInvestmentEvaluationThreads;
+
+    @SimulationParameter(label = "Native Java traversals for power plant queries")
+    private boolean nativeTraversalsEnabled;
+
+    @SimulationParameter(label = "Write per role and per query metrics each tick")
+    private boolean metricsEnabled;
+
+    @SimulationParameter(label = "Ticks between checkpoints, 0 for none")
+    private long checkpointInterval;
+
     public boolean isRealRenewableDataImplemented() {
         return realRenewableDataImplemented;
     }
@@ -159,6 +177,54 @@ public class DecarbonizationModel extends AbstractAgent implements Agent {
         this.deletionAge = deletionAge;
     }
 
+    public boolean isInMemoryMarketClearingEnabled() {
+        return inMemoryMarketClearingEnabled;
+    }
+
+    public void setInMemoryMarketClearingEnabled(boolean inMemoryMarketClearingEnabled) {
+        this.inMemoryMarketClearingEnabled = inMemoryMarketClearingEnabled;
+    }
+
+    public long getNumberOfMarketClearingThreads() {
+        return numberOfMarketClearingThreads;
+    }
+
+    public void setNumberOfMarketClearingThreads(long numberOfMarketClearingThreads) {
+        this.numberOfMarketClearingThreads = numberOfMarketClearingThreads;
+    }
+
+    public long getNumberOfInvestmentEvaluationThreads() {
+        return numberOfInvestmentEvaluationThreads;
+    }
+
+    public void setNumberOfInvestmentEvaluationThreads(long numberOfInvestmentEvaluationThreads) {
+        this.numberOfInvestmentEvaluationThreads = numberOfInvestmentEvaluationThreads;
+    }
+
+    public boolean isNativeTraversalsEnabled() {
+        return nativeTraversalsEnabled;
+    }
+
+    public void setNativeTraversalsEnabled(boolean nativeTraversalsEnabled) {
+        this.nativeTraversalsEnabled = nativeTraversalsEnabled;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
     public boolean isExitSimulationAfterSimulationLength() {
         return exitSimulationAfterSimulationLength;
     }
@@ -16,6 +16,7 @@
 package emlab.gen.domain.contract;
 
 import org.neo4j.graphdb.Direction;
+import org.springframework.data.neo4j.annotation.Indexed;
 import org.springframework.data.neo4j.annotation.NodeEntity;
 import org.springframework.data.neo4j.annotation.RelatedTo;
 
@@ -50,12 +51,16 @@ public class CashFlow {
     private double money;
     private long time;
 
+    @Indexed(indexName = "cashFlowTime")
+    private String cashFlowTime;
+
     public long getTime() {
         return time;
     }
 
     public void setTime(long time) {
         this.time = time;
+        this.cashFlowTime = String.valueOf(time);
     }
 
     public DecarbonizationAgent getFrom() {
@@ -41,11 +41,13 @@ public class Bid {
     private double amount;
     private double acceptedAmount;
     private double price;
-    @Indexed(indexName = "bidTime")
     private long time;
     private int status;
     private boolean supplyBid;
 
+    @Indexed(indexName = "bidTime")
+    private String bidTime;
+
     public DecarbonizationAgent getBidder() {
         return bidder;
     }
@@ -97,8 +99,16 @@ public class Bid {
         return time;
     }
 
+    /**
+     * Sets the time and its exact index key, so that the bids of one tick can be looked up in the index instead of by scanning the
+     * bids of all ticks. Cash flows, clearing points and their subclasses index their time in the same way.
+     * 
+     * @param time
+     *            the tick of the bid
+     */
     public void setTime(long time) {
         this.time = time;
+        this.bidTime = String.valueOf(time);
     }
 
     public boolean isSupplyBid() {
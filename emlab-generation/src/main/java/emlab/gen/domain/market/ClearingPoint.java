@@ -16,6 +16,7 @@
 package emlab.gen.domain.market;
 
 import org.neo4j.graphdb.Direction;
+import org.springframework.data.neo4j.annotation.Indexed;
 import org.springframework.data.neo4j.annotation.NodeEntity;
 import org.springframework.data.neo4j.annotation.RelatedTo;
 import org.springframework.transaction.annotation.Transactional;
@@ -36,6 +37,9 @@ public class ClearingPoint {
     private double volume;
     private long time;
 
+    @Indexed(indexName = "clearingPointTime")
+    private String clearingPointTime;
+
     public double getPrice() {
         return price;
     }
@@ -58,6 +62,7 @@ public class ClearingPoint {
 
     public void setTime(long time) {
         this.time = time;
+        this.clearingPointTime = String.valueOf(time);
     }
 
     public DecarbonizationMarket getAbstractMarket() {
@@ -87,16 +87,12 @@ public class PowerPlantDispatchPlan extends Bid {
     }
 
     @Indexed(indexName = "ppdpTime")
-    private int ppdpTime;
+    private String ppdpTime;
 
-    public int getPpdpTime() {
+    public String getPpdpTime() {
         return ppdpTime;
     }
 
-    public void setPpdpTime(int ppdpTime) {
-        this.ppdpTime = ppdpTime;
-    }
-
     public Segment getSegment() {
         return segment;
     }
@@ -121,14 +117,11 @@ public class PowerPlantDispatchPlan extends Bid {
         this.capacityLongTermContract = capacityLongTermContract;
     }
 
-    // public long getTime() {
-    // return time;
-    // }
-    //
-    // public void setTime(long time) {
-    // this.time = time;
-    // this.ppdpTime = (int) time;
-    // }
+    @Override
+    public void setTime(long time) {
+        super.setTime(time);
+        this.ppdpTime = String.valueOf(time);
+    }
 
     @Override
     public String toString() {
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package emlab.gen.domain.market.electricity;
 
+import org.springframework.data.neo4j.annotation.Indexed;
 import org.springframework.data.neo4j.annotation.NodeEntity;
 import org.springframework.data.neo4j.annotation.RelatedTo;
 import org.neo4j.graphdb.Direction;
@@ -27,6 +28,9 @@ public class SegmentClearingPoint extends ClearingPoint {
     @RelatedTo(type = "SEGMENT_POINT", elementClass = Segment.class, direction = Direction.OUTGOING)
     private Segment segment;
 
+    @Indexed(indexName = "segmentClearingPointTime")
+    private String segmentClearingPointTime;
+
     public Segment getSegment() {
         return segment;
     }
@@ -34,4 +38,10 @@ public class SegmentClearingPoint extends ClearingPoint {
     public void setSegment(Segment segment) {
         this.segment = segment;
     }
+
+    @Override
+    public void setTime(long time) {
+        super.setTime(time);
+        this.segmentClearingPointTime = String.valueOf(time);
+    }
 }
@@ -30,6 +30,9 @@ import emlab.gen.domain.contract.Loan;
 import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
 import emlab.gen.domain.market.electricity.Segment;
 import emlab.gen.repository.PowerPlantDispatchPlanRepository;
+import emlab.gen.repository.PowerPlantFleetTable;
+import emlab.gen.repository.PowerPlantLocationIndex;
+import emlab.gen.repository.TickScopedCache;
 
 /**
  * Representation of a power plant
@@ -43,16 +46,51 @@ import emlab.gen.repository.PowerPlantDispatchPlanRepository;
 @NodeEntity
 public class PowerPlant {
 
+    static final String EMISSION_INTENSITY = "emissionIntensity";
+
     @Transient
     @Autowired
     private PowerPlantDispatchPlanRepository powerPlantDispatchPlanRepository;
 
+    @Transient
+    @Autowired
+    private PowerPlantLocationIndex powerPlantLocationIndex;
+
+    @Transient
+    @Autowired
+    private PowerPlantFleetTable powerPlantFleetTable;
+
+    @Transient
+    @Autowired
+    private TickScopedCache tickScopedCache;
+
     @RelatedTo(type = "TECHNOLOGY", elementClass = PowerGeneratingTechnology.class, direction = Direction.OUTGOING)
     private PowerGeneratingTechnology technology;
 
     @RelatedTo(type = "FUEL_MIX", elementClass = SubstanceShareInFuelMix.class, direction = Direction.OUTGOING)
     private Set<SubstanceShareInFuelMix> fuelMix;
 
+    // Increased whenever the fuel mix is set. It is stored on the node, so
+    // that every instance of this plant sees the change.
+    private long fuelMixVersion;
+
+    // Values derived from the fuel mix, valid as long as the fuel mix
+    // version (and for the fuel cost the price version) is unchanged.
+    @Transient
+    private long emissionIntensityFuelMixVersion = -1;
+
+    @Transient
+    private double emissionIntensity;
+
+    @Transient
+    private long marginalFuelCostFuelMixVersion = -1;
+
+    @Transient
+    private long marginalFuelCostPriceVersion = -1;
+
+    @Transient
+    private double marginalFuelCost;
+
     @RelatedTo(type = "POWERPLANT_OWNER", elementClass = EnergyProducer.class, direction = Direction.OUTGOING)
     private EnergyProducer owner;
 
@@ -354,6 +392,29 @@ public class PowerPlant {
 
     public void setFuelMix(Set<SubstanceShareInFuelMix> fuelMix) {
         this.fuelMix = fuelMix;
+        this.fuelMixVersion++;
+    }
+
+    public long getFuelMixVersion() {
+        return fuelMixVersion;
+    }
+
+    /**
+     * @param priceVersion
+     *            the version of the prices of the fuels the cost is based on, see {@link TickScopedCache#getPriceVersion(Substance)}
+     * @return the marginal fuel cost cached for the current fuel mix and the given price version, or null
+     */
+    public Double findCachedMarginalFuelCost(long priceVersion) {
+        if (priceVersion >= 0 && marginalFuelCostPriceVersion == priceVersion && marginalFuelCostFuelMixVersion == getFuelMixVersion()) {
+            return marginalFuelCost;
+        }
+        return null;
+    }
+
+    public void cacheMarginalFuelCost(double marginalFuelCost, long priceVersion) {
+        this.marginalFuelCost = marginalFuelCost;
+        this.marginalFuelCostPriceVersion = priceVersion;
+        this.marginalFuelCostFuelMixVersion = getFuelMixVersion();
     }
 
     public Loan getLoan() {
@@ -410,7 +471,18 @@ public class PowerPlant {
                 timeOfPermitorBuildingStart + getActualLeadtime() + getActualPermittime()));
     }
 
+    /**
+     * The emission intensity is cached on this instance until the fuel mix is set again.
+     * 
+     * @return the emitted CO2 per MWh
+     */
     public double calculateEmissionIntensity() {
+        long version = getFuelMixVersion();
+        if (emissionIntensityFuelMixVersion == version) {
+            tickScopedCache.count(EMISSION_INTENSITY, true);
+            return emissionIntensity;
+        }
+        tickScopedCache.count(EMISSION_INTENSITY, false);
 
         double emission = 0d;
         for (SubstanceShareInFuelMix sub : this.getFuelMix()) {
@@ -424,6 +496,8 @@ public class PowerPlant {
             emission += emissionForThisFuel;
         }
 
+        emissionIntensity = emission;
+        emissionIntensityFuelMixVersion = version;
         return emission;
     }
 
@@ -447,6 +521,7 @@ public class PowerPlant {
     @Transactional
     public void dismantlePowerPlant(long time) {
         this.setDismantleTime(time);
+        powerPlantFleetTable.updateDismantleTime(this);
     }
 
     /**
@@ -468,6 +543,8 @@ public class PowerPlant {
             PowerGridNode location, PowerGeneratingTechnology technology) {
         specifyNotPersist(time, energyProducer, location, technology);
         this.persist();
+        powerPlantLocationIndex.add(this);
+        powerPlantFleetTable.add(this);
     }
 
     public void specifyNotPersist(long time, EnergyProducer energyProducer,
@@ -42,6 +42,25 @@ public class SubstanceShareInFuelMix {
     public void setSubstance(Substance substance) {
         this.substance = substance;
     }
+
+    /**
+     * Only writes the share and substance to the graph if they changed, so that the fuel mix of the plant only needs to be set again,
+     * and its fuel mix version bumped, when something did change.
+     * 
+     * @return whether anything changed
+     */
+    public boolean update(Substance substance, double share) {
+        boolean changed = false;
+        if (this.share != share) {
+            setShare(share);
+            changed = true;
+        }
+        if (!substance.equals(getSubstance())) {
+            setSubstance(substance);
+            changed = true;
+        }
+        return changed;
+    }
     
     public String toString(){
     	return this.substance + ": "+ this.share;
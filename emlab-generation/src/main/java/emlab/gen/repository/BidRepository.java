@@ -47,7 +47,7 @@ public interface BidRepository extends GraphRepository<Bid> {
 	// public Iterable<Bid> findDemandBidsForMarketForTime(@Param("market")
 	// DecarbonizationMarket market, @Param("time") long time);
 
-	@Query("START bid=node:__types__(\"className:emlab.gen.domain.market.Bid\") WHERE (bid.time={time}) RETURN bid")
+	@Query("START bid=node:bidTime(bidTime={time}) RETURN bid")
 	Iterable<Bid> findAllBidsForForTime(@Param("time") long time);
 
 	@Query("START market=node({market}) MATCH (market)<-[:BIDDINGMARKET]-(bid) WHERE (bid.time = {time}) and (bid.supplyBid=false) RETURN bid ORDER BY bid.price desc")
@@ -92,6 +92,17 @@ public interface BidRepository extends GraphRepository<Bid> {
 	Iterable<Bid> getBidsForMarketForTime(@Param("market") DecarbonizationMarket market, @Param("time") long time,
 			@Param("isSupply") boolean isSupply);
 
+	/**
+	 * Finds all supply and demand bids for a market for a time, so that the
+	 * market can be cleared in memory.
+	 * 
+	 * @param market
+	 * @param time
+	 * @return the bids
+	 */
+	@Query("START market=node({market}) MATCH (market)<-[:BIDDINGMARKET]-(bid) WHERE (bid.time = {time}) RETURN bid")
+	Iterable<Bid> findBidsForMarketForTime(@Param("market") DecarbonizationMarket market, @Param("time") long time);
+
 	@Query("START market=node({market}) MATCH (market)<-[:BIDDINGMARKET]-(bid) WHERE (bid.time = {time}) and (bid.supplyBid=true) and (bid.price <= {price}) RETURN bid ORDER BY bid.price")
 	Iterable<Bid> findOffersForMarketForTimeBelowPrice(@Param("market") DecarbonizationMarket market,
 			@Param("time") long time, @Param("price") double price);
@@ -22,7 +22,7 @@ import org.springframework.data.repository.query.Param;
 import emlab.gen.domain.contract.CashFlow;
 
 public interface CashFlowRepository extends GraphRepository<CashFlow> {
-    @Query("START cf=node:__types__(\"className:emlab.gen.domain.contract.CashFlow\") WHERE (cf.time={time}) RETURN cf")
+    @Query("START cf=node:cashFlowTime(cashFlowTime={time}) RETURN cf")
     Iterable<CashFlow> findAllCashFlowsForForTime(@Param("time") long time);
 
 }
@@ -0,0 +1,607 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Writes the state of a simulation to a checkpoint file and restores it, so that a headless run that is stopped, for instance at its
+ * walltime, can be resumed. All state of the simulation is in the graph, including the trends, loans, contracts and the history of
+ * clearing points, so a checkpoint is a dump of the graph: every node and relationship with its properties, and every entry of the node
+ * indexes, among them the type index of Spring Data Neo4j and the time indexes. It is written as a stream of records to a gzipped
+ * binary file, [run.id]-checkpoint.bin, which is replaced by each new checkpoint. It is kept in the folder given by
+ * emlab.checkpoint.path, or else in the results.path folder.
+ * 
+ * The graph of a resumed run has first been created by the scenario. Nodes of that graph are kept and overwritten with the state of the
+ * node with the same id in the checkpoint, so the agents known to the engine and the Spring context stay valid. The other nodes of the
+ * checkpoint are created, the remaining nodes of the scenario are deleted and all relationships and index entries are replaced.
+ * 
+ * The state of the random number generators is not part of the checkpoint: the agents are shuffled with a new Random by
+ * findAllAtRandom, and TriangularTrend draws from the unseeded RandomEngine.makeDefault(). A resumed run therefore continues from the
+ * state of the checkpoint, but its later random draws differ from those of the original run, so it does not reproduce that run.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@Repository
+public class CheckpointRepository {
+
+    static final Logger logger = LoggerFactory.getLogger(CheckpointRepository.class);
+
+    /**
+     * The checkpoint to resume from: a file, or {@link #LATEST} for the checkpoint of this run, if there is one.
+     */
+    public static final String RESUME_PROPERTY = "emlab.resume";
+    public static final String LATEST = "latest";
+
+    public static final String CHECKPOINT_PATH_PROPERTY = "emlab.checkpoint.path";
+
+    static final int MAGIC = 0x454d4c43;
+    static final int VERSION = 1;
+
+    static final byte END = 0;
+    static final byte NODE = 1;
+    static final byte RELATIONSHIP = 2;
+    static final byte INDEX_ENTRY = 3;
+
+    static final byte BOOLEAN = 1;
+    static final byte BYTE = 2;
+    static final byte SHORT = 3;
+    static final byte INT = 4;
+    static final byte LONG = 5;
+    static final byte FLOAT = 6;
+    static final byte DOUBLE = 7;
+    static final byte CHAR = 8;
+    static final byte STRING = 9;
+    static final byte ARRAY = 10;
+
+    static final String TYPE_INDEX_KEY = "className";
+    static final int BATCH_SIZE = 10000;
+    static final int BUFFER_SIZE = 65536;
+
+    @Autowired
+    Neo4jTemplate template;
+
+    @Autowired
+    TickScopedCache tickScopedCache;
+
+    @Autowired
+    PowerPlantLocationIndex powerPlantLocationIndex;
+
+    @Autowired
+    PowerPlantFleetTable powerPlantFleetTable;
+
+    @Autowired
+    PriceHistory priceHistory;
+
+    @Autowired
+    ForecastCache forecastCache;
+
+    public File findCheckpointFile() {
+        String folder = System.getProperty(CHECKPOINT_PATH_PROPERTY, System.getProperty("results.path", "."));
+        return new File(folder, System.getProperty("run.id", "emlab") + "-checkpoint.bin");
+    }
+
+    /**
+     * @return the checkpoint given by {@link #RESUME_PROPERTY}, or null if the run is not resumed
+     */
+    public File findResumeFile() {
+        String resume = System.getProperty(RESUME_PROPERTY);
+        if (resume == null || resume.length() == 0) {
+            return null;
+        }
+        if (LATEST.equals(resume)) {
+            File file = findCheckpointFile();
+            if (!file.exists()) {
+                logger.warn("No checkpoint found at {}, starting from the beginning", file);
+                return null;
+            }
+            return file;
+        }
+        File file = new File(resume);
+        if (!file.exists()) {
+            throw new IllegalArgumentException("Checkpoint " + file + " does not exist");
+        }
+        return file;
+    }
+
+    /**
+     * Writes the checkpoint of the end of the given tick. The previous checkpoint is only replaced once the new one is complete. A
+     * failure to write is logged and does not stop the simulation.
+     * 
+     * @param tick
+     *            the tick that ends
+     * @return the checkpoint, or null if it could not be written
+     */
+    public File writeCheckpoint(long tick) {
+        File file = findCheckpointFile();
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        long start = System.currentTimeMillis();
+        try {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(
+                    temporaryFile), BUFFER_SIZE)));
+            try {
+                write(tick, out);
+            } finally {
+                out.close();
+            }
+            if (!temporaryFile.renameTo(file) && !(file.delete() && temporaryFile.renameTo(file))) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not write the checkpoint of tick {}: {}", tick, e.getMessage());
+            return null;
+        }
+        logger.warn("Wrote the checkpoint of tick {} in {} seconds", tick, (System.currentTimeMillis() - start) / 1000d);
+        return file;
+    }
+
+    /**
+     * Replaces the graph by the state in the checkpoint, and empties the caches that depend on it.
+     * 
+     * @param file
+     *            the checkpoint
+     * @return the tick at the end of which the checkpoint was written
+     */
+    public long restoreCheckpoint(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE)));
+        long tick;
+        try {
+            tick = read(in);
+        } finally {
+            in.close();
+        }
+        tickScopedCache.invalidate();
+        powerPlantLocationIndex.clear();
+        powerPlantFleetTable.clear();
+        priceHistory.clear();
+        forecastCache.clear();
+        logger.warn("Restored the checkpoint of tick {} in {} seconds", tick, (System.currentTimeMillis() - start) / 1000d);
+        return tick;
+    }
+
+    void write(long tick, DataOutput out) throws IOException {
+        GraphDatabaseService graph = template.getGraphDatabaseService();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(tick);
+        for (Node node : graph.getAllNodes()) {
+            out.writeByte(NODE);
+            out.writeLong(node.getId());
+            writeProperties(node, out);
+        }
+        for (Node node : graph.getAllNodes()) {
+            for (Relationship relationship : node.getRelationships(Direction.OUTGOING)) {
+                out.writeByte(RELATIONSHIP);
+                out.writeLong(node.getId());
+                out.writeLong(relationship.getEndNode().getId());
+                writeString(relationship.getType().name(), out);
+                writeProperties(relationship, out);
+            }
+        }
+        for (String indexName : graph.index().nodeIndexNames()) {
+            writeIndexEntries(indexName, graph.index().forNodes(indexName), out);
+        }
+        out.writeByte(END);
+    }
+
+    /**
+     * Writes the entries of an index. The index API cannot list its keys and values, so the candidates are taken from the nodes in the
+     * index: their string properties, and for the type index the classes of the entity.
+     */
+    private void writeIndexEntries(String indexName, Index<Node> index, DataOutput out) throws IOException {
+        Set<List<String>> candidates = new LinkedHashSet<List<String>>();
+        IndexHits<Node> indexedNodes = index.query("*:*");
+        try {
+            for (Node node : indexedNodes) {
+                for (String key : node.getPropertyKeys()) {
+                    Object value = node.getProperty(key);
+                    if (value instanceof String) {
+                        candidates.add(entry(key, (String) value));
+                    }
+                }
+                Object type = node.getProperty(NativeTraversals.TYPE, null);
+                if (type instanceof String) {
+                    for (String className : findClassHierarchy((String) type)) {
+                        candidates.add(entry(TYPE_INDEX_KEY, className));
+                    }
+                }
+            }
+        } finally {
+            indexedNodes.close();
+        }
+        for (List<String> candidate : candidates) {
+            List<Long> ids = new ArrayList<Long>();
+            IndexHits<Node> hits = index.get(candidate.get(0), candidate.get(1));
+            try {
+                for (Node node : hits) {
+                    ids.add(node.getId());
+                }
+            } finally {
+                hits.close();
+            }
+            if (!ids.isEmpty()) {
+                out.writeByte(INDEX_ENTRY);
+                writeString(indexName, out);
+                writeString(candidate.get(0), out);
+                writeString(candidate.get(1), out);
+                out.writeInt(ids.size());
+                for (long id : ids) {
+                    out.writeLong(id);
+                }
+            }
+        }
+    }
+
+    private static List<String> entry(String key, String value) {
+        List<String> entry = new ArrayList<String>(2);
+        entry.add(key);
+        entry.add(value);
+        return entry;
+    }
+
+    private List<String> findClassHierarchy(String className) {
+        List<String> classNames = new ArrayList<String>();
+        classNames.add(className);
+        try {
+            Class<?> clazz = Class.forName(className, false, getClass().getClassLoader()).getSuperclass();
+            while (clazz != null && clazz != Object.class) {
+                classNames.add(clazz.getName());
+                clazz = clazz.getSuperclass();
+            }
+        } catch (ClassNotFoundException e) {
+            // Only the type itself.
+        }
+        return classNames;
+    }
+
+    long read(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a checkpoint");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        long tick = in.readLong();
+        GraphDatabaseService graph = template.getGraphDatabaseService();
+        List<Index<Node>> indexes = new ArrayList<Index<Node>>();
+        for (String indexName : graph.index().nodeIndexNames()) {
+            indexes.add(graph.index().forNodes(indexName));
+        }
+        Batch batch = new Batch(graph);
+        try {
+            Set<Long> scenarioNodes = new HashSet<Long>();
+            for (Node node : graph.getAllNodes()) {
+                scenarioNodes.add(node.getId());
+            }
+            for (long id : scenarioNodes) {
+                for (Relationship relationship : toList(graph.getNodeById(id).getRelationships(Direction.OUTGOING))) {
+                    relationship.delete();
+                    batch.count();
+                }
+            }
+
+            Map<Long, Long> createdNodes = new HashMap<Long, Long>();
+            byte record = in.readByte();
+            while (record == NODE) {
+                long id = in.readLong();
+                Node node;
+                if (scenarioNodes.remove(id)) {
+                    node = graph.getNodeById(id);
+                    for (String key : toList(node.getPropertyKeys())) {
+                        node.removeProperty(key);
+                    }
+                    for (Index<Node> index : indexes) {
+                        index.remove(node);
+                    }
+                } else {
+                    node = graph.createNode();
+                    createdNodes.put(id, node.getId());
+                }
+                readProperties(in, node);
+                batch.count();
+                record = in.readByte();
+            }
+            for (long id : scenarioNodes) {
+                Node node = graph.getNodeById(id);
+                for (Index<Node> index : indexes) {
+                    index.remove(node);
+                }
+                node.delete();
+                batch.count();
+            }
+
+            while (record == RELATIONSHIP) {
+                Node startNode = graph.getNodeById(findNodeId(createdNodes, in.readLong()));
+                Node endNode = graph.getNodeById(findNodeId(createdNodes, in.readLong()));
+                Relationship relationship = startNode.createRelationshipTo(endNode, DynamicRelationshipType.withName(readString(in)));
+                readProperties(in, relationship);
+                batch.count();
+                record = in.readByte();
+            }
+
+            while (record == INDEX_ENTRY) {
+                Index<Node> index = graph.index().forNodes(readString(in));
+                String key = readString(in);
+                String value = readString(in);
+                int numberOfNodes = in.readInt();
+                for (int i = 0; i < numberOfNodes; i++) {
+                    index.add(graph.getNodeById(findNodeId(createdNodes, in.readLong())), key, value);
+                    batch.count();
+                }
+                record = in.readByte();
+            }
+
+            if (record != END) {
+                throw new IOException("Unexpected record " + record + " in checkpoint");
+            }
+            batch.success();
+        } finally {
+            batch.finish();
+        }
+        return tick;
+    }
+
+    private static long findNodeId(Map<Long, Long> createdNodes, long id) {
+        Long createdId = createdNodes.get(id);
+        return createdId == null ? id : createdId;
+    }
+
+    private static <T> List<T> toList(Iterable<T> iterable) {
+        List<T> list = new ArrayList<T>();
+        for (T t : iterable) {
+            list.add(t);
+        }
+        return list;
+    }
+
+    private static void writeProperties(PropertyContainer container, DataOutput out) throws IOException {
+        List<String> keys = toList(container.getPropertyKeys());
+        out.writeInt(keys.size());
+        for (String key : keys) {
+            writeString(key, out);
+            writeValue(container.getProperty(key), out);
+        }
+    }
+
+    private static void readProperties(DataInput in, PropertyContainer container) throws IOException {
+        int numberOfProperties = in.readInt();
+        for (int i = 0; i < numberOfProperties; i++) {
+            String key = readString(in);
+            container.setProperty(key, readValue(in));
+        }
+    }
+
+    static void writeValue(Object value, DataOutput out) throws IOException {
+        if (value.getClass().isArray()) {
+            Class<?> componentType = value.getClass().getComponentType();
+            byte type = findType(componentType);
+            out.writeByte(ARRAY);
+            out.writeByte(type);
+            int length = Array.getLength(value);
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                writeScalar(type, Array.get(value, i), out);
+            }
+        } else {
+            byte type = findType(value.getClass());
+            out.writeByte(type);
+            writeScalar(type, value, out);
+        }
+    }
+
+    static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        if (type != ARRAY) {
+            return readScalar(type, in);
+        }
+        byte componentType = in.readByte();
+        int length = in.readInt();
+        Object array = Array.newInstance(findClass(componentType), length);
+        for (int i = 0; i < length; i++) {
+            Array.set(array, i, readScalar(componentType, in));
+        }
+        return array;
+    }
+
+    private static byte findType(Class<?> clazz) throws IOException {
+        if (clazz == Boolean.class || clazz == boolean.class) {
+            return BOOLEAN;
+        } else if (clazz == Byte.class || clazz == byte.class) {
+            return BYTE;
+        } else if (clazz == Short.class || clazz == short.class) {
+            return SHORT;
+        } else if (clazz == Integer.class || clazz == int.class) {
+            return INT;
+        } else if (clazz == Long.class || clazz == long.class) {
+            return LONG;
+        } else if (clazz == Float.class || clazz == float.class) {
+            return FLOAT;
+        } else if (clazz == Double.class || clazz == double.class) {
+            return DOUBLE;
+        } else if (clazz == Character.class || clazz == char.class) {
+            return CHAR;
+        } else if (clazz == String.class) {
+            return STRING;
+        }
+        throw new IOException("Unsupported property type " + clazz.getName());
+    }
+
+    private static Class<?> findClass(byte type) throws IOException {
+        switch (type) {
+        case BOOLEAN:
+            return boolean.class;
+        case BYTE:
+            return byte.class;
+        case SHORT:
+            return short.class;
+        case INT:
+            return int.class;
+        case LONG:
+            return long.class;
+        case FLOAT:
+            return float.class;
+        case DOUBLE:
+            return double.class;
+        case CHAR:
+            return char.class;
+        case STRING:
+            return String.class;
+        default:
+            throw new IOException("Unknown property type " + type + " in checkpoint");
+        }
+    }
+
+    private static void writeScalar(byte type, Object value, DataOutput out) throws IOException {
+        switch (type) {
+        case BOOLEAN:
+            out.writeBoolean((Boolean) value);
+            break;
+        case BYTE:
+            out.writeByte((Byte) value);
+            break;
+        case SHORT:
+            out.writeShort((Short) value);
+            break;
+        case INT:
+            out.writeInt((Integer) value);
+            break;
+        case LONG:
+            out.writeLong((Long) value);
+            break;
+        case FLOAT:
+            out.writeFloat((Float) value);
+            break;
+        case DOUBLE:
+            out.writeDouble((Double) value);
+            break;
+        case CHAR:
+            out.writeChar((Character) value);
+            break;
+        default:
+            writeString((String) value, out);
+        }
+    }
+
+    private static Object readScalar(byte type, DataInput in) throws IOException {
+        switch (type) {
+        case BOOLEAN:
+            return in.readBoolean();
+        case BYTE:
+            return in.readByte();
+        case SHORT:
+            return in.readShort();
+        case INT:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case FLOAT:
+            return in.readFloat();
+        case DOUBLE:
+            return in.readDouble();
+        case CHAR:
+            return in.readChar();
+        case STRING:
+            return readString(in);
+        default:
+            throw new IOException("Unknown property type " + type + " in checkpoint");
+        }
+    }
+
+    // Unlike writeUTF, not limited to 64 kB, which the previous values of a
+    // trend can exceed in long runs.
+    static void writeString(String value, DataOutput out) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Commits the restore every {@link CheckpointRepository#BATCH_SIZE} changes, so that the transaction state stays small.
+     */
+    private static class Batch {
+
+        private final GraphDatabaseService graph;
+        private Transaction tx;
+        private int changes = 0;
+
+        Batch(GraphDatabaseService graph) {
+            this.graph = graph;
+            tx = graph.beginTx();
+        }
+
+        void count() {
+            if (++changes % BATCH_SIZE == 0) {
+                tx.success();
+                tx.finish();
+                tx = graph.beginTx();
+            }
+        }
+
+        void success() {
+            tx.success();
+        }
+
+        void finish() {
+            tx.finish();
+        }
+
+    }
+
+}
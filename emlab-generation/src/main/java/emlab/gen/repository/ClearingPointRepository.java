@@ -26,7 +26,7 @@ import emlab.gen.domain.technology.Substance;
 
 public interface ClearingPointRepository extends GraphRepository<ClearingPoint> {
 
-    @Query(value = "g.v(market).in('MARKET_POINT').filter{it.time==tick}.next", type = QueryType.Gremlin)
+    @Query(value = "g.idx('clearingPointTime')[[clearingPointTime:tick]].as('x').out('MARKET_POINT').idFilter(market, FilterPipe.Filter.EQUAL).back('x').next", type = QueryType.Gremlin)
     ClearingPoint findClearingPointForMarketAndTime(@Param("market") DecarbonizationMarket market, @Param("tick") long tick);
 
     // @Query("start market=node({market}) match (market)<-[:MARKET_POINT]-(point) where (point.time >= {timeFrom}) and (point.time <= {timeTo}) return avg(point.price)")
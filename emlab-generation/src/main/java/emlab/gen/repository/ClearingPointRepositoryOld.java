@@ -18,6 +18,7 @@ package emlab.gen.repository;
 import java.util.Iterator;
 import java.util.List;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -42,6 +43,12 @@ import emlab.gen.util.Utils;
 @Repository
 public class ClearingPointRepositoryOld extends AbstractRepository<ClearingPoint> {
 
+    @Autowired
+    TickScopedCache tickScopedCache;
+
+    @Autowired
+    PriceHistory priceHistory;
+
     public ClearingPoint findClearingPointForSegmentAndTime(Segment segment, long time) {
         Iterator<ClearingPoint> i = findClearingPointsForSegmentAndTime(segment, time).iterator();
         if (i.hasNext()) {
@@ -85,10 +92,12 @@ public class ClearingPointRepositoryOld extends AbstractRepository<ClearingPoint
         } else {
             point = new ClearingPoint().persist();
         }
+        tickScopedCache.invalidateLastKnownPrice(abstractMarket);
         point.setAbstractMarket(abstractMarket);
         point.setPrice(price);
         point.setTime(time);
         point.setVolume(volume);
+        priceHistory.record(point);
         return point;
     }
 
@@ -106,11 +115,13 @@ public class ClearingPointRepositoryOld extends AbstractRepository<ClearingPoint
         if (point == null) {
             point = new SegmentClearingPoint().persist();
         }
+        tickScopedCache.invalidateLastKnownPrice(abstractMarket);
         point.setAbstractMarket(abstractMarket);
         point.setPrice(price);
         point.setTime(time);
         point.setVolume(volume);
         point.setSegment(segment);
+        priceHistory.record(point);
         return point;
     }
 
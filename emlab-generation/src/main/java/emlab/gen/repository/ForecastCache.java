@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math.stat.regression.SimpleRegression;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.market.CO2Auction;
+import emlab.gen.domain.market.ClearingPoint;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.util.GeometricTrendRegression;
+
+/**
+ * Forecasts of the fuel prices, the CO2 price and the demand growth, as used by the investment roles. The inputs of a forecast are the
+ * same for all agents that look back the same number of years, so instead of building a new regression from repository queries for
+ * every agent, one regression is kept per series and window length. When the window moves to a later tick only the ticks that leave it
+ * are removed ({@link SimpleRegression#removeData(double, double)}) and the ticks that enter it are added, each of them queried once.
+ * The forecasts themselves are stored per future tick in the {@link TickScopedCache}.
+ * 
+ * Prices of the current tick can still change when a market is cleared, so they are never kept in the regressions: they are added for a
+ * forecast and removed again, and the forecasts are stored with the price version of the fuel or of the CO2 (see
+ * {@link TickScopedCache#getPriceVersion(Substance)}). Like the {@link PowerPlantFleetTable} the regressions are only kept while a tick is
+ * running, otherwise every forecast is calculated from the graph.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@Repository
+public class ForecastCache {
+
+    static final String FORECAST = "forecast";
+
+    static final String FUEL_PRICE = "fuelPrice";
+    static final String CO2_PRICE = "co2Price";
+    static final String DEMAND_GROWTH = "demandGrowth";
+
+    @Autowired
+    ClearingPointRepository clearingPointRepository;
+
+    @Autowired
+    TickScopedCache tickScopedCache;
+
+    private final Map<List<Object>, RollingRegression> regressions = new HashMap<List<Object>, RollingRegression>();
+
+    /**
+     * Predicts the fuel price with a geometric trend regression over the clearing points of the commodity markets of the substance.
+     * 
+     * @param substance
+     *            the fuel
+     * @param yearsLookingBack
+     *            the number of years in the regression, including the current tick
+     * @param currentTick
+     *            the current tick
+     * @param futureTick
+     *            the tick the prediction is made for
+     * @return the predicted price
+     */
+    public double predictFuelPrice(final Substance substance, long yearsLookingBack, long currentTick, long futureTick) {
+        Series series = new Series(Arrays.<Object> asList(FUEL_PRICE, substance.getNodeId()), true, true, substance) {
+            @Override
+            double[] findValues(long tick) {
+                return prices(clearingPointRepository.findAllClearingPointsForSubstanceTradedOnCommodityMarkesAndTimeRange(substance, tick,
+                        tick));
+            }
+        };
+        return forecast(series, currentTick - (yearsLookingBack - 1), currentTick, currentTick, futureTick).getPrediction();
+    }
+
+    /**
+     * Forecasts the CO2 price with a linear regression over the clearing points of the CO2 auction.
+     * 
+     * @param co2Auction
+     *            the CO2 auction
+     * @param yearsLookingBack
+     *            the number of years in the regression
+     * @param lastTick
+     *            the last tick of the regression
+     * @param currentTick
+     *            the current tick
+     * @param futureTick
+     *            the tick the prediction is made for
+     * @return the forecast, with the number, the average and the last of the prices in the regression
+     */
+    public Forecast forecastCO2Price(final CO2Auction co2Auction, long yearsLookingBack, long lastTick, long currentTick, long futureTick) {
+        Series series = new Series(Arrays.<Object> asList(CO2_PRICE, co2Auction.getNodeId()), false, true, co2Auction.getSubstance()) {
+            @Override
+            double[] findValues(long tick) {
+                return prices(clearingPointRepository.findAllClearingPointsForMarketAndTimeRange(co2Auction, tick, tick));
+            }
+        };
+        return forecast(series, lastTick - yearsLookingBack + 1, lastTick, currentTick, futureTick);
+    }
+
+    /**
+     * Predicts the demand growth of a market with a geometric trend regression over its demand growth trend.
+     * 
+     * @param market
+     *            the market
+     * @param yearsLookingBack
+     *            the number of years in the regression, including the current tick
+     * @param currentTick
+     *            the current tick
+     * @param futureTick
+     *            the tick the prediction is made for
+     * @return the predicted demand growth
+     */
+    public double predictDemandGrowth(final ElectricitySpotMarket market, long yearsLookingBack, long currentTick, long futureTick) {
+        Series series = new Series(Arrays.<Object> asList(DEMAND_GROWTH, market.getNodeId()), true, false, null) {
+            @Override
+            double[] findValues(long tick) {
+                return new double[] { market.getDemandGrowthTrend().getValue(tick) };
+            }
+        };
+        return forecast(series, Math.max(0, currentTick - yearsLookingBack + 1), currentTick, currentTick, futureTick).getPrediction();
+    }
+
+    /**
+     * Drops all regressions, they are built again on the next forecast.
+     */
+    public synchronized void clear() {
+        regressions.clear();
+    }
+
+    synchronized Forecast forecast(Series series, long firstTick, long lastTick, long currentTick, long futureTick) {
+        List<Object> key = new ArrayList<Object>(series.key);
+        long priceVersion = 0;
+        if (series.pricesOfCurrentTick) {
+            priceVersion = series.substance == null ? TickScopedCache.NO_PRICE_VERSION : tickScopedCache.getPriceVersion(series.substance);
+        }
+        key.addAll(Arrays.<Object> asList(firstTick, lastTick, futureTick, priceVersion));
+        Forecast forecast = null;
+        if (priceVersion != TickScopedCache.NO_PRICE_VERSION) {
+            forecast = (Forecast) tickScopedCache.findComputedValue(FORECAST, key.toArray());
+        }
+        if (forecast != null) {
+            return forecast;
+        }
+
+        // Only ticks whose values can no longer change are kept in the
+        // regression.
+        long lastSettledTick = series.pricesOfCurrentTick ? Math.min(lastTick, currentTick - 1) : lastTick;
+        RollingRegression regression;
+        if (tickScopedCache.isStarted()) {
+            List<Object> regressionKey = new ArrayList<Object>(series.key);
+            regressionKey.addAll(Arrays.<Object> asList(lastTick - firstTick, currentTick - lastTick));
+            regression = regressions.get(regressionKey);
+            if (regression == null) {
+                regression = new RollingRegression(series.geometric);
+                regressions.put(regressionKey, regression);
+            }
+        } else {
+            regression = new RollingRegression(series.geometric);
+        }
+        regression.moveTo(series, firstTick, lastSettledTick);
+
+        Map<Long, double[]> unsettled = new HashMap<Long, double[]>();
+        for (long tick = Math.max(firstTick, lastSettledTick + 1); tick <= lastTick; tick++) {
+            unsettled.put(tick, series.findValues(tick));
+            regression.add(tick, unsettled.get(tick));
+        }
+        forecast = new Forecast(regression.predict(futureTick), regression.getN());
+        for (long tick = firstTick; tick <= lastTick; tick++) {
+            double[] values = unsettled.containsKey(tick) ? unsettled.get(tick) : regression.values.get(tick);
+            for (double value : values) {
+                forecast.sum += value;
+                forecast.last = value;
+            }
+        }
+        for (Map.Entry<Long, double[]> entry : unsettled.entrySet()) {
+            regression.remove(entry.getKey(), entry.getValue());
+        }
+        if (priceVersion != TickScopedCache.NO_PRICE_VERSION) {
+            tickScopedCache.storeComputedValue(forecast, FORECAST, key.toArray());
+        }
+        return forecast;
+    }
+
+    private static double[] prices(Iterable<ClearingPoint> clearingPoints) {
+        List<ClearingPoint> points = new ArrayList<ClearingPoint>();
+        for (ClearingPoint point : clearingPoints) {
+            points.add(point);
+        }
+        double[] prices = new double[points.size()];
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = points.get(i).getPrice();
+        }
+        return prices;
+    }
+
+    /**
+     * A series of values by tick, with possibly several values per tick.
+     */
+    abstract static class Series {
+
+        final List<Object> key;
+        final boolean geometric;
+        final boolean pricesOfCurrentTick;
+        final Substance substance;
+
+        /**
+         * @param key
+         *            identifies the series
+         * @param geometric
+         *            whether a geometric trend regression is used, otherwise a linear one
+         * @param pricesOfCurrentTick
+         *            whether the values of the current tick can still change
+         * @param substance
+         *            the substance whose prices are in the series, or null; forecasts with changing prices of an unknown substance are
+         *            not cached
+         */
+        Series(List<Object> key, boolean geometric, boolean pricesOfCurrentTick, Substance substance) {
+            this.key = key;
+            this.geometric = geometric;
+            this.pricesOfCurrentTick = pricesOfCurrentTick;
+            this.substance = substance;
+        }
+
+        abstract double[] findValues(long tick);
+    }
+
+    /**
+     * A regression over the values of a window of ticks, which is moved by removing and adding the values of single ticks.
+     */
+    static class RollingRegression {
+
+        final SimpleRegression regression;
+        final Map<Long, double[]> values = new HashMap<Long, double[]>();
+        private long firstTick = 0;
+        private long lastTick = -1;
+
+        RollingRegression(boolean geometric) {
+            regression = geometric ? new GeometricTrendRegression() : new SimpleRegression();
+        }
+
+        void moveTo(Series series, long first, long last) {
+            if (values.isEmpty() || first < firstTick || last < lastTick || first > lastTick) {
+                regression.clear();
+                values.clear();
+                firstTick = first;
+                lastTick = first - 1;
+            }
+            for (long tick = firstTick; tick < first; tick++) {
+                remove(tick, values.remove(tick));
+            }
+            firstTick = first;
+            for (long tick = lastTick + 1; tick <= last; tick++) {
+                double[] valuesOfTick = series.findValues(tick);
+                values.put(tick, valuesOfTick);
+                add(tick, valuesOfTick);
+            }
+            lastTick = Math.max(lastTick, last);
+        }
+
+        void add(long tick, double[] valuesOfTick) {
+            for (double value : valuesOfTick) {
+                regression.addData(tick, value);
+            }
+        }
+
+        void remove(long tick, double[] valuesOfTick) {
+            for (double value : valuesOfTick) {
+                regression.removeData(tick, value);
+            }
+        }
+
+        double predict(long tick) {
+            return regression.predict(tick);
+        }
+
+        long getN() {
+            return regression.getN();
+        }
+    }
+
+    /**
+     * A prediction together with the number, the sum and the last of the values it is based on.
+     */
+    public static class Forecast {
+
+        private final double prediction;
+        private final long n;
+        private double sum = 0d;
+        private double last = 0d;
+
+        Forecast(double prediction, long n) {
+            this.prediction = prediction;
+            this.n = n;
+        }
+
+        public double getPrediction() {
+            return prediction;
+        }
+
+        public long getN() {
+            return n;
+        }
+
+        public double getAverage() {
+            return sum / n;
+        }
+
+        public double getLast() {
+            return last;
+        }
+    }
+
+}
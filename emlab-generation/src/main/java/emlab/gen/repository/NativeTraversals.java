@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+import emlab.gen.domain.agent.DecarbonizationModel;
+
+/**
+ * Helpers for repository queries that are written against the Neo4j core API instead of as Gremlin scripts, and the switch between the
+ * two. A repository that has such an alternative is wrapped by {@link #select(Class, Object, Object, TickScopedCache)}: every method
+ * for which the alternative has a method with the same name and parameters is answered by it when
+ * {@link DecarbonizationModel#isNativeTraversalsEnabled()} is set; all other methods, and all methods when it is not set, go to the
+ * Spring Data repository.
+ * 
+ * @author JCRichstein
+ * 
+ */
+public final class NativeTraversals {
+
+    static final String TYPE = "__type__";
+
+    private NativeTraversals() {
+    }
+
+    static RelationshipType type(String name) {
+        return DynamicRelationshipType.withName(name);
+    }
+
+    /**
+     * @return the nodes at the end of the outgoing relationships of the given type, once per relationship
+     */
+    static List<Node> out(Node node, RelationshipType type) {
+        List<Node> nodes = new ArrayList<Node>();
+        for (Relationship relationship : node.getRelationships(type, Direction.OUTGOING)) {
+            nodes.add(relationship.getEndNode());
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the nodes at the start of the incoming relationships of the given type, once per relationship
+     */
+    static List<Node> in(Node node, RelationshipType type) {
+        List<Node> nodes = new ArrayList<Node>();
+        for (Relationship relationship : node.getRelationships(type, Direction.INCOMING)) {
+            nodes.add(relationship.getStartNode());
+        }
+        return nodes;
+    }
+
+    static boolean hasOut(Node node, RelationshipType type) {
+        return node.getRelationships(type, Direction.OUTGOING).iterator().hasNext();
+    }
+
+    static long getLong(Node node, String property) {
+        return ((Number) node.getProperty(property, 0L)).longValue();
+    }
+
+    static double getDouble(Node node, String property) {
+        return ((Number) node.getProperty(property, 0d)).doubleValue();
+    }
+
+    static boolean isOfType(Node node, Class<?> type) {
+        return type.getName().equals(node.getProperty(TYPE, null));
+    }
+
+    /**
+     * Wraps a repository so that the methods that the native traversals implement are answered by them if so configured.
+     * 
+     * @param repositoryInterface
+     *            the interface of the repository
+     * @param repository
+     *            the Spring Data repository
+     * @param traversals
+     *            the native implementation of some of the methods of the interface
+     * @param tickScopedCache
+     *            to look up the model, which holds the setting
+     * @return the wrapped repository
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T select(Class<T> repositoryInterface, T repository, Object traversals, TickScopedCache tickScopedCache) {
+        return (T) Proxy.newProxyInstance(repositoryInterface.getClassLoader(), new Class<?>[] { repositoryInterface },
+                new SelectingHandler(repositoryInterface, repository, traversals, tickScopedCache));
+    }
+
+    private static class SelectingHandler implements InvocationHandler {
+
+        private final Object repository;
+        private final Object traversals;
+        private final TickScopedCache tickScopedCache;
+        private final Map<Method, Method> nativeMethods = new HashMap<Method, Method>();
+
+        SelectingHandler(Class<?> repositoryInterface, Object repository, Object traversals, TickScopedCache tickScopedCache) {
+            this.repository = repository;
+            this.traversals = traversals;
+            this.tickScopedCache = tickScopedCache;
+            for (Method method : repositoryInterface.getMethods()) {
+                try {
+                    nativeMethods.put(method, traversals.getClass().getMethod(method.getName(), method.getParameterTypes()));
+                } catch (NoSuchMethodException e) {
+                    // Answered by the repository.
+                }
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Method nativeMethod = nativeMethods.get(method);
+            try {
+                if (nativeMethod != null && isEnabled()) {
+                    return nativeMethod.invoke(traversals, args);
+                }
+                return method.invoke(repository, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private boolean isEnabled() {
+            DecarbonizationModel model = tickScopedCache.findFirst(DecarbonizationModel.class);
+            return model != null && model.isNativeTraversalsEnabled();
+        }
+    }
+
+}
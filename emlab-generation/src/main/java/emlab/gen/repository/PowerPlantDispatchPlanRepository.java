@@ -41,7 +41,7 @@ public interface PowerPlantDispatchPlanRepository extends GraphRepository<PowerP
     // @Query(value = "g.V.filter{it.getProperty('__type__')=='emlab.gen.domain.market.electricity.PowerPlantDispatchPlan' && it.getProperty('time')==time}", type = QueryType.Gremlin)
     // public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForTime(@Param("time") long time);
 
-    @Query("START ppdp=node:__types__(\"className:emlab.gen.domain.market.electricity.PowerPlantDispatchPlan\") WHERE (ppdp.time={time}) RETURN ppdp")
+    @Query("START ppdp=node:ppdpTime(ppdpTime={time}) RETURN ppdp")
     public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForTime(@Param("time") long time);
 
     @Query(value = "result = g.v(plant).in('POWERPLANT_DISPATCHPLAN').as('x').out('SEGMENT_DISPATCHPLAN').idFilter(segment, FilterPipe.Filter.EQUAL).back('x')", type = QueryType.Gremlin)
@@ -56,7 +56,7 @@ public interface PowerPlantDispatchPlanRepository extends GraphRepository<PowerP
     // public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForSegmentForTime(@Param("segment") Segment segment,
     // @Param("time") long time);
 
-    @Query("START segment = node({segment}) MATCH (segment)<-[:SEGMENT_DISPATCHPLAN]-(ppdp) WHERE (ppdp.time = {time}) RETURN ppdp")
+    @Query("START segment = node({segment}), ppdp=node:ppdpTime(ppdpTime={time}) MATCH (segment)<-[:SEGMENT_DISPATCHPLAN]-(ppdp) RETURN ppdp")
     public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForSegmentForTime(@Param("segment") Segment segment,
             @Param("time") long time);
 
@@ -64,12 +64,12 @@ public interface PowerPlantDispatchPlanRepository extends GraphRepository<PowerP
     // public Iterable<PowerPlantDispatchPlan> findSortedPowerPlantDispatchPlansForSegmentForTime(@Param("segment") Segment segment,
     // @Param("time") long time);
 
-    @Query("START segment = node({segment}) MATCH (segment)<-[:SEGMENT_DISPATCHPLAN]-(ppdp) WHERE (ppdp.time = {time}) RETURN ppdp ORDER BY ppdp.price")
+    @Query("START segment = node({segment}), ppdp=node:ppdpTime(ppdpTime={time}) MATCH (segment)<-[:SEGMENT_DISPATCHPLAN]-(ppdp) RETURN ppdp ORDER BY ppdp.price")
     public Iterable<PowerPlantDispatchPlan> findSortedPowerPlantDispatchPlansForSegmentForTime(@Param("segment") Segment segment,
             @Param("time") long time);
 
     // descending order
-    @Query("START segment = node({segment}) MATCH (segment)<-[:SEGMENT_DISPATCHPLAN]-(ppdp) WHERE (ppdp.time = {time}) RETURN ppdp ORDER BY ppdp.price desc")
+    @Query("START segment = node({segment}), ppdp=node:ppdpTime(ppdpTime={time}) MATCH (segment)<-[:SEGMENT_DISPATCHPLAN]-(ppdp) RETURN ppdp ORDER BY ppdp.price desc")
     public Iterable<PowerPlantDispatchPlan> findDescendingSortedPowerPlantDispatchPlansForSegmentForTime(
             @Param("segment") Segment segment, @Param("time") long time);
 
@@ -77,6 +77,10 @@ public interface PowerPlantDispatchPlanRepository extends GraphRepository<PowerP
     public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForPowerPlantForTime(@Param("plant") PowerPlant plant,
             @Param("time") long time);
 
+    @Query(value = "g.v(owner).in('POWERPLANT_OWNER').in('POWERPLANT_DISPATCHPLAN').propertyFilter('time', FilterPipe.Filter.EQUAL, time)", type = QueryType.Gremlin)
+    public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForPowerPlantsOfOwnerForTime(
+            @Param("owner") EnergyProducer owner, @Param("time") long time);
+
     @Query(value = "g.v(producer).out('BIDDER').propertyFilter('time', FilterPipe.Filter.EQUAL, time)", type = QueryType.Gremlin)
     public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForEnergyProducerForTime(
             @Param("producer") EnergyProducer producer, @Param("time") long time);
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static emlab.gen.repository.NativeTraversals.getLong;
+import static emlab.gen.repository.NativeTraversals.in;
+import static emlab.gen.repository.NativeTraversals.out;
+import static emlab.gen.repository.NativeTraversals.type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.technology.PowerPlant;
+
+/**
+ * Native implementation of the Gremlin queries of {@link PowerPlantDispatchPlanRepository}, see {@link NativeTraversals}.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@Repository
+public class PowerPlantDispatchPlanTraversals {
+
+    static final RelationshipType POWERPLANT_DISPATCHPLAN = type("POWERPLANT_DISPATCHPLAN");
+    static final RelationshipType SEGMENT_DISPATCHPLAN = type("SEGMENT_DISPATCHPLAN");
+    static final RelationshipType BIDDER = type("BIDDER");
+    static final RelationshipType BIDDINGMARKET = type("BIDDINGMARKET");
+
+    @Autowired
+    Neo4jTemplate template;
+
+    private Node node(Long id) {
+        return template.getGraphDatabaseService().getNodeById(id);
+    }
+
+    private List<PowerPlantDispatchPlan> toPlans(Iterable<Node> plans) {
+        List<PowerPlantDispatchPlan> dispatchPlans = new ArrayList<PowerPlantDispatchPlan>();
+        for (Node plan : plans) {
+            dispatchPlans.add((PowerPlantDispatchPlan) template.createEntityFromStoredType(plan));
+        }
+        return dispatchPlans;
+    }
+
+    private static List<Node> forTime(Iterable<Node> plans, long time, boolean acceptedOnly) {
+        List<Node> selected = new ArrayList<Node>();
+        for (Node plan : plans) {
+            if (getLong(plan, "time") == time && (!acceptedOnly || getLong(plan, "status") > Bid.PARTLY_ACCEPTED)) {
+                selected.add(plan);
+            }
+        }
+        return selected;
+    }
+
+    private static List<Node> forSegment(Iterable<Node> plans, Node segment) {
+        List<Node> selected = new ArrayList<Node>();
+        for (Node plan : plans) {
+            for (Node planSegment : out(plan, SEGMENT_DISPATCHPLAN)) {
+                if (planSegment.equals(segment)) {
+                    selected.add(plan);
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Like the script it replaces, this does not filter on time.
+     */
+    public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlanForPowerPlantForSegmentForTime(PowerPlant plant,
+            Segment segment, long time) {
+        return toPlans(forSegment(in(node(plant.getNodeId()), POWERPLANT_DISPATCHPLAN), node(segment.getNodeId())));
+    }
+
+    public PowerPlantDispatchPlan findOnePowerPlantDispatchPlanForPowerPlantForSegmentForTime(PowerPlant plant, Segment segment,
+            long time) {
+        List<Node> plans = forTime(forSegment(in(node(plant.getNodeId()), POWERPLANT_DISPATCHPLAN), node(segment.getNodeId())), time,
+                false);
+        return plans.isEmpty() ? null : (PowerPlantDispatchPlan) template.createEntityFromStoredType(plans.get(0));
+    }
+
+    public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForPowerPlantForTime(PowerPlant plant, long time) {
+        return toPlans(forTime(in(node(plant.getNodeId()), POWERPLANT_DISPATCHPLAN), time, false));
+    }
+
+    public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForPowerPlantsOfOwnerForTime(EnergyProducer owner, long time) {
+        List<Node> plans = new ArrayList<Node>();
+        for (Node plant : in(node(owner.getNodeId()), PowerPlantTraversals.POWERPLANT_OWNER)) {
+            plans.addAll(in(plant, POWERPLANT_DISPATCHPLAN));
+        }
+        return toPlans(forTime(plans, time, false));
+    }
+
+    public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForEnergyProducerForTime(EnergyProducer producer, long time) {
+        return toPlans(forTime(out(node(producer.getNodeId()), BIDDER), time, false));
+    }
+
+    public Iterable<PowerPlantDispatchPlan> findAllAcceptedPowerPlantDispatchPlansForEnergyProducerForTime(EnergyProducer producer,
+            long time) {
+        return toPlans(forTime(out(node(producer.getNodeId()), BIDDER), time, true));
+    }
+
+    public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForEnergyProducerForTimeAndSegment(Segment segment,
+            EnergyProducer producer, long time) {
+        return toPlans(forSegment(forTime(out(node(producer.getNodeId()), BIDDER), time, false), node(segment.getNodeId())));
+    }
+
+    public Iterable<PowerPlantDispatchPlan> findAllAcceptedPowerPlantDispatchPlansForEnergyProducerForTimeAndSegment(Segment segment,
+            EnergyProducer producer, long time) {
+        return toPlans(forSegment(forTime(out(node(producer.getNodeId()), BIDDER), time, true), node(segment.getNodeId())));
+    }
+
+    public Iterable<PowerPlantDispatchPlan> findAllAcceptedPowerPlantDispatchPlansForMarketSegmentAndTime(ElectricitySpotMarket esm,
+            Segment segment, long time) {
+        return toPlans(forSegment(forTime(in(node(esm.getNodeId()), BIDDINGMARKET), time, true), node(segment.getNodeId())));
+    }
+
+}
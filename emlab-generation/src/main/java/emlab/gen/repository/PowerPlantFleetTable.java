@@ -0,0 +1,412 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerGridNode;
+import emlab.gen.domain.technology.PowerPlant;
+
+/**
+ * Columnar snapshot of the power plant fleet for the capacity aggregations of the investment roles. Every plant is a row; the times and
+ * capacities are kept in primitive arrays and the technology, node, market and owner as small integer codes, so that an aggregation is a
+ * single pass over a few arrays instead of a Gremlin traversal of the graph. The filters are the same as those of the corresponding
+ * queries in {@link PowerPlantRepository}.
+ * 
+ * The table is built on first use and new plants are appended by {@link PowerPlant#specifyAndPersist}, dismantled ones are updated by
+ * {@link PowerPlant#dismantlePowerPlant(long)} and deleted ones are removed before their nodes are deleted. It is only used while a tick is running (see {@link TickScopedCache#isStarted()}),
+ * otherwise the aggregations are delegated to the {@link PowerPlantRepository}, so that tests can change the graph freely.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@Repository
+public class PowerPlantFleetTable {
+
+    static final Logger logger = LoggerFactory.getLogger(PowerPlantFleetTable.class);
+
+    static final int ANY = -1;
+
+    static final int NONE = -2;
+
+    @Autowired
+    Neo4jTemplate template;
+
+    @Autowired
+    PowerPlantRepository powerPlantRepository;
+
+    @Autowired
+    PowerPlantLocationIndex powerPlantLocationIndex;
+
+    @Autowired
+    TickScopedCache tickScopedCache;
+
+    private int size = 0;
+    private PowerPlant[] plants = new PowerPlant[0];
+    private long[] constructionStartTime = new long[0];
+    private long[] permitTime = new long[0];
+    private long[] leadTime = new long[0];
+    private long[] dismantleTime = new long[0];
+    private double[] expectedEndOfLife = new double[0];
+    private double[] capacity = new double[0];
+    private int[] technology = new int[0];
+    private int[] node = new int[0];
+    private int[] market = new int[0];
+    private int[] owner = new int[0];
+    private boolean[] removed = new boolean[0];
+
+    // Row of each plant and codes of the technologies, nodes, markets and
+    // owners, all keyed by node id.
+    private final Map<Long, Integer> rowByPlant = new HashMap<Long, Integer>();
+    private final Map<Long, Integer> technologyCodes = new HashMap<Long, Integer>();
+    private final Map<Long, Integer> nodeCodes = new HashMap<Long, Integer>();
+    private final Map<Long, Integer> marketCodes = new HashMap<Long, Integer>();
+    private final Map<Long, Integer> ownerCodes = new HashMap<Long, Integer>();
+
+    private boolean built = false;
+
+    public synchronized double calculateCapacityOfOperationalPowerPlantsByTechnology(PowerGeneratingTechnology technology, long tick) {
+        if (!tickScopedCache.isStarted()) {
+            return powerPlantRepository.calculateCapacityOfOperationalPowerPlantsByTechnology(technology, tick);
+        }
+        return sumOperational(ANY, code(technologyCodes, technology.getNodeId()), ANY, ANY, tick);
+    }
+
+    public synchronized double calculateCapacityOfExpectedOperationalPowerPlantsInMarket(ElectricitySpotMarket market, long tick) {
+        if (!tickScopedCache.isStarted()) {
+            return powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarket(market, tick);
+        }
+        return sumExpectedOperational(code(marketCodes, market.getNodeId()), ANY, ANY, ANY, tick);
+    }
+
+    public synchronized double calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(ElectricitySpotMarket market,
+            PowerGeneratingTechnology technology, long tick) {
+        if (!tickScopedCache.isStarted()) {
+            return powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, technology,
+                    tick);
+        }
+        return sumExpectedOperational(code(marketCodes, market.getNodeId()), code(technologyCodes, technology.getNodeId()), ANY,
+                ANY, tick);
+    }
+
+    public synchronized double calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(PowerGridNode node,
+            PowerGeneratingTechnology technology, long tick) {
+        if (!tickScopedCache.isStarted()) {
+            return powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(node, technology, tick);
+        }
+        return sumExpectedOperational(ANY, code(technologyCodes, technology.getNodeId()), code(nodeCodes, node.getNodeId()), ANY,
+                tick);
+    }
+
+    public synchronized double calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(ElectricitySpotMarket market, long tick,
+            EnergyProducer owner) {
+        if (!tickScopedCache.isStarted()) {
+            return powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(market, tick, owner);
+        }
+        return sumExpectedOperational(code(marketCodes, market.getNodeId()), ANY, ANY, code(ownerCodes, owner.getNodeId()), tick);
+    }
+
+    public synchronized double calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(ElectricitySpotMarket market,
+            PowerGeneratingTechnology technology, long tick, EnergyProducer owner) {
+        if (!tickScopedCache.isStarted()) {
+            return powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(market,
+                    technology, tick, owner);
+        }
+        return sumExpectedOperational(code(marketCodes, market.getNodeId()), code(technologyCodes, technology.getNodeId()), ANY,
+                code(ownerCodes, owner.getNodeId()), tick);
+    }
+
+    public synchronized double calculateCapacityOfPowerPlantsByTechnologyInPipeline(PowerGeneratingTechnology technology, long tick) {
+        if (!tickScopedCache.isStarted()) {
+            return powerPlantRepository.calculateCapacityOfPowerPlantsByTechnologyInPipeline(technology, tick);
+        }
+        return sumInPipeline(ANY, code(technologyCodes, technology.getNodeId()), tick);
+    }
+
+    public synchronized double calculateCapacityOfPowerPlantsByMarketInPipeline(ElectricitySpotMarket market, long tick) {
+        if (!tickScopedCache.isStarted()) {
+            return powerPlantRepository.calculateCapacityOfPowerPlantsByMarketInPipeline(market, tick);
+        }
+        return sumInPipeline(code(marketCodes, market.getNodeId()), ANY, tick);
+    }
+
+    public synchronized Iterable<PowerPlant> findExpectedOperationalPowerPlantsInMarket(ElectricitySpotMarket market, long tick) {
+        if (!tickScopedCache.isStarted()) {
+            return powerPlantRepository.findExpectedOperationalPowerPlantsInMarket(market, tick);
+        }
+        List<PowerPlant> result = new ArrayList<PowerPlant>();
+        int m = code(marketCodes, market.getNodeId());
+        for (int i = 0; i < size; i++) {
+            if (m != NONE && !removed[i] && this.market[i] == m && isExpectedOperational(i, tick)) {
+                result.add(plants[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the plants that were appended to the table since the given row and are expected to be operational in the market.
+     * 
+     * @param market
+     *            the market
+     * @param tick
+     *            the time at which the plants are expected to be operational
+     * @param fromRow
+     *            the number of rows at an earlier time (see {@link #getNumberOfRows()})
+     * @return the new plants
+     */
+    public synchronized List<PowerPlant> findExpectedOperationalPowerPlantsInMarketAddedSince(ElectricitySpotMarket market,
+            long tick, int fromRow) {
+        List<PowerPlant> result = new ArrayList<PowerPlant>();
+        int m = code(marketCodes, market.getNodeId());
+        for (int i = fromRow; i < size; i++) {
+            if (m != NONE && !removed[i] && this.market[i] == m && isExpectedOperational(i, tick)) {
+                result.add(plants[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of rows, which only grows during a simulation as new plants are appended, the rows of removed plants are kept
+     *         empty; 0 while the table is not used
+     */
+    public synchronized int getNumberOfRows() {
+        if (!tickScopedCache.isStarted()) {
+            return 0;
+        }
+        ensureBuilt();
+        return size;
+    }
+
+    /**
+     * Appends a persisted power plant to the table. Does nothing if the table has not been built yet, as the plant will then be included
+     * when it is.
+     * 
+     * @param plant
+     *            the new power plant
+     */
+    public synchronized void add(PowerPlant plant) {
+        if (built && plant.getNodeId() != null && !rowByPlant.containsKey(plant.getNodeId())) {
+            append(plant);
+        }
+    }
+
+    /**
+     * Updates the dismantle time of a power plant in the table.
+     * 
+     * @param plant
+     *            the dismantled power plant
+     */
+    public synchronized void updateDismantleTime(PowerPlant plant) {
+        Integer row = built ? rowByPlant.get(plant.getNodeId()) : null;
+        if (row != null) {
+            dismantleTime[row] = plant.getDismantleTime();
+        }
+    }
+
+    /**
+     * Removes a power plant that is about to be deleted from the table. Its row stays, so that the rows of the other plants do not change,
+     * but it is no longer found or counted.
+     * 
+     * @param plant
+     *            the power plant to be deleted
+     */
+    public synchronized void remove(PowerPlant plant) {
+        Integer row = built ? rowByPlant.remove(plant.getNodeId()) : null;
+        if (row != null) {
+            plants[row] = null;
+            removed[row] = true;
+        }
+    }
+
+    /**
+     * Empties the table, it is built again on the next aggregation.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < size; i++) {
+            plants[i] = null;
+            removed[i] = false;
+        }
+        size = 0;
+        rowByPlant.clear();
+        technologyCodes.clear();
+        nodeCodes.clear();
+        marketCodes.clear();
+        ownerCodes.clear();
+        built = false;
+    }
+
+    public synchronized int size() {
+        ensureBuilt();
+        return size;
+    }
+
+    private double sumOperational(int m, int t, int n, int o, long tick) {
+        ensureBuilt();
+        if (m == NONE || t == NONE || n == NONE || o == NONE) {
+            return 0d;
+        }
+        double sum = 0d;
+        for (int i = 0; i < size; i++) {
+            if (matches(i, m, t, n, o) && constructionStartTime[i] + permitTime[i] + leadTime[i] <= tick && dismantleTime[i] > tick) {
+                sum += capacity[i];
+            }
+        }
+        return sum;
+    }
+
+    private double sumExpectedOperational(int m, int t, int n, int o, long tick) {
+        ensureBuilt();
+        if (m == NONE || t == NONE || n == NONE || o == NONE) {
+            return 0d;
+        }
+        double sum = 0d;
+        for (int i = 0; i < size; i++) {
+            if (matches(i, m, t, n, o) && isExpectedOperational(i, tick)) {
+                sum += capacity[i];
+            }
+        }
+        return sum;
+    }
+
+    private double sumInPipeline(int m, int t, long tick) {
+        ensureBuilt();
+        if (m == NONE || t == NONE) {
+            return 0d;
+        }
+        double sum = 0d;
+        for (int i = 0; i < size; i++) {
+            if (matches(i, m, t, ANY, ANY) && constructionStartTime[i] + permitTime[i] + leadTime[i] > tick
+                    && (dismantleTime[i] > tick || dismantleTime[i] == 0)) {
+                sum += capacity[i];
+            }
+        }
+        return sum;
+    }
+
+    private boolean matches(int i, int m, int t, int n, int o) {
+        return !removed[i] && (m == ANY || market[i] == m) && (t == ANY || technology[i] == t) && (n == ANY || node[i] == n)
+                && (o == ANY || owner[i] == o);
+    }
+
+    private boolean isExpectedOperational(int i, long tick) {
+        return constructionStartTime[i] + permitTime[i] + leadTime[i] <= tick && expectedEndOfLife[i] > tick;
+    }
+
+    /**
+     * @return the code of the entity, or NONE if no plant refers to it
+     */
+    private int code(Map<Long, Integer> codes, Long nodeId) {
+        ensureBuilt();
+        Integer code = nodeId == null ? null : codes.get(nodeId);
+        return code == null ? NONE : code;
+    }
+
+    private static int codeOrAdd(Map<Long, Integer> codes, Long nodeId) {
+        if (nodeId == null) {
+            return NONE;
+        }
+        Integer code = codes.get(nodeId);
+        if (code == null) {
+            code = codes.size();
+            codes.put(nodeId, code);
+        }
+        return code;
+    }
+
+    private void ensureBuilt() {
+        if (built) {
+            return;
+        }
+        for (PowerPlant plant : template.findAll(PowerPlant.class)) {
+            append(plant);
+        }
+        built = true;
+        logger.info("Built the fleet table of {} power plants", size);
+    }
+
+    private void append(PowerPlant plant) {
+        if (size == plants.length) {
+            grow(Math.max(64, 2 * size));
+        }
+        ElectricitySpotMarket plantMarket = powerPlantLocationIndex.findElectricitySpotMarketByPowerPlant(plant);
+        plants[size] = plant;
+        constructionStartTime[size] = plant.getConstructionStartTime();
+        permitTime[size] = plant.getActualPermittime();
+        leadTime[size] = plant.getActualLeadtime();
+        dismantleTime[size] = plant.getDismantleTime();
+        expectedEndOfLife[size] = plant.getExpectedEndOfLife();
+        capacity[size] = plant.getActualNominalCapacity();
+        technology[size] = codeOrAdd(technologyCodes, plant.getTechnology() == null ? null : plant.getTechnology().getNodeId());
+        node[size] = codeOrAdd(nodeCodes, plant.getLocation() == null ? null : plant.getLocation().getNodeId());
+        market[size] = codeOrAdd(marketCodes, plantMarket == null ? null : plantMarket.getNodeId());
+        owner[size] = codeOrAdd(ownerCodes, plant.getOwner() == null ? null : plant.getOwner().getNodeId());
+        removed[size] = false;
+        rowByPlant.put(plant.getNodeId(), size);
+        size++;
+    }
+
+    private void grow(int length) {
+        PowerPlant[] largerPlants = new PowerPlant[length];
+        System.arraycopy(plants, 0, largerPlants, 0, size);
+        plants = largerPlants;
+        constructionStartTime = grow(constructionStartTime, length);
+        permitTime = grow(permitTime, length);
+        leadTime = grow(leadTime, length);
+        dismantleTime = grow(dismantleTime, length);
+        expectedEndOfLife = grow(expectedEndOfLife, length);
+        capacity = grow(capacity, length);
+        technology = grow(technology, length);
+        node = grow(node, length);
+        market = grow(market, length);
+        owner = grow(owner, length);
+        boolean[] largerRemoved = new boolean[length];
+        System.arraycopy(removed, 0, largerRemoved, 0, size);
+        removed = largerRemoved;
+    }
+
+    private long[] grow(long[] array, int length) {
+        long[] larger = new long[length];
+        System.arraycopy(array, 0, larger, 0, size);
+        return larger;
+    }
+
+    private double[] grow(double[] array, int length) {
+        double[] larger = new double[length];
+        System.arraycopy(array, 0, larger, 0, size);
+        return larger;
+    }
+
+    private int[] grow(int[] array, int length) {
+        int[] larger = new int[length];
+        System.arraycopy(array, 0, larger, 0, size);
+        return larger;
+    }
+
+}
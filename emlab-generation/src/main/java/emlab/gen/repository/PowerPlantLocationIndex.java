@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.NationalGovernment;
+import emlab.gen.domain.gis.Zone;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerPlant;
+
+/**
+ * Index from the node id of a power plant to the {@link ElectricitySpotMarket} and the {@link NationalGovernment} of its zone. It replaces
+ * the traversals of {@link MarketRepository#findElectricitySpotMarketByPowerPlant(PowerPlant)} and
+ * {@link NationalGovernmentRepository#findNationalGovernmentByPowerPlant(PowerPlant)} by map reads.
+ * 
+ * The index is built for all power plants on first use, after the scenario has been loaded. New power plants are added by
+ * {@link PowerPlant#specifyAndPersist} and removed by {@link emlab.gen.role.DecarbonizationModelRole} just before they are deleted.
+ * Plants that are not in the index, for instance because they were created by a factory, are looked up with the repositories and added.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@Repository
+public class PowerPlantLocationIndex {
+
+    static final Logger logger = LoggerFactory.getLogger(PowerPlantLocationIndex.class);
+
+    @Autowired
+    Neo4jTemplate template;
+
+    @Autowired
+    MarketRepository marketRepository;
+
+    @Autowired
+    NationalGovernmentRepository nationalGovernmentRepository;
+
+    private final ConcurrentMap<Long, ElectricitySpotMarket> marketByPlant = new ConcurrentHashMap<Long, ElectricitySpotMarket>();
+
+    private final ConcurrentMap<Long, NationalGovernment> governmentByPlant = new ConcurrentHashMap<Long, NationalGovernment>();
+
+    // Both keyed by the node id of the zone, set when the index is built.
+    private Map<Long, ElectricitySpotMarket> marketsByZone;
+
+    private Map<Long, NationalGovernment> governmentsByZone;
+
+    private volatile boolean built = false;
+
+    public ElectricitySpotMarket findElectricitySpotMarketByPowerPlant(PowerPlant plant) {
+        ensureBuilt();
+        ElectricitySpotMarket market = marketByPlant.get(plant.getNodeId());
+        if (market == null) {
+            market = marketRepository.findElectricitySpotMarketByPowerPlant(plant);
+            if (market != null) {
+                marketByPlant.put(plant.getNodeId(), market);
+            }
+        }
+        return market;
+    }
+
+    public NationalGovernment findNationalGovernmentByPowerPlant(PowerPlant plant) {
+        ensureBuilt();
+        NationalGovernment government = governmentByPlant.get(plant.getNodeId());
+        if (government == null) {
+            government = nationalGovernmentRepository.findNationalGovernmentByPowerPlant(plant);
+            if (government != null) {
+                governmentByPlant.put(plant.getNodeId(), government);
+            }
+        }
+        return government;
+    }
+
+    /**
+     * Adds a persisted power plant to the index. Does nothing if the index has not been built yet, as the plant will then be indexed
+     * when it is.
+     * 
+     * @param plant
+     *            the new power plant
+     */
+    public synchronized void add(PowerPlant plant) {
+        if (!built) {
+            return;
+        }
+        Zone zone = plant.getLocation() == null ? null : plant.getLocation().getZone();
+        if (zone == null) {
+            return;
+        }
+        ElectricitySpotMarket market = marketsByZone.get(zone.getNodeId());
+        if (market != null) {
+            marketByPlant.put(plant.getNodeId(), market);
+        }
+        NationalGovernment government = governmentsByZone.get(zone.getNodeId());
+        if (government != null) {
+            governmentByPlant.put(plant.getNodeId(), government);
+        }
+    }
+
+    /**
+     * Removes a power plant from the index, before it is deleted from the graph.
+     * 
+     * @param plant
+     *            the power plant to be deleted
+     */
+    public synchronized void remove(PowerPlant plant) {
+        marketByPlant.remove(plant.getNodeId());
+        governmentByPlant.remove(plant.getNodeId());
+    }
+
+    /**
+     * Empties the index, it is built again on the next lookup.
+     */
+    public synchronized void clear() {
+        marketByPlant.clear();
+        governmentByPlant.clear();
+        built = false;
+    }
+
+    private void ensureBuilt() {
+        if (!built) {
+            build();
+        }
+    }
+
+    private synchronized void build() {
+        if (built) {
+            return;
+        }
+        marketsByZone = findMarketsByZone();
+        governmentsByZone = findGovernmentsByZone();
+        for (PowerPlant plant : template.findAll(PowerPlant.class)) {
+            Zone zone = plant.getLocation() == null ? null : plant.getLocation().getZone();
+            if (zone == null) {
+                continue;
+            }
+            if (marketsByZone.containsKey(zone.getNodeId())) {
+                marketByPlant.put(plant.getNodeId(), marketsByZone.get(zone.getNodeId()));
+            }
+            if (governmentsByZone.containsKey(zone.getNodeId())) {
+                governmentByPlant.put(plant.getNodeId(), governmentsByZone.get(zone.getNodeId()));
+            }
+        }
+        built = true;
+        logger.info("Indexed the market of {} and the national government of {} power plants", marketByPlant.size(),
+                governmentByPlant.size());
+    }
+
+    private Map<Long, ElectricitySpotMarket> findMarketsByZone() {
+        Map<Long, ElectricitySpotMarket> marketsByZone = new HashMap<Long, ElectricitySpotMarket>();
+        for (ElectricitySpotMarket market : marketRepository.findAllElectricitySpotMarkets()) {
+            if (market.getZone() != null) {
+                marketsByZone.put(market.getZone().getNodeId(), market);
+            }
+        }
+        return marketsByZone;
+    }
+
+    private Map<Long, NationalGovernment> findGovernmentsByZone() {
+        Map<Long, NationalGovernment> governmentsByZone = new HashMap<Long, NationalGovernment>();
+        for (NationalGovernment government : template.findAll(NationalGovernment.class)) {
+            if (government.getGovernedZone() != null) {
+                governmentsByZone.put(government.getGovernedZone().getNodeId(), government);
+            }
+        }
+        return governmentsByZone;
+    }
+
+}
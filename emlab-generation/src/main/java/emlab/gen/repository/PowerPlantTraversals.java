@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static emlab.gen.repository.NativeTraversals.getDouble;
+import static emlab.gen.repository.NativeTraversals.getLong;
+import static emlab.gen.repository.NativeTraversals.hasOut;
+import static emlab.gen.repository.NativeTraversals.in;
+import static emlab.gen.repository.NativeTraversals.isOfType;
+import static emlab.gen.repository.NativeTraversals.out;
+import static emlab.gen.repository.NativeTraversals.type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerGridNode;
+import emlab.gen.domain.technology.PowerPlant;
+
+/**
+ * Native implementation of the Gremlin queries of {@link PowerPlantRepository}, see {@link NativeTraversals}. Each method gives the
+ * same result as the script it replaces, including the multiplicities of the technology traversals, except that sums over no plants are 0
+ * rather than null. Queries whose scripts return technologies, or refer to an unbound technology, are left to the scripts.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@Repository
+public class PowerPlantTraversals {
+
+    static final RelationshipType TECHNOLOGY = type("TECHNOLOGY");
+    static final RelationshipType FUEL = type("FUEL");
+    static final RelationshipType POWERPLANT_OWNER = type("POWERPLANT_OWNER");
+    static final RelationshipType LOCATION = type("LOCATION");
+    static final RelationshipType REGION = type("REGION");
+    static final RelationshipType ZONE = type("ZONE");
+
+    @Autowired
+    Neo4jTemplate template;
+
+    /*
+     * Plants and their states
+     */
+
+    private Node node(Long id) {
+        return template.getGraphDatabaseService().getNodeById(id);
+    }
+
+    private Iterable<Node> allPowerPlants() {
+        return template.getGraphDatabaseService().index().forNodes("__types__").get("className", PowerPlant.class.getName());
+    }
+
+    private List<Node> powerPlantsInMarket(ElectricitySpotMarket market) {
+        List<Node> plants = new ArrayList<Node>();
+        for (Node zone : out(node(market.getNodeId()), ZONE)) {
+            for (Node gridNode : in(zone, REGION)) {
+                for (Node plant : in(gridNode, LOCATION)) {
+                    if (isOfType(plant, PowerPlant.class)) {
+                        plants.add(plant);
+                    }
+                }
+            }
+        }
+        return plants;
+    }
+
+    private static long startOfOperation(Node plant) {
+        return getLong(plant, "constructionStartTime") + getLong(plant, "actualPermittime") + getLong(plant, "actualLeadtime");
+    }
+
+    private static boolean isOperational(Node plant, long tick) {
+        return startOfOperation(plant) <= tick && getLong(plant, "dismantleTime") > tick;
+    }
+
+    private static boolean isExpectedOperational(Node plant, long tick) {
+        return startOfOperation(plant) <= tick && getDouble(plant, "expectedEndOfLife") > tick;
+    }
+
+    private static boolean isInPipeline(Node plant, long tick) {
+        long dismantleTime = getLong(plant, "dismantleTime");
+        return !(startOfOperation(plant) <= tick) && (dismantleTime > tick || dismantleTime == 0);
+    }
+
+    private static double capacity(Node plant) {
+        return getDouble(plant, "actualNominalCapacity");
+    }
+
+    private List<PowerPlant> toPowerPlants(Iterable<Node> plants) {
+        List<PowerPlant> powerPlants = new ArrayList<PowerPlant>();
+        for (Node plant : plants) {
+            powerPlants.add((PowerPlant) template.createEntityFromStoredType(plant));
+        }
+        return powerPlants;
+    }
+
+    private static List<Node> operational(Iterable<Node> plants, long tick) {
+        List<Node> operational = new ArrayList<Node>();
+        for (Node plant : plants) {
+            if (isOperational(plant, tick)) {
+                operational.add(plant);
+            }
+        }
+        return operational;
+    }
+
+    private static List<Node> expectedOperational(Iterable<Node> plants, long tick) {
+        List<Node> expectedOperational = new ArrayList<Node>();
+        for (Node plant : plants) {
+            if (isExpectedOperational(plant, tick)) {
+                expectedOperational.add(plant);
+            }
+        }
+        return expectedOperational;
+    }
+
+    private static List<Node> inPipeline(Iterable<Node> plants, long tick) {
+        List<Node> inPipeline = new ArrayList<Node>();
+        for (Node plant : plants) {
+            if (isInPipeline(plant, tick)) {
+                inPipeline.add(plant);
+            }
+        }
+        return inPipeline;
+    }
+
+    private static double sumOfCapacities(Iterable<Node> plants) {
+        double capacity = 0d;
+        for (Node plant : plants) {
+            capacity += capacity(plant);
+        }
+        return capacity;
+    }
+
+    private static double sumOfPeakCapacities(Iterable<Node> plants) {
+        double capacity = 0d;
+        for (Node plant : plants) {
+            for (Node technology : out(plant, TECHNOLOGY)) {
+                capacity += capacity(plant) * getDouble(technology, "peakSegmentDependentAvailability");
+            }
+        }
+        return capacity;
+    }
+
+    private List<Node> powerPlantsInMarketOfOwner(ElectricitySpotMarket market, EnergyProducer owner) {
+        Node ownerNode = node(owner.getNodeId());
+        List<Node> plants = new ArrayList<Node>();
+        for (Node plant : powerPlantsInMarket(market)) {
+            for (Node plantOwner : out(plant, POWERPLANT_OWNER)) {
+                if (plantOwner.equals(ownerNode)) {
+                    plants.add(plant);
+                }
+            }
+        }
+        return plants;
+    }
+
+    /**
+     * @return the plants, once for each technology relationship that satisfies the condition
+     */
+    private static List<Node> withTechnology(Iterable<Node> plants, Node technology, boolean byName) {
+        Object name = technology.getProperty("name", null);
+        List<Node> withTechnology = new ArrayList<Node>();
+        for (Node plant : plants) {
+            for (Node plantTechnology : out(plant, TECHNOLOGY)) {
+                if (byName ? name != null && name.equals(plantTechnology.getProperty("name", null)) : plantTechnology.equals(technology)) {
+                    withTechnology.add(plant);
+                }
+            }
+        }
+        return withTechnology;
+    }
+
+    /*
+     * Queries
+     */
+
+    public Iterable<PowerPlant> findOperationalPowerPlants(long tick) {
+        return toPowerPlants(operational(allPowerPlants(), tick));
+    }
+
+    public Iterable<PowerPlant> findAllPowerPlantsDismantledBeforeTick(long tick) {
+        List<Node> dismantled = new ArrayList<Node>();
+        for (Node plant : allPowerPlants()) {
+            if (getLong(plant, "dismantleTime") < tick) {
+                dismantled.add(plant);
+            }
+        }
+        return toPowerPlants(dismantled);
+    }
+
+    public ArrayList<PowerPlant> findOperationalPowerPlantsAsList(long tick) {
+        return new ArrayList<PowerPlant>(toPowerPlants(operational(allPowerPlants(), tick)));
+    }
+
+    public double calculateCapacityOfOperationalPowerPlants(long tick) {
+        return sumOfCapacities(operational(allPowerPlants(), tick));
+    }
+
+    public double calculatePeakCapacityOfOperationalPowerPlants(long tick) {
+        return sumOfPeakCapacities(operational(allPowerPlants(), tick));
+    }
+
+    public Iterable<PowerPlant> findOperationalPowerPlantsByOwner(EnergyProducer owner, long tick) {
+        return toPowerPlants(operational(in(node(owner.getNodeId()), POWERPLANT_OWNER), tick));
+    }
+
+    public Iterable<PowerPlant> findOperationalPowerPlantsWithFuelsGreaterZeroByOwner(EnergyProducer owner, long tick) {
+        List<Node> plants = new ArrayList<Node>();
+        for (Node plant : in(node(owner.getNodeId()), POWERPLANT_OWNER)) {
+            for (Node technology : out(plant, TECHNOLOGY)) {
+                if (hasOut(technology, FUEL)) {
+                    plants.add(plant);
+                }
+            }
+        }
+        return toPowerPlants(operational(plants, tick));
+    }
+
+    public Iterable<PowerPlant> findOperationalPowerPlantsByTechnology(PowerGeneratingTechnology technology, long tick) {
+        return toPowerPlants(operational(in(node(technology.getNodeId()), TECHNOLOGY), tick));
+    }
+
+    public double calculateCapacityOfOperationalPowerPlantsByTechnology(PowerGeneratingTechnology technology, long tick) {
+        return sumOfCapacities(operational(in(node(technology.getNodeId()), TECHNOLOGY), tick));
+    }
+
+    public Iterable<PowerPlant> findOperationalPowerPlantsByPowerGridNode(PowerGridNode node, long tick) {
+        return toPowerPlants(operational(in(node(node.getNodeId()), LOCATION), tick));
+    }
+
+    public Iterable<PowerPlant> findOperationalPowerPlantsInMarket(ElectricitySpotMarket market, long tick) {
+        return toPowerPlants(operational(powerPlantsInMarket(market), tick));
+    }
+
+    public double calculateCapacityOfOperationalPowerPlantsInMarket(ElectricitySpotMarket market, long tick) {
+        return sumOfCapacities(operational(powerPlantsInMarket(market), tick));
+    }
+
+    public double calculatePeakCapacityOfOperationalPowerPlantsInMarket(ElectricitySpotMarket market, long tick) {
+        return sumOfPeakCapacities(operational(powerPlantsInMarket(market), tick));
+    }
+
+    public Iterable<PowerPlant> findExpectedOperationalPowerPlantsInMarket(ElectricitySpotMarket market, long tick) {
+        return toPowerPlants(expectedOperational(powerPlantsInMarket(market), tick));
+    }
+
+    public double calculateCapacityOfExpectedOperationalPowerPlantsInMarket(ElectricitySpotMarket market, long tick) {
+        return sumOfCapacities(expectedOperational(powerPlantsInMarket(market), tick));
+    }
+
+    public double calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(ElectricitySpotMarket market,
+            PowerGeneratingTechnology technology, long tick) {
+        return sumOfCapacities(withTechnology(expectedOperational(powerPlantsInMarket(market), tick), node(technology.getNodeId()), true));
+    }
+
+    public double calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(PowerGridNode node,
+            PowerGeneratingTechnology technology, long tick) {
+        List<Node> plants = new ArrayList<Node>();
+        for (Node plant : in(node(node.getNodeId()), LOCATION)) {
+            if (isOfType(plant, PowerPlant.class)) {
+                plants.add(plant);
+            }
+        }
+        return sumOfCapacities(withTechnology(expectedOperational(plants, tick), node(technology.getNodeId()), true));
+    }
+
+    public double calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(ElectricitySpotMarket market,
+            PowerGeneratingTechnology technology, long tick, EnergyProducer owner) {
+        return sumOfCapacities(withTechnology(expectedOperational(powerPlantsInMarketOfOwner(market, owner), tick),
+                node(technology.getNodeId()), false));
+    }
+
+    public double calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(ElectricitySpotMarket market, long tick,
+            EnergyProducer owner) {
+        return sumOfCapacities(expectedOperational(powerPlantsInMarketOfOwner(market, owner), tick));
+    }
+
+    public Iterable<PowerPlant> findPowerPlantsInMarket(ElectricitySpotMarket market) {
+        return toPowerPlants(powerPlantsInMarket(market));
+    }
+
+    public Iterable<PowerPlant> findOperationalPowerPlantsByOwnerAndMarket(EnergyProducer owner, ElectricitySpotMarket market, long tick) {
+        return toPowerPlants(operational(powerPlantsInMarketOfOwner(market, owner), tick));
+    }
+
+    public Iterable<PowerPlant> findPowerPlantsByOwnerAndMarketInPipeline(EnergyProducer owner, ElectricitySpotMarket market, long tick) {
+        return toPowerPlants(inPipeline(powerPlantsInMarketOfOwner(market, owner), tick));
+    }
+
+    public Iterable<PowerPlant> findPowerPlantsByTechnologyInPipeline(PowerGeneratingTechnology technology, long tick) {
+        return toPowerPlants(inPipeline(in(node(technology.getNodeId()), TECHNOLOGY), tick));
+    }
+
+    public double calculateCapacityOfPowerPlantsByTechnologyInPipeline(PowerGeneratingTechnology technology, long tick) {
+        return sumOfCapacities(inPipeline(in(node(technology.getNodeId()), TECHNOLOGY), tick));
+    }
+
+    public double calculateCapacityOfPowerPlantsByMarketInPipeline(ElectricitySpotMarket market, long tick) {
+        return sumOfCapacities(inPipeline(powerPlantsInMarket(market), tick));
+    }
+
+}
@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.CommoditySupplier;
+import emlab.gen.domain.market.ClearingPoint;
+import emlab.gen.domain.market.DecarbonizationMarket;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.market.electricity.SegmentClearingPoint;
+import emlab.gen.domain.technology.Substance;
+
+/**
+ * Price history of all markets, kept in primitive arrays indexed by tick: per market the sums of price times volume and of volume of
+ * its clearing points, and per market and segment the price of the {@link SegmentClearingPoint}. A last known price is then a few array
+ * reads instead of a traversal of the clearing points of a market.
+ * 
+ * The history is built from the graph on first use; clearing points written afterwards are recorded by the
+ * {@link ClearingPointRepositoryOld} and the {@link emlab.gen.role.market.AbstractMarketRole}, replacing the earlier values of a point
+ * when it is updated. Like the {@link PowerPlantFleetTable} it is only used while a tick is running (see
+ * {@link TickScopedCache#isStarted()}), otherwise the prices are read from the graph, so that tests can change the graph freely.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@Repository
+public class PriceHistory {
+
+    static final Logger logger = LoggerFactory.getLogger(PriceHistory.class);
+
+    @Autowired
+    Neo4jTemplate template;
+
+    @Autowired
+    GenericRepository genericRepository;
+
+    @Autowired
+    ClearingPointRepository clearingPointRepository;
+
+    @Autowired
+    TickScopedCache tickScopedCache;
+
+    // All keyed by node id.
+    private final Map<Long, TickSeries> priceTimesVolume = new HashMap<Long, TickSeries>();
+    private final Map<Long, TickSeries> volume = new HashMap<Long, TickSeries>();
+    private final Map<Long, Map<Long, TickSeries>> segmentPrices = new HashMap<Long, Map<Long, TickSeries>>();
+    private final Map<Long, RecordedPoint> recordedPoints = new HashMap<Long, RecordedPoint>();
+    private final Map<Long, CommoditySupplier> suppliers = new HashMap<Long, CommoditySupplier>();
+
+    private boolean built = false;
+
+    /**
+     * Finds the last known price on a market: the average price of this tick, of the previous tick, the reference price of the market or
+     * the price of a supplier of the substance, in that order. If none is found the price is 0.
+     * 
+     * @param market
+     *            the market
+     * @param tick
+     *            the current tick
+     * @return the (average) price found
+     */
+    public synchronized double findLastKnownPriceOnMarket(DecarbonizationMarket market, long tick) {
+        Substance substance = market.getSubstance();
+
+        Double average = findAveragePrice(market, tick);
+        if (average != null) {
+            logger.info("Average price found on market for this tick for {}", substance.getName());
+            return average;
+        }
+
+        average = findAveragePrice(market, tick - 1);
+        if (average != null) {
+            logger.info("Average price found on market for previous tick for {}", substance.getName());
+            return average;
+        }
+
+        if (market.getReferencePrice() > 0) {
+            logger.info("Found a reference price found for market for {}", substance.getName());
+            return market.getReferencePrice();
+        }
+
+        CommoditySupplier supplier = findSupplier(substance);
+        if (supplier != null) {
+            logger.info("Price found for {} by asking the supplier {} directly", substance.getName(), supplier.getName());
+            return supplier.getPriceOfCommodity().getValue(tick);
+        }
+
+        logger.info("No price has been found for {}", substance.getName());
+        return 0d;
+    }
+
+    /**
+     * @param market
+     *            the market
+     * @param tick
+     *            the tick
+     * @return the volume-weighted average price of the clearing points of the market at the tick, or null if there is no volume
+     */
+    public synchronized Double findAveragePrice(DecarbonizationMarket market, long tick) {
+        double sumOfPriceTimesVolume = 0d;
+        double sumOfVolume = 0d;
+        if (!tickScopedCache.isStarted()) {
+            for (ClearingPoint point : clearingPointRepository.findAllClearingPointsForMarketAndTimeRange(market, tick, tick)) {
+                sumOfPriceTimesVolume += point.getPrice() * point.getVolume();
+                sumOfVolume += point.getVolume();
+            }
+        } else {
+            ensureBuilt();
+            TickSeries volumes = volume.get(market.getNodeId());
+            if (volumes != null) {
+                sumOfPriceTimesVolume = priceTimesVolume.get(market.getNodeId()).get(tick);
+                sumOfVolume = volumes.get(tick);
+            }
+        }
+        if (sumOfVolume > 0) {
+            return sumOfPriceTimesVolume / sumOfVolume;
+        }
+        return null;
+    }
+
+    /**
+     * @param market
+     *            the market
+     * @param segment
+     *            the segment
+     * @param tick
+     *            the tick
+     * @return the price of the segment clearing point of the market and segment at the tick, or NaN if there is none
+     */
+    public synchronized double findSegmentPrice(DecarbonizationMarket market, Segment segment, long tick) {
+        if (!tickScopedCache.isStarted()) {
+            for (ClearingPoint point : clearingPointRepository.findAllClearingPointsForMarketAndTimeRange(market, tick, tick)) {
+                if (point instanceof SegmentClearingPoint && segment.equals(((SegmentClearingPoint) point).getSegment())) {
+                    return point.getPrice();
+                }
+            }
+            return Double.NaN;
+        }
+        ensureBuilt();
+        Map<Long, TickSeries> pricesOfMarket = segmentPrices.get(market.getNodeId());
+        TickSeries prices = pricesOfMarket == null ? null : pricesOfMarket.get(segment.getNodeId());
+        return prices == null ? Double.NaN : prices.get(tick);
+    }
+
+    /**
+     * Records a clearing point that has been created or changed. Its market, time, price, volume and, for a segment clearing point, its
+     * segment have to be set. Does nothing if the history has not been built yet, as the point will then be read from the graph.
+     * 
+     * @param point
+     *            the clearing point
+     */
+    public synchronized void record(ClearingPoint point) {
+        if (!built || point.getNodeId() == null || point.getAbstractMarket() == null) {
+            return;
+        }
+        RecordedPoint previous = recordedPoints.remove(point.getNodeId());
+        if (previous != null) {
+            series(priceTimesVolume, previous.market).add(previous.time, -previous.price * previous.volume);
+            series(volume, previous.market).add(previous.time, -previous.volume);
+        }
+        add(point);
+    }
+
+    /**
+     * Empties the history, it is built again on the next lookup.
+     */
+    public synchronized void clear() {
+        priceTimesVolume.clear();
+        volume.clear();
+        segmentPrices.clear();
+        recordedPoints.clear();
+        suppliers.clear();
+        built = false;
+    }
+
+    private void ensureBuilt() {
+        if (built) {
+            return;
+        }
+        for (ClearingPoint point : template.findAll(ClearingPoint.class)) {
+            if (point.getAbstractMarket() != null) {
+                add(point);
+            }
+        }
+        built = true;
+        logger.info("Built the price history of {} clearing points", recordedPoints.size());
+    }
+
+    private void add(ClearingPoint point) {
+        RecordedPoint recorded = new RecordedPoint(point.getAbstractMarket().getNodeId(), point.getTime(), point.getPrice(),
+                point.getVolume());
+        recordedPoints.put(point.getNodeId(), recorded);
+        series(priceTimesVolume, recorded.market).add(recorded.time, recorded.price * recorded.volume);
+        series(volume, recorded.market).add(recorded.time, recorded.volume);
+        if (point instanceof SegmentClearingPoint && ((SegmentClearingPoint) point).getSegment() != null) {
+            Map<Long, TickSeries> pricesOfMarket = segmentPrices.get(recorded.market);
+            if (pricesOfMarket == null) {
+                pricesOfMarket = new HashMap<Long, TickSeries>();
+                segmentPrices.put(recorded.market, pricesOfMarket);
+            }
+            series(pricesOfMarket, ((SegmentClearingPoint) point).getSegment().getNodeId()).set(recorded.time, recorded.price);
+        }
+    }
+
+    private CommoditySupplier findSupplier(Substance substance) {
+        if (tickScopedCache.isStarted() && suppliers.containsKey(substance.getNodeId())) {
+            return suppliers.get(substance.getNodeId());
+        }
+        CommoditySupplier found = null;
+        for (CommoditySupplier supplier : genericRepository.findAll(CommoditySupplier.class)) {
+            if (supplier.getSubstance().equals(substance)) {
+                found = supplier;
+                break;
+            }
+        }
+        if (tickScopedCache.isStarted()) {
+            suppliers.put(substance.getNodeId(), found);
+        }
+        return found;
+    }
+
+    private static TickSeries series(Map<Long, TickSeries> seriesById, Long id) {
+        TickSeries series = seriesById.get(id);
+        if (series == null) {
+            series = new TickSeries();
+            seriesById.put(id, series);
+        }
+        return series;
+    }
+
+    private static class RecordedPoint {
+        final Long market;
+        final long time;
+        final double price;
+        final double volume;
+
+        RecordedPoint(Long market, long time, double price, double volume) {
+            this.market = market;
+            this.time = time;
+            this.price = price;
+            this.volume = volume;
+        }
+    }
+
+    /**
+     * Values by tick in a growable array, which starts at the first tick that has been written. Ticks that have not been written are
+     * NaN.
+     */
+    static class TickSeries {
+
+        private long firstTick = 0;
+        private double[] values = new double[0];
+
+        double get(long tick) {
+            long index = tick - firstTick;
+            if (index < 0 || index >= values.length) {
+                return Double.NaN;
+            }
+            return values[(int) index];
+        }
+
+        void set(long tick, double value) {
+            int index = index(tick);
+            values[index] = value;
+        }
+
+        void add(long tick, double value) {
+            int index = index(tick);
+            values[index] = Double.isNaN(values[index]) ? value : values[index] + value;
+        }
+
+        private int index(long tick) {
+            if (values.length == 0) {
+                firstTick = tick;
+                values = new double[16];
+                Arrays.fill(values, Double.NaN);
+            } else if (tick < firstTick) {
+                int shift = (int) (firstTick - tick);
+                double[] larger = new double[values.length + shift];
+                Arrays.fill(larger, 0, shift, Double.NaN);
+                System.arraycopy(values, 0, larger, shift, values.length);
+                values = larger;
+                firstTick = tick;
+            } else if (tick - firstTick >= values.length) {
+                double[] larger = new double[(int) Math.max(2 * values.length, tick - firstTick + 1)];
+                Arrays.fill(larger, values.length, larger.length, Double.NaN);
+                System.arraycopy(values, 0, larger, 0, values.length);
+                values = larger;
+            }
+            return (int) (tick - firstTick);
+        }
+    }
+
+}
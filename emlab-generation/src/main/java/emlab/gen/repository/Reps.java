@@ -3,6 +3,8 @@
  */
 package emlab.gen.repository;
 
+import javax.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.stereotype.Repository;
@@ -89,4 +91,39 @@ public class Reps {
     @Autowired
     public StrategicReserveOperatorRepository strategicReserveOperatorRepository;
 
+    @Autowired
+    public TickScopedCache tickScopedCache;
+
+    @Autowired
+    public PowerPlantLocationIndex powerPlantLocationIndex;
+
+    @Autowired
+    public PowerPlantFleetTable powerPlantFleetTable;
+
+    @Autowired
+    public CheckpointRepository checkpointRepository;
+
+    @Autowired
+    public PriceHistory priceHistory;
+
+    @Autowired
+    public ForecastCache forecastCache;
+
+    @Autowired
+    PowerPlantTraversals powerPlantTraversals;
+
+    @Autowired
+    PowerPlantDispatchPlanTraversals powerPlantDispatchPlanTraversals;
+
+    /**
+     * Lets the power plant and dispatch plan queries be answered by native traversals, if so configured in the model.
+     */
+    @PostConstruct
+    void selectNativeTraversals() {
+        powerPlantRepository = NativeTraversals.select(PowerPlantRepository.class, powerPlantRepository, powerPlantTraversals,
+                tickScopedCache);
+        powerPlantDispatchPlanRepository = NativeTraversals.select(PowerPlantDispatchPlanRepository.class,
+                powerPlantDispatchPlanRepository, powerPlantDispatchPlanTraversals, tickScopedCache);
+    }
+
 }
@@ -26,10 +26,10 @@ import emlab.gen.domain.market.electricity.SegmentClearingPoint;
 
 public interface SegmentClearingPointRepository extends GraphRepository<SegmentClearingPoint> {
 
-    @Query("START scp=node:__types__(\"className:emlab.gen.domain.market.electricity.SegmentClearingPoint\") WHERE (scp.time={time}) RETURN scp")
+    @Query("START scp=node:segmentClearingPointTime(segmentClearingPointTime={time}) RETURN scp")
     Iterable<SegmentClearingPoint> findAllSegmentClearingPointsForTime(@Param("time") long time);
 
-    @Query("START segment = node({segment}), scp=node:__types__(\"className:emlab.gen.domain.market.electricity.SegmentClearingPoint\") MATCH (segment)<-[:SEGMENT_POINT]-(scp) WHERE (scp.time = {time}) RETURN scp")
+    @Query("START segment = node({segment}), scp=node:segmentClearingPointTime(segmentClearingPointTime={time}) MATCH (segment)<-[:SEGMENT_POINT]-(scp) RETURN scp")
     Iterable<SegmentClearingPoint> findAllSegmentClearingPointsForSegmentAndTime(@Param("time") long time, @Param("segment") Segment segment);
 
     // @Query("START segment = node({segment}), market=node({market}) MATCH (segment)<-[:SEGMENT_POINT]-(scp)-[:MARKET_POINT]->(market) WHERE (scp.time = {time}) RETURN scp")
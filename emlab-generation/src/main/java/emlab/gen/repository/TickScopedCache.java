@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.aspects.core.NodeBacked;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.market.CO2Auction;
+import emlab.gen.domain.market.DecarbonizationMarket;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.Substance;
+
+/**
+ * Read-through cache for repository lookups that do not change within a tick, such as the number of segments, the government and the
+ * CO2 auction. The cache is emptied when {@link #startTick(long)} is called with a new tick, which the
+ * {@link emlab.gen.role.DecarbonizationModelRole} does at the start of every tick. Before the first tick has been started all lookups go
+ * straight to the repositories.
+ * 
+ * Last known prices are cached as well, per substance. They change when a market is cleared, so the price of the substance of a
+ * commodity market or the CO2 auction is dropped and its price version changes whenever a clearing point of that market is written (see
+ * {@link #invalidateLastKnownPrice(DecarbonizationMarket)}). Fuel and CO2 prices do not depend on the electricity price, so the segment
+ * clearing points written in every CO2 iteration leave the values computed from them in place.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@Repository
+public class TickScopedCache {
+
+    static final Logger logger = LoggerFactory.getLogger(TickScopedCache.class);
+
+    static final long NO_TICK = Long.MIN_VALUE;
+
+    static final String SEGMENT_COUNT = "segmentCount";
+    static final String FIRST = "findFirst";
+    static final String CO2_AUCTION = "co2Auction";
+    static final String LAST_KNOWN_PRICE = "lastKnownPriceForSubstance";
+
+    static final long NO_PRICE_VERSION = -1;
+
+    // ConcurrentMaps do not take null values.
+    private static final Object NULL = new Object();
+
+    @Autowired
+    GenericRepository genericRepository;
+
+    @Autowired
+    SegmentRepository segmentRepository;
+
+    @Autowired
+    MarketRepository marketRepository;
+
+    private volatile long tick = NO_TICK;
+
+    private final ConcurrentMap<List<Object>, Object> values = new ConcurrentHashMap<List<Object>, Object>();
+
+    private final ConcurrentMap<String, AtomicLong[]> counters = new ConcurrentHashMap<String, AtomicLong[]>();
+
+    private final ConcurrentMap<Long, Double> lastKnownPrices = new ConcurrentHashMap<Long, Double>();
+
+    private final ConcurrentMap<Long, Long> priceVersions = new ConcurrentHashMap<Long, Long>();
+
+    // Every price version is drawn from this counter, so a new version is larger than all versions handed out before.
+    private final AtomicLong priceVersionCounter = new AtomicLong();
+
+    private volatile long tickPriceVersion = NO_PRICE_VERSION;
+
+    /**
+     * Empties the cache if the tick has advanced.
+     * 
+     * @param tick
+     *            the tick that starts
+     */
+    public void startTick(long tick) {
+        if (this.tick != tick) {
+            values.clear();
+            clearLastKnownPrices();
+            this.tick = tick;
+        }
+    }
+
+    /**
+     * @return whether a tick has been started, i.e. whether the simulation is running
+     */
+    public boolean isStarted() {
+        return tick != NO_TICK;
+    }
+
+    /**
+     * Empties the cache and switches it off until the next call to {@link #startTick(long)}.
+     */
+    public void invalidate() {
+        values.clear();
+        clearLastKnownPrices();
+        tick = NO_TICK;
+    }
+
+    private void clearLastKnownPrices() {
+        lastKnownPrices.clear();
+        priceVersions.clear();
+        tickPriceVersion = priceVersionCounter.incrementAndGet();
+    }
+
+    /**
+     * Drops the cached last known price of the substance of a market, to be called whenever a clearing point of the market is created or
+     * changed. Only the cached price of electricity is dropped for an electricity spot market, its price version is left as it is.
+     * 
+     * @param market
+     *            the market of the clearing point
+     */
+    public void invalidateLastKnownPrice(DecarbonizationMarket market) {
+        Substance substance = market == null ? null : market.getSubstance();
+        if (substance == null) {
+            return;
+        }
+        lastKnownPrices.remove(substance.getNodeId());
+        if (!(market instanceof ElectricitySpotMarket)) {
+            priceVersions.put(substance.getNodeId(), priceVersionCounter.incrementAndGet());
+        }
+    }
+
+    /**
+     * @param substance
+     * @return a version that changes whenever the last known price of the substance may have changed, or -1 before the first tick, when
+     *         prices are not cached at all
+     */
+    public long getPriceVersion(Substance substance) {
+        if (tick == NO_TICK) {
+            return NO_PRICE_VERSION;
+        }
+        Long version = priceVersions.get(substance.getNodeId());
+        return version == null ? tickPriceVersion : version;
+    }
+
+    public long countSegments() {
+        List<Object> key = key(SEGMENT_COUNT);
+        Object value = lookup(SEGMENT_COUNT, key);
+        if (value == null) {
+            value = store(key, segmentRepository.count());
+        }
+        return (Long) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends NodeBacked> T findFirst(Class<T> clazz) {
+        List<Object> key = key(FIRST, clazz);
+        Object value = lookup(FIRST, key);
+        if (value == null) {
+            value = store(key, genericRepository.findFirst(clazz));
+        }
+        return value == NULL ? null : (T) value;
+    }
+
+    public CO2Auction findCO2Auction() {
+        List<Object> key = key(CO2_AUCTION);
+        Object value = lookup(CO2_AUCTION, key);
+        if (value == null) {
+            value = store(key, marketRepository.findCO2Auction());
+        }
+        return value == NULL ? null : (CO2Auction) value;
+    }
+
+    /**
+     * @param substance
+     * @return the cached last known price of the substance in this tick, or null if it has not been stored yet
+     */
+    public Double findLastKnownPriceForSubstance(Substance substance) {
+        if (tick == NO_TICK) {
+            return null;
+        }
+        Double price = lastKnownPrices.get(substance.getNodeId());
+        count(LAST_KNOWN_PRICE, price != null);
+        return price;
+    }
+
+    public void storeLastKnownPriceForSubstance(Substance substance, double price) {
+        if (tick != NO_TICK) {
+            lastKnownPrices.put(substance.getNodeId(), price);
+        }
+    }
+
+    /**
+     * Looks up a value that a role has computed earlier in this tick, such as the market expectations of the investment roles.
+     * 
+     * @param region
+     *            the kind of value, under which hits and misses are counted
+     * @param keyParts
+     *            all inputs of the computation
+     * @return the value, or null if it has not been stored in this tick
+     */
+    public Object findComputedValue(String region, Object... keyParts) {
+        Object value = lookup(region, key(region, Arrays.asList(keyParts)));
+        return value == NULL ? null : value;
+    }
+
+    public void storeComputedValue(Object value, String region, Object... keyParts) {
+        store(key(region, Arrays.asList(keyParts)), value);
+    }
+
+    private List<Object> key(Object... parts) {
+        return Arrays.asList(parts);
+    }
+
+    private Object lookup(String region, List<Object> key) {
+        if (tick == NO_TICK) {
+            return null;
+        }
+        Object value = values.get(key);
+        count(region, value != null ? 0 : 1);
+        return value;
+    }
+
+    private Object store(List<Object> key, Object value) {
+        if (value == null) {
+            value = NULL;
+        }
+        if (tick != NO_TICK) {
+            values.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Counts a hit or a miss of a cache that is kept elsewhere, such as the values cached on power plants, so that it shows up with the
+     * other hits and misses.
+     */
+    public void count(String region, boolean hit) {
+        count(region, hit ? 0 : 1);
+    }
+
+    private void count(String region, int hitOrMiss) {
+        AtomicLong[] counter = counters.get(region);
+        if (counter == null) {
+            counters.putIfAbsent(region, new AtomicLong[] { new AtomicLong(), new AtomicLong() });
+            counter = counters.get(region);
+        }
+        counter[hitOrMiss].incrementAndGet();
+    }
+
+    public long getHits() {
+        long hits = 0;
+        for (AtomicLong[] counter : counters.values()) {
+            hits += counter[0].get();
+        }
+        return hits;
+    }
+
+    public long getMisses() {
+        long misses = 0;
+        for (AtomicLong[] counter : counters.values()) {
+            misses += counter[1].get();
+        }
+        return misses;
+    }
+
+    /**
+     * @return hits and misses per kind of lookup since the start of the simulation
+     */
+    public Map<String, long[]> getHitsAndMisses() {
+        Map<String, long[]> hitsAndMisses = new TreeMap<String, long[]>();
+        for (Map.Entry<String, AtomicLong[]> entry : counters.entrySet()) {
+            hitsAndMisses.put(entry.getKey(), new long[] { entry.getValue()[0].get(), entry.getValue()[1].get() });
+        }
+        return hitsAndMisses;
+    }
+
+    public void logHitsAndMisses() {
+        for (Map.Entry<String, long[]> entry : getHitsAndMisses().entrySet()) {
+            logger.info("        cache {}: {} hits, {} misses", new Object[] { entry.getKey(), entry.getValue()[0], entry.getValue()[1] });
+        }
+    }
+
+}
@@ -15,41 +15,37 @@
  ******************************************************************************/
 package emlab.gen.role;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.math.optimization.GoalType;
-import org.apache.commons.math.optimization.OptimizationException;
-import org.apache.commons.math.optimization.RealPointValuePair;
-import org.apache.commons.math.optimization.linear.LinearConstraint;
-import org.apache.commons.math.optimization.linear.LinearObjectiveFunction;
-import org.apache.commons.math.optimization.linear.Relationship;
-import org.apache.commons.math.optimization.linear.SimplexSolver;
-import org.apache.commons.math.stat.regression.SimpleRegression;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import agentspring.role.AbstractRole;
 import agentspring.trend.GeometricTrend;
-import emlab.gen.domain.agent.CommoditySupplier;
 import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.agent.Government;
 import emlab.gen.domain.market.CO2Auction;
-import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.DecarbonizationMarket;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.technology.PowerGeneratingTechnology;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
 import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.repository.ForecastCache;
 import emlab.gen.repository.Reps;
+import emlab.gen.util.FuelMixSolver;
 
 public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> extends AbstractRole<T> {
 
+    static final String FUEL_MIX = "fuelMix";
+
+    static final String MARGINAL_FUEL_COST = "marginalFuelCost";
+
+    private static final double[] NO_FEASIBLE_FUEL_MIX = new double[0];
+
     @Autowired
     Reps reps;
 
@@ -146,7 +142,17 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
         return mc;
     }
 
+    /**
+     * The marginal fuel cost is cached on the plant until its fuel mix is set again or the price of one of its fuels may have changed.
+     */
     public double calculateMarginalFuelCost(PowerPlant powerPlant) {
+        long priceVersion = findFuelPriceVersion(powerPlant);
+        Double cachedCost = powerPlant.findCachedMarginalFuelCost(priceVersion);
+        reps.tickScopedCache.count(MARGINAL_FUEL_COST, cachedCost != null);
+        if (cachedCost != null) {
+            return cachedCost;
+        }
+
         double fc = 0d;
         // fuel cost for each fuel
         for (SubstanceShareInFuelMix mix : powerPlant.getFuelMix()) {
@@ -158,9 +164,27 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
             logger.info("Calculating marginal cost and found a fuel price which is {} per unit of fuel", fuelPrice);
         }
 
+        powerPlant.cacheMarginalFuelCost(fc, priceVersion);
         return fc;
     }
 
+    /**
+     * Price versions only grow, so the highest version of the fuels of a plant changes whenever the price of one of them may have changed.
+     * 
+     * @return the highest price version of the fuels of the plant, or -1 if prices are not cached
+     */
+    private long findFuelPriceVersion(PowerPlant powerPlant) {
+        long priceVersion = 0;
+        for (SubstanceShareInFuelMix mix : powerPlant.getFuelMix()) {
+            long substanceVersion = reps.tickScopedCache.getPriceVersion(mix.getSubstance());
+            if (substanceVersion < 0) {
+                return substanceVersion;
+            }
+            priceVersion = Math.max(priceVersion, substanceVersion);
+        }
+        return priceVersion;
+    }
+
     /**
      * Finds the last known price on a specific market. We try to get it for this tick, previous tick, or from a possible supplier directly. If multiple prices are found, the average is returned. This
      * is the case for electricity spot markets, as they may have segments.
@@ -170,37 +194,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
      * @return the (average) price found
      */
     public double findLastKnownPriceOnMarket(DecarbonizationMarket market) {
-        Double average = calculateAverageMarketPriceBasedOnClearingPoints(reps.clearingPointRepositoryOld
-                .findClearingPointsForMarketAndTime(market, getCurrentTick()));
-        Substance substance = market.getSubstance();
-
-        if (average != null) {
-            logger.info("Average price found on market for this tick for {}", substance.getName());
-            return average;
-        }
-
-        average = calculateAverageMarketPriceBasedOnClearingPoints(reps.clearingPointRepositoryOld
-                .findClearingPointsForMarketAndTime(
-                        market, getCurrentTick() - 1));
-        if (average != null) {
-            logger.info("Average price found on market for previous tick for {}", substance.getName());
-            return average;
-        }
-
-        if (market.getReferencePrice() > 0) {
-            logger.info("Found a reference price found for market for {}", substance.getName());
-            return market.getReferencePrice();
-        }
-
-        for (CommoditySupplier supplier : reps.genericRepository.findAll(CommoditySupplier.class)) {
-            if (supplier.getSubstance().equals(substance)) {
-
-                return supplier.getPriceOfCommodity().getValue(getCurrentTick());
-            }
-        }
-
-        logger.info("No price has been found for {}", substance.getName());
-        return 0d;
+        return reps.priceHistory.findLastKnownPriceOnMarket(market, getCurrentTick());
     }
 
     /**
@@ -213,46 +207,32 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
      */
     public double findLastKnownPriceForSubstance(Substance substance) {
 
+        Double cachedPrice = reps.tickScopedCache.findLastKnownPriceForSubstance(substance);
+        if (cachedPrice != null) {
+            return cachedPrice;
+        }
+        double price;
         DecarbonizationMarket market = reps.marketRepository.findFirstMarketBySubstance(substance);
         if (market == null) {
             logger.warn("No market found for {} so no price can be found", substance.getName());
-            return 0d;
+            price = 0d;
         } else {
-            return findLastKnownPriceOnMarket(market);
+            price = findLastKnownPriceOnMarket(market);
         }
-    }
-
-    /**
-     * Calculates the volume-weighted average price on a market based on a set of clearingPoints.
-     * 
-     * @param clearingPoints
-     *            the clearingPoints with the volumes and prices
-     * @return the weighted average
-     */
-    private Double calculateAverageMarketPriceBasedOnClearingPoints(Iterable<ClearingPoint> clearingPoints) {
-        double priceTimesVolume = 0d;
-        double volume = 0d;
-
-        for (ClearingPoint point : clearingPoints) {
-            priceTimesVolume += point.getPrice() * point.getVolume();
-            volume += point.getVolume();
-        }
-        if (volume > 0) {
-            return priceTimesVolume / volume;
-        }
-        return null;
+        reps.tickScopedCache.storeLastKnownPriceForSubstance(substance, price);
+        return price;
     }
 
     public double calculateCO2MarketMarginalCost(PowerPlant powerPlant) {
         double co2Intensity = powerPlant.calculateEmissionIntensity();
-        CO2Auction auction = reps.genericRepository.findFirst(CO2Auction.class);
+        CO2Auction auction = reps.tickScopedCache.findFirst(CO2Auction.class);
         double co2Price = findLastKnownPriceOnMarket(auction);
         return co2Intensity * co2Price;
     }
 
     public double calculateCO2MarketCost(PowerPlant powerPlant) {
         double co2Intensity = powerPlant.calculateEmissionIntensity();
-        CO2Auction auction = reps.genericRepository.findFirst(CO2Auction.class);
+        CO2Auction auction = reps.tickScopedCache.findFirst(CO2Auction.class);
         double co2Price = findLastKnownPriceOnMarket(auction);
         double electricityOutput = powerPlant.calculateElectricityOutputAtTime(getCurrentTick());
         return co2Intensity * co2Price * electricityOutput;
@@ -266,10 +246,10 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
      */
     public double calculatePaymentEffictiveCO2NationalMinimumPriceCost(PowerPlant powerPlant) {
         double co2Intensity = powerPlant.calculateEmissionIntensity();
-        CO2Auction auction = reps.genericRepository.findFirst(CO2Auction.class);
+        CO2Auction auction = reps.tickScopedCache.findFirst(CO2Auction.class);
         double co2Price = findLastKnownPriceOnMarket(auction);
         double electricityOutput = powerPlant.calculateElectricityOutputAtTime(getCurrentTick());
-        double nationalMinCo2price = reps.nationalGovernmentRepository.findNationalGovernmentByPowerPlant(powerPlant)
+        double nationalMinCo2price = reps.powerPlantLocationIndex.findNationalGovernmentByPowerPlant(powerPlant)
                 .getMinNationalCo2PriceTrend().getValue(getCurrentTick());
         double paymentEffectivePartOfNationalCO2;
         if (nationalMinCo2price > co2Price)
@@ -281,14 +261,14 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
 
     public double calculateCO2TaxMarginalCost(PowerPlant powerPlant) {
         double co2Intensity = powerPlant.calculateEmissionIntensity();
-        Government government = reps.genericRepository.findFirst(Government.class);
+        Government government = reps.tickScopedCache.findFirst(Government.class);
         double co2Tax = government.getCO2Tax(getCurrentTick());
         return co2Intensity * co2Tax;
     }
 
     public double findLastKnownCO2Price() {
-        Government government = reps.genericRepository.findFirst(Government.class);
-        CO2Auction auction = reps.genericRepository.findFirst(CO2Auction.class);
+        Government government = reps.tickScopedCache.findFirst(Government.class);
+        CO2Auction auction = reps.tickScopedCache.findFirst(CO2Auction.class);
         double co2Price = findLastKnownPriceOnMarket(auction);
         double co2Tax = government.getCO2Tax(getCurrentTick());
         return co2Price + co2Tax;
@@ -297,7 +277,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
     public double calculateCO2Tax(PowerPlant powerPlant) {
         double co2Intensity = powerPlant.calculateEmissionIntensity();
         double electricityOutput = powerPlant.calculateElectricityOutputAtTime(getCurrentTick());
-        Government government = reps.genericRepository.findFirst(Government.class);
+        Government government = reps.tickScopedCache.findFirst(Government.class);
         double co2Tax = government.getCO2Tax(getCurrentTick());
         double taxToPay = (co2Intensity * electricityOutput) * co2Tax;
         return taxToPay;
@@ -348,7 +328,9 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
 
 
     /**
-     * The fuel mix is calculated with a linear optimization model of the possible fuels and the requirements.
+     * The fuel mix is calculated by enumerating the vertices of the linear optimization model of the possible fuels and the requirements
+     * (see {@link FuelMixSolver}). The result is memoized within a tick. The fuel mix is set on the plant, but only if it changed, so
+     * that the values the plant derives from its fuel mix stay cached otherwise.
      * 
      * @param substancePriceMap
      *            contains the possible fuels and their market prices
@@ -371,109 +353,132 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
         int numberOfFuels = substancePriceMap.size();
         if (numberOfFuels == 0) {
             logger.info("No fuels, so no operation mode is set. Empty fuel mix is returned");
-            return new HashSet<SubstanceShareInFuelMix>();
+            if (plant.getFuelMix() == null || !fuelMix.isEmpty()) {
+                plant.setFuelMix(new HashSet<SubstanceShareInFuelMix>());
+            }
+            return plant.getFuelMix();
         } else if (numberOfFuels == 1) {
+            boolean changed = plant.getFuelMix() == null;
             SubstanceShareInFuelMix ssifm = null;
             if (!fuelMix.isEmpty()) {
                 ssifm = fuelMix.iterator().next();
             } else {
-                ssifm = new SubstanceShareInFuelMix().persist();
+                ssifm = createSubstanceShareInFuelMix(plant);
                 fuelMix.add(ssifm);
+                changed = true;
             }
 
             Substance substance = substancePriceMap.keySet().iterator().next();
 
-            ssifm.setShare(calculateFuelConsumptionWhenOnlyOneFuelIsUsed(substance, efficiency));
-            ssifm.setSubstance(substance);
+            changed |= ssifm.update(substance, calculateFuelConsumptionWhenOnlyOneFuelIsUsed(substance, efficiency));
             logger.info("Setting fuel consumption for {} to {}", ssifm.getSubstance().getName(), ssifm.getShare());
 
+            if (changed) {
+                plant.setFuelMix(fuelMix);
+            }
             return fuelMix;
         } else {
 
             double minimumFuelMixQuality = plant.getTechnology().getMinimumFuelQuality();
+            double[] shares = findCheapestFuelMix(plant, substancePriceMap, co2Price);
 
-            double[] fuelAndCO2Costs = new double[numberOfFuels];
-            double[] fuelDensities = new double[numberOfFuels];
-            double[] fuelQuality = new double[numberOfFuels];
-
-            int i = 0;
-            for (Substance substance : substancePriceMap.keySet()) {
-                fuelAndCO2Costs[i] = substancePriceMap.get(substance) + substance.getCo2Density() * (co2Price);
-                fuelDensities[i] = substance.getEnergyDensity();
-                fuelQuality[i] = (substance.getQuality() - minimumFuelMixQuality) * fuelDensities[i];
-                i++;
-            }
-
-            logger.info("Fuel prices: {}", fuelAndCO2Costs);
-            logger.info("Fuel densities: {}", fuelDensities);
-            logger.info("Fuel purities: {}", fuelQuality);
-
-            // Objective function = minimize fuel cost (fuel
-            // consumption*fuelprices
-            // + CO2 intensity*co2 price/tax)
-            LinearObjectiveFunction function = new LinearObjectiveFunction(fuelAndCO2Costs, 0d);
-
-            List<LinearConstraint> constraints = new ArrayList<LinearConstraint>();
-
-            // Constraint 1: total fuel density * fuel consumption should match
-            // required energy input
-            constraints.add(new LinearConstraint(fuelDensities, Relationship.EQ, (1 / efficiency)));
-
-            // Constraint 2&3: minimum fuel quality (times fuel consumption)
-            // required
-            // The equation is derived from (example for 2 fuels): q1 * x1 / (x1+x2) + q2 * x2 / (x1+x2) >= qmin
-            // so that the fuelquality weighted by the mass percentages is greater than the minimum fuel quality.
-            constraints.add(new LinearConstraint(fuelQuality, Relationship.GEQ, 0));
-
-            try {
-                SimplexSolver solver = new SimplexSolver();
-                RealPointValuePair solution = solver.optimize(function, constraints, GoalType.MINIMIZE, true);
-
-                logger.info("Succesfully solved a linear optimization for fuel mix");
-
+            if (shares != null) {
+                boolean changed = plant.getFuelMix() == null;
                 int f = 0;
-                Iterator<SubstanceShareInFuelMix> iterator = plant.getFuelMix().iterator();
+                Iterator<SubstanceShareInFuelMix> iterator = fuelMix.iterator();
                 for (Substance substance : substancePriceMap.keySet()) {
-                    double share = solution.getPoint()[f];
-
                     SubstanceShareInFuelMix ssifm;
                     if (iterator.hasNext()) {
                         ssifm = iterator.next();
                     } else {
-                        ssifm = new SubstanceShareInFuelMix().persist();
+                        ssifm = createSubstanceShareInFuelMix(plant);
                         fuelMix.add(ssifm);
+                        changed = true;
                     }
 
-                    double fuelConsumptionPerMWhElectricityProduced = convertFuelShareToMassVolume(share);
-                    logger.info("Setting fuel consumption for {} to {}", substance.getName(), fuelConsumptionPerMWhElectricityProduced);
-                    ssifm.setShare(fuelConsumptionPerMWhElectricityProduced);
-                    ssifm.setSubstance(substance);
+                    logger.info("Setting fuel consumption for {} to {}", substance.getName(), shares[f]);
+                    changed |= ssifm.update(substance, shares[f]);
                     f++;
                 }
-
-                logger.info("If single fired, it would have been: {}",
-                        calculateFuelConsumptionWhenOnlyOneFuelIsUsed(substancePriceMap.keySet().iterator().next(), efficiency));
+                if (changed) {
+                    plant.setFuelMix(fuelMix);
+                }
                 return fuelMix;
-            } catch (OptimizationException e) {
+            } else {
                 logger.warn(
                         "Failed to determine the correct fuel mix. Adding only fuel number 1 in fuel mix out of {} substances and minimum quality of {}",
                         substancePriceMap.size(), minimumFuelMixQuality);
                 logger.info("The fuel added is: {}", substancePriceMap.keySet().iterator().next().getName());
 
-                // Override the old one
+                // Override the old one, but reuse its first share
+                SubstanceShareInFuelMix ssifm = fuelMix.isEmpty() ? createSubstanceShareInFuelMix(plant) : fuelMix.iterator().next();
+                boolean changed = plant.getFuelMix() == null || fuelMix.size() != 1;
                 fuelMix = new HashSet<SubstanceShareInFuelMix>();
-                SubstanceShareInFuelMix ssifm = new SubstanceShareInFuelMix().persist();
                 Substance substance = substancePriceMap.keySet().iterator().next();
 
-                ssifm.setShare(calculateFuelConsumptionWhenOnlyOneFuelIsUsed(substance, efficiency));
-                ssifm.setSubstance(substance);
+                changed |= ssifm.update(substance, calculateFuelConsumptionWhenOnlyOneFuelIsUsed(substance, efficiency));
                 logger.info("Setting fuel consumption for {} to {}", ssifm.getSubstance().getName(), ssifm.getShare());
                 fuelMix.add(ssifm);
+                if (changed) {
+                    plant.setFuelMix(fuelMix);
+                }
                 return fuelMix;
             }
         }
     }
 
+    /**
+     * Finds the cheapest fuel mix of a multi-fuel plant, memoized on the technology, the efficiency, the fuels and their prices and the
+     * CO2 price. The returned array is shared and must not be changed.
+     * 
+     * @return the fuel consumption per MWh electricity of each fuel, in the order of the price map, or null if no fuel mix meets the
+     *         minimum fuel quality
+     */
+    private double[] findCheapestFuelMix(PowerPlant plant, Map<Substance, Double> substancePriceMap, double co2Price) {
+        int numberOfFuels = substancePriceMap.size();
+        Object[] keyParts = new Object[3 + 2 * numberOfFuels];
+        keyParts[0] = plant.getTechnology().getNodeId();
+        keyParts[1] = plant.getActualEfficiency();
+        keyParts[2] = co2Price;
+        int k = 3;
+        for (Map.Entry<Substance, Double> entry : substancePriceMap.entrySet()) {
+            keyParts[k++] = entry.getKey().getNodeId();
+            keyParts[k++] = entry.getValue();
+        }
+        Object cached = reps.tickScopedCache.findComputedValue(FUEL_MIX, keyParts);
+        if (cached != null) {
+            return cached == NO_FEASIBLE_FUEL_MIX ? null : (double[]) cached;
+        }
+
+        double minimumFuelMixQuality = plant.getTechnology().getMinimumFuelQuality();
+        double[] fuelAndCO2Costs = new double[numberOfFuels];
+        double[] fuelDensities = new double[numberOfFuels];
+        double[] fuelQualities = new double[numberOfFuels];
+        int i = 0;
+        for (Map.Entry<Substance, Double> entry : substancePriceMap.entrySet()) {
+            Substance substance = entry.getKey();
+            fuelAndCO2Costs[i] = entry.getValue() + substance.getCo2Density() * (co2Price);
+            fuelDensities[i] = substance.getEnergyDensity();
+            fuelQualities[i] = substance.getQuality();
+            i++;
+        }
+
+        double[] shares = new double[numberOfFuels];
+        boolean feasible = FuelMixSolver.solve(fuelDensities, fuelQualities, minimumFuelMixQuality, plant.getActualEfficiency(),
+                fuelAndCO2Costs, shares);
+        reps.tickScopedCache.storeComputedValue(feasible ? shares : NO_FEASIBLE_FUEL_MIX, FUEL_MIX, keyParts);
+        return feasible ? shares : null;
+    }
+
+    /**
+     * The fuel mix of a plant that is only evaluated, and not persisted, is not persisted either. This keeps the evaluation of investment
+     * options free of writes to the graph.
+     */
+    private SubstanceShareInFuelMix createSubstanceShareInFuelMix(PowerPlant plant) {
+        SubstanceShareInFuelMix ssifm = new SubstanceShareInFuelMix();
+        return plant.getNodeId() == null ? ssifm : ssifm.persist();
+    }
+
     public double convertFuelShareToMassVolume(double share) {
         return share * 3600;
     }
@@ -530,29 +535,19 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
      */
     protected HashMap<ElectricitySpotMarket, Double> determineExpectedCO2PriceInclTax(long futureTimePoint, long yearsLookingBackForRegression, int adjustmentForDetermineFuelMix) {
         HashMap<ElectricitySpotMarket, Double> co2Prices = new HashMap<ElectricitySpotMarket, Double>();
-        CO2Auction co2Auction = reps.marketRepository.findCO2Auction();
-        //Find Clearing Points for the last 5 years (counting current year as one of the last 5 years).
-        Iterable<ClearingPoint> cps = reps.clearingPointRepository.findAllClearingPointsForMarketAndTimeRange(co2Auction, getCurrentTick()-yearsLookingBackForRegression+1-adjustmentForDetermineFuelMix, getCurrentTick()-adjustmentForDetermineFuelMix);
-        // Create regression object and calculate average
-        SimpleRegression sr = new SimpleRegression();
+        CO2Auction co2Auction = reps.tickScopedCache.findCO2Auction();
+        //Forecast based on the clearing points of the last 5 years (counting current year as one of the last 5 years).
+        ForecastCache.Forecast forecast = reps.forecastCache.forecastCO2Price(co2Auction, yearsLookingBackForRegression,
+                getCurrentTick() - adjustmentForDetermineFuelMix, getCurrentTick(), futureTimePoint);
         Government government = reps.template.findAll(Government.class).iterator().next();
-        double lastPrice = 0;
-        double averagePrice = 0;
-        int i = 0;
-        for (ClearingPoint clearingPoint : cps) {
-            sr.addData(clearingPoint.getTime(), clearingPoint.getPrice());
-            lastPrice = clearingPoint.getPrice();
-            averagePrice += lastPrice;
-            i++;
-        }
-        averagePrice = averagePrice / i;
+        double averagePrice = forecast.getAverage();
         double expectedCO2Price;
-        if(i>1){
-            expectedCO2Price = sr.predict(futureTimePoint);
+        if(forecast.getN()>1){
+            expectedCO2Price = forecast.getPrediction();
             expectedCO2Price = Math.max(0, expectedCO2Price);
             expectedCO2Price = Math.min(expectedCO2Price, government.getCo2Penalty(futureTimePoint));
         }else{
-            expectedCO2Price = lastPrice;
+            expectedCO2Price = forecast.getLast();
         }
         // Calculate average of regression and past average:
         expectedCO2Price = (expectedCO2Price + averagePrice) / 2;
@@ -565,7 +560,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
             } else {
                 co2PriceInCountry = nationalCo2MinPriceinFutureTick;
             }
-            co2PriceInCountry += reps.genericRepository.findFirst(Government.class).getCO2Tax(futureTimePoint);
+            co2PriceInCountry += reps.tickScopedCache.findFirst(Government.class).getCO2Tax(futureTimePoint);
             co2Prices.put(esm, Double.valueOf(co2PriceInCountry));
         }
         return co2Prices;
@@ -15,6 +15,10 @@
  ******************************************************************************/
 package emlab.gen.role;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.transaction.annotation.Transactional;
@@ -31,6 +35,7 @@ import emlab.gen.domain.agent.StrategicReserveOperator;
 import emlab.gen.domain.agent.TargetInvestor;
 import emlab.gen.domain.market.CommodityMarket;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.repository.Reps;
 import emlab.gen.role.capacitymechanisms.ProcessAcceptedPowerPlantDispatchRoleinSR;
 import emlab.gen.role.capacitymechanisms.StrategicReserveOperatorRole;
@@ -52,6 +57,8 @@ import emlab.gen.role.operating.PayCO2AuctionRole;
 import emlab.gen.role.operating.PayCO2TaxRole;
 import emlab.gen.role.operating.PayForLoansRole;
 import emlab.gen.role.operating.PayOperatingAndMaintainanceCostsRole;
+import emlab.gen.util.SimulationMetrics;
+import emlab.gen.util.Utils;
 
 /**
  * Main model role.
@@ -108,6 +115,9 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
 
     @Autowired Neo4jTemplate template;
 
+    private boolean resumeChecked = false;
+    private long resumedTick = -1;
+
     /**
      * Main model script. Executes other roles in the right sequence.
      */
@@ -124,7 +134,17 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
             agentspring.simulation.Schedule.getSchedule().stop();
         }
 
+        if (!resumeChecked) {
+            resumeFromCheckpoint();
+        }
+        if (getCurrentTick() <= resumedTick) {
+            logger.warn("***** SKIPPING TICK {}, RESUMED AFTER TICK {} *****", getCurrentTick(), resumedTick);
+            return;
+        }
+
         logger.warn("***** STARTING TICK {} *****", getCurrentTick());
+        reps.tickScopedCache.startTick(getCurrentTick());
+        SimulationMetrics.getInstance().setEnabled(model.isMetricsEnabled());
         Timer timer = new Timer();
         timer.start();
 
@@ -319,14 +339,43 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
             logger.warn("  8. Delete old nodes in year {}.", (getCurrentTick() - model.getDeletionAge()));
             reps.bidRepository.delete(reps.bidRepository.findAllBidsForForTime(getCurrentTick() - model.getDeletionAge()));
             reps.cashFlowRepository.delete(reps.cashFlowRepository.findAllCashFlowsForForTime(getCurrentTick() - model.getDeletionAge()));
-            reps.powerPlantRepository.delete(reps.powerPlantRepository.findAllPowerPlantsDismantledBeforeTick(getCurrentTick()
+            List<PowerPlant> oldPowerPlants = Utils.asList(reps.powerPlantRepository.findAllPowerPlantsDismantledBeforeTick(getCurrentTick()
                     - model.getDeletionAge()));
+            for (PowerPlant plant : oldPowerPlants) {
+                reps.powerPlantLocationIndex.remove(plant);
+                reps.powerPlantFleetTable.remove(plant);
+            }
+            reps.powerPlantRepository.delete(oldPowerPlants);
             timerMarket.stop();
             logger.warn("        took: {} seconds.", timerMarket.seconds());
         }
 
         timer.stop();
         logger.warn("Tick {} took {} seconds.", getCurrentTick(), timer.seconds());
+        reps.tickScopedCache.logHitsAndMisses();
+        if (model.isMetricsEnabled()) {
+            SimulationMetrics.getInstance().exportTick(getCurrentTick());
+        }
+        if (model.getCheckpointInterval() > 0 && (getCurrentTick() + 1) % model.getCheckpointInterval() == 0) {
+            reps.checkpointRepository.writeCheckpoint(getCurrentTick());
+        }
+    }
+
+    /**
+     * Restores the checkpoint given by the emlab.resume system property, if any. The schedule of the engine still starts at tick 0, so
+     * the ticks up to and including the tick of the checkpoint are skipped. The random draws after the checkpoint differ from those of
+     * the original run, see {@link emlab.gen.repository.CheckpointRepository}.
+     */
+    private void resumeFromCheckpoint() {
+        resumeChecked = true;
+        File checkpoint = reps.checkpointRepository.findResumeFile();
+        if (checkpoint != null) {
+            try {
+                resumedTick = reps.checkpointRepository.restoreCheckpoint(checkpoint);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not resume from checkpoint " + checkpoint, e);
+            }
+        }
     }
 
     @Transactional
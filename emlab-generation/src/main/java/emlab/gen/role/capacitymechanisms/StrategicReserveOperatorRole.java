@@ -100,7 +100,7 @@ public class StrategicReserveOperatorRole extends AbstractRole<StrategicReserveO
 
         // Count all segments in the given market
 
-        segmentCounter = reps.segmentRepository.count();
+        segmentCounter = reps.tickScopedCache.countSegments();
         // find all segments for the given market
         for(Segment currentSegment: reps.segmentRepository.findAll()){
             //logger.warn("Current segment is" + currentSegment);
@@ -15,11 +15,15 @@
  ******************************************************************************/
 package emlab.gen.role.investment;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
@@ -31,13 +35,13 @@ import org.springframework.transaction.annotation.Transactional;
 
 import agentspring.role.Role;
 import emlab.gen.domain.agent.BigBank;
+import emlab.gen.domain.agent.DecarbonizationModel;
 import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.agent.PowerPlantManufacturer;
 import emlab.gen.domain.agent.StrategicReserveOperator;
 import emlab.gen.domain.contract.CashFlow;
 import emlab.gen.domain.contract.Loan;
 import emlab.gen.domain.gis.Zone;
-import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.Segment;
 import emlab.gen.domain.market.electricity.SegmentLoad;
@@ -50,8 +54,8 @@ import emlab.gen.domain.technology.Substance;
 import emlab.gen.domain.technology.SubstanceShareInFuelMix;
 import emlab.gen.repository.Reps;
 import emlab.gen.repository.StrategicReserveOperatorRepository;
-import emlab.gen.util.GeometricTrendRegression;
 import emlab.gen.util.MapValueComparator;
+import emlab.gen.util.Utils;
 
 /**
  * {@link EnergyProducer}s decide to invest in new {@link PowerPlant}
@@ -78,22 +82,20 @@ NodeBacked {
     @Autowired
     StrategicReserveOperatorRepository strategicReserveOperatorRepository;
 
-    // market expectations
-	@Transient
-    Map<ElectricitySpotMarket, MarketInformation> marketInfoMap = new HashMap<ElectricitySpotMarket, MarketInformation>();
+    static final String MARKET_INFORMATION = "marketInformation";
 
     @Override
-    public void act(T agent) {
+    public void act(final T agent) {
 
-        long futureTimePoint = getCurrentTick() + agent.getInvestmentFutureTimeHorizon();
+        final long futureTimePoint = getCurrentTick() + agent.getInvestmentFutureTimeHorizon();
         // logger.warn(agent + " is looking at timepoint " + futureTimePoint);
 
         // ==== Expectations ===
 
-        Map<Substance, Double> expectedFuelPrices = predictFuelPrices(agent, futureTimePoint);
+        final Map<Substance, Double> expectedFuelPrices = predictFuelPrices(agent, futureTimePoint);
 
         // CO2
-        Map<ElectricitySpotMarket, Double> expectedCO2Price = determineExpectedCO2PriceInclTax(futureTimePoint,
+        final Map<ElectricitySpotMarket, Double> expectedCO2Price = determineExpectedCO2PriceInclTax(futureTimePoint,
                 agent.getNumberOfYearsBacklookingForForecasting());
 
         // logger.warn(expectedCO2Price.toString());
@@ -101,11 +103,8 @@ NodeBacked {
         //Demand
         Map<ElectricitySpotMarket, Double> expectedDemand = new HashMap<ElectricitySpotMarket, Double>();
         for(ElectricitySpotMarket elm : reps.template.findAll(ElectricitySpotMarket.class)){
-            GeometricTrendRegression gtr = new GeometricTrendRegression();
-            for(long time = getCurrentTick(); time>getCurrentTick()-agent.getNumberOfYearsBacklookingForForecasting() && time>=0; time=time-1){
-                gtr.addData(time, elm.getDemandGrowthTrend().getValue(time));
-            }
-            expectedDemand.put(elm, gtr.predict(futureTimePoint));
+            expectedDemand.put(elm, reps.forecastCache.predictDemandGrowth(elm, agent.getNumberOfYearsBacklookingForForecasting(),
+                    getCurrentTick(), futureTimePoint));
         }
 
 
@@ -115,12 +114,6 @@ NodeBacked {
         // reps.genericRepository.findAllAtRandom(ElectricitySpotMarket.class))
         // {
         ElectricitySpotMarket market = agent.getInvestorMarket();
-        MarketInformation marketInformation = new MarketInformation(market, expectedDemand, expectedFuelPrices, expectedCO2Price.get(market)
-                .doubleValue(), futureTimePoint);
-        /*
-         * if (marketInfoMap.containsKey(market) && marketInfoMap.get(market).time == futureTimePoint) { marketInformation = marketInfoMap.get(market); } else { marketInformation = new
-         * MarketInformation(market, expectedFuelPrices, expectedCO2Price, futureTimePoint); marketInfoMap.put(market, marketInformation); }
-         */
 
         // logger.warn(agent + " is expecting a CO2 price of " +
         // expectedCO2Price.get(market) + " Euro/MWh at timepoint "
@@ -134,176 +127,18 @@ NodeBacked {
         // "and expectde maximum demand to be "
         // + marketInformation.maxExpectedLoad, agent, market);
 
-        double highestValue = Double.MIN_VALUE;
-        PowerGeneratingTechnology bestTechnology = null;
-
-        for (PowerGeneratingTechnology technology : reps.genericRepository.findAll(PowerGeneratingTechnology.class)) {
-
-            PowerPlant plant = new PowerPlant();
-            plant.specifyNotPersist(getCurrentTick(), agent, getNodeForZone(market.getZone()), technology);
-            // if too much capacity of this technology in the pipeline (not
-            // limited to the 5 years)
-            double expectedInstalledCapacityOfTechnology = reps.powerPlantRepository
-                    .calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, technology, futureTimePoint);
-            PowerGeneratingTechnologyTarget technologyTarget = reps.powerGenerationTechnologyTargetRepository.findOneByTechnologyAndMarket(technology, market);
-            if(technologyTarget!=null){
-                double technologyTargetCapacity = technologyTarget.getTrend().getValue(futureTimePoint);
-                expectedInstalledCapacityOfTechnology =  (technologyTargetCapacity > expectedInstalledCapacityOfTechnology) ? technologyTargetCapacity : expectedInstalledCapacityOfTechnology;
-            }
-            double pgtNodeLimit = Double.MAX_VALUE;
-            PowerGeneratingTechnologyNodeLimit pgtLimit = reps.powerGeneratingTechnologyNodeLimitRepository
-                    .findOneByTechnologyAndNode(technology, plant.getLocation());
-            if (pgtLimit != null) {
-                pgtNodeLimit = pgtLimit.getUpperCapacityLimit(futureTimePoint);
-            }
-            double expectedInstalledCapacityOfTechnologyInNode = reps.powerPlantRepository
-                    .calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(plant.getLocation(),
-                            technology, futureTimePoint);
-            double expectedOwnedTotalCapacityInMarket = reps.powerPlantRepository
-                    .calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(market, futureTimePoint, agent);
-            double expectedOwnedCapacityInMarketOfThisTechnology = reps.powerPlantRepository
-                    .calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(market, technology, futureTimePoint,
-                            agent);
-            double capacityOfTechnologyInPipeline = reps.powerPlantRepository.calculateCapacityOfPowerPlantsByTechnologyInPipeline(
-                    technology, getCurrentTick());
-            double operationalCapacityOfTechnology = reps.powerPlantRepository.calculateCapacityOfOperationalPowerPlantsByTechnology(
-                    technology, getCurrentTick());
-            double capacityInPipelineInMarket = reps.powerPlantRepository
-                    .calculateCapacityOfPowerPlantsByMarketInPipeline(market, getCurrentTick());
-
-            if ((expectedInstalledCapacityOfTechnology + plant.getActualNominalCapacity())
-                    / (marketInformation.maxExpectedLoad + plant.getActualNominalCapacity()) > technology
-                    .getMaximumInstalledCapacityFractionInCountry()) {
-                // logger.warn(agent +
-                // " will not invest in {} technology because there's too much of this type in the market",
-                // technology);
-            } else if ((expectedInstalledCapacityOfTechnologyInNode + plant.getActualNominalCapacity()) > pgtNodeLimit) {
-
-            } else if (expectedOwnedCapacityInMarketOfThisTechnology > expectedOwnedTotalCapacityInMarket
-                    * technology.getMaximumInstalledCapacityFractionPerAgent()) {
-                // logger.warn(agent +
-                // " will not invest in {} technology because there's too much capacity planned by him",
-                // technology);
-            } else if (capacityInPipelineInMarket > 0.2 * marketInformation.maxExpectedLoad) {
-                // logger.warn("Not investing because more than 20% of demand in pipeline.");
-
-            } else if ((capacityOfTechnologyInPipeline > 2.0 * operationalCapacityOfTechnology)
-                    && capacityOfTechnologyInPipeline > 9000) { // TODO:
-                // reflects that you cannot expand a technology out of zero.
-                // logger.warn(agent +
-                // " will not invest in {} technology because there's too much capacity in the pipeline",
-                // technology);
-            } else if (plant.getActualInvestedCapital() * (1 - agent.getDebtRatioOfInvestments()) > agent
-                    .getDownpaymentFractionOfCash() * agent.getCash()) {
-                // logger.warn(agent +
-                // " will not invest in {} technology as he does not have enough money for downpayment",
-                // technology);
-            } else {
-
-                Map<Substance, Double> myFuelPrices = new HashMap<Substance, Double>();
-                for (Substance fuel : technology.getFuels()) {
-                    myFuelPrices.put(fuel, expectedFuelPrices.get(fuel));
-                }
-                Set<SubstanceShareInFuelMix> fuelMix = calculateFuelMix(plant, myFuelPrices, expectedCO2Price.get(market));
-                plant.setFuelMix(fuelMix);
-
-                double expectedMarginalCost = determineExpectedMarginalCost(plant, expectedFuelPrices, expectedCO2Price.get(market));
-                double runningHours = 0d;
-                double expectedGrossProfit = 0d;
-
-                long numberOfSegments = reps.segmentRepository.count();
-
-                // TODO somehow the prices of long-term contracts could also
-                // be used here to determine the expected profit. Maybe not
-                // though...
-                for (SegmentLoad segmentLoad : market.getLoadDurationCurve()) {
-                    double expectedElectricityPrice = marketInformation.expectedElectricityPricesPerSegment.get(segmentLoad
-                            .getSegment());
-                    double hours = segmentLoad.getSegment().getLengthInHours();
-                    if (expectedMarginalCost <= expectedElectricityPrice) {
-                        runningHours += hours;
-                        expectedGrossProfit += (expectedElectricityPrice - expectedMarginalCost) * hours
-                                * plant.getAvailableCapacity(futureTimePoint, segmentLoad.getSegment(), numberOfSegments);
-                    }
-                }
-
-                // logger.warn(agent +
-                // "expects technology {} to have {} running", technology,
-                // runningHours);
-                // expect to meet minimum running hours?
-                if (runningHours < plant.getTechnology().getMinimumRunningHours()) {
-                    // logger.warn(agent+
-                    // " will not invest in {} technology as he expect to have {} running, which is lower then required",
-                    // technology, runningHours);
-                } else {
-
-                    double fixedOMCost = calculateFixedOperatingCost(plant);// /
-                    // plant.getActualNominalCapacity();
-
-                    double operatingProfit = expectedGrossProfit - fixedOMCost;
-
-                    // TODO Alter discount rate on the basis of the amount
-                    // in long-term contracts?
-                    // TODO Alter discount rate on the basis of other stuff,
-                    // such as amount of money, market share, portfolio
-                    // size.
-
-                    // Calculation of weighted average cost of capital,
-                    // based on the companies debt-ratio
-                    double wacc = (1 - agent.getDebtRatioOfInvestments()) * agent.getEquityInterestRate()
-                            + agent.getDebtRatioOfInvestments() * agent.getLoanInterestRate();
-
-                    // Creation of out cash-flow during power plant building
-                    // phase (note that the cash-flow is negative!)
-                    TreeMap<Integer, Double> discountedProjectCapitalOutflow = calculateSimplePowerPlantInvestmentCashFlow(
-                            technology.getDepreciationTime(), (int) plant.getActualLeadtime(),
-                            plant.getActualInvestedCapital(), 0);
-                    // Creation of in cashflow during operation
-                    TreeMap<Integer, Double> discountedProjectCashInflow = calculateSimplePowerPlantInvestmentCashFlow(
-                            technology.getDepreciationTime(), (int) plant.getActualLeadtime(), 0, operatingProfit);
-
-                    double discountedCapitalCosts = npv(discountedProjectCapitalOutflow, wacc);// are
-                    // defined
-                    // negative!!
-                    // plant.getActualNominalCapacity();
-
-                    // logger.warn("Agent {}  found that the discounted capital for technology {} to be "
-                    // + discountedCapitalCosts, agent,
-                    // technology);
-
-                    double discountedOpProfit = npv(discountedProjectCashInflow, wacc);
-
-                        // logger.warn("Agent {}  found that the projected discounted inflows for technology {} to be "
-                        // + discountedOpProfit,
-                        // agent, technology);
+        List<PowerGeneratingTechnology> technologies = Utils.asList(reps.genericRepository.findAll(PowerGeneratingTechnology.class));
+        DecarbonizationModel model = reps.tickScopedCache.findFirst(DecarbonizationModel.class);
+        int threads = model == null ? 1 : (int) model.getNumberOfInvestmentEvaluationThreads();
+        double[] values = evaluateTechnologies(agent, market, technologies, expectedDemand, expectedFuelPrices, expectedCO2Price,
+                futureTimePoint, threads);
 
-                        double projectValue = discountedOpProfit + discountedCapitalCosts;
-
-                        // logger.warn(
-                        // "Agent {}  found the project value for technology {} to be "
-                        // + Math.round(projectValue /
-						// plant.getActualNominalCapacity()) +
-                        // " EUR/kW (running hours: "
-                        // + runningHours + "", agent, technology);
-
-                        // double projectTotalValue = projectValuePerMW *
-						// plant.getActualNominalCapacity();
-
-                        // double projectReturnOnInvestment = discountedOpProfit
-                        // / (-discountedCapitalCosts);
-
-                        /*
-                         * Divide by capacity, in order not to favour large power plants (which have the single largest NPV
-                         */
-
-						if (projectValue > 0 && projectValue / plant.getActualNominalCapacity() > highestValue) {
-							highestValue = projectValue / plant.getActualNominalCapacity();
-                            bestTechnology = plant.getTechnology();
-                        }
-                    }
-
-                }
-            }
+        String[] names = new String[technologies.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = technologies.get(i).getName();
+        }
+        int best = TechnologyEvaluations.selectHighestValue(values, names);
+        PowerGeneratingTechnology bestTechnology = best < 0 ? null : technologies.get(best);
 
         if (bestTechnology != null) {
             // logger.warn("Agent {} invested in technology {} at tick " + getCurrentTick(), agent, bestTechnology);
@@ -337,6 +172,207 @@ NodeBacked {
 
     // }
 
+    /**
+     * Evaluates the investment in each of the technologies. The technologies are evaluated independently, with the same expectations, so
+     * the result does not depend on the number of threads.
+     * 
+     * @return the project value per MW of capacity of each technology, in the order of the technologies, NaN if the agent will not invest
+     *         in it
+     */
+    double[] evaluateTechnologies(final T agent, final ElectricitySpotMarket market, List<PowerGeneratingTechnology> technologies,
+            Map<ElectricitySpotMarket, Double> expectedDemand, final Map<Substance, Double> expectedFuelPrices,
+            final Map<ElectricitySpotMarket, Double> expectedCO2Price, final long futureTimePoint, int numberOfThreads) {
+        final MarketInformation marketInformation = findMarketInformation(market, expectedDemand, expectedFuelPrices, expectedCO2Price
+                .get(market).doubleValue(), futureTimePoint);
+        final PowerGridNode node = getNodeForZone(market.getZone());
+        final long currentTick = getCurrentTick();
+        List<Callable<Double>> evaluations = new ArrayList<Callable<Double>>();
+        for (final PowerGeneratingTechnology technology : technologies) {
+            evaluations.add(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return evaluateTechnology(agent, market, node, technology, marketInformation, expectedFuelPrices, expectedCO2Price,
+                            futureTimePoint, currentTick);
+                }
+            });
+        }
+        return TechnologyEvaluations.evaluateAll(evaluations, numberOfThreads);
+    }
+
+    /**
+     * Evaluates an investment in a technology. Only reads from the graph, so that the technologies can be evaluated concurrently.
+     * 
+     * @return the project value per MW of capacity, or NaN if the agent will not invest in the technology
+     */
+    private double evaluateTechnology(T agent, ElectricitySpotMarket market, PowerGridNode node, PowerGeneratingTechnology technology,
+            MarketInformation marketInformation, Map<Substance, Double> expectedFuelPrices,
+            Map<ElectricitySpotMarket, Double> expectedCO2Price, long futureTimePoint, long currentTick) {
+
+        PowerPlant plant = new PowerPlant();
+        plant.specifyNotPersist(currentTick, agent, node, technology);
+        // if too much capacity of this technology in the pipeline (not
+        // limited to the 5 years)
+        double expectedInstalledCapacityOfTechnology = reps.powerPlantFleetTable
+                .calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, technology, futureTimePoint);
+        PowerGeneratingTechnologyTarget technologyTarget = reps.powerGenerationTechnologyTargetRepository.findOneByTechnologyAndMarket(technology, market);
+        if(technologyTarget!=null){
+            double technologyTargetCapacity = technologyTarget.getTrend().getValue(futureTimePoint);
+            expectedInstalledCapacityOfTechnology =  (technologyTargetCapacity > expectedInstalledCapacityOfTechnology) ? technologyTargetCapacity : expectedInstalledCapacityOfTechnology;
+        }
+        double pgtNodeLimit = Double.MAX_VALUE;
+        PowerGeneratingTechnologyNodeLimit pgtLimit = reps.powerGeneratingTechnologyNodeLimitRepository
+                .findOneByTechnologyAndNode(technology, plant.getLocation());
+        if (pgtLimit != null) {
+            pgtNodeLimit = pgtLimit.getUpperCapacityLimit(futureTimePoint);
+        }
+        double expectedInstalledCapacityOfTechnologyInNode = reps.powerPlantFleetTable
+                .calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(plant.getLocation(),
+                        technology, futureTimePoint);
+        double expectedOwnedTotalCapacityInMarket = reps.powerPlantFleetTable
+                .calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(market, futureTimePoint, agent);
+        double expectedOwnedCapacityInMarketOfThisTechnology = reps.powerPlantFleetTable
+                .calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(market, technology, futureTimePoint,
+                        agent);
+        double capacityOfTechnologyInPipeline = reps.powerPlantFleetTable.calculateCapacityOfPowerPlantsByTechnologyInPipeline(
+                technology, currentTick);
+        double operationalCapacityOfTechnology = reps.powerPlantFleetTable.calculateCapacityOfOperationalPowerPlantsByTechnology(
+                technology, currentTick);
+        double capacityInPipelineInMarket = reps.powerPlantFleetTable
+                .calculateCapacityOfPowerPlantsByMarketInPipeline(market, currentTick);
+
+        if ((expectedInstalledCapacityOfTechnology + plant.getActualNominalCapacity())
+                / (marketInformation.maxExpectedLoad + plant.getActualNominalCapacity()) > technology
+                .getMaximumInstalledCapacityFractionInCountry()) {
+            // logger.warn(agent +
+            // " will not invest in {} technology because there's too much of this type in the market",
+            // technology);
+        } else if ((expectedInstalledCapacityOfTechnologyInNode + plant.getActualNominalCapacity()) > pgtNodeLimit) {
+
+        } else if (expectedOwnedCapacityInMarketOfThisTechnology > expectedOwnedTotalCapacityInMarket
+                * technology.getMaximumInstalledCapacityFractionPerAgent()) {
+            // logger.warn(agent +
+            // " will not invest in {} technology because there's too much capacity planned by him",
+            // technology);
+        } else if (capacityInPipelineInMarket > 0.2 * marketInformation.maxExpectedLoad) {
+            // logger.warn("Not investing because more than 20% of demand in pipeline.");
+
+        } else if ((capacityOfTechnologyInPipeline > 2.0 * operationalCapacityOfTechnology)
+                && capacityOfTechnologyInPipeline > 9000) { // TODO:
+            // reflects that you cannot expand a technology out of zero.
+            // logger.warn(agent +
+            // " will not invest in {} technology because there's too much capacity in the pipeline",
+            // technology);
+        } else if (plant.getActualInvestedCapital() * (1 - agent.getDebtRatioOfInvestments()) > agent
+                .getDownpaymentFractionOfCash() * agent.getCash()) {
+            // logger.warn(agent +
+            // " will not invest in {} technology as he does not have enough money for downpayment",
+            // technology);
+        } else {
+
+            Map<Substance, Double> myFuelPrices = new HashMap<Substance, Double>();
+            for (Substance fuel : technology.getFuels()) {
+                myFuelPrices.put(fuel, expectedFuelPrices.get(fuel));
+            }
+            calculateFuelMix(plant, myFuelPrices, expectedCO2Price.get(market));
+
+            double expectedMarginalCost = determineExpectedMarginalCost(plant, expectedFuelPrices, expectedCO2Price.get(market));
+            double runningHours = 0d;
+            double expectedGrossProfit = 0d;
+
+            long numberOfSegments = marketInformation.numberOfSegments;
+
+            // TODO somehow the prices of long-term contracts could also
+            // be used here to determine the expected profit. Maybe not
+            // though...
+            for (SegmentLoad segmentLoad : market.getLoadDurationCurve()) {
+                double expectedElectricityPrice = marketInformation.expectedElectricityPricesPerSegment.get(segmentLoad
+                        .getSegment());
+                double hours = segmentLoad.getSegment().getLengthInHours();
+                if (expectedMarginalCost <= expectedElectricityPrice) {
+                    runningHours += hours;
+                    expectedGrossProfit += (expectedElectricityPrice - expectedMarginalCost) * hours
+                            * plant.getAvailableCapacity(futureTimePoint, segmentLoad.getSegment(), numberOfSegments);
+                }
+            }
+
+            // logger.warn(agent +
+            // "expects technology {} to have {} running", technology,
+            // runningHours);
+            // expect to meet minimum running hours?
+            if (runningHours < plant.getTechnology().getMinimumRunningHours()) {
+                // logger.warn(agent+
+                // " will not invest in {} technology as he expect to have {} running, which is lower then required",
+                // technology, runningHours);
+            } else {
+
+                double fixedOMCost = calculateFixedOperatingCost(plant);// /
+                // plant.getActualNominalCapacity();
+
+                double operatingProfit = expectedGrossProfit - fixedOMCost;
+
+                // TODO Alter discount rate on the basis of the amount
+                // in long-term contracts?
+                // TODO Alter discount rate on the basis of other stuff,
+                // such as amount of money, market share, portfolio
+                // size.
+
+                // Calculation of weighted average cost of capital,
+                // based on the companies debt-ratio
+                double wacc = (1 - agent.getDebtRatioOfInvestments()) * agent.getEquityInterestRate()
+                        + agent.getDebtRatioOfInvestments() * agent.getLoanInterestRate();
+
+                // Creation of out cash-flow during power plant building
+                // phase (note that the cash-flow is negative!)
+                TreeMap<Integer, Double> discountedProjectCapitalOutflow = calculateSimplePowerPlantInvestmentCashFlow(
+                        technology.getDepreciationTime(), (int) plant.getActualLeadtime(),
+                        plant.getActualInvestedCapital(), 0);
+                // Creation of in cashflow during operation
+                TreeMap<Integer, Double> discountedProjectCashInflow = calculateSimplePowerPlantInvestmentCashFlow(
+                        technology.getDepreciationTime(), (int) plant.getActualLeadtime(), 0, operatingProfit);
+
+                double discountedCapitalCosts = npv(discountedProjectCapitalOutflow, wacc);// are
+                // defined
+                // negative!!
+                // plant.getActualNominalCapacity();
+
+                // logger.warn("Agent {}  found that the discounted capital for technology {} to be "
+                // + discountedCapitalCosts, agent,
+                // technology);
+
+                double discountedOpProfit = npv(discountedProjectCashInflow, wacc);
+
+                    // logger.warn("Agent {}  found that the projected discounted inflows for technology {} to be "
+                    // + discountedOpProfit,
+                    // agent, technology);
+
+                    double projectValue = discountedOpProfit + discountedCapitalCosts;
+
+                    // logger.warn(
+                    // "Agent {}  found the project value for technology {} to be "
+                    // + Math.round(projectValue /
+						// plant.getActualNominalCapacity()) +
+                    // " EUR/kW (running hours: "
+                    // + runningHours + "", agent, technology);
+
+                    // double projectTotalValue = projectValuePerMW *
+						// plant.getActualNominalCapacity();
+
+                    // double projectReturnOnInvestment = discountedOpProfit
+                    // / (-discountedCapitalCosts);
+
+                    /*
+                     * Divide by capacity, in order not to favour large power plants (which have the single largest NPV
+                     */
+
+						if (projectValue > 0) {
+							return projectValue / plant.getActualNominalCapacity();
+                    }
+                }
+
+            }
+        return Double.NaN;
+    }
+
     // Creates n downpayments of equal size in each of the n building years of a
     // power plant
     @Transactional
@@ -366,17 +402,8 @@ NodeBacked {
         // Fuel Prices
         Map<Substance, Double> expectedFuelPrices = new HashMap<Substance, Double>();
         for (Substance substance : reps.substanceRepository.findAllSubstancesTradedOnCommodityMarkets()) {
-            //Find Clearing Points for the last 5 years (counting current year as one of the last 5 years).
-            Iterable<ClearingPoint> cps = reps.clearingPointRepository.findAllClearingPointsForSubstanceTradedOnCommodityMarkesAndTimeRange(substance, getCurrentTick()-(agent.getNumberOfYearsBacklookingForForecasting()-1), getCurrentTick());
-            //logger.warn("{}, {}", getCurrentTick()-(agent.getNumberOfYearsBacklookingForForecasting()-1), getCurrentTick());
-            //Create regression object
-            GeometricTrendRegression gtr = new GeometricTrendRegression();
-            for (ClearingPoint clearingPoint : cps) {
-                //logger.warn("CP {}: {} , in" + clearingPoint.getTime(), substance.getName(), clearingPoint.getPrice());
-                gtr.addData(clearingPoint.getTime(), clearingPoint.getPrice());
-            }
-            expectedFuelPrices.put(substance, gtr.predict(futureTimePoint));
-            //logger.warn("Forecast {}: {}, in Step " +  futureTimePoint, substance, expectedFuelPrices.get(substance));
+            expectedFuelPrices.put(substance, reps.forecastCache.predictFuelPrice(substance,
+                    agent.getNumberOfYearsBacklookingForForecasting(), getCurrentTick(), futureTimePoint));
         }
         return expectedFuelPrices;
     }
@@ -432,38 +459,74 @@ NodeBacked {
         return null;
     }
 
-    private class MarketInformation {
+    /**
+     * Finds the market expectations of an earlier investor in this tick with the same expectations, or determines them. The expected
+     * merit order of a cached {@link MarketInformation} is brought up to date with the plants that have been invested in since.
+     */
+    private MarketInformation findMarketInformation(ElectricitySpotMarket market, Map<ElectricitySpotMarket, Double> expectedDemand,
+            Map<Substance, Double> fuelPrices, double co2price, long time) {
+        Map<Long, Double> fuelPricesBySubstance = new HashMap<Long, Double>();
+        for (Entry<Substance, Double> fuelPrice : fuelPrices.entrySet()) {
+            fuelPricesBySubstance.put(fuelPrice.getKey().getNodeId(), fuelPrice.getValue());
+        }
+        Object[] key = new Object[] { market.getNodeId(), time, fuelPricesBySubstance, co2price, expectedDemand.get(market) };
+        MarketInformation marketInformation = (MarketInformation) reps.tickScopedCache.findComputedValue(MARKET_INFORMATION, key);
+        if (marketInformation == null || !marketInformation.addNewPowerPlants()) {
+            marketInformation = new MarketInformation(market, expectedDemand, fuelPrices, co2price, time);
+            reps.tickScopedCache.storeComputedValue(marketInformation, MARKET_INFORMATION, key);
+        }
+        return marketInformation;
+    }
+
+    class MarketInformation {
 
         Map<Segment, Double> expectedElectricityPricesPerSegment;
         double maxExpectedLoad = 0d;
         Map<PowerPlant, Double> meritOrder;
         double capacitySum;
 
+        private final ElectricitySpotMarket market;
+        private final Map<Substance, Double> fuelPrices;
+        private final double co2price;
+        private final long time;
+        private final double demandFactor;
+        private final long numberOfSegments;
+        private final List<SegmentLoad> segmentLoads = new ArrayList<SegmentLoad>();
+        private final Map<PowerPlant, Double> marginalCostMap = new HashMap<PowerPlant, Double>();
+        private final Map<PowerPlant, double[]> expectedAvailableCapacities = new HashMap<PowerPlant, double[]>();
+        private final Set<PowerGeneratingTechnology> targetTechnologies = new HashSet<PowerGeneratingTechnology>();
+        private double reservePrice = 0;
+        private double reserveVolume = 0;
+        private int numberOfFleetRows;
+
         MarketInformation(ElectricitySpotMarket market, Map<ElectricitySpotMarket, Double> expectedDemand, Map<Substance, Double> fuelPrices, double co2price, long time) {
-            // determine expected power prices
-            expectedElectricityPricesPerSegment = new HashMap<Segment, Double>();
-            Map<PowerPlant, Double> marginalCostMap = new HashMap<PowerPlant, Double>();
+            this.market = market;
+            this.fuelPrices = fuelPrices;
+            this.co2price = co2price;
+            this.time = time;
+            demandFactor = expectedDemand.get(market).doubleValue();
+            numberOfSegments = reps.tickScopedCache.countSegments();
+            for (SegmentLoad segmentLoad : market.getLoadDurationCurve()) {
+                segmentLoads.add(segmentLoad);
+            }
+            numberOfFleetRows = reps.powerPlantFleetTable.getNumberOfRows();
             capacitySum = 0d;
 
             // get merit order for this market
-            for (PowerPlant plant : reps.powerPlantRepository.findExpectedOperationalPowerPlantsInMarket(market, time)) {
-
-                double plantMarginalCost = determineExpectedMarginalCost(plant, fuelPrices, co2price);
-                marginalCostMap.put(plant, plantMarginalCost);
-                capacitySum += plant.getActualNominalCapacity();
+            for (PowerPlant plant : reps.powerPlantFleetTable.findExpectedOperationalPowerPlantsInMarket(market, time)) {
+                addPowerPlant(plant);
             }
 
             //get difference between technology target and expected operational capacity
             for(PowerGeneratingTechnologyTarget pggt : reps.powerGenerationTechnologyTargetRepository.findAllByMarket(market)){
-                double expectedTechnologyCapacity = reps.powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, pggt.getPowerGeneratingTechnology(), time);
+                targetTechnologies.add(pggt.getPowerGeneratingTechnology());
+                double expectedTechnologyCapacity = reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, pggt.getPowerGeneratingTechnology(), time);
                 double targetDifference = pggt.getTrend().getValue(time) - expectedTechnologyCapacity;
                 if(targetDifference > 0){
                     PowerPlant plant = new PowerPlant();
                     plant.specifyNotPersist(getCurrentTick(), new EnergyProducer(), reps.powerGridNodeRepository.findFirstPowerGridNodeByElectricitySpotMarket(market), pggt.getPowerGeneratingTechnology());
                     plant.setActualNominalCapacity(targetDifference);
-                    double plantMarginalCost = determineExpectedMarginalCost(plant, fuelPrices, co2price);
-                    marginalCostMap.put(plant, plantMarginalCost);
-                    capacitySum += targetDifference;
+                    addPowerPlant(plant);
                 }
             }
 
@@ -471,12 +534,64 @@ NodeBacked {
             meritOrder = new TreeMap<PowerPlant, Double>(comp);
             meritOrder.putAll(marginalCostMap);
 
-            long numberOfSegments = reps.segmentRepository.count();
+            // Find strategic reserve operator for the market.
+            for (StrategicReserveOperator operator : strategicReserveOperatorRepository.findAll()) {
+                ElectricitySpotMarket market1 = reps.marketRepository.findElectricitySpotMarketForZone(operator
+                        .getZone());
+                if (market.getNodeId().intValue() == market1.getNodeId().intValue()) {
+                    reservePrice = operator.getReservePriceSR();
+                    reserveVolume = operator.getReserveVolume();
+                }
+            }
+
+            determineExpectedElectricityPrices();
+        }
+
+        private void addPowerPlant(PowerPlant plant) {
+            marginalCostMap.put(plant, determineExpectedMarginalCost(plant, fuelPrices, co2price));
+            capacitySum += plant.getActualNominalCapacity();
+            double[] availableCapacities = new double[segmentLoads.size()];
+            for (int i = 0; i < segmentLoads.size(); i++) {
+                // Determine available capacity in the future in this
+                // segment
+                availableCapacities[i] = plant.getExpectedAvailableCapacity(time, segmentLoads.get(i).getSegment(), numberOfSegments);
+            }
+            expectedAvailableCapacities.put(plant, availableCapacities);
+        }
+
+        /**
+         * Inserts the plants that have been invested in since these expectations were determined into the merit order.
+         * 
+         * @return false if a new plant changes a technology target, in which case the expectations have to be determined again
+         */
+        boolean addNewPowerPlants() {
+            List<PowerPlant> newPlants = reps.powerPlantFleetTable.findExpectedOperationalPowerPlantsInMarketAddedSince(market, time,
+                    numberOfFleetRows);
+            numberOfFleetRows = reps.powerPlantFleetTable.getNumberOfRows();
+            if (newPlants.isEmpty()) {
+                return true;
+            }
+            for (PowerPlant plant : newPlants) {
+                if (targetTechnologies.contains(plant.getTechnology())) {
+                    return false;
+                }
+            }
+            for (PowerPlant plant : newPlants) {
+                addPowerPlant(plant);
+                meritOrder.put(plant, marginalCostMap.get(plant));
+            }
+            determineExpectedElectricityPrices();
+            return true;
+        }
 
-            double demandFactor = expectedDemand.get(market).doubleValue();
+        private void determineExpectedElectricityPrices() {
+            // determine expected power prices
+            expectedElectricityPricesPerSegment = new HashMap<Segment, Double>();
+            maxExpectedLoad = 0d;
 
             // find expected prices per segment given merit order
-            for (SegmentLoad segmentLoad : market.getLoadDurationCurve()) {
+            for (int i = 0; i < segmentLoads.size(); i++) {
+                SegmentLoad segmentLoad = segmentLoads.get(i);
 
                 double expectedSegmentLoad = segmentLoad.getBaseLoad() * demandFactor;
 
@@ -489,15 +604,8 @@ NodeBacked {
                 double totalCapacityAvailable = 0d;
 
                 for (Entry<PowerPlant, Double> plantCost : meritOrder.entrySet()) {
-                    PowerPlant plant = plantCost.getKey();
-                    double plantCapacity = 0d;
-                    // Determine available capacity in the future in this
-                    // segment
-                    plantCapacity = plant.getExpectedAvailableCapacity(time, segmentLoad.getSegment(), numberOfSegments);
+                    double plantCapacity = expectedAvailableCapacities.get(plantCost.getKey())[i];
                     totalCapacityAvailable += plantCapacity;
-                    // logger.warn("Capacity of plant " + plant.toString() +
-                    // " is " +
-                    // plantCapacity/plant.getActualNominalCapacity());
                     if (segmentSupply < expectedSegmentLoad) {
                         segmentSupply += plantCapacity;
                         segmentPrice = plantCost.getValue();
@@ -510,18 +618,6 @@ NodeBacked {
                 // segmentSupply + " and segment demand equals " +
                 // expectedSegmentLoad);
 
-                // Find strategic reserve operator for the market.
-                double reservePrice = 0;
-                double reserveVolume = 0;
-                for (StrategicReserveOperator operator : strategicReserveOperatorRepository.findAll()) {
-                    ElectricitySpotMarket market1 = reps.marketRepository.findElectricitySpotMarketForZone(operator
-                            .getZone());
-                    if (market.getNodeId().intValue() == market1.getNodeId().intValue()) {
-                        reservePrice = operator.getReservePriceSR();
-                        reserveVolume = operator.getReserveVolume();
-                    }
-                }
-
                 if (segmentSupply >= expectedSegmentLoad
                         && ((totalCapacityAvailable - expectedSegmentLoad) <= (reserveVolume))) {
                     expectedElectricityPricesPerSegment.put(segmentLoad.getSegment(), reservePrice);
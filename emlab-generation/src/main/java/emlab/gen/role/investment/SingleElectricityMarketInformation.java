@@ -60,7 +60,7 @@ public class SingleElectricityMarketInformation {
         meritOrder = new TreeMap<PowerPlant, Double>(comp);
         meritOrder.putAll(marginalCostMap);
 
-        long numberOfSegments = reps.segmentRepository.count();
+        long numberOfSegments = reps.tickScopedCache.countSegments();
 
         double demandFactor = market.getDemandGrowthTrend().getValue(time);
 
@@ -51,7 +51,7 @@ public class TargetInvestmentRole extends GenericInvestmentRole<TargetInvestor>
         for(PowerGeneratingTechnologyTarget target : targetInvestor.getPowerGenerationTechnologyTargets()){
             PowerGeneratingTechnology pgt = target.getPowerGeneratingTechnology();
             long futureTimePoint = getCurrentTick()+pgt.getExpectedLeadtime()+pgt.getExpectedPermittime();
-            double expectedInstalledCapacity = reps.powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(targetInvestor.getInvestorMarket(), pgt, futureTimePoint);
+            double expectedInstalledCapacity = reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(targetInvestor.getInvestorMarket(), pgt, futureTimePoint);
             double pgtNodeLimit = Double.MAX_VALUE;
             // For simplicity using the market, instead of the node here. Needs
             // to be changed, if more than one node per market exists.
@@ -90,6 +90,7 @@ public class TargetInvestmentRole extends GenericInvestmentRole<TargetInvestor>
                         getCurrentTick(), plant);
                 // Create the loan
                 plant.createOrUpdateLoan(loan);
+                reps.powerPlantFleetTable.add(plant);
 
             }
         }
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import emlab.gen.util.RunResources;
+
+/**
+ * Evaluates the investment options of an investor, one per technology, and selects the best one. The evaluations are independent, so
+ * they can run concurrently; the selection only depends on the values and names of the options, not on the order in which they are
+ * evaluated or found.
+ * 
+ * @author JCRichstein
+ * 
+ */
+final class TechnologyEvaluations {
+
+    // Shared by all investors, the investment roles are loaded from the
+    // graph.
+    private static ExecutorService evaluationExecutor;
+    private static int numberOfEvaluationThreads;
+
+    private TechnologyEvaluations() {
+    }
+
+    /**
+     * Runs the evaluations, concurrently if more than one thread is given.
+     * 
+     * @return the results, in the order of the evaluations
+     */
+    static double[] evaluateAll(List<Callable<Double>> evaluations, int numberOfThreads) {
+        double[] values = new double[evaluations.size()];
+        try {
+            if (numberOfThreads <= 1) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = evaluations.get(i).call();
+                }
+            } else {
+                List<Future<Double>> futures = getEvaluationExecutor(numberOfThreads).invokeAll(evaluations);
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = futures.get(i).get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while evaluating the investment options", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Evaluating an investment option failed", e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Evaluating an investment option failed", e);
+        }
+        return values;
+    }
+
+    /**
+     * Selects the highest positive value. Equal values are decided by the name, so that the choice does not depend on the order in which
+     * the technologies are found.
+     * 
+     * @param values
+     *            the value of each option, NaN if it is not an option
+     * @param names
+     *            the name of each option
+     * @return the index of the best option, or -1 if there is none
+     */
+    static int selectHighestValue(double[] values, String[] names) {
+        int best = -1;
+        for (int i = 0; i < values.length; i++) {
+            if (Double.isNaN(values[i]) || values[i] <= 0) {
+                continue;
+            }
+            if (best < 0 || values[i] > values[best] || (values[i] == values[best] && compareNames(names[i], names[best]) < 0)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int compareNames(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : 1) : -1;
+        }
+        return a.compareTo(b);
+    }
+
+    private static synchronized ExecutorService getEvaluationExecutor(int numberOfThreads) {
+        if (evaluationExecutor == null || evaluationExecutor.isShutdown() || numberOfEvaluationThreads != numberOfThreads) {
+            if (evaluationExecutor != null) {
+                evaluationExecutor.shutdown();
+            }
+            evaluationExecutor = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactory() {
+                private int threads = 0;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "investment-evaluation-" + ++threads);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            RunResources.register(evaluationExecutor);
+            numberOfEvaluationThreads = numberOfThreads;
+        }
+        return evaluationExecutor;
+    }
+
+}
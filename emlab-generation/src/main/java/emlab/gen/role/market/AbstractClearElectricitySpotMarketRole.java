@@ -15,16 +15,25 @@
  ******************************************************************************/
 package emlab.gen.role.market;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.transaction.annotation.Transactional;
 
 import agentspring.role.AbstractRole;
-import emlab.gen.domain.agent.CommoditySupplier;
 import emlab.gen.domain.agent.DecarbonizationModel;
 import emlab.gen.domain.agent.EnergyConsumer;
 import emlab.gen.domain.agent.EnergyProducer;
@@ -32,14 +41,19 @@ import emlab.gen.domain.agent.Government;
 import emlab.gen.domain.contract.LongTermContract;
 import emlab.gen.domain.gis.Zone;
 import emlab.gen.domain.market.Bid;
-import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.DecarbonizationMarket;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
 import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.technology.Interconnector;
+import emlab.gen.domain.technology.PowerGridNode;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
+import emlab.gen.domain.technology.SubstanceShareInFuelMix;
 import emlab.gen.repository.Reps;
+import emlab.gen.util.FuelMixSolver;
+import emlab.gen.util.RunResources;
+import emlab.gen.util.Utils;
 
 /**
  * Creates and clears the {@link ElectricitySpotMarket} for two {@link Zone}s. The market is divided into {@link Segment}s and cleared for each segment. A global CO2 emissions market is cleared. The
@@ -58,6 +72,9 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
     @Autowired
     private Neo4jTemplate template;
 
+    private ExecutorService segmentClearingExecutor;
+    private int numberOfSegmentClearingThreads;
+
     class MarketSegmentClearingOutcome {
         HashMap<ElectricitySpotMarket, Double> loads = new HashMap<ElectricitySpotMarket, Double>();
         HashMap<ElectricitySpotMarket, Double> prices = new HashMap<ElectricitySpotMarket, Double>();
@@ -112,12 +129,36 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
         public double emission;
     }
 
+    /**
+     * The power plant dispatch plans of this tick, loaded once into an {@link InMemoryMeritOrder}, together with the demand per segment and
+     * market. Markets and segments are indexed in the order of the lists.
+     */
+    class MeritOrderSnapshot {
+        List<PowerPlantDispatchPlan> plans;
+        List<ElectricitySpotMarket> markets;
+        List<Segment> segments;
+        InMemoryMeritOrder meritOrder;
+        boolean[] multiFuel;
+        double[] valueOfLostLoad;
+        double[][] loads;
+        double[][] prices;
+        double[][] supplies;
+        CO2PriceEmissionsEvaluator evaluator;
+        List<Substance>[] fuels;
+        double[][][] fuelMixOptionShares;
+    }
+
     CO2SecantSearch co2PriceSecantSearchUpdate(CO2SecantSearch co2SecantSearch, DecarbonizationModel model, Government government) {
+        return co2PriceSecantSearchUpdate(co2SecantSearch, model, government, determineTotalEmissionsBasedOnPowerPlantDispatchPlan());
+    }
+
+    CO2SecantSearch co2PriceSecantSearchUpdate(CO2SecantSearch co2SecantSearch, DecarbonizationModel model, Government government,
+            double totalEmissions) {
 
         co2SecantSearch.stable = false;
         double capDeviationCriterion = model.getCapDeviationCriterion();
         double co2Cap = government.getCo2Cap(getCurrentTick());
-        co2SecantSearch.co2Emissions = determineTotalEmissionsBasedOnPowerPlantDispatchPlan();
+        co2SecantSearch.co2Emissions = totalEmissions;
 
         double deviation = (co2SecantSearch.co2Emissions - co2Cap) / co2Cap;
 
@@ -273,6 +314,346 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
         return marginalPlantMarginalCost;
     }
 
+    /**
+     * Loads all power plant dispatch plans of this tick into a {@link MeritOrderSnapshot}. The demand of each segment does not depend on
+     * the CO2 price, so it is determined here once instead of in every iteration.
+     * 
+     * @param segments
+     *            the segments to clear
+     * @return the snapshot
+     */
+    MeritOrderSnapshot loadMeritOrderSnapshot(List<Segment> segments) {
+        MeritOrderSnapshot snapshot = new MeritOrderSnapshot();
+        snapshot.segments = segments;
+        snapshot.markets = Utils.asList(reps.marketRepository.findAllElectricitySpotMarkets());
+        snapshot.plans = Utils.asList(reps.powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForTime(getCurrentTick()));
+
+        int numberOfMarkets = snapshot.markets.size();
+        Map<ElectricitySpotMarket, Integer> marketIndex = new HashMap<ElectricitySpotMarket, Integer>();
+        snapshot.valueOfLostLoad = new double[numberOfMarkets];
+        for (int m = 0; m < numberOfMarkets; m++) {
+            marketIndex.put(snapshot.markets.get(m), m);
+            snapshot.valueOfLostLoad[m] = snapshot.markets.get(m).getValueOfLostLoad();
+        }
+
+        Map<Segment, Integer> segmentIndex = new HashMap<Segment, Integer>();
+        snapshot.meritOrder = new InMemoryMeritOrder(snapshot.plans.size(), numberOfMarkets, segments.size());
+        snapshot.loads = new double[segments.size()][numberOfMarkets];
+        snapshot.prices = new double[segments.size()][numberOfMarkets];
+        snapshot.supplies = new double[segments.size()][numberOfMarkets];
+        for (int s = 0; s < segments.size(); s++) {
+            Segment segment = segments.get(s);
+            segmentIndex.put(segment, s);
+            snapshot.meritOrder.setSegmentLengthInHours(s, segment.getLengthInHours());
+            Map<ElectricitySpotMarket, Double> loadInMarkets = determineActualDemandForSpotMarkets(segment);
+            for (int m = 0; m < numberOfMarkets; m++) {
+                snapshot.loads[s][m] = loadInMarkets.get(snapshot.markets.get(m));
+            }
+        }
+
+        snapshot.multiFuel = new boolean[snapshot.plans.size()];
+        for (int i = 0; i < snapshot.plans.size(); i++) {
+            PowerPlantDispatchPlan plan = snapshot.plans.get(i);
+            PowerPlant plant = plan.getPowerPlant();
+            snapshot.multiFuel[i] = plant.getFuelMix().size() > 1;
+            snapshot.meritOrder.setPlan(i, marketIndex.get(plan.getBiddingMarket()), segmentIndex.get(plan.getSegment()), plan.getPrice(),
+                    plan.getBidWithoutCO2(), plan.getAmount(), plan.getCapacityLongTermContract(), plant.calculateEmissionIntensity());
+        }
+        snapshot.meritOrder.sortMeritOrder();
+        snapshot.meritOrder.setMarketCoupling(createMarketCoupling(snapshot.markets, segments.size()));
+        logger.info("Loaded {} power plant dispatch plans into the in-memory merit order", snapshot.plans.size());
+        return snapshot;
+    }
+
+    /**
+     * @return whether the markets are coupled by more than a single interconnector between at most two markets, in which case they can
+     *         only be cleared in memory, by a {@link MarketCoupling}
+     */
+    boolean isMarketCouplingNeeded() {
+        return reps.marketRepository.countAllElectricitySpotMarkets() > 2
+                || Utils.asList(reps.genericRepository.findAll(Interconnector.class)).size() > 1;
+    }
+
+    /**
+     * Creates the coupling of the markets by all interconnectors. An interconnector connects the markets of the zones of its two power grid
+     * nodes; interconnectors that do not connect two different markets are ignored.
+     * 
+     * @param markets
+     *            the markets, indexed as in the merit order
+     * @param numberOfSegments
+     *            the number of segments of the merit order
+     * @return the coupling, or null if a single interconnector between at most two markets is all there is
+     */
+    MarketCoupling createMarketCoupling(List<ElectricitySpotMarket> markets, int numberOfSegments) {
+        if (!isMarketCouplingNeeded()) {
+            return null;
+        }
+        Map<Zone, Integer> marketIndex = new HashMap<Zone, Integer>();
+        for (int m = 0; m < markets.size(); m++) {
+            marketIndex.put(markets.get(m).getZone(), m);
+        }
+        List<Integer> firstMarkets = new ArrayList<Integer>();
+        List<Integer> secondMarkets = new ArrayList<Integer>();
+        List<Double> capacities = new ArrayList<Double>();
+        for (Interconnector interconnector : reps.genericRepository.findAll(Interconnector.class)) {
+            List<Integer> connected = new ArrayList<Integer>();
+            for (PowerGridNode node : interconnector.getConnections()) {
+                Integer market = marketIndex.get(node.getZone());
+                if (market != null && !connected.contains(market)) {
+                    connected.add(market);
+                }
+            }
+            if (connected.size() != 2) {
+                logger.warn("Interconnector {} does not connect two markets and is ignored", interconnector);
+                continue;
+            }
+            firstMarkets.add(connected.get(0));
+            secondMarkets.add(connected.get(1));
+            capacities.add(interconnector.getCapacity());
+        }
+        int[] first = new int[capacities.size()];
+        int[] second = new int[capacities.size()];
+        double[] capacity = new double[capacities.size()];
+        for (int i = 0; i < capacities.size(); i++) {
+            first[i] = firstMarkets.get(i);
+            second[i] = secondMarkets.get(i);
+            capacity[i] = capacities.get(i);
+        }
+        logger.info("Coupling {} markets by {} interconnectors", markets.size(), capacities.size());
+        return new MarketCoupling(markets.size(), numberOfSegments, first, second, capacity);
+    }
+
+    /**
+     * Creates the evaluator of the emissions at a given CO2 price for the snapshot. The candidate fuel mixes of the multi-fuel plants are
+     * enumerated once, based on the fuel prices of this tick, so that the CO2 price search does not need to touch the graph.
+     * 
+     * @param snapshot
+     *            the snapshot of this tick
+     * @param interconnectorCapacity
+     *            the interconnector capacity
+     * @param nationalMinCo2Prices
+     *            the national minimum CO2 price per market
+     * @param co2Tax
+     *            the CO2 tax of this tick
+     * @param fuelPriceMap
+     *            the fuel prices of this tick
+     * @return the evaluator, which is also stored in the snapshot
+     */
+    @SuppressWarnings("unchecked")
+    CO2PriceEmissionsEvaluator createCO2PriceEmissionsEvaluator(MeritOrderSnapshot snapshot, double interconnectorCapacity,
+            Map<ElectricitySpotMarket, Double> nationalMinCo2Prices, double co2Tax, Map<Substance, Double> fuelPriceMap) {
+
+        double[] minCo2Prices = new double[snapshot.markets.size()];
+        for (int m = 0; m < snapshot.markets.size(); m++) {
+            Double minCo2Price = nationalMinCo2Prices.get(snapshot.markets.get(m));
+            minCo2Prices[m] = (minCo2Price != null) ? minCo2Price : 0d;
+        }
+        snapshot.evaluator = new CO2PriceEmissionsEvaluator(snapshot.meritOrder, snapshot.loads, interconnectorCapacity,
+                snapshot.valueOfLostLoad, minCo2Prices, co2Tax);
+        snapshot.prices = snapshot.evaluator.getPrices();
+        snapshot.supplies = snapshot.evaluator.getSupplies();
+
+        snapshot.fuels = new List[snapshot.plans.size()];
+        snapshot.fuelMixOptionShares = new double[snapshot.plans.size()][][];
+        Map<PowerPlant, Integer> firstPlanOfPlant = new HashMap<PowerPlant, Integer>();
+        for (int i = 0; i < snapshot.plans.size(); i++) {
+            if (!snapshot.multiFuel[i]) {
+                continue;
+            }
+            PowerPlant plant = snapshot.plans.get(i).getPowerPlant();
+            Integer first = firstPlanOfPlant.get(plant);
+            if (first == null) {
+                firstPlanOfPlant.put(plant, i);
+                snapshot.fuels[i] = Utils.asList(plant.getTechnology().getFuels());
+                snapshot.fuelMixOptionShares[i] = enumerateFuelMixes(plant, snapshot.fuels[i]);
+            } else {
+                snapshot.fuels[i] = snapshot.fuels[first];
+                snapshot.fuelMixOptionShares[i] = snapshot.fuelMixOptionShares[first];
+            }
+
+            double captureEfficiency = plant.getTechnology().getCo2CaptureEffciency();
+            for (double[] shares : snapshot.fuelMixOptionShares[i]) {
+                double fuelCost = 0d;
+                double co2Density = 0d;
+                for (int f = 0; f < shares.length; f++) {
+                    Substance substance = snapshot.fuels[i].get(f);
+                    fuelCost += shares[f] * fuelPriceMap.get(substance);
+                    co2Density += shares[f] * substance.getCo2Density();
+                }
+                snapshot.evaluator.addFuelMixOption(i, fuelCost, co2Density, co2Density * (1 - captureEfficiency));
+            }
+        }
+        return snapshot.evaluator;
+    }
+
+    /**
+     * Enumerates the candidate fuel mixes of a plant. If no fuel mix meets the minimum fuel quality, only the first fuel is used, as in
+     * the fuel mix optimisation.
+     */
+    private double[][] enumerateFuelMixes(PowerPlant plant, List<Substance> fuels) {
+        double[] energyDensities = new double[fuels.size()];
+        double[] qualities = new double[fuels.size()];
+        for (int f = 0; f < fuels.size(); f++) {
+            energyDensities[f] = fuels.get(f).getEnergyDensity();
+            qualities[f] = fuels.get(f).getQuality();
+        }
+        double[][] shares = new double[FuelMixSolver.maximumNumberOfVertices(fuels.size())][fuels.size()];
+        int vertices = FuelMixSolver.enumerateVertices(energyDensities, qualities, plant.getTechnology().getMinimumFuelQuality(),
+                plant.getActualEfficiency(), shares);
+        if (vertices == 0) {
+            logger.warn("No feasible fuel mix for {}, using only the first fuel", plant);
+            double[] singleFuel = new double[fuels.size()];
+            singleFuel[0] = 3600 / (plant.getActualEfficiency() * energyDensities[0]);
+            return new double[][] { singleFuel };
+        }
+        double[][] options = new double[vertices][];
+        System.arraycopy(shares, 0, options, 0, vertices);
+        return options;
+    }
+
+    /**
+     * Returns the pool of threads on which the segments of an in-memory merit order are cleared. The pool is kept between ticks and its
+     * threads do not prevent the JVM from exiting.
+     * 
+     * @param numberOfThreads
+     *            the number of threads
+     * @return the executor, or null if the segments are to be cleared in the calling thread
+     */
+    ExecutorService getSegmentClearingExecutor(int numberOfThreads) {
+        if (numberOfThreads <= 1) {
+            return null;
+        }
+        if (segmentClearingExecutor == null || segmentClearingExecutor.isShutdown() || numberOfSegmentClearingThreads != numberOfThreads) {
+            if (segmentClearingExecutor != null) {
+                segmentClearingExecutor.shutdown();
+            }
+            segmentClearingExecutor = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactory() {
+                private int threads = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "segment-clearing-" + ++threads);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            RunResources.register(segmentClearingExecutor);
+            numberOfSegmentClearingThreads = numberOfThreads;
+        }
+        return segmentClearingExecutor;
+    }
+
+    /**
+     * Clears all segments against the in-memory merit order. Nothing is written to the graph. The segments are independent, so with more
+     * than one thread they are divided over the tasks of the segment clearing executor, as by
+     * {@link CO2PriceEmissionsEvaluator#setExecutor(ExecutorService, int)}.
+     * 
+     * @param snapshot
+     *            the snapshot to clear
+     * @param interconnectorCapacity
+     *            the capacity of the interconnector between the first and the other markets, not used if the markets are coupled by a
+     *            {@link MarketCoupling}
+     * @param numberOfThreads
+     *            the number of threads to clear the segments on
+     */
+    void clearAllSegmentsInMemory(final MeritOrderSnapshot snapshot, final double interconnectorCapacity, int numberOfThreads) {
+        ExecutorService executor = getSegmentClearingExecutor(numberOfThreads);
+        if (executor == null) {
+            for (int s = 0; s < snapshot.segments.size(); s++) {
+                clearSegmentInMemory(snapshot, s, interconnectorCapacity);
+            }
+            return;
+        }
+        List<Callable<Object>> segmentTasks = new ArrayList<Callable<Object>>();
+        int tasks = Math.max(1, Math.min(numberOfThreads, snapshot.segments.size()));
+        for (int t = 0; t < tasks; t++) {
+            final int firstSegment = t;
+            final int stride = tasks;
+            segmentTasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    for (int s = firstSegment; s < snapshot.segments.size(); s += stride) {
+                        clearSegmentInMemory(snapshot, s, interconnectorCapacity);
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Object> future : executor.invokeAll(segmentTasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while clearing the segments", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Clearing a segment failed", e.getCause());
+        }
+    }
+
+    private void clearSegmentInMemory(MeritOrderSnapshot snapshot, int segmentIndex, double interconnectorCapacity) {
+        snapshot.meritOrder.clearSegment(segmentIndex, snapshot.loads[segmentIndex], interconnectorCapacity, snapshot.valueOfLostLoad,
+                snapshot.prices[segmentIndex], snapshot.supplies[segmentIndex]);
+    }
+
+    /**
+     * Writes the outcome of the in-memory clearing back to the graph: the price, status and accepted amount of every dispatch plan and a
+     * segment clearing point per segment and market. If an evaluator was used, the resulting fuel mixes and bids without CO2 are written
+     * as well.
+     * 
+     * @param snapshot
+     *            the cleared snapshot
+     */
+    @Transactional
+    void writeMeritOrderSnapshotToGraph(MeritOrderSnapshot snapshot) {
+        InMemoryMeritOrder meritOrder = snapshot.meritOrder;
+        Set<PowerPlant> plantsWithUpdatedFuelMix = new HashSet<PowerPlant>();
+        for (int i = 0; i < snapshot.plans.size(); i++) {
+            PowerPlantDispatchPlan plan = snapshot.plans.get(i);
+            plan.setPrice(meritOrder.getPrice(i));
+            plan.setStatus(meritOrder.getStatus(i));
+            plan.setAcceptedAmount(meritOrder.getAcceptedAmount(i));
+            if (snapshot.evaluator != null && snapshot.evaluator.hasFuelMixOptions(i)) {
+                plan.setBidWithoutCO2(meritOrder.getBidWithoutCO2(i));
+                if (!plantsWithUpdatedFuelMix.contains(plan.getPowerPlant())) {
+                    plantsWithUpdatedFuelMix.add(plan.getPowerPlant());
+                    updateFuelMix(plan.getPowerPlant(), snapshot.fuels[i],
+                            snapshot.fuelMixOptionShares[i][snapshot.evaluator.getChosenFuelMixOption(i)]);
+                }
+            }
+        }
+        for (int s = 0; s < snapshot.segments.size(); s++) {
+            Segment segment = snapshot.segments.get(s);
+            for (int m = 0; m < snapshot.markets.size(); m++) {
+                reps.clearingPointRepositoryOld.createOrUpdateSegmentClearingPoint(segment, snapshot.markets.get(m),
+                        snapshot.prices[s][m], snapshot.supplies[s][m] * segment.getLengthInHours(), getCurrentTick());
+            }
+        }
+    }
+
+    /**
+     * Writes the chosen fuel mix back to the plant, and only sets the fuel mix of the plant again when a share or substance changed.
+     */
+    private void updateFuelMix(PowerPlant plant, List<Substance> fuels, double[] shares) {
+        boolean changed = plant.getFuelMix() == null;
+        Set<SubstanceShareInFuelMix> fuelMix = changed ? new HashSet<SubstanceShareInFuelMix>() : plant.getFuelMix();
+        Iterator<SubstanceShareInFuelMix> iterator = fuelMix.iterator();
+        for (int f = 0; f < fuels.size(); f++) {
+            SubstanceShareInFuelMix ssifm;
+            if (iterator.hasNext()) {
+                ssifm = iterator.next();
+            } else {
+                ssifm = new SubstanceShareInFuelMix().persist();
+                fuelMix.add(ssifm);
+                changed = true;
+            }
+            changed |= ssifm.update(fuels.get(f), shares[f]);
+        }
+        if (changed) {
+            plant.setFuelMix(fuelMix);
+        }
+    }
+
     /**
      * Determine for each power plant whether it will be covered (partially) by long-term contracts for each of the segments and stores that in the respective power plant dipatch plan.
      * 
@@ -540,13 +921,20 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
      */
     double findLastKnownPriceForSubstance(Substance substance) {
 
+        Double cachedPrice = reps.tickScopedCache.findLastKnownPriceForSubstance(substance);
+        if (cachedPrice != null) {
+            return cachedPrice;
+        }
+        double price;
         DecarbonizationMarket market = reps.marketRepository.findFirstMarketBySubstance(substance);
         if (market == null) {
             logger.warn("No market found for {} so no price can be found", substance.getName());
-            return 0d;
+            price = 0d;
         } else {
-            return findLastKnownPriceOnMarket(market);
+            price = findLastKnownPriceOnMarket(market);
         }
+        reps.tickScopedCache.storeLastKnownPriceForSubstance(substance, price);
+        return price;
     }
 
     /**
@@ -558,58 +946,7 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
      * @return the (average) price found
      */
     double findLastKnownPriceOnMarket(DecarbonizationMarket market) {
-        Double average = calculateAverageMarketPriceBasedOnClearingPoints(reps.clearingPointRepositoryOld
-                .findClearingPointsForMarketAndTime(market, getCurrentTick()));
-        Substance substance = market.getSubstance();
-
-        if (average != null) {
-            logger.info("Average price found on market for this tick for {}", substance.getName());
-            return average;
-        }
-
-        average = calculateAverageMarketPriceBasedOnClearingPoints(reps.clearingPointRepositoryOld.findClearingPointsForMarketAndTime(
-                market, getCurrentTick() - 1));
-        if (average != null) {
-            logger.info("Average price found on market for previous tick for {}", substance.getName());
-            return average;
-        }
-
-        if (market.getReferencePrice() > 0) {
-            logger.info("Found a reference price found for market for {}", substance.getName());
-            return market.getReferencePrice();
-        }
-
-        for (CommoditySupplier supplier : reps.genericRepository.findAll(CommoditySupplier.class)) {
-            if (supplier.getSubstance().equals(substance)) {
-
-                logger.info("Price found for {} by asking the supplier {} directly", substance.getName(), supplier.getName());
-                return supplier.getPriceOfCommodity().getValue(getCurrentTick());
-            }
-        }
-
-        logger.info("No price has been found for {}", substance.getName());
-        return 0d;
-    }
-
-    /**
-     * Calculates the volume-weighted average price on a market based on a set of clearingPoints.
-     * 
-     * @param clearingPoints
-     *            the clearingPoints with the volumes and prices
-     * @return the weighted average
-     */
-    private Double calculateAverageMarketPriceBasedOnClearingPoints(Iterable<ClearingPoint> clearingPoints) {
-        double priceTimesVolume = 0d;
-        double volume = 0d;
-
-        for (ClearingPoint point : clearingPoints) {
-            priceTimesVolume += point.getPrice() * point.getVolume();
-            volume += point.getVolume();
-        }
-        if (volume > 0) {
-            return priceTimesVolume / volume;
-        }
-        return null;
+        return reps.priceHistory.findLastKnownPriceOnMarket(market, getCurrentTick());
     }
 
     public Reps getReps() {
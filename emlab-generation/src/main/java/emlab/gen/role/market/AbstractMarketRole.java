@@ -15,6 +15,9 @@
  ******************************************************************************/
 package emlab.gen.role.market;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.transaction.annotation.Transactional;
@@ -42,155 +45,73 @@ public abstract class AbstractMarketRole<T extends DecarbonizationMarket> extend
     @Autowired
     Reps reps;
 
+    /**
+     * Clears the market in memory: all bids of the market and time are loaded in a single query, the clearing point is found with
+     * {@link CommodityMarketClearing} and the status of each bid is then written once.
+     */
     @Transactional
     public ClearingPoint calculateClearingPoint(DecarbonizationMarket market, long time) {
-        double clearedVolume = 0d;
-        double clearedPrice = 0d;
-        double totalSupplyPrice = calculateTotalSupplyPriceForMarketForTime(market, time);
-        double totalSupply = calculateTotalSupplyForMarketForTime(market, time);
-        logger.info("total supply {} total price {}", totalSupply, totalSupplyPrice);
-        double totalDemandForPrice = calculateTotalDemandForMarketForTimeForPrice(market, time, totalSupplyPrice);
-        logger.info("total demand {} for price {}", totalDemandForPrice, totalSupplyPrice);
-
-		double minimumSupplyPrice = calculateMinimumSupplyPriceForMarketForTime(market, time);
-		double demandAtMinimumSupplyPrice = calculateTotalDemandForMarketForTimeForPrice(market, time, totalSupplyPrice);
-
-		if (demandAtMinimumSupplyPrice <= 0) {
-			clearedPrice = minimumSupplyPrice;
-			clearedVolume = 0;
-		} else if (totalDemandForPrice > totalSupply) {
-			// Not enough to meet demand
-            clearedVolume = totalSupply;
-            if (market.isAuction()) {
-                clearedPrice = calculateTotalDemandForMarketForTimeForPrice(market, time, 0d);
+        List<Bid> offers = new ArrayList<Bid>();
+        List<Bid> demandBids = new ArrayList<Bid>();
+        for (Bid bid : reps.bidRepository.findBidsForMarketForTime(market, time)) {
+            if (bid.isSupplyBid()) {
+                offers.add(bid);
             } else {
-                clearedPrice = market instanceof ElectricitySpotMarket ? ((ElectricitySpotMarket) market).getValueOfLostLoad()
-                        : totalSupplyPrice;
-            }
-        } else { // Supply exceeds demand
-            double totalOfferAmount = 0d;
-            double previousPrice = 0d;
-            for (Bid offer : reps.bidRepository.findOffersForMarketForTime(market, time)) {
-                double price = offer.getPrice();
-                double amount = offer.getAmount();
-                double demand = calculateTotalDemandForMarketForTimeForPrice(market, time, price);
-                if (demand < totalOfferAmount + amount) {
-                    if (demand == 0) {
-                        if (getCurrentTick() > 0) {
-                            ClearingPoint cp = reps.clearingPointRepository.findClearingPointForMarketAndTime(market, getCurrentTick() - 1);
-                            if (cp != null)
-                                previousPrice = cp.getPrice();
-                        }
-                        clearedPrice = previousPrice;
-                        clearedVolume = totalOfferAmount;
-                    } else if (totalOfferAmount >= demand) {
-                        clearedPrice = previousPrice;
-                        clearedVolume = totalOfferAmount;
-                    } else {
-                        clearedPrice = price;
-                        clearedVolume = demand;
-                    }
-                    break;
-                }
-                totalOfferAmount += amount;
-                previousPrice = price;
+                demandBids.add(bid);
             }
         }
+        CommodityMarketClearing clearing = new CommodityMarketClearing(getPrices(offers), getAmounts(offers), getPrices(demandBids),
+                getAmounts(demandBids), market.isAuction());
+
+        double previousClearingPrice = Double.NaN;
+        if (getCurrentTick() > 0) {
+            ClearingPoint cp = reps.clearingPointRepository.findClearingPointForMarketAndTime(market, getCurrentTick() - 1);
+            if (cp != null)
+                previousClearingPrice = cp.getPrice();
+        }
+        clearing.clear(market instanceof ElectricitySpotMarket ? ((ElectricitySpotMarket) market).getValueOfLostLoad() : Double.NaN,
+                previousClearingPrice);
+        logger.info("cleared {} offers and {} demand bids", offers.size(), demandBids.size());
+
         ClearingPoint point = new ClearingPoint().persist();
+        reps.tickScopedCache.invalidateLastKnownPrice(market);
         point.setAbstractMarket(market);
         point.setTime(time);
-        point.setPrice(Math.max(0, clearedPrice));
-        point.setVolume(clearedVolume);
-
-        // set bids to accepted and check for partial acceptance
-        // DEMAND
-        double previousPrice = markAcceptedBids(point, false);
-        // if auction - last accepted demand bid sets the price
-        if (market.isAuction()) {
-            point.setPrice(Math.max(0, previousPrice));
-        }
-        // SUPPLY
-        markAcceptedBids(point, true);
-        return point;
-    }
-
-    private double markAcceptedBids(ClearingPoint point, boolean isSupply) {
-        long time = point.getTime();
-        DecarbonizationMarket market = point.getAbstractMarket();
-        double clearedPrice = point.getPrice();
-        double clearedVolume = point.getVolume();
-        double totalBidVolume = 0d;
-        double previousPrice = Double.NEGATIVE_INFINITY;
-        double accpetedSamePriceVolume = 0d;
-
-        Iterable<Bid> bids = isSupply ? reps.bidRepository.findOffersForMarketForTimeBelowPrice(market, time, clearedPrice) : market
-                .isAuction() ? reps.bidRepository.findDemandBidsForMarketForTime(market, time) : reps.bidRepository
-                .findDemandBidsForMarketForTimeAbovePrice(market, time, clearedPrice);
-
-        for (Bid bid : bids) {
-            double amount = bid.getAmount();
-            totalBidVolume += amount;
-            accpetedSamePriceVolume = bid.getPrice() == previousPrice ? accpetedSamePriceVolume + amount : amount;
-            if (totalBidVolume < clearedVolume) {
-                bid.setStatus(Bid.ACCEPTED);
-                bid.setAcceptedAmount(bid.getAmount());
-            } else {
-                double lastAvailableBidSize = clearedVolume - (totalBidVolume - accpetedSamePriceVolume);
-                double samePriceVolume = calculateBidsForMarketForTimeForPrice(market, time, bid.getPrice(), isSupply);
-                double adjustRatio = lastAvailableBidSize / samePriceVolume;
-                for (Bid partBid : isSupply ? reps.bidRepository.findOffersForMarketForTimeForPrice(market, time, bid.getPrice())
-                        : reps.bidRepository.findDemandBidsForMarketForTimeForPrice(market, time, bid.getPrice())) {
-                    partBid.setStatus(Bid.PARTLY_ACCEPTED);
-                    partBid.setAcceptedAmount(partBid.getAmount() * adjustRatio);
-                }
-                break;
+        point.setPrice(clearing.getClearingPrice());
+        point.setVolume(clearing.getClearingVolume());
+        reps.priceHistory.record(point);
+
+        // set bids to accepted and partly accepted
+        for (int i = 0; i < demandBids.size(); i++) {
+            if (clearing.getDemandStatus(i) != CommodityMarketClearing.UNCHANGED) {
+                demandBids.get(i).setStatus(clearing.getDemandStatus(i));
+                demandBids.get(i).setAcceptedAmount(clearing.getDemandAcceptedAmount(i));
             }
-            previousPrice = bid.getPrice();
-        }
-        return previousPrice;
-    }
-
-    private double calculateBidsForMarketForTimeForPrice(DecarbonizationMarket market, long time, double price, boolean isSupply) {
-        try {
-            return isSupply ? reps.bidRepository.calculateOffersForMarketForTimeForPrice(market, time, price) : reps.bidRepository
-                    .calculateDemandBidsForMarketForTimeForPrice(market, time, price);
-        } catch (NullPointerException npe) {
         }
-        return 0d;
-    }
-
-    private double calculateTotalDemandForMarketForTimeForPrice(DecarbonizationMarket market, long time, double price) {
-        try {
-            return market.isAuction() ? reps.bidRepository.calculateTotalDemandForMarketForTime(market, time) : reps.bidRepository
-                    .calculateTotalDemandForMarketForTimeForPrice(market, time, price);
-        } catch (NullPointerException npe) {
+        for (int i = 0; i < offers.size(); i++) {
+            if (clearing.getSupplyStatus(i) != CommodityMarketClearing.UNCHANGED) {
+                offers.get(i).setStatus(clearing.getSupplyStatus(i));
+                offers.get(i).setAcceptedAmount(clearing.getSupplyAcceptedAmount(i));
+            }
         }
-        return 0d;
+        return point;
     }
 
-    private double calculateTotalSupplyPriceForMarketForTime(DecarbonizationMarket market, long time) {
-        try {
-            return reps.bidRepository.calculateTotalSupplyPriceForMarketForTime(market, time);
-        } catch (NullPointerException e) {
+    private static double[] getPrices(List<Bid> bids) {
+        double[] prices = new double[bids.size()];
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = bids.get(i).getPrice();
         }
-        return 0d;
+        return prices;
     }
 
-    private double calculateTotalSupplyForMarketForTime(DecarbonizationMarket market, long time) {
-        try {
-            return reps.bidRepository.calculateTotalSupplyForMarketForTime(market, time);
-        } catch (NullPointerException e) {
+    private static double[] getAmounts(List<Bid> bids) {
+        double[] amounts = new double[bids.size()];
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = bids.get(i).getAmount();
         }
-        return 0d;
+        return amounts;
     }
 
-	private double calculateMinimumSupplyPriceForMarketForTime(DecarbonizationMarket market, long time) {
-		try {
-			return reps.bidRepository.calculateMinimumSupplyPriceForMarketForTime(market, time);
-		} catch (NullPointerException e) {
-		}
-		return 0d;
-	}
-
     public abstract Reps getReps();
 }
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.Arrays;
+
+/**
+ * Finds the CO2 price at which the emissions of the electricity spot markets meet the cap exactly, for merit orders without multi-fuel
+ * plans. With fixed fuel mixes the price of every plan is linear in the CO2 price (piecewise linear if a national minimum CO2 price
+ * applies), so the merit order, and with it the dispatch and the total emissions, only changes where two plans of a segment swap
+ * places. The emissions are constant between these crossing prices.
+ * 
+ * The solver collects all crossing prices between the minimum price and the penalty: per segment and per range without a national
+ * minimum price in it, the plans are sorted by their price at the start of the range and merged by their price at the end of it, and
+ * every pair that the merge finds in the wrong order crosses inside the range. The sorted crossing prices and the ranges in between are
+ * then searched for the lowest price that meets the cap, each step being one evaluation of the {@link CO2PriceEmissionsEvaluator}. The
+ * result is exact, and the number of evaluations is logarithmic in the number of crossings.
+ * 
+ * @author jcrichstein
+ * 
+ */
+public class CO2CapSolver {
+
+    private final CO2PriceEmissionsEvaluator evaluator;
+    private final InMemoryMeritOrder meritOrder;
+    private final double[] nationalMinCo2Prices;
+
+    private final double[] priceAtStart;
+    private final double[] priceAtEnd;
+    private final int[] order;
+    private final int[] buffer;
+
+    private double[] crossings = new double[64];
+    private int numberOfCrossings = 0;
+
+    /**
+     * @param evaluator
+     *            the evaluator of the merit order of this tick, without fuel mix options (see
+     *            {@link CO2PriceEmissionsEvaluator#hasFuelMixOptions()})
+     */
+    public CO2CapSolver(CO2PriceEmissionsEvaluator evaluator) {
+        if (evaluator.hasFuelMixOptions()) {
+            throw new IllegalArgumentException("The emissions of multi-fuel plans are not constant between crossing prices");
+        }
+        this.evaluator = evaluator;
+        this.meritOrder = evaluator.getMeritOrder();
+        this.nationalMinCo2Prices = evaluator.getNationalMinCo2Prices();
+        priceAtStart = new double[meritOrder.getNumberOfPlans()];
+        priceAtEnd = new double[meritOrder.getNumberOfPlans()];
+        order = new int[meritOrder.getNumberOfPlans()];
+        buffer = new int[meritOrder.getNumberOfPlans()];
+    }
+
+    /**
+     * Finds the lowest CO2 price between the minimum price and the penalty at which the emissions do not exceed the cap. If the cap is
+     * met at the minimum price, the minimum price is returned; if it is not met at the penalty, the penalty is returned. Afterwards the
+     * evaluator holds the dispatch at the returned price.
+     * 
+     * @param co2Cap
+     *            the cap
+     * @param minimumPrice
+     *            the minimum CO2 price
+     * @param penalty
+     *            the CO2 penalty, the highest price
+     * @return the clearing CO2 price
+     */
+    public double findClearingPrice(double co2Cap, double minimumPrice, double penalty) {
+        if (evaluator.calculateEmissions(minimumPrice) <= co2Cap || penalty <= minimumPrice) {
+            return evaluate(minimumPrice);
+        }
+        if (evaluator.calculateEmissions(penalty) > co2Cap) {
+            return penalty;
+        }
+        collectCrossings(minimumPrice, penalty);
+
+        // Search the candidates minimumPrice, (range), crossing 0, (range),
+        // ..., crossing n - 1, (range), penalty, where a range is represented
+        // by its middle. The emissions exceed the cap at the first candidate
+        // and meet it at the last.
+        int low = 0;
+        int high = 2 * numberOfCrossings + 2;
+        while (high - low > 1) {
+            int middle = (low + high) >>> 1;
+            if (evaluator.calculateEmissions(candidate(middle, minimumPrice, penalty)) <= co2Cap) {
+                high = middle;
+            } else {
+                low = middle;
+            }
+        }
+        return evaluate(candidate(high, minimumPrice, penalty));
+    }
+
+    private double evaluate(double co2Price) {
+        evaluator.calculateEmissions(co2Price);
+        return co2Price;
+    }
+
+    private double candidate(int index, double minimumPrice, double penalty) {
+        if (index % 2 == 0) {
+            return point(index / 2, minimumPrice, penalty);
+        }
+        return (point(index / 2, minimumPrice, penalty) + point(index / 2 + 1, minimumPrice, penalty)) / 2;
+    }
+
+    private double point(int index, double minimumPrice, double penalty) {
+        if (index == 0) {
+            return minimumPrice;
+        }
+        if (index > numberOfCrossings) {
+            return penalty;
+        }
+        return crossings[index - 1];
+    }
+
+    /**
+     * Collects the distinct prices strictly between from and to at which two plans of a segment swap places.
+     */
+    void collectCrossings(double from, double to) {
+        numberOfCrossings = 0;
+        double[] bounds = new double[nationalMinCo2Prices.length + 2];
+        int numberOfBounds = 0;
+        bounds[numberOfBounds++] = from;
+        for (double minCo2Price : nationalMinCo2Prices) {
+            if (minCo2Price > from && minCo2Price < to) {
+                bounds[numberOfBounds++] = minCo2Price;
+            }
+        }
+        bounds[numberOfBounds++] = to;
+        Arrays.sort(bounds, 0, numberOfBounds);
+
+        for (int r = 0; r + 1 < numberOfBounds; r++) {
+            if (bounds[r] == bounds[r + 1]) {
+                continue;
+            }
+            for (int i = 0; i < meritOrder.getNumberOfPlans(); i++) {
+                priceAtStart[i] = priceAt(i, bounds[r]);
+                priceAtEnd[i] = priceAt(i, bounds[r + 1]);
+            }
+            for (int s = 0; s < meritOrder.getNumberOfSegments(); s++) {
+                int[] plans = meritOrder.meritOrder[s];
+                System.arraycopy(plans, 0, order, 0, plans.length);
+                sort(priceAtStart, 0, plans.length, false, 0, 0);
+                sort(priceAtEnd, 0, plans.length, true, bounds[r], bounds[r + 1]);
+            }
+        }
+
+        Arrays.sort(crossings, 0, numberOfCrossings);
+        int distinct = 0;
+        for (int k = 0; k < numberOfCrossings; k++) {
+            double crossing = crossings[k];
+            if (crossing > from && crossing < to && (distinct == 0 || crossing != crossings[distinct - 1])) {
+                crossings[distinct++] = crossing;
+            }
+        }
+        numberOfCrossings = distinct;
+    }
+
+    int getNumberOfCrossings() {
+        return numberOfCrossings;
+    }
+
+    double getCrossing(int index) {
+        return crossings[index];
+    }
+
+    private double priceAt(int plan, double co2Price) {
+        double minCo2Price = nationalMinCo2Prices[meritOrder.market[plan]];
+        double effectiveCo2Price = minCo2Price > co2Price ? minCo2Price : co2Price;
+        return meritOrder.bidWithoutCO2[plan] + effectiveCo2Price * meritOrder.emissionIntensity[plan];
+    }
+
+    /**
+     * Merge sort of the plans by the given prices, with equal prices ordered by index as in the merit order. If collect is set, every
+     * pair of plans that is merged out of order is a pair that swaps places between start and end, and its crossing price is stored.
+     */
+    private void sort(double[] prices, int from, int to, boolean collect, double start, double end) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(prices, from, middle, collect, start, end);
+        sort(prices, middle, to, collect, start, end);
+        if (!precedes(prices, order[middle], order[middle - 1])) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int k = from; k < to; k++) {
+            if (right >= to || (left < middle && !precedes(prices, buffer[right], buffer[left]))) {
+                order[k] = buffer[left++];
+            } else {
+                if (collect) {
+                    for (int l = left; l < middle; l++) {
+                        addCrossing(buffer[l], buffer[right], start, end);
+                    }
+                }
+                order[k] = buffer[right++];
+            }
+        }
+    }
+
+    private static boolean precedes(double[] prices, int plan, int otherPlan) {
+        return prices[plan] < prices[otherPlan] || (prices[plan] == prices[otherPlan] && plan < otherPlan);
+    }
+
+    /**
+     * Stores the price at which the earlier plan at the start of the range is overtaken by the later one. Both prices are linear within
+     * the range.
+     */
+    private void addCrossing(int earlier, int later, double start, double end) {
+        double differenceAtStart = priceAtStart[earlier] - priceAtStart[later];
+        double differenceAtEnd = priceAtEnd[earlier] - priceAtEnd[later];
+        double crossing = start;
+        if (differenceAtEnd != differenceAtStart) {
+            crossing = start - differenceAtStart * (end - start) / (differenceAtEnd - differenceAtStart);
+        }
+        if (numberOfCrossings == crossings.length) {
+            crossings = Arrays.copyOf(crossings, 2 * crossings.length);
+        }
+        crossings[numberOfCrossings++] = Math.min(end, Math.max(start, crossing));
+    }
+
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.Arrays;
+
+/**
+ * The (CO2 price, emissions) pairs evaluated by the CO2 price search of one tick, sorted by price. The curve of the previous tick is used
+ * to warm-start the search of the next tick: inverting it gives a first guess for the price that meets the cap, and once one price has
+ * been evaluated the ratio of the measured to the recorded emissions scales the curve for the fleet changes since then, so that the second
+ * guess can be placed on the other side of the cap.
+ * 
+ * The emissions are assumed to be non-increasing in the CO2 price. Recorded pairs that violate that, for instance because of fuel mix
+ * changes, only make the guess worse, the search itself still converges.
+ * 
+ * @author JCRichstein
+ * 
+ */
+public class CO2PriceEmissionCurve {
+
+    private double[] prices = new double[16];
+    private double[] emissions = new double[16];
+    private int size;
+    private long tick = -1;
+    private double demand;
+
+    /**
+     * Forgets all pairs and starts the curve of a new tick.
+     * 
+     * @param tick
+     *            the tick of the pairs that will be added
+     * @param demand
+     *            the total demand of that tick, to scale the curve for demand growth
+     */
+    public void start(long tick, double demand) {
+        this.tick = tick;
+        this.demand = demand;
+        size = 0;
+    }
+
+    /**
+     * Adds an evaluated pair. A pair with a price that is already on the curve replaces it.
+     * 
+     * @param price
+     * @param emissions
+     */
+    public void add(double price, double emissions) {
+        int index = Arrays.binarySearch(prices, 0, size, price);
+        if (index >= 0) {
+            this.emissions[index] = emissions;
+            return;
+        }
+        index = -index - 1;
+        if (size == prices.length) {
+            prices = Arrays.copyOf(prices, 2 * size);
+            this.emissions = Arrays.copyOf(this.emissions, 2 * size);
+        }
+        System.arraycopy(prices, index, prices, index + 1, size - index);
+        System.arraycopy(this.emissions, index, this.emissions, index + 1, size - index);
+        prices[index] = price;
+        this.emissions[index] = emissions;
+        size++;
+    }
+
+    /**
+     * Copies the pairs of another curve into this one.
+     * 
+     * @param other
+     */
+    public void copyFrom(CO2PriceEmissionCurve other) {
+        start(other.tick, other.demand);
+        if (prices.length < other.size) {
+            prices = new double[other.prices.length];
+            emissions = new double[other.prices.length];
+        }
+        System.arraycopy(other.prices, 0, prices, 0, other.size);
+        System.arraycopy(other.emissions, 0, emissions, 0, other.size);
+        size = other.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public double getDemand() {
+        return demand;
+    }
+
+    /**
+     * @param price
+     * @return the emissions at the price, linearly interpolated between the recorded pairs, or NaN if the price is outside of the recorded
+     *         range
+     */
+    public double findEmissions(double price) {
+        if (size == 0 || price < prices[0] || price > prices[size - 1]) {
+            return Double.NaN;
+        }
+        int index = Arrays.binarySearch(prices, 0, size, price);
+        if (index >= 0) {
+            return emissions[index];
+        }
+        int upper = -index - 1;
+        int lower = upper - 1;
+        double fraction = (price - prices[lower]) / (prices[upper] - prices[lower]);
+        return emissions[lower] + fraction * (emissions[upper] - emissions[lower]);
+    }
+
+    /**
+     * Inverts the curve: finds the lowest price at which the recorded emissions fall to the target, interpolating linearly between the two
+     * pairs that bracket it.
+     * 
+     * @param targetEmissions
+     * @return the price, or NaN if the recorded emissions do not bracket the target
+     */
+    public double findPrice(double targetEmissions) {
+        for (int i = 0; i < size; i++) {
+            if (emissions[i] == targetEmissions) {
+                return prices[i];
+            }
+            if (i > 0 && emissions[i - 1] > targetEmissions && emissions[i] < targetEmissions) {
+                double fraction = (emissions[i - 1] - targetEmissions) / (emissions[i - 1] - emissions[i]);
+                return prices[i - 1] + fraction * (prices[i] - prices[i - 1]);
+            }
+        }
+        return Double.NaN;
+    }
+
+}
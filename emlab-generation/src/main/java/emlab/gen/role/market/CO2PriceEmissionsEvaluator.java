@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates the total CO2 emissions of the electricity spot markets at a given CO2 price, using only the {@link InMemoryMeritOrder} of
+ * the current tick. For plants that can fire more than one fuel the candidate fuel mixes are given up front (see
+ * {@link emlab.gen.util.FuelMixSolver}); at every CO2 price the cheapest one is chosen, as the fuel mix optimisation in
+ * {@link SubmitOffersToElectricitySpotMarketRole#updateMarginalCostInclCO2AfterFuelMixChange} would do. An evaluation re-prices, re-sorts
+ * and re-dispatches all segments; evaluated in the calling thread it does not allocate.
+ * 
+ * Given the CO2 price the segments are independent, so they can be evaluated concurrently on an executor (see
+ * {@link #setExecutor(ExecutorService, int)}). The emissions are summed per segment in a fixed order, so the result does not depend on
+ * the number of threads.
+ * 
+ * @author jcrichstein
+ * 
+ */
+public class CO2PriceEmissionsEvaluator {
+
+    private final InMemoryMeritOrder meritOrder;
+    private final double[][] loads;
+    private final double interconnectorCapacity;
+    private final double[] valueOfLostLoad;
+    private final double[] nationalMinCo2Prices;
+    private final double co2Tax;
+
+    final double[][] prices;
+    final double[][] supplies;
+
+    // Candidate fuel mixes of multi-fuel plans, stored consecutively.
+    private final int[] firstOption;
+    private final int[] numberOfOptions;
+    private final int[] chosenOption;
+    private double[] optionFuelCost = new double[16];
+    private double[] optionCO2Density = new double[16];
+    private double[] optionEmissionIntensity = new double[16];
+    private int options = 0;
+
+    private double lastCO2Price = Double.NaN;
+    private double lastEmissions;
+    private int numberOfEvaluations = 0;
+
+    private final double[] segmentEmissions;
+    private ExecutorService executor;
+    private List<Callable<Object>> segmentTasks;
+    private double co2PriceOfEvaluation;
+
+    /**
+     * @param meritOrder
+     *            the merit order of this tick
+     * @param loads
+     *            load per segment and market
+     * @param interconnectorCapacity
+     *            the interconnector capacity
+     * @param valueOfLostLoad
+     *            the value of lost load per market
+     * @param nationalMinCo2Prices
+     *            the national minimum CO2 price per market
+     * @param co2Tax
+     *            the CO2 tax, which is part of the bid without CO2 price
+     */
+    public CO2PriceEmissionsEvaluator(InMemoryMeritOrder meritOrder, double[][] loads, double interconnectorCapacity,
+            double[] valueOfLostLoad, double[] nationalMinCo2Prices, double co2Tax) {
+        this.meritOrder = meritOrder;
+        this.loads = loads;
+        this.interconnectorCapacity = interconnectorCapacity;
+        this.valueOfLostLoad = valueOfLostLoad;
+        this.nationalMinCo2Prices = nationalMinCo2Prices;
+        this.co2Tax = co2Tax;
+        prices = new double[meritOrder.getNumberOfSegments()][meritOrder.getNumberOfMarkets()];
+        supplies = new double[meritOrder.getNumberOfSegments()][meritOrder.getNumberOfMarkets()];
+        firstOption = new int[meritOrder.getNumberOfPlans()];
+        numberOfOptions = new int[meritOrder.getNumberOfPlans()];
+        chosenOption = new int[meritOrder.getNumberOfPlans()];
+        segmentEmissions = new double[meritOrder.getNumberOfSegments()];
+    }
+
+    /**
+     * Lets the segments be evaluated concurrently.
+     * 
+     * @param executor
+     *            the executor to run the segments on, or null to evaluate them in the calling thread
+     * @param numberOfTasks
+     *            the number of tasks the segments are divided over, typically the number of threads of the executor
+     */
+    public void setExecutor(ExecutorService executor, int numberOfTasks) {
+        this.executor = executor;
+        segmentTasks = new ArrayList<Callable<Object>>();
+        int tasks = Math.max(1, Math.min(numberOfTasks, meritOrder.getNumberOfSegments()));
+        for (int t = 0; t < tasks; t++) {
+            final int firstSegment = t;
+            final int stride = tasks;
+            segmentTasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    for (int s = firstSegment; s < meritOrder.getNumberOfSegments(); s += stride) {
+                        evaluateSegment(s, co2PriceOfEvaluation);
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds a candidate fuel mix for a multi-fuel plan. All candidates of one plan have to be added consecutively.
+     * 
+     * @param plan
+     *            the plan
+     * @param fuelCost
+     *            the fuel cost per MWh of this fuel mix
+     * @param co2Density
+     *            the CO2 content of the fuels per MWh, before capture, as used in the fuel mix optimisation
+     * @param emissionIntensity
+     *            the emitted CO2 per MWh, after capture
+     */
+    public void addFuelMixOption(int plan, double fuelCost, double co2Density, double emissionIntensity) {
+        if (numberOfOptions[plan] == 0) {
+            firstOption[plan] = options;
+        }
+        if (options == optionFuelCost.length) {
+            optionFuelCost = grow(optionFuelCost);
+            optionCO2Density = grow(optionCO2Density);
+            optionEmissionIntensity = grow(optionEmissionIntensity);
+        }
+        optionFuelCost[options] = fuelCost;
+        optionCO2Density[options] = co2Density;
+        optionEmissionIntensity[options] = emissionIntensity;
+        numberOfOptions[plan]++;
+        options++;
+        lastCO2Price = Double.NaN;
+    }
+
+    private static double[] grow(double[] array) {
+        double[] larger = new double[array.length * 2];
+        System.arraycopy(array, 0, larger, 0, array.length);
+        return larger;
+    }
+
+    /**
+     * Re-prices, re-sorts and re-dispatches the merit order at the given CO2 price. The merit order has to be sorted once before.
+     * 
+     * @param co2Price
+     *            the CO2 price
+     * @return the total CO2 emissions at this price
+     */
+    public double calculateEmissions(double co2Price) {
+        if (co2Price == lastCO2Price) {
+            return lastEmissions;
+        }
+        if (executor == null) {
+            for (int s = 0; s < meritOrder.getNumberOfSegments(); s++) {
+                evaluateSegment(s, co2Price);
+            }
+        } else {
+            evaluateSegmentsConcurrently(co2Price);
+        }
+        double emissions = 0d;
+        for (int s = 0; s < meritOrder.getNumberOfSegments(); s++) {
+            emissions += segmentEmissions[s];
+        }
+        lastCO2Price = co2Price;
+        lastEmissions = emissions;
+        numberOfEvaluations++;
+        return lastEmissions;
+    }
+
+    private void evaluateSegmentsConcurrently(double co2Price) {
+        co2PriceOfEvaluation = co2Price;
+        try {
+            for (Future<Object> future : executor.invokeAll(segmentTasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while clearing the segments", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Clearing a segment failed", e.getCause());
+        }
+    }
+
+    private void evaluateSegment(int segmentIndex, double co2Price) {
+        for (int plan : meritOrder.meritOrder[segmentIndex]) {
+            int market = meritOrder.market[plan];
+            double effectiveCo2Price = nationalMinCo2Prices[market] > co2Price ? nationalMinCo2Prices[market] : co2Price;
+            if (numberOfOptions[plan] > 0) {
+                chooseFuelMix(plan, effectiveCo2Price);
+            }
+            meritOrder.price[plan] = meritOrder.bidWithoutCO2[plan] + effectiveCo2Price * meritOrder.emissionIntensity[plan];
+        }
+        meritOrder.sortSegment(segmentIndex);
+        meritOrder.clearSegment(segmentIndex, loads[segmentIndex], interconnectorCapacity, valueOfLostLoad, prices[segmentIndex],
+                supplies[segmentIndex]);
+        segmentEmissions[segmentIndex] = meritOrder.determineEmissions(segmentIndex);
+    }
+
+    private void chooseFuelMix(int plan, double effectiveCo2Price) {
+        int best = firstOption[plan];
+        double bestCost = Double.MAX_VALUE;
+        for (int o = firstOption[plan]; o < firstOption[plan] + numberOfOptions[plan]; o++) {
+            double cost = optionFuelCost[o] + optionCO2Density[o] * (co2Tax + effectiveCo2Price);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = o;
+            }
+        }
+        chosenOption[plan] = best - firstOption[plan];
+        meritOrder.emissionIntensity[plan] = optionEmissionIntensity[best];
+        meritOrder.bidWithoutCO2[plan] = optionFuelCost[best] + optionEmissionIntensity[best] * co2Tax;
+    }
+
+    /**
+     * @return whether any plan has candidate fuel mixes, in which case the emissions are not constant between the crossing prices of the
+     *         merit order (see {@link CO2CapSolver})
+     */
+    public boolean hasFuelMixOptions() {
+        return options > 0;
+    }
+
+    /**
+     * @param plan
+     * @return whether the plan has candidate fuel mixes
+     */
+    public boolean hasFuelMixOptions(int plan) {
+        return numberOfOptions[plan] > 0;
+    }
+
+    /**
+     * @param plan
+     * @return the position, in the order they were added, of the fuel mix chosen in the last evaluation
+     */
+    public int getChosenFuelMixOption(int plan) {
+        return chosenOption[plan];
+    }
+
+    public double getBidWithoutCO2(int plan) {
+        return meritOrder.bidWithoutCO2[plan];
+    }
+
+    public double[][] getPrices() {
+        return prices;
+    }
+
+    public double[][] getSupplies() {
+        return supplies;
+    }
+
+    public InMemoryMeritOrder getMeritOrder() {
+        return meritOrder;
+    }
+
+    double[] getNationalMinCo2Prices() {
+        return nationalMinCo2Prices;
+    }
+
+    public int getNumberOfEvaluations() {
+        return numberOfEvaluations;
+    }
+
+}
@@ -45,6 +45,9 @@ import emlab.gen.util.Utils;
  * Creates and clears the {@link ElectricitySpotMarket} for two {@link Zone}s. The market is divided into {@link Segment}s and cleared for each segment. A global CO2 emissions market is cleared. The
  * process is iterative and the target is to let the total emissions match the cap.
  * 
+ * For three or more zones with their own interconnectors, {@link ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole} couples the
+ * markets by a {@link MarketCoupling}.
+ * 
  * @author <a href="mailto:E.J.L.Chappin@tudelft.nl">Emile Chappin</a>
  * 
  * @author <a href="mailto:A.Chmieliauskas@tudelft.nl">Alfredas Chmieliauskas</a>
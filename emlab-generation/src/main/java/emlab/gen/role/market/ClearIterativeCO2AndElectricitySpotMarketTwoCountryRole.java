@@ -38,12 +38,15 @@ import emlab.gen.domain.technology.Interconnector;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
 import emlab.gen.repository.Reps;
+import emlab.gen.util.SimulationMetrics;
 import emlab.gen.util.Utils;
 
 /**
  * Creates and clears the {@link ElectricitySpotMarket} for two {@link Zone}s. The market is divided into {@link Segment}s and cleared for each segment. A global CO2 emissions market is cleared. The
  * process is iterative and the target is to let the total emissions match the cap.
  * 
+ * Any number of zones connected by any number of {@link Interconnector}s is cleared in memory, by a {@link MarketCoupling}.
+ * 
  * @author <a href="mailto:E.J.L.Chappin@tudelft.nl">Emile Chappin</a>
  * 
  * @author <a href="mailto:A.Chmieliauskas@tudelft.nl">Alfredas Chmieliauskas</a>
@@ -64,6 +67,11 @@ implements Role<DecarbonizationModel> {
     @Autowired
     Neo4jTemplate template;
 
+    // The prices evaluated by the CO2 price search of the previous and of
+    // this tick, to warm-start the search of the next tick.
+    private final CO2PriceEmissionCurve previousCO2PriceEmissionCurve = new CO2PriceEmissionCurve();
+    private final CO2PriceEmissionCurve co2PriceEmissionCurve = new CO2PriceEmissionCurve();
+
     @Override
     @Transactional
     public void act(DecarbonizationModel model) {
@@ -103,6 +111,17 @@ implements Role<DecarbonizationModel> {
 
         CO2Auction co2Auction = template.findAll(CO2Auction.class).iterator().next();
 
+        // With in-memory clearing the dispatch plans are only read once and
+        // written back after the iteration has finished. The commitment to
+        // long-term contracts does not depend on the CO2 price. More than two
+        // markets or interconnectors can only be coupled in memory.
+        MeritOrderSnapshot snapshot = null;
+        if (model.isInMemoryMarketClearingEnabled() || isMarketCouplingNeeded()) {
+            if (model.isLongTermContractsImplemented())
+                determineCommitmentOfPowerPlantsOnTheBasisOfLongTermContracts(segments);
+            snapshot = loadMeritOrderSnapshot(segments);
+        }
+
         if (model.isCo2TradingImplemented()) {
             // Old Iteration
             // CO2PriceStability co2PriceStability = new CO2PriceStability();
@@ -118,6 +137,21 @@ implements Role<DecarbonizationModel> {
             co2SecantSearch.tooHighEmissionsPair = null;
             co2SecantSearch.tooLowEmissionsPair = null;
 
+            // Start at the price where the curve of the previous tick,
+            // scaled by the demand growth, meets the cap.
+            double co2Cap = government.getCo2Cap(getCurrentTick());
+            double demand = determineTotalDemand(segments);
+            boolean warmStart = previousCO2PriceEmissionCurve.getTick() == getCurrentTick() - 1
+                    && previousCO2PriceEmissionCurve.size() > 1 && previousCO2PriceEmissionCurve.getDemand() > 0;
+            double emissionsScale = warmStart ? demand / previousCO2PriceEmissionCurve.getDemand() : 1d;
+            co2PriceEmissionCurve.start(getCurrentTick(), demand);
+            if (warmStart) {
+                double co2Price = findWarmStartCO2Price(co2Cap / emissionsScale, government);
+                if (!Double.isNaN(co2Price)) {
+                    co2SecantSearch.co2Price = co2Price;
+                }
+            }
+
             // Change Iteration algorithm here, and a few lines below...
 
             ClearingPoint lastClearingPointOfCo2Market = reps.clearingPointRepositoryOld.findClearingPointForMarketAndTime(co2Auction,
@@ -128,6 +162,26 @@ implements Role<DecarbonizationModel> {
                 co2SecantSearch.co2Emissions = 0d;
             }
 
+            if (snapshot != null) {
+                createCO2PriceEmissionsEvaluator(snapshot, interconnector.getCapacity(), nationalMinCo2Prices,
+                        government.getCO2Tax(getCurrentTick()), fuelPriceMap);
+                int threads = (int) model.getNumberOfMarketClearingThreads();
+                snapshot.evaluator.setExecutor(getSegmentClearingExecutor(threads), threads);
+
+                // With fixed fuel mixes the emissions only change where two
+                // bids swap places, so the exact price can be found directly.
+                // Multi-fuel plants re-optimise their fuel mix at every price,
+                // for them the secant search below is used.
+                if (!snapshot.evaluator.hasFuelMixOptions()) {
+                    co2SecantSearch.co2Price = new CO2CapSolver(snapshot.evaluator).findClearingPrice(
+                            government.getCo2Cap(getCurrentTick()), government.getMinCo2Price(getCurrentTick()),
+                            government.getCo2Penalty(getCurrentTick()));
+                    co2SecantSearch.co2Emissions = snapshot.evaluator.calculateEmissions(co2SecantSearch.co2Price);
+                    co2SecantSearch.stable = true;
+                    co2PriceEmissionCurve.add(co2SecantSearch.co2Price, co2SecantSearch.co2Emissions);
+                }
+            }
+
             int breakOffIterator = 0;
             while (!co2SecantSearch.stable) {
 
@@ -136,24 +190,65 @@ implements Role<DecarbonizationModel> {
                     break;
                 }
 
-                // Clear the electricity markets with the expected co2Price
+                double evaluatedCO2Price = co2SecantSearch.co2Price;
+                long start = System.nanoTime();
+                if (snapshot != null) {
+                    // Re-price, re-sort and re-dispatch in memory only.
+                    co2SecantSearch = co2PriceSecantSearchUpdate(co2SecantSearch, model, government,
+                            snapshot.evaluator.calculateEmissions(co2SecantSearch.co2Price));
+                } else {
+                    // Clear the electricity markets with the expected co2Price
 
-                //updatePowerPlanDispatchPlansWithNewCO2Prices(co2SecantSearch.co2Price, nationalMinCo2Prices);
-                submitOffersToElectricitySpotMarketRole.updateMarginalCostInclCO2AfterFuelMixChange(co2SecantSearch.co2Price, nationalMinCo2Prices);
+                    //updatePowerPlanDispatchPlansWithNewCO2Prices(co2SecantSearch.co2Price, nationalMinCo2Prices);
+                    submitOffersToElectricitySpotMarketRole.updateMarginalCostInclCO2AfterFuelMixChange(co2SecantSearch.co2Price,
+                            nationalMinCo2Prices);
 
-                if (model.isLongTermContractsImplemented())
-                    determineCommitmentOfPowerPlantsOnTheBasisOfLongTermContracts(segments);
+                    if (model.isLongTermContractsImplemented())
+                        determineCommitmentOfPowerPlantsOnTheBasisOfLongTermContracts(segments);
 
-                for (Segment segment : segments) {
-                    clearOneOrTwoConnectedElectricityMarketsAtAGivenCO2PriceForOneSegment(interconnector.getCapacity(), segment, government);
-                }
+                    for (Segment segment : segments) {
+                        clearOneOrTwoConnectedElectricityMarketsAtAGivenCO2PriceForOneSegment(interconnector.getCapacity(), segment,
+                                government);
+                    }
 
-                // Change Iteration algorithm here
-                // co2PriceStability = determineStabilityOfCO2andElectricityPricesAndAdjustIfNecessary(co2PriceStability, model, government);
-                co2SecantSearch = co2PriceSecantSearchUpdate(co2SecantSearch, model, government);
+                    // Change Iteration algorithm here
+                    // co2PriceStability = determineStabilityOfCO2andElectricityPricesAndAdjustIfNecessary(co2PriceStability, model, government);
+                    co2SecantSearch = co2PriceSecantSearchUpdate(co2SecantSearch, model, government);
+                }
                 breakOffIterator++;
+                co2PriceEmissionCurve.add(evaluatedCO2Price, co2SecantSearch.co2Emissions);
+                if (SimulationMetrics.getInstance().isEnabled()) {
+                    SimulationMetrics.getInstance().record(SimulationMetrics.CO2_SEARCH, getClass().getSimpleName(),
+                            System.nanoTime() - start, -1);
+                }
+
+                // Until the cap is bracketed, rescale the curve of the
+                // previous tick to the emissions just found, which accounts
+                // for the changes of the fleet, and aim just across the cap
+                // instead of doubling or halving the price.
+                if (warmStart && !co2SecantSearch.stable
+                        && (co2SecantSearch.tooHighEmissionsPair == null || co2SecantSearch.tooLowEmissionsPair == null)) {
+                    double previousEmissions = previousCO2PriceEmissionCurve.findEmissions(evaluatedCO2Price);
+                    if (previousEmissions > 0) {
+                        emissionsScale = co2SecantSearch.co2Emissions / previousEmissions;
+                    }
+                    boolean tooHigh = co2SecantSearch.co2Emissions > co2Cap;
+                    double target = co2Cap
+                            * (tooHigh ? 1 - model.getCapDeviationCriterion() / 2 : 1 + model.getCapDeviationCriterion() / 2);
+                    double co2Price = findWarmStartCO2Price(target / emissionsScale, government);
+                    if ((tooHigh && co2Price > evaluatedCO2Price) || (!tooHigh && co2Price < evaluatedCO2Price)) {
+                        co2SecantSearch.co2Price = co2Price;
+                    }
+                }
 
             }
+            logger.info("CO2 price search took {} iterations, warm-started: {}", breakOffIterator, warmStart);
+            previousCO2PriceEmissionCurve.copyFrom(co2PriceEmissionCurve);
+
+            if (snapshot != null) {
+                logger.info("CO2 price search evaluated {} prices in memory", snapshot.evaluator.getNumberOfEvaluations());
+                writeMeritOrderSnapshotToGraph(snapshot);
+            }
 
             // Check if iteration is stable if fuel mix change is considered.
             // co2SecantSearch.stable = false;
@@ -179,17 +274,54 @@ implements Role<DecarbonizationModel> {
             reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(co2Auction, co2SecantSearch.co2Price, co2SecantSearch.co2Emissions,
                     getCurrentTick());
         } else {
-            if (model.isLongTermContractsImplemented())
-                determineCommitmentOfPowerPlantsOnTheBasisOfLongTermContracts(segments);
-            for (Segment segment : segments) {
-                clearOneOrTwoConnectedElectricityMarketsAtAGivenCO2PriceForOneSegment(interconnector.getCapacity(), segment, government);
+            if (snapshot != null) {
+                clearAllSegmentsInMemory(snapshot, interconnector.getCapacity(), (int) model.getNumberOfMarketClearingThreads());
+                writeMeritOrderSnapshotToGraph(snapshot);
+            } else {
+                if (model.isLongTermContractsImplemented())
+                    determineCommitmentOfPowerPlantsOnTheBasisOfLongTermContracts(segments);
+                for (Segment segment : segments) {
+                    clearOneOrTwoConnectedElectricityMarketsAtAGivenCO2PriceForOneSegment(interconnector.getCapacity(), segment,
+                            government);
+                }
             }
         }
 
     }
 
     /**
-     * Clears a time segment of all electricity markets for a given CO2 price.
+     * @param targetEmissions
+     *            the emissions to meet, on the scale of the previous tick
+     * @param government
+     * @return the price at which the CO2 price emission curve of the previous tick meets the target, within the minimum CO2 price and the
+     *         penalty, or NaN if the curve does not bracket the target
+     */
+    double findWarmStartCO2Price(double targetEmissions, Government government) {
+        double co2Price = previousCO2PriceEmissionCurve.findPrice(targetEmissions);
+        if (Double.isNaN(co2Price)) {
+            return co2Price;
+        }
+        return Math.max(government.getMinCo2Price(getCurrentTick()), Math.min(government.getCo2Penalty(getCurrentTick()), co2Price));
+    }
+
+    /**
+     * @param segments
+     * @return the total demand of all markets in this tick, following the demand growth trends
+     */
+    double determineTotalDemand(List<Segment> segments) {
+        double demand = 0d;
+        for (ElectricitySpotMarket market : reps.marketRepository.findAllElectricitySpotMarkets()) {
+            double trend = market.getDemandGrowthTrend().getValue(getCurrentTick());
+            for (Segment segment : segments) {
+                demand += reps.segmentLoadRepository.returnSegmentBaseLoadBySegmentAndMarket(segment, market) * trend
+                        * segment.getLengthInHours();
+            }
+        }
+        return demand;
+    }
+
+    /**
+     * Clears a time segment of one or two electricity markets, connected by a single interconnector, for a given CO2 price.
      * 
      * @param powerPlants
      *            to be used
@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import emlab.gen.domain.market.Bid;
+
+/**
+ * Clears a commodity market in memory, with the same rules as the queries that {@link AbstractMarketRole} used before. The supply
+ * and demand bids of the market and time are given once; the offers are sorted by ascending price, the demand bids by descending
+ * price, and the cumulative amounts are kept in primitive arrays. The intersection is then found with a single merge scan, and the
+ * status and accepted amount of every bid is determined without going back to the graph.
+ * 
+ * Bids are referred to by their position in the arrays that were passed in. Bids whose status is not changed by the clearing keep
+ * {@link #UNCHANGED}.
+ * 
+ * @author JCRichstein
+ * 
+ */
+public class CommodityMarketClearing {
+
+    public static final int UNCHANGED = Integer.MIN_VALUE;
+
+    private final boolean auction;
+
+    // Sorted offers (ascending) and demand bids (descending), with the
+    // position of each in the arrays that were passed in.
+    private final double[] supplyPrices;
+    private final double[] supplyAmounts;
+    private final int[] supplyOrder;
+    private final double[] demandPrices;
+    private final double[] demandAmounts;
+    private final int[] demandOrder;
+
+    // Cumulative amounts, element k is the sum of the first k bids.
+    private final double[] cumulativeSupply;
+    private final double[] cumulativeDemand;
+
+    private final int[] supplyStatus;
+    private final double[] supplyAcceptedAmount;
+    private final int[] demandStatus;
+    private final double[] demandAcceptedAmount;
+
+    private double clearingPrice;
+    private double clearingVolume;
+
+    /**
+     * @param supplyPrices
+     * @param supplyAmounts
+     * @param demandPrices
+     * @param demandAmounts
+     * @param auction
+     *            whether the market is an auction, in which all demand is bid regardless of the price
+     */
+    public CommodityMarketClearing(double[] supplyPrices, double[] supplyAmounts, double[] demandPrices, double[] demandAmounts,
+            boolean auction) {
+        this.auction = auction;
+        supplyOrder = sortedOrder(supplyPrices, false);
+        this.supplyPrices = permute(supplyPrices, supplyOrder);
+        this.supplyAmounts = permute(supplyAmounts, supplyOrder);
+        demandOrder = sortedOrder(demandPrices, true);
+        this.demandPrices = permute(demandPrices, demandOrder);
+        this.demandAmounts = permute(demandAmounts, demandOrder);
+        cumulativeSupply = cumulate(this.supplyAmounts);
+        cumulativeDemand = cumulate(this.demandAmounts);
+        supplyStatus = new int[supplyPrices.length];
+        supplyAcceptedAmount = new double[supplyPrices.length];
+        demandStatus = new int[demandPrices.length];
+        demandAcceptedAmount = new double[demandPrices.length];
+        Arrays.fill(supplyStatus, UNCHANGED);
+        Arrays.fill(demandStatus, UNCHANGED);
+    }
+
+    private static int[] sortedOrder(final double[] prices, final boolean descending) {
+        Integer[] order = new Integer[prices.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // Stable, so that bids with the same price keep the order in which
+        // they were found.
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return descending ? Double.compare(prices[b], prices[a]) : Double.compare(prices[a], prices[b]);
+            }
+        });
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    private static double[] permute(double[] values, int[] order) {
+        double[] result = new double[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = values[order[i]];
+        }
+        return result;
+    }
+
+    private static double[] cumulate(double[] amounts) {
+        double[] cumulative = new double[amounts.length + 1];
+        for (int i = 0; i < amounts.length; i++) {
+            cumulative[i + 1] = cumulative[i] + amounts[i];
+        }
+        return cumulative;
+    }
+
+    /**
+     * Determines the clearing price and volume and the status and accepted amount of the bids.
+     * 
+     * @param valueOfLostLoad
+     *            the price if demand exceeds supply, or NaN to use the highest offer price then
+     * @param previousClearingPrice
+     *            the clearing price of the previous tick, used if there is no demand at the marginal offer; NaN if there is none, in
+     *            which case the price of the last offer below the marginal one is used
+     */
+    public void clear(double valueOfLostLoad, double previousClearingPrice) {
+        int numberOfOffers = supplyPrices.length;
+        double clearedVolume = 0d;
+        double clearedPrice = 0d;
+        double totalSupplyPrice = numberOfOffers == 0 ? 0d : supplyPrices[numberOfOffers - 1];
+        double totalSupply = cumulativeSupply[numberOfOffers];
+        double totalDemandForPrice = demandAtOrAbove(totalSupplyPrice);
+        double minimumSupplyPrice = numberOfOffers == 0 ? 0d : supplyPrices[0];
+
+        if (totalDemandForPrice <= 0) {
+            clearedPrice = minimumSupplyPrice;
+            clearedVolume = 0;
+        } else if (totalDemandForPrice > totalSupply) {
+            // Not enough to meet demand
+            clearedVolume = totalSupply;
+            if (auction) {
+                clearedPrice = demandAtOrAbove(0d);
+            } else {
+                clearedPrice = Double.isNaN(valueOfLostLoad) ? totalSupplyPrice : valueOfLostLoad;
+            }
+        } else { // Supply exceeds demand
+            double totalOfferAmount = 0d;
+            double previousPrice = 0d;
+            // Demand bids [0, d) have a price of at least the offer price.
+            int d = demandPrices.length;
+            for (int i = 0; i < numberOfOffers; i++) {
+                double price = supplyPrices[i];
+                double amount = supplyAmounts[i];
+                while (d > 0 && demandPrices[d - 1] < price) {
+                    d--;
+                }
+                double demand = auction ? cumulativeDemand[demandPrices.length] : cumulativeDemand[d];
+                if (demand < totalOfferAmount + amount) {
+                    if (demand == 0) {
+                        clearedPrice = Double.isNaN(previousClearingPrice) ? previousPrice : previousClearingPrice;
+                        clearedVolume = totalOfferAmount;
+                    } else if (totalOfferAmount >= demand) {
+                        clearedPrice = previousPrice;
+                        clearedVolume = totalOfferAmount;
+                    } else {
+                        clearedPrice = price;
+                        clearedVolume = demand;
+                    }
+                    break;
+                }
+                totalOfferAmount += amount;
+                previousPrice = price;
+            }
+        }
+        clearingPrice = Math.max(0, clearedPrice);
+        clearingVolume = clearedVolume;
+
+        // DEMAND
+        double previousPrice = markAcceptedBids(false);
+        // if auction - last accepted demand bid sets the price
+        if (auction) {
+            clearingPrice = Math.max(0, previousPrice);
+        }
+        // SUPPLY
+        markAcceptedBids(true);
+    }
+
+    /**
+     * @return the total demand at or above the price, or all demand in an auction
+     */
+    private double demandAtOrAbove(double price) {
+        if (auction) {
+            return cumulativeDemand[demandPrices.length];
+        }
+        return cumulativeDemand[countDemandAtOrAbove(price)];
+    }
+
+    private int countDemandAtOrAbove(double price) {
+        int low = 0;
+        int high = demandPrices.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (demandPrices[middle] >= price) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int countSupplyAtOrBelow(double price) {
+        int low = 0;
+        int high = supplyPrices.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (supplyPrices[middle] <= price) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private double markAcceptedBids(boolean isSupply) {
+        double[] prices = isSupply ? supplyPrices : demandPrices;
+        double[] amounts = isSupply ? supplyAmounts : demandAmounts;
+        int[] order = isSupply ? supplyOrder : demandOrder;
+        int[] status = isSupply ? supplyStatus : demandStatus;
+        double[] acceptedAmount = isSupply ? supplyAcceptedAmount : demandAcceptedAmount;
+        int numberOfBids = isSupply ? countSupplyAtOrBelow(clearingPrice) : auction ? demandPrices.length
+                : countDemandAtOrAbove(clearingPrice);
+
+        double totalBidVolume = 0d;
+        double previousPrice = Double.NEGATIVE_INFINITY;
+        double accpetedSamePriceVolume = 0d;
+        for (int i = 0; i < numberOfBids; i++) {
+            double amount = amounts[i];
+            totalBidVolume += amount;
+            accpetedSamePriceVolume = prices[i] == previousPrice ? accpetedSamePriceVolume + amount : amount;
+            if (totalBidVolume < clearingVolume) {
+                status[order[i]] = Bid.ACCEPTED;
+                acceptedAmount[order[i]] = amount;
+            } else {
+                double lastAvailableBidSize = clearingVolume - (totalBidVolume - accpetedSamePriceVolume);
+                // As before, the offers at the same price, but the demand
+                // at or above this price.
+                double samePriceVolume = isSupply ? sumOfSamePrice(prices, amounts, i) : demandAtOrAbove(prices[i]);
+                double adjustRatio = lastAvailableBidSize / samePriceVolume;
+                int first = i;
+                while (first > 0 && prices[first - 1] == prices[i]) {
+                    first--;
+                }
+                for (int j = first; j < prices.length && prices[j] == prices[i]; j++) {
+                    status[order[j]] = Bid.PARTLY_ACCEPTED;
+                    acceptedAmount[order[j]] = amounts[j] * adjustRatio;
+                }
+                break;
+            }
+            previousPrice = prices[i];
+        }
+        return previousPrice;
+    }
+
+    private static double sumOfSamePrice(double[] prices, double[] amounts, int index) {
+        double sum = 0d;
+        for (int j = index; j >= 0 && prices[j] == prices[index]; j--) {
+            sum += amounts[j];
+        }
+        for (int j = index + 1; j < prices.length && prices[j] == prices[index]; j++) {
+            sum += amounts[j];
+        }
+        return sum;
+    }
+
+    public double getClearingPrice() {
+        return clearingPrice;
+    }
+
+    public double getClearingVolume() {
+        return clearingVolume;
+    }
+
+    /**
+     * @param bid
+     *            position of the offer in the arrays that were passed in
+     * @return the new status of the offer, or {@link #UNCHANGED}
+     */
+    public int getSupplyStatus(int bid) {
+        return supplyStatus[bid];
+    }
+
+    public double getSupplyAcceptedAmount(int bid) {
+        return supplyAcceptedAmount[bid];
+    }
+
+    /**
+     * @param bid
+     *            position of the demand bid in the arrays that were passed in
+     * @return the new status of the demand bid, or {@link #UNCHANGED}
+     */
+    public int getDemandStatus(int bid) {
+        return demandStatus[bid];
+    }
+
+    public double getDemandAcceptedAmount(int bid) {
+        return demandAcceptedAmount[bid];
+    }
+
+}
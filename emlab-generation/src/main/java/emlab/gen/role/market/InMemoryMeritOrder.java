@@ -0,0 +1,411 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import emlab.gen.domain.market.Bid;
+
+/**
+ * Merit order of all power plant dispatch plans of one tick, held in primitive arrays. Plans are addressed by their index, markets and
+ * segments by the position in which they were handed to the snapshot. The segments are cleared with the same rules as
+ * {@link ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole}, but without touching the graph, so that the outcome only has to be
+ * written back once the CO2 iteration has finished.
+ * 
+ * @author jcrichstein
+ * 
+ */
+public class InMemoryMeritOrder {
+
+    private final int numberOfPlans;
+    private final int numberOfMarkets;
+    private final int numberOfSegments;
+
+    // Above this many shifts per plan the insertion sort is no longer faster than sorting from scratch.
+    private static final int MAXIMUM_SHIFTS_PER_PLAN = 2;
+
+    final double[] price;
+    final double[] bidWithoutCO2;
+    final double[] amount;
+    final double[] capacityLongTermContract;
+    final double[] emissionIntensity;
+    final double[] acceptedAmount;
+    final int[] status;
+    final int[] market;
+    final int[] segment;
+
+    final double[] segmentLengthInHours;
+
+    /**
+     * Per segment the indices of the plans in that segment, sorted by ascending price after {@link #sortMeritOrder()}.
+     */
+    final int[][] meritOrder;
+    private boolean meritOrderBuilt = false;
+
+    // Scratch space per segment, so that repeated clearing does not allocate
+    // and segments can be sorted and cleared concurrently.
+    private final int[][] sortBuffer;
+    private final double[][] adjustedLoads;
+
+    private MarketCoupling marketCoupling;
+
+    public InMemoryMeritOrder(int numberOfPlans, int numberOfMarkets, int numberOfSegments) {
+        this.numberOfPlans = numberOfPlans;
+        this.numberOfMarkets = numberOfMarkets;
+        this.numberOfSegments = numberOfSegments;
+        price = new double[numberOfPlans];
+        bidWithoutCO2 = new double[numberOfPlans];
+        amount = new double[numberOfPlans];
+        capacityLongTermContract = new double[numberOfPlans];
+        emissionIntensity = new double[numberOfPlans];
+        acceptedAmount = new double[numberOfPlans];
+        status = new int[numberOfPlans];
+        market = new int[numberOfPlans];
+        segment = new int[numberOfPlans];
+        segmentLengthInHours = new double[numberOfSegments];
+        meritOrder = new int[numberOfSegments][];
+        sortBuffer = new int[numberOfSegments][];
+        adjustedLoads = new double[numberOfSegments][numberOfMarkets];
+    }
+
+    /**
+     * Stores a single dispatch plan. All plans have to be set before {@link #sortMeritOrder()} is called for the first time.
+     */
+    public void setPlan(int plan, int marketIndex, int segmentIndex, double planPrice, double planBidWithoutCO2, double planAmount,
+            double planCapacityLongTermContract, double planEmissionIntensity) {
+        market[plan] = marketIndex;
+        segment[plan] = segmentIndex;
+        price[plan] = planPrice;
+        bidWithoutCO2[plan] = planBidWithoutCO2;
+        amount[plan] = planAmount;
+        capacityLongTermContract[plan] = planCapacityLongTermContract;
+        emissionIntensity[plan] = planEmissionIntensity;
+        status[plan] = Bid.SUBMITTED;
+        acceptedAmount[plan] = 0d;
+    }
+
+    public void setSegmentLengthInHours(int segmentIndex, double lengthInHours) {
+        segmentLengthInHours[segmentIndex] = lengthInHours;
+    }
+
+    /**
+     * Couples the markets by their interconnectors when the segments are cleared, instead of treating them as one or two markets with a
+     * single interconnector.
+     * 
+     * @param marketCoupling
+     *            the coupling of the markets of this merit order, or null
+     */
+    public void setMarketCoupling(MarketCoupling marketCoupling) {
+        this.marketCoupling = marketCoupling;
+    }
+
+    public MarketCoupling getMarketCoupling() {
+        return marketCoupling;
+    }
+
+    /**
+     * Updates the volumes of a plan, for instance after the commitment to long-term contracts has been determined.
+     */
+    public void updateCapacities(int plan, double planAmount, double planCapacityLongTermContract) {
+        amount[plan] = planAmount;
+        capacityLongTermContract[plan] = planCapacityLongTermContract;
+    }
+
+    public void updatePrice(int plan, double planPrice) {
+        price[plan] = planPrice;
+    }
+
+    public void updateEmissionIntensity(int plan, double planEmissionIntensity) {
+        emissionIntensity[plan] = planEmissionIntensity;
+    }
+
+    /**
+     * Sets the price of all plans to their bid without CO2 plus the CO2 cost, where the CO2 price is the maximum of the given CO2 price
+     * and the national minimum price of the bidding market.
+     */
+    public void updatePricesForCO2Price(double co2Price, double[] nationalMinCo2Prices) {
+        for (int i = 0; i < numberOfPlans; i++) {
+            double effectiveCo2Price = nationalMinCo2Prices[market[i]] > co2Price ? nationalMinCo2Prices[market[i]] : co2Price;
+            price[i] = bidWithoutCO2[i] + effectiveCo2Price * emissionIntensity[i];
+        }
+    }
+
+    /**
+     * (Re)builds the merit order of each segment. Plans with equal prices are ordered by their index. Between two calls within a tick the
+     * prices typically only shift by the CO2 price times the emission intensity, so the merit order of the previous call is repaired with
+     * an insertion sort, which only touches the plans that changed places. If the order has changed too much, the segment is sorted
+     * again from scratch.
+     */
+    public void sortMeritOrder() {
+        sortMeritOrder(true);
+    }
+
+    void sortMeritOrder(boolean incremental) {
+        if (!meritOrderBuilt) {
+            int[] plansInSegment = new int[numberOfSegments];
+            for (int i = 0; i < numberOfPlans; i++) {
+                plansInSegment[segment[i]]++;
+            }
+            int[] filled = new int[numberOfSegments];
+            for (int s = 0; s < numberOfSegments; s++) {
+                meritOrder[s] = new int[plansInSegment[s]];
+                sortBuffer[s] = new int[plansInSegment[s]];
+            }
+            for (int i = 0; i < numberOfPlans; i++) {
+                meritOrder[segment[i]][filled[segment[i]]++] = i;
+            }
+            meritOrderBuilt = true;
+            incremental = false;
+        }
+        for (int s = 0; s < numberOfSegments; s++) {
+            sortSegment(s, incremental);
+        }
+    }
+
+    /**
+     * Repairs the merit order of a single segment, see {@link #sortMeritOrder()}. Different segments may be sorted concurrently, but only
+     * after the merit order has been built by a first call to {@link #sortMeritOrder()}.
+     * 
+     * @param segmentIndex
+     *            the segment to sort
+     */
+    public void sortSegment(int segmentIndex) {
+        sortSegment(segmentIndex, true);
+    }
+
+    private void sortSegment(int segmentIndex, boolean incremental) {
+        int[] order = meritOrder[segmentIndex];
+        if (!incremental || !repairByInsertion(order, MAXIMUM_SHIFTS_PER_PLAN * order.length)) {
+            mergeSortByPrice(order, sortBuffer[segmentIndex], 0, order.length);
+        }
+    }
+
+    /**
+     * Insertion sort of an almost sorted merit order.
+     * 
+     * @return false if more than maximumShifts shifts were needed, in which case the order is only partially repaired
+     */
+    private boolean repairByInsertion(int[] order, int maximumShifts) {
+        int shifts = 0;
+        for (int k = 1; k < order.length; k++) {
+            int plan = order[k];
+            int j = k - 1;
+            while (j >= 0 && precedes(plan, order[j])) {
+                order[j + 1] = order[j];
+                j--;
+                shifts++;
+            }
+            order[j + 1] = plan;
+            if (shifts > maximumShifts) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean precedes(int plan, int otherPlan) {
+        return price[plan] < price[otherPlan] || (price[plan] == price[otherPlan] && plan < otherPlan);
+    }
+
+    private void mergeSortByPrice(int[] order, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSortByPrice(order, buffer, from, middle);
+        mergeSortByPrice(order, buffer, middle, to);
+        if (!precedes(order[middle], order[middle - 1])) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int k = from; k < to; k++) {
+            if (right >= to || (left < middle && !precedes(buffer[right], buffer[left]))) {
+                order[k] = buffer[left++];
+            } else {
+                order[k] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * Clears one segment for one or two connected markets, analogous to
+     * {@link ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole#clearOneOrTwoConnectedElectricityMarketsAtAGivenCO2PriceForOneSegment}
+     * . First the markets are cleared as one market. If the resulting flow out of the first market exceeds the interconnector capacity, the
+     * markets are cleared separately with loads that are adjusted by the interconnector capacity. If a {@link MarketCoupling} has been
+     * set, it clears the segment instead. Different segments may be cleared concurrently.
+     * 
+     * @param segmentIndex
+     *            the segment to clear
+     * @param loads
+     *            the load per market, corrected for long-term contracts
+     * @param interconnectorCapacity
+     *            the capacity between the first and the other markets, not used with a market coupling
+     * @param valueOfLostLoad
+     *            the value of lost load per market
+     * @param prices
+     *            receives the resulting price per market
+     * @param supplies
+     *            receives the resulting supply per market
+     */
+    public void clearSegment(int segmentIndex, double[] loads, double interconnectorCapacity, double[] valueOfLostLoad, double[] prices,
+            double[] supplies) {
+
+        if (marketCoupling != null) {
+            marketCoupling.clearSegment(this, segmentIndex, loads, valueOfLostLoad, prices, supplies);
+            return;
+        }
+
+        double globalLoad = 0d;
+        for (int m = 0; m < numberOfMarkets; m++) {
+            globalLoad += loads[m];
+            supplies[m] = 0d;
+        }
+
+        double globalSupply = 0d;
+        double marginalPlantMarginalCost = Double.MAX_VALUE;
+        int[] order = meritOrder[segmentIndex];
+        for (int k = 0; k < order.length; k++) {
+            int plan = order[k];
+            double plantSupply = determineProductionOnSpotMarket(plan, globalSupply, globalLoad);
+            if (plantSupply > 0) {
+                marginalPlantMarginalCost = price[plan];
+                supplies[market[plan]] += plantSupply;
+                globalSupply += plantSupply;
+            }
+        }
+
+        // Interconnector flow defined as from market A --> market B = positive
+        double interconnectorFlow = supplies[0] - loads[0];
+
+        if (numberOfMarkets < 2 || Math.abs(interconnectorFlow) <= interconnectorCapacity) {
+            for (int m = 0; m < numberOfMarkets; m++) {
+                prices[m] = (globalLoad <= globalSupply) ? marginalPlantMarginalCost : valueOfLostLoad[m];
+            }
+            return;
+        }
+
+        boolean firstImporting = interconnectorFlow <= 0;
+        double[] adjustedLoads = this.adjustedLoads[segmentIndex];
+        for (int m = 0; m < numberOfMarkets; m++) {
+            boolean first = m == 0;
+            if ((first && firstImporting) || (!first && !firstImporting)) {
+                adjustedLoads[m] = loads[m] - interconnectorCapacity;
+            } else {
+                adjustedLoads[m] = loads[m] + interconnectorCapacity;
+            }
+            supplies[m] = 0d;
+            prices[m] = valueOfLostLoad[m];
+        }
+
+        for (int k = 0; k < order.length; k++) {
+            int plan = order[k];
+            int myMarket = market[plan];
+            double plantSupply = determineProductionOnSpotMarket(plan, supplies[myMarket], adjustedLoads[myMarket]);
+            if (plantSupply > 0) {
+                supplies[myMarket] += plantSupply;
+                prices[myMarket] = price[plan];
+            }
+        }
+
+        for (int m = 0; m < numberOfMarkets; m++) {
+            if (supplies[m] < adjustedLoads[m]) {
+                prices[m] = valueOfLostLoad[m];
+            }
+        }
+    }
+
+    /**
+     * Same rule as {@link AbstractClearElectricitySpotMarketRole#determineProductionOnSpotMarket}.
+     */
+    private double determineProductionOnSpotMarket(int plan, double supplySoFar, double load) {
+        double plantCapacity = amount[plan];
+        double plantSupply;
+        if ((supplySoFar + plantCapacity) < load) {
+            plantSupply = plantCapacity;
+            status[plan] = Bid.ACCEPTED;
+        } else {
+            plantSupply = load - supplySoFar;
+            if (plantSupply > 0) {
+                status[plan] = Bid.PARTLY_ACCEPTED;
+            } else {
+                status[plan] = Bid.FAILED;
+            }
+        }
+        acceptedAmount[plan] = plantSupply;
+        return plantSupply;
+    }
+
+    /**
+     * Determines the total CO2 emissions of the current dispatch, including the capacity committed to long-term contracts.
+     * 
+     * @return the total CO2 emissions
+     */
+    public double determineTotalEmissions() {
+        double totalEmissions = 0d;
+        for (int s = 0; s < numberOfSegments; s++) {
+            totalEmissions += determineEmissions(s);
+        }
+        return totalEmissions;
+    }
+
+    /**
+     * Determines the CO2 emissions of the current dispatch of one segment, including the capacity committed to long-term contracts.
+     * 
+     * @param segmentIndex
+     *            the segment
+     * @return the CO2 emissions in this segment
+     */
+    public double determineEmissions(int segmentIndex) {
+        double emissions = 0d;
+        for (int plan : meritOrder[segmentIndex]) {
+            emissions += (capacityLongTermContract[plan] + acceptedAmount[plan]) * emissionIntensity[plan];
+        }
+        return emissions * segmentLengthInHours[segmentIndex];
+    }
+
+    public int getNumberOfPlans() {
+        return numberOfPlans;
+    }
+
+    public int getNumberOfMarkets() {
+        return numberOfMarkets;
+    }
+
+    public int getNumberOfSegments() {
+        return numberOfSegments;
+    }
+
+    public double getPrice(int plan) {
+        return price[plan];
+    }
+
+    public double getBidWithoutCO2(int plan) {
+        return bidWithoutCO2[plan];
+    }
+
+    public double getEmissionIntensity(int plan) {
+        return emissionIntensity[plan];
+    }
+
+    public double getAcceptedAmount(int plan) {
+        return acceptedAmount[plan];
+    }
+
+    public int getStatus(int plan) {
+        return status[plan];
+    }
+
+}
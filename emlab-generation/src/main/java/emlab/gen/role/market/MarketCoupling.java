@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import emlab.gen.domain.market.Bid;
+
+/**
+ * Couples any number of electricity spot markets that are connected by interconnectors, and clears the segments of an
+ * {@link InMemoryMeritOrder} as a transport model: every market has to meet its own load, power can flow between two markets up to the
+ * capacity of the interconnectors between them, and the total cost of the accepted bids is minimal.
+ * 
+ * The cost of a flow only arises where it is produced, so the cheapest dispatch is found by going through the merit order of the segment
+ * once: every plan supplies as much as can still reach a market with unmet load, through the interconnector capacity that is left, and
+ * flows that were set for earlier plans may be rerouted to make room (an augmenting path in the residual network). A market from which no
+ * unmet load can be reached stays cut off for the rest of the segment, so the plans after it are rejected without a search.
+ * 
+ * Markets that are connected by interconnectors that are not congested in either direction form one price area. The price of an area is
+ * that of its most expensive accepted plan, or the value of lost load of each market if load in the area is not met, as in the clearing
+ * of one or two markets by {@link InMemoryMeritOrder#clearSegment}. A market that does not produce and whose load is entirely imported
+ * over congested interconnectors gets its value of lost load, as the importing market does there.
+ * 
+ * @author JCRichstein
+ * 
+ */
+public class MarketCoupling {
+
+    private final int numberOfMarkets;
+    private final int numberOfInterconnectors;
+
+    // Interconnector i is stored as the two arcs 2i (first to second
+    // market) and 2i + 1 (second to first market).
+    private final int[] arcHead;
+    private final double[] capacity;
+
+    // The arcs leaving each market, arcs[arcStart[m]] to arcs[arcStart[m + 1] - 1].
+    private final int[] arcStart;
+    private final int[] arcs;
+
+    // Scratch space per segment, so that segments can be cleared concurrently.
+    private final double[][] residual;
+    private final double[][] unmetLoad;
+    private final double[][] marginalPrice;
+    private final boolean[][] cutOff;
+    private final int[][] queue;
+    private final int[][] arcIntoMarket;
+    private final int[][] visited;
+    private final int[] visit;
+    private final int[][] area;
+
+    /**
+     * @param numberOfMarkets
+     *            the number of markets
+     * @param numberOfSegments
+     *            the number of segments that will be cleared
+     * @param firstMarkets
+     *            the first market of each interconnector
+     * @param secondMarkets
+     *            the second market of each interconnector
+     * @param capacities
+     *            the capacity of each interconnector, in both directions
+     */
+    public MarketCoupling(int numberOfMarkets, int numberOfSegments, int[] firstMarkets, int[] secondMarkets, double[] capacities) {
+        this.numberOfMarkets = numberOfMarkets;
+        this.numberOfInterconnectors = capacities.length;
+        arcHead = new int[2 * numberOfInterconnectors];
+        capacity = new double[2 * numberOfInterconnectors];
+        arcStart = new int[numberOfMarkets + 1];
+        arcs = new int[2 * numberOfInterconnectors];
+
+        for (int i = 0; i < numberOfInterconnectors; i++) {
+            if (firstMarkets[i] == secondMarkets[i]) {
+                throw new IllegalArgumentException("Interconnector " + i + " connects market " + firstMarkets[i] + " with itself");
+            }
+            arcHead[2 * i] = secondMarkets[i];
+            arcHead[2 * i + 1] = firstMarkets[i];
+            capacity[2 * i] = capacities[i];
+            capacity[2 * i + 1] = capacities[i];
+            arcStart[firstMarkets[i] + 1]++;
+            arcStart[secondMarkets[i] + 1]++;
+        }
+        for (int m = 0; m < numberOfMarkets; m++) {
+            arcStart[m + 1] += arcStart[m];
+        }
+        int[] filled = new int[numberOfMarkets];
+        for (int i = 0; i < numberOfInterconnectors; i++) {
+            arcs[arcStart[firstMarkets[i]] + filled[firstMarkets[i]]++] = 2 * i;
+            arcs[arcStart[secondMarkets[i]] + filled[secondMarkets[i]]++] = 2 * i + 1;
+        }
+
+        residual = new double[numberOfSegments][2 * numberOfInterconnectors];
+        unmetLoad = new double[numberOfSegments][numberOfMarkets];
+        marginalPrice = new double[numberOfSegments][numberOfMarkets];
+        cutOff = new boolean[numberOfSegments][numberOfMarkets];
+        queue = new int[numberOfSegments][numberOfMarkets];
+        arcIntoMarket = new int[numberOfSegments][numberOfMarkets];
+        visited = new int[numberOfSegments][numberOfMarkets];
+        visit = new int[numberOfSegments];
+        area = new int[numberOfSegments][numberOfMarkets];
+    }
+
+    /**
+     * Clears one segment of the merit order, which has to be sorted. Sets the status and accepted amount of all plans of the segment.
+     * Different segments may be cleared concurrently.
+     * 
+     * @param meritOrder
+     *            the merit order, with the markets indexed as in this coupling
+     * @param segmentIndex
+     *            the segment to clear
+     * @param loads
+     *            the load per market, corrected for long-term contracts
+     * @param valueOfLostLoad
+     *            the value of lost load per market
+     * @param prices
+     *            receives the resulting price per market
+     * @param supplies
+     *            receives the resulting production per market
+     */
+    public void clearSegment(InMemoryMeritOrder meritOrder, int segmentIndex, double[] loads, double[] valueOfLostLoad, double[] prices,
+            double[] supplies) {
+        double[] residual = this.residual[segmentIndex];
+        double[] unmetLoad = this.unmetLoad[segmentIndex];
+        double[] marginalPrice = this.marginalPrice[segmentIndex];
+        boolean[] cutOff = this.cutOff[segmentIndex];
+        System.arraycopy(capacity, 0, residual, 0, capacity.length);
+        for (int m = 0; m < numberOfMarkets; m++) {
+            unmetLoad[m] = loads[m] > 0 ? loads[m] : 0d;
+            marginalPrice[m] = Double.NaN;
+            cutOff[m] = false;
+            supplies[m] = 0d;
+        }
+
+        for (int plan : meritOrder.meritOrder[segmentIndex]) {
+            int myMarket = meritOrder.market[plan];
+            double amount = meritOrder.amount[plan];
+            double remaining = amount;
+
+            // Meet the own load first, then search for unmet load
+            // elsewhere.
+            if (unmetLoad[myMarket] > 0 && remaining > 0) {
+                double supply = remaining < unmetLoad[myMarket] ? remaining : unmetLoad[myMarket];
+                unmetLoad[myMarket] -= supply;
+                remaining -= supply;
+            }
+            while (remaining > 0 && !cutOff[myMarket]) {
+                remaining -= augment(segmentIndex, myMarket, remaining);
+            }
+
+            double accepted = amount - remaining;
+            meritOrder.acceptedAmount[plan] = accepted;
+            if (accepted > 0) {
+                meritOrder.status[plan] = accepted < amount ? Bid.PARTLY_ACCEPTED : Bid.ACCEPTED;
+                supplies[myMarket] += accepted;
+                marginalPrice[myMarket] = meritOrder.price[plan];
+            } else {
+                meritOrder.status[plan] = amount == 0 && !cutOff[myMarket] ? Bid.ACCEPTED : Bid.FAILED;
+            }
+        }
+
+        determinePrices(segmentIndex, valueOfLostLoad, prices);
+    }
+
+    /**
+     * Sends supply from a market to the nearest market with unmet load, along interconnectors with capacity left. Marks the market as cut
+     * off if no unmet load can be reached.
+     * 
+     * @return the amount sent, 0 if the market is cut off
+     */
+    private double augment(int segmentIndex, int source, double supply) {
+        double[] residual = this.residual[segmentIndex];
+        double[] unmetLoad = this.unmetLoad[segmentIndex];
+        int[] queue = this.queue[segmentIndex];
+        int[] arcIntoMarket = this.arcIntoMarket[segmentIndex];
+        int[] visited = this.visited[segmentIndex];
+        int visit = ++this.visit[segmentIndex];
+
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = source;
+        visited[source] = visit;
+        int sink = -1;
+        while (head < tail && sink < 0) {
+            int market = queue[head++];
+            for (int k = arcStart[market]; k < arcStart[market + 1]; k++) {
+                int arc = arcs[k];
+                int next = arcHead[arc];
+                if (residual[arc] > 0 && visited[next] != visit) {
+                    visited[next] = visit;
+                    arcIntoMarket[next] = arc;
+                    if (unmetLoad[next] > 0) {
+                        sink = next;
+                        break;
+                    }
+                    queue[tail++] = next;
+                }
+            }
+        }
+        if (sink < 0) {
+            cutOff[segmentIndex][source] = true;
+            return 0d;
+        }
+
+        double amount = supply < unmetLoad[sink] ? supply : unmetLoad[sink];
+        for (int market = sink; market != source; market = arcHead[arcIntoMarket[market] ^ 1]) {
+            double left = residual[arcIntoMarket[market]];
+            if (left < amount) {
+                amount = left;
+            }
+        }
+        for (int market = sink; market != source; market = arcHead[arcIntoMarket[market] ^ 1]) {
+            int arc = arcIntoMarket[market];
+            residual[arc] -= amount;
+            residual[arc ^ 1] += amount;
+        }
+        unmetLoad[sink] -= amount;
+        return amount;
+    }
+
+    private void determinePrices(int segmentIndex, double[] valueOfLostLoad, double[] prices) {
+        double[] residual = this.residual[segmentIndex];
+        double[] unmetLoad = this.unmetLoad[segmentIndex];
+        double[] marginalPrice = this.marginalPrice[segmentIndex];
+        int[] area = this.area[segmentIndex];
+
+        // Join the markets of uncongested interconnectors, by pointing every
+        // market to the lowest market of its area.
+        for (int m = 0; m < numberOfMarkets; m++) {
+            area[m] = m;
+        }
+        for (int i = 0; i < numberOfInterconnectors; i++) {
+            if (residual[2 * i] > 0 && residual[2 * i + 1] > 0) {
+                int first = findArea(area, arcHead[2 * i + 1]);
+                int second = findArea(area, arcHead[2 * i]);
+                if (first < second) {
+                    area[second] = first;
+                } else if (second < first) {
+                    area[first] = second;
+                }
+            }
+        }
+
+        // The lowest market of each area collects the price of the area:
+        // NaN if nothing is produced, infinite if load is not met.
+        for (int m = 0; m < numberOfMarkets; m++) {
+            prices[m] = Double.NaN;
+        }
+        for (int m = 0; m < numberOfMarkets; m++) {
+            int root = findArea(area, m);
+            if (unmetLoad[m] > 0) {
+                prices[root] = Double.POSITIVE_INFINITY;
+            } else if (!Double.isNaN(marginalPrice[m]) && !(prices[root] >= marginalPrice[m])) {
+                prices[root] = marginalPrice[m];
+            }
+        }
+        for (int m = numberOfMarkets - 1; m >= 0; m--) {
+            double areaPrice = prices[findArea(area, m)];
+            prices[m] = (Double.isNaN(areaPrice) || Double.isInfinite(areaPrice)) ? valueOfLostLoad[m] : areaPrice;
+        }
+    }
+
+    private static int findArea(int[] area, int market) {
+        while (area[market] != market) {
+            area[market] = area[area[market]];
+            market = area[market];
+        }
+        return market;
+    }
+
+    /**
+     * @param segmentIndex
+     *            a cleared segment
+     * @param interconnector
+     *            the index of the interconnector
+     * @return the flow over the interconnector in the last clearing of the segment, positive from its first to its second market
+     */
+    public double getFlow(int segmentIndex, int interconnector) {
+        return (residual[segmentIndex][2 * interconnector + 1] - residual[segmentIndex][2 * interconnector]) / 2;
+    }
+
+    public int getNumberOfMarkets() {
+        return numberOfMarkets;
+    }
+
+    public int getNumberOfInterconnectors() {
+        return numberOfInterconnectors;
+    }
+
+}
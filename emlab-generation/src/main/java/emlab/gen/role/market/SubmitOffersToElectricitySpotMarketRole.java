@@ -15,7 +15,10 @@
  ******************************************************************************/
 package emlab.gen.role.market;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -33,9 +36,9 @@ import emlab.gen.domain.market.electricity.Segment;
 import emlab.gen.domain.market.electricity.SegmentLoad;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
-import emlab.gen.domain.technology.SubstanceShareInFuelMix;
 import emlab.gen.repository.Reps;
 import emlab.gen.role.AbstractEnergyProducerRole;
+import emlab.gen.util.Utils;
 
 /**
  * {@link EnergyProducer} submits offers to the {@link ElectricitySpotMarket}. One {@link Bid} per {@link PowerPlant}.
@@ -53,46 +56,53 @@ public class SubmitOffersToElectricitySpotMarketRole extends AbstractEnergyProdu
     @Transactional
     public void act(EnergyProducer producer) {
 
-        long numberOfSegments = reps.segmentRepository.count();
+        long numberOfSegments = reps.tickScopedCache.countSegments();
         ElectricitySpotMarket market = producer.getInvestorMarket();
+        List<Segment> segments = new ArrayList<Segment>();
+        for (SegmentLoad segmentload : market.getLoadDurationCurve()) {
+            segments.add(segmentload.getSegment());
+        }
 
         // find all my operating power plants
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
+        List<PowerPlant> plants = Utils.asList(reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick()));
+
+        // Determine all bids before writing any of them.
+        double[] marginalCosts = new double[plants.size()];
+        double[][] capacities = new double[plants.size()][segments.size()];
+        for (int i = 0; i < plants.size(); i++) {
+            PowerPlant plant = plants.get(i);
 
             // get market for the plant by zone
             // ElectricitySpotMarket market =
             // reps.marketRepository.findElectricitySpotMarketForZone(plant.getLocation().getZone());
 
-            double mc = calculateMarginalCostExclCO2MarketCost(plant);
-            double price = mc * producer.getPriceMarkUp();
+            marginalCosts[i] = calculateMarginalCostExclCO2MarketCost(plant);
 
             logger.info("Submitting offers for {} with technology {}", plant.getName(), plant.getTechnology().getName());
 
-            for (SegmentLoad segmentload : market.getLoadDurationCurve()) {
+            for (int j = 0; j < segments.size(); j++) {
+                capacities[i][j] = plant.getAvailableCapacity(getCurrentTick(), segments.get(j), numberOfSegments);
+                logger.info("I bid capacity: {} and price: {}", capacities[i][j], marginalCosts[i]);
+            }
+        }
 
-                Segment segment = segmentload.getSegment();
-                double capacity = plant.getAvailableCapacity(getCurrentTick(), segment, numberOfSegments);
-                logger.info("I bid capacity: {} and price: {}", capacity, mc);
+        Map<List<Long>, PowerPlantDispatchPlan> existingPlans = findPowerPlantDispatchPlansByPowerPlantAndSegment(producer);
+        for (int i = 0; i < plants.size(); i++) {
+            PowerPlant plant = plants.get(i);
+            double mc = marginalCosts[i];
+            double price = mc * producer.getPriceMarkUp();
 
-                PowerPlantDispatchPlan plan = reps.powerPlantDispatchPlanRepository
-                        .findOnePowerPlantDispatchPlanForPowerPlantForSegmentForTime(plant, segment, getCurrentTick());
-                // TODO: handle exception
+            for (int j = 0; j < segments.size(); j++) {
+                Segment segment = segments.get(j);
+                double capacity = capacities[i][j];
 
-                // plan =
-                // reps.powerPlantDispatchPlanRepository.findOnePowerPlantDispatchPlanForPowerPlantForSegmentForTime(plant,
-                // segment,
-                // getCurrentTick());
-                // Iterable<PowerPlantDispatchPlan> plans =
-                // reps.powerPlantDispatchPlanRepository
-                // .findAllPowerPlantDispatchPlanForPowerPlantForSegmentForTime(plant,
-                // segment, getCurrentTick());
+                PowerPlantDispatchPlan plan = existingPlans.get(Arrays.asList(plant.getNodeId(), segment.getNodeId()));
 
                 if (plan == null) {
                     plan = new PowerPlantDispatchPlan().persist();
                     // plan.specifyNotPersist(plant, producer, market, segment, time, price, bidWithoutCO2, spotMarketCapacity, longTermContractCapacity, status);
                     plan.specifyNotPersist(plant, producer, market, segment, getCurrentTick(), price, price, capacity, 0, Bid.SUBMITTED);
                 } else {
-                    // plan = plans.iterator().next();
                     plan.setBidder(producer);
                     plan.setBiddingMarket(market);
                     plan.setPrice(mc);
@@ -108,6 +118,27 @@ public class SubmitOffersToElectricitySpotMarketRole extends AbstractEnergyProdu
         }
     }
 
+    /**
+     * Finds the dispatch plans of this tick for all power plants of the producer in a single traversal, instead of one lookup per plant
+     * and segment.
+     * 
+     * @param producer
+     *            the owner of the power plants
+     * @return the plans keyed by the node ids of their power plant and segment; if there are more plans for the same plant and segment
+     *         the first one found is used
+     */
+    Map<List<Long>, PowerPlantDispatchPlan> findPowerPlantDispatchPlansByPowerPlantAndSegment(EnergyProducer producer) {
+        Map<List<Long>, PowerPlantDispatchPlan> plans = new HashMap<List<Long>, PowerPlantDispatchPlan>();
+        for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForPowerPlantsOfOwnerForTime(
+                producer, getCurrentTick())) {
+            List<Long> key = Arrays.asList(plan.getPowerPlant().getNodeId(), plan.getSegment().getNodeId());
+            if (!plans.containsKey(key)) {
+                plans.put(key, plan);
+            }
+        }
+        return plans;
+    }
+
     @Transactional
     void updateMarginalCostInclCO2AfterFuelMixChange(double co2Price, Map<ElectricitySpotMarket, Double> nationalMinCo2Prices) {
 
@@ -119,24 +150,24 @@ public class SubmitOffersToElectricitySpotMarketRole extends AbstractEnergyProdu
             j++;
 
             double capacity = plan.getAmount();
+            PowerPlant plant = plan.getPowerPlant();
+            double effectiveCo2Price = co2Price;
             if (nationalMinCo2Prices.get(plan.getBiddingMarket()) > co2Price)
-                co2Price = nationalMinCo2Prices.get(plan.getBiddingMarket());
+                effectiveCo2Price = nationalMinCo2Prices.get(plan.getBiddingMarket());
 
-            if (plan.getPowerPlant().getFuelMix().size() > 1) {
+            if (plant.getFuelMix().size() > 1) {
 
                 double oldmc = plan.getBidWithoutCO2();
 
                 // Fuels
-                Set<Substance> possibleFuels = plan.getPowerPlant().getTechnology().getFuels();
+                Set<Substance> possibleFuels = plant.getTechnology().getFuels();
                 Map<Substance, Double> substancePriceMap = new HashMap<Substance, Double>();
 
                 for (Substance substance : possibleFuels) {
                     substancePriceMap.put(substance, findLastKnownPriceForSubstance(substance));
                 }
-                Set<SubstanceShareInFuelMix> fuelMix = calculateFuelMix(plan.getPowerPlant(), substancePriceMap,
-                        government.getCO2Tax(getCurrentTick()) + co2Price);
-                plan.getPowerPlant().setFuelMix(fuelMix);
-                double mc = calculateMarginalCostExclCO2MarketCost(plan.getPowerPlant());
+                calculateFuelMix(plant, substancePriceMap, government.getCO2Tax(getCurrentTick()) + effectiveCo2Price);
+                double mc = calculateMarginalCostExclCO2MarketCost(plant);
                 if (mc != oldmc) {
                     plan.setBidWithoutCO2(mc);
                     i++;
@@ -144,7 +175,7 @@ public class SubmitOffersToElectricitySpotMarketRole extends AbstractEnergyProdu
 
             }
 
-            plan.setPrice(plan.getBidWithoutCO2() + (co2Price * plan.getPowerPlant().calculateEmissionIntensity()));
+            plan.setPrice(plan.getBidWithoutCO2() + (effectiveCo2Price * plant.calculateEmissionIntensity()));
 
             plan.setStatus(Bid.SUBMITTED);
             plan.setAmount(capacity);
@@ -31,7 +31,6 @@ import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
-import emlab.gen.domain.technology.SubstanceShareInFuelMix;
 import emlab.gen.repository.Reps;
 import emlab.gen.role.AbstractEnergyProducerRole;
 
@@ -73,7 +72,7 @@ public class DetermineFuelMixRole extends AbstractEnergyProducerRole implements
         // CO2Auction market = reps.genericRepository.findFirst(CO2Auction.class);
         // double co2AuctionPrice = findLastKnownPriceOnMarket(market);
         HashMap<ElectricitySpotMarket, Double> expectedCO2Prices = determineExpectedCO2PriceInclTax(getCurrentTick()-1, 1, 1);
-        Government government = reps.genericRepository.findFirst(Government.class);
+        Government government = reps.tickScopedCache.findFirst(Government.class);
         // double co2TaxLevel = government.getCO2Tax(getCurrentTick());
         // logger.warn("Expected CO2 price: " + expectedCO2Prices.toString());
 
@@ -87,9 +86,8 @@ public class DetermineFuelMixRole extends AbstractEnergyProducerRole implements
             for (Substance substance : possibleFuels) {
                 substancePriceMap.put(substance, findLastKnownPriceForSubstance(substance));
             }
-            Set<SubstanceShareInFuelMix> fuelMix = calculateFuelMix(plant, substancePriceMap,
-                    expectedCO2Prices.get(reps.marketRepository.findElectricitySpotMarketByPowerPlant(plant)));
-            plant.setFuelMix(fuelMix);
+            calculateFuelMix(plant, substancePriceMap,
+                    expectedCO2Prices.get(reps.powerPlantLocationIndex.findElectricitySpotMarketByPowerPlant(plant)));
 
         }
     }
@@ -115,9 +113,7 @@ public class DetermineFuelMixRole extends AbstractEnergyProducerRole implements
                 for (Substance substance : possibleFuels) {
                     substancePriceMap.put(substance, findLastKnownPriceForSubstance(substance));
                 }
-                Set<SubstanceShareInFuelMix> fuelMix = calculateFuelMix(plan.getPowerPlant(), substancePriceMap,
-                        government.getCO2Tax(getCurrentTick()) + co2AuctionPrice);
-                plan.getPowerPlant().setFuelMix(fuelMix);
+                calculateFuelMix(plan.getPowerPlant(), substancePriceMap, government.getCO2Tax(getCurrentTick()) + co2AuctionPrice);
             }
 
         }
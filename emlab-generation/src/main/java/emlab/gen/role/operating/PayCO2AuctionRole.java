@@ -47,7 +47,7 @@ public class PayCO2AuctionRole extends AbstractEnergyProducerRole implements Rol
     public void act(EnergyProducer producer) {
         logger.info("Pay for the CO2 credits");
 
-        Government government = reps.genericRepository.findFirst(Government.class);
+        Government government = reps.tickScopedCache.findFirst(Government.class);
 
         for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
             double money = calculateCO2MarketCost(plant);
@@ -55,7 +55,7 @@ public class PayCO2AuctionRole extends AbstractEnergyProducerRole implements Rol
                     getCurrentTick(), plant);
             logger.info("Cash flow created: {}", cf);
             double minCO2Money = calculatePaymentEffictiveCO2NationalMinimumPriceCost(plant);
-            NationalGovernment nationalGovernment = reps.nationalGovernmentRepository.findNationalGovernmentByPowerPlant(plant);
+            NationalGovernment nationalGovernment = reps.powerPlantLocationIndex.findNationalGovernmentByPowerPlant(plant);
             CashFlow cf2 = reps.nonTransactionalCreateRepository.createCashFlow(producer, nationalGovernment, minCO2Money,
                     CashFlow.NATIONALMINCO2, getCurrentTick(), plant);
             logger.info("Cash flow created: {}", cf2);
@@ -48,7 +48,7 @@ public class PayCO2TaxRole extends AbstractEnergyProducerRole implements Role<En
     public void act(EnergyProducer producer) {
         logger.info("Pay the CO2 tax");
 
-        Government government = reps.genericRepository.findFirst(Government.class);
+        Government government = reps.tickScopedCache.findFirst(Government.class);
 
         for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
             double money = calculateCO2Tax(plant);
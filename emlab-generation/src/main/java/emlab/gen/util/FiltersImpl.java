@@ -25,9 +25,7 @@ import agentspring.trend.Trend;
 
 import com.tinkerpop.blueprints.pgm.impls.neo4j.Neo4jVertex;
 
-import emlab.gen.domain.agent.CommoditySupplier;
 import emlab.gen.domain.contract.LongTermContract;
-import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.DecarbonizationMarket;
 import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
 import emlab.gen.domain.technology.PowerPlant;
@@ -96,32 +94,7 @@ public class FiltersImpl implements Filters {
         }
         DecarbonizationMarket market = (DecarbonizationMarket) entity;
 
-        // Emiliano stuff:
-        Double average = calculateAverageMarketPriceBasedOnClearingPoints(reps.clearingPointRepositoryOld
-                .findClearingPointsForMarketAndTime(market, tick));
-        Substance substance = market.getSubstance();
-
-        if (average != null) {
-            return average;
-        }
-
-        average = calculateAverageMarketPriceBasedOnClearingPoints(reps.clearingPointRepositoryOld.findClearingPointsForMarketAndTime(
-                market, tick - 1));
-        if (average != null) {
-            return average;
-        }
-
-        if (market.getReferencePrice() > 0) {
-            return market.getReferencePrice();
-        }
-
-        for (CommoditySupplier supplier : reps.genericRepository.findAll(CommoditySupplier.class)) {
-            if (supplier.getSubstance().equals(substance)) {
-                return supplier.getPriceOfCommodity().getValue(tick);
-            }
-        }
-
-        return 0d;
+        return reps.priceHistory.findLastKnownPriceOnMarket(market, tick);
     }
 
     public double determineProductionOfDispatchPlanInMWh(Object node, long tick) {
@@ -152,20 +125,6 @@ public class FiltersImpl implements Filters {
         return price / substance.getEnergyDensity();
     }
 
-    private Double calculateAverageMarketPriceBasedOnClearingPoints(Iterable<ClearingPoint> clearingPoints) {
-        double priceTimesVolume = 0d;
-        double volume = 0d;
-
-        for (ClearingPoint point : clearingPoints) {
-            priceTimesVolume += point.getPrice() * point.getVolume();
-            volume += point.getVolume();
-        }
-        if (volume > 0) {
-            return priceTimesVolume / volume;
-        }
-        return null;
-    }
-
     private NodeBacked getEntity(Object node) {
         if (!(node instanceof Neo4jVertex))
             throw new RuntimeException("Object is not neo4j vertex");
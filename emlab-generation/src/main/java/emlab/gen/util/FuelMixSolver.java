@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+/**
+ * Solves the fuel mix problem of a power plant without a general LP solver. The problem minimises the fuel and CO2 cost subject to two
+ * constraints: the energy content of the fuels has to match the required energy input (1 / efficiency), and the energy weighted fuel
+ * quality has to be at least the minimum fuel quality of the technology. With non-negative fuel amounts every vertex of that feasible set
+ * either uses a single fuel of sufficient quality, or blends one fuel above and one fuel below the minimum quality so that the quality
+ * constraint is binding. The optimum is therefore always found by enumerating these vertices.
+ * 
+ * All shares are given in the same mass units as the fuel mix of a power plant (see
+ * {@link emlab.gen.role.AbstractEnergyProducerRole#convertFuelShareToMassVolume(double)}).
+ * 
+ * @author jcrichstein
+ * 
+ */
+public class FuelMixSolver {
+
+    static final double MJ_PER_MWH = 3600;
+
+    /**
+     * @param numberOfFuels
+     * @return the maximum number of vertices for the given number of fuels
+     */
+    public static int maximumNumberOfVertices(int numberOfFuels) {
+        return numberOfFuels + (numberOfFuels / 2) * (numberOfFuels - numberOfFuels / 2);
+    }
+
+    /**
+     * Enumerates all vertices of the feasible fuel mixes.
+     * 
+     * @param energyDensities
+     *            energy density of each fuel
+     * @param qualities
+     *            quality of each fuel
+     * @param minimumFuelQuality
+     *            the minimum fuel quality of the technology
+     * @param efficiency
+     *            the efficiency of the power plant
+     * @param shares
+     *            receives the fuel shares of each vertex, needs to have room for {@link #maximumNumberOfVertices(int)} rows of
+     *            energyDensities.length columns
+     * @return the number of vertices, 0 if no feasible fuel mix exists
+     */
+    public static int enumerateVertices(double[] energyDensities, double[] qualities, double minimumFuelQuality, double efficiency,
+            double[][] shares) {
+        int numberOfFuels = energyDensities.length;
+        double requiredEnergy = 1 / efficiency;
+        int vertices = 0;
+
+        for (int i = 0; i < numberOfFuels; i++) {
+            if (qualities[i] - minimumFuelQuality >= 0) {
+                clear(shares[vertices]);
+                shares[vertices][i] = MJ_PER_MWH * requiredEnergy / energyDensities[i];
+                vertices++;
+            }
+        }
+
+        for (int i = 0; i < numberOfFuels; i++) {
+            double qi = (qualities[i] - minimumFuelQuality) * energyDensities[i];
+            if (qi <= 0) {
+                continue;
+            }
+            for (int j = 0; j < numberOfFuels; j++) {
+                double qj = (qualities[j] - minimumFuelQuality) * energyDensities[j];
+                if (qj >= 0) {
+                    continue;
+                }
+                // Solve d_i x_i + d_j x_j = E and q_i x_i + q_j x_j = 0.
+                double denominator = energyDensities[j] * qi - energyDensities[i] * qj;
+                clear(shares[vertices]);
+                shares[vertices][i] = MJ_PER_MWH * (-qj * requiredEnergy / denominator);
+                shares[vertices][j] = MJ_PER_MWH * (qi * requiredEnergy / denominator);
+                vertices++;
+            }
+        }
+        return vertices;
+    }
+
+    /**
+     * Finds the cheapest feasible fuel mix by visiting the same vertices as {@link #enumerateVertices}, without allocating. Of vertices
+     * with equal cost the first one found is used.
+     * 
+     * @param energyDensities
+     *            energy density of each fuel
+     * @param qualities
+     *            quality of each fuel
+     * @param minimumFuelQuality
+     *            the minimum fuel quality of the technology
+     * @param efficiency
+     *            the efficiency of the power plant
+     * @param costs
+     *            the fuel and CO2 cost of each fuel, per unit of energy density
+     * @param shares
+     *            receives the fuel shares of the cheapest fuel mix, one per fuel
+     * @return false if no feasible fuel mix exists, in which case the shares are not changed
+     */
+    public static boolean solve(double[] energyDensities, double[] qualities, double minimumFuelQuality, double efficiency,
+            double[] costs, double[] shares) {
+        int numberOfFuels = energyDensities.length;
+        double requiredEnergy = 1 / efficiency;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestI = -1;
+        int bestJ = -1;
+        double bestShareI = 0d;
+        double bestShareJ = 0d;
+
+        for (int i = 0; i < numberOfFuels; i++) {
+            if (qualities[i] - minimumFuelQuality >= 0) {
+                double share = requiredEnergy / energyDensities[i];
+                double cost = costs[i] * share;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestI = i;
+                    bestJ = -1;
+                    bestShareI = share;
+                }
+            }
+        }
+
+        for (int i = 0; i < numberOfFuels; i++) {
+            double qi = (qualities[i] - minimumFuelQuality) * energyDensities[i];
+            if (qi <= 0) {
+                continue;
+            }
+            for (int j = 0; j < numberOfFuels; j++) {
+                double qj = (qualities[j] - minimumFuelQuality) * energyDensities[j];
+                if (qj >= 0) {
+                    continue;
+                }
+                double denominator = energyDensities[j] * qi - energyDensities[i] * qj;
+                double shareI = -qj * requiredEnergy / denominator;
+                double shareJ = qi * requiredEnergy / denominator;
+                double cost = costs[i] * shareI + costs[j] * shareJ;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestI = i;
+                    bestJ = j;
+                    bestShareI = shareI;
+                    bestShareJ = shareJ;
+                }
+            }
+        }
+
+        if (bestI < 0) {
+            return false;
+        }
+        clear(shares);
+        shares[bestI] = MJ_PER_MWH * bestShareI;
+        if (bestJ >= 0) {
+            shares[bestJ] = MJ_PER_MWH * bestShareJ;
+        }
+        return true;
+    }
+
+    private static void clear(double[] row) {
+        for (int k = 0; k < row.length; k++) {
+            row[k] = 0d;
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+
+/**
+ * Creates the graph database of a run. By default the database is stored in the store directory, which the headless scripts put on a
+ * ramdisk. With -Demlab.graphdb=memory the database is kept in memory instead: its cache holds on to all nodes and relationships and
+ * it does not memory map the store files or keep logical logs. The store files it still writes go to a fresh directory in
+ * java.io.tmpdir, which is deleted when the database is shut down, so the run needs no store directory, ramdisk or clean up.
+ * 
+ * @author jcrichstein
+ * 
+ */
+public class GraphDatabaseServiceFactoryBean implements FactoryBean<GraphDatabaseService>, DisposableBean {
+
+    static final Logger logger = LoggerFactory.getLogger(GraphDatabaseServiceFactoryBean.class);
+
+    public static final String GRAPH_DATABASE_PROPERTY = "emlab.graphdb";
+    public static final String IN_MEMORY = "memory";
+
+    private String storeDirectory;
+    private GraphDatabaseService graphDatabaseService;
+    private File temporaryStoreDirectory;
+
+    public static boolean isInMemory() {
+        return IN_MEMORY.equals(System.getProperty(GRAPH_DATABASE_PROPERTY));
+    }
+
+    static Map<String, String> createInMemoryConfig() {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("cache_type", "strong");
+        config.put("use_memory_mapped_buffers", "false");
+        config.put("keep_logical_logs", "false");
+        return config;
+    }
+
+    static File createTemporaryStoreDirectory() throws IOException {
+        File directory = File.createTempFile("emlab-graphdb-", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Could not create the temporary store directory " + directory);
+        }
+        return directory;
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete()) {
+            logger.warn("Could not delete {}", file);
+        }
+    }
+
+    @Override
+    public synchronized GraphDatabaseService getObject() throws IOException {
+        if (graphDatabaseService == null) {
+            if (isInMemory()) {
+                temporaryStoreDirectory = createTemporaryStoreDirectory();
+                logger.warn("Using an in-memory graph database, storing in {}", temporaryStoreDirectory);
+                graphDatabaseService = new EmbeddedGraphDatabase(temporaryStoreDirectory.getPath(), createInMemoryConfig());
+            } else {
+                graphDatabaseService = new EmbeddedGraphDatabase(storeDirectory);
+            }
+        }
+        return graphDatabaseService;
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return GraphDatabaseService.class;
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return true;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (graphDatabaseService != null) {
+            graphDatabaseService.shutdown();
+            graphDatabaseService = null;
+        }
+        if (temporaryStoreDirectory != null) {
+            deleteRecursively(temporaryStoreDirectory);
+            temporaryStoreDirectory = null;
+        }
+    }
+
+    File getTemporaryStoreDirectory() {
+        return temporaryStoreDirectory;
+    }
+
+    public String getStoreDirectory() {
+        return storeDirectory;
+    }
+
+    public void setStoreDirectory(String storeDirectory) {
+        this.storeDirectory = storeDirectory;
+    }
+
+}
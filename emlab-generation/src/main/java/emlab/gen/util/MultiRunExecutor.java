@@ -0,0 +1,349 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs many simulations in one JVM, as an alternative to starting a JVM per run in the headless scripts. The runs are read from a run
+ * list with one run per line: the run id, the scenario file and optionally a query file, separated by whitespace. Lines starting with #
+ * are ignored. Every run is started like a headless run, by the main method of {@link #MAIN_CLASS}, with run.id, scenario.file and
+ * query.file set for that run only; all other system properties, such as SCENARIO_FOLDER and results.path, are shared, so the results
+ * end up where the headless scripts put them. Parameter sweeps are given as one scenario file per parameter set, as for
+ * localHeadlessArray.sh.
+ * 
+ * The engine keeps its state in static fields, so every run gets its own class loader and with that its own engine, Spring context and
+ * graph database. The graph databases are kept in memory (see {@link GraphDatabaseServiceFactoryBean}) unless emlab.graphdb is given.
+ * A System.exit of a run ends that run only. When a run has ended, its {@link RunResources} are released, which closes its Spring
+ * context and graph database and shuts down its thread pools, so that the class loader of the run and everything it holds can be
+ * collected.
+ * 
+ * The runs are executed on a fixed number of threads, by default the number of cores, but no more than the maximum heap allows at
+ * multirun.heapPerRun megabytes per run (default {@value #DEFAULT_HEAP_PER_RUN}). It can be set directly with multirun.threads.
+ * 
+ * @author jcrichstein
+ * 
+ */
+public class MultiRunExecutor {
+
+    static final Logger logger = LoggerFactory.getLogger(MultiRunExecutor.class);
+
+    public static final String MAIN_CLASS = "agentspring.HPCService";
+    public static final long DEFAULT_HEAP_PER_RUN = 3072;
+
+    static final long MEGABYTE = 1024 * 1024;
+
+    private final List<Run> runs;
+    private final int numberOfThreads;
+    private final URL[] classPath;
+    private final String mainClass;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: java -cp <emlab-generation jar> " + MultiRunExecutor.class.getName() + " <run list>");
+            System.exit(1);
+        }
+        List<Run> runs = readRuns(new File(args[0]));
+        long heapPerRun = Long.getLong("multirun.heapPerRun", DEFAULT_HEAP_PER_RUN) * MEGABYTE;
+        int numberOfThreads = Integer.getInteger("multirun.threads",
+                determineNumberOfThreads(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory(), heapPerRun));
+        MultiRunExecutor executor = new MultiRunExecutor(runs, numberOfThreads, findClassPath(), MAIN_CLASS);
+        int failedRuns = executor.execute();
+        System.exit(failedRuns == 0 ? 0 : 1);
+    }
+
+    public MultiRunExecutor(List<Run> runs, int numberOfThreads, URL[] classPath, String mainClass) {
+        this.runs = runs;
+        this.numberOfThreads = numberOfThreads;
+        this.classPath = classPath;
+        this.mainClass = mainClass;
+    }
+
+    static int determineNumberOfThreads(int availableProcessors, long maxMemory, long heapPerRun) {
+        return (int) Math.max(1, Math.min(availableProcessors, maxMemory / heapPerRun));
+    }
+
+    static URL[] findClassPath() throws MalformedURLException {
+        String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+        URL[] urls = new URL[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            urls[i] = new File(entries[i]).toURI().toURL();
+        }
+        return urls;
+    }
+
+    static List<Run> readRuns(File runList) throws IOException {
+        List<Run> runs = new ArrayList<Run>();
+        BufferedReader reader = new BufferedReader(new FileReader(runList));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length < 2 || fields.length > 3) {
+                    throw new IOException("Expected a run id, a scenario file and optionally a query file, but found: " + line);
+                }
+                runs.add(new Run(fields[0], fields[1], fields.length == 3 ? fields[2] : null));
+            }
+        } finally {
+            reader.close();
+        }
+        return runs;
+    }
+
+    /**
+     * Executes all runs and waits for them to finish.
+     * 
+     * @return the number of runs that failed
+     */
+    public int execute() throws InterruptedException {
+        RunProperties.install();
+        NoExitSecurityManager.install();
+        logger.warn("Executing {} runs on {} threads", runs.size(), numberOfThreads);
+        ExecutorService pool = Executors.newFixedThreadPool(numberOfThreads);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (final Run run : runs) {
+            results.add(pool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return execute(run);
+                }
+            }));
+        }
+        pool.shutdown();
+        int failedRuns = 0;
+        for (Future<Boolean> result : results) {
+            try {
+                if (!result.get()) {
+                    failedRuns++;
+                }
+            } catch (ExecutionException e) {
+                failedRuns++;
+            }
+        }
+        logger.warn("{} of {} runs failed", failedRuns, runs.size());
+        return failedRuns;
+    }
+
+    boolean execute(Run run) {
+        Thread thread = Thread.currentThread();
+        ClassLoader previousClassLoader = thread.getContextClassLoader();
+        ClassLoader classLoader = new URLClassLoader(classPath, ClassLoader.getSystemClassLoader().getParent());
+        long start = System.currentTimeMillis();
+        RunProperties.begin(run.getProperties());
+        thread.setContextClassLoader(classLoader);
+        try {
+            logger.warn("Starting run {} with scenario {}", run.getRunId(), run.getScenarioFile());
+            Method main = classLoader.loadClass(mainClass).getMethod("main", String[].class);
+            main.invoke(null, (Object) new String[0]);
+            return true;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof ExitException) {
+                return ((ExitException) e.getCause()).getStatus() == 0;
+            }
+            logger.error("Run " + run.getRunId() + " failed", e.getCause());
+            return false;
+        } catch (Exception e) {
+            logger.error("Run " + run.getRunId() + " could not be started", e);
+            return false;
+        } finally {
+            release(run, classLoader);
+            thread.setContextClassLoader(previousClassLoader);
+            RunProperties.end();
+            logger.warn("Run {} ended after {} seconds", run.getRunId(), (System.currentTimeMillis() - start) / 1000);
+        }
+    }
+
+    /**
+     * Releases the resources of a run by calling {@link RunResources#release()} in the class loader of the run.
+     */
+    void release(Run run, ClassLoader classLoader) {
+        try {
+            classLoader.loadClass(RunResources.class.getName()).getMethod("release").invoke(null);
+        } catch (InvocationTargetException e) {
+            logger.error("The resources of run " + run.getRunId() + " could not be released", e.getCause());
+        } catch (Exception e) {
+            logger.error("The resources of run " + run.getRunId() + " could not be released", e);
+        }
+    }
+
+    public static class Run {
+
+        private final String runId;
+        private final String scenarioFile;
+        private final String queryFile;
+
+        public Run(String runId, String scenarioFile, String queryFile) {
+            this.runId = runId;
+            this.scenarioFile = scenarioFile;
+            this.queryFile = queryFile;
+        }
+
+        public String getRunId() {
+            return runId;
+        }
+
+        public String getScenarioFile() {
+            return scenarioFile;
+        }
+
+        public String getQueryFile() {
+            return queryFile;
+        }
+
+        Map<String, String> getProperties() {
+            Map<String, String> properties = new HashMap<String, String>();
+            properties.put("run.id", runId);
+            properties.put("scenario.file", scenarioFile);
+            if (queryFile != null) {
+                properties.put("query.file", queryFile);
+            }
+            if (System.getProperty(GraphDatabaseServiceFactoryBean.GRAPH_DATABASE_PROPERTY) == null) {
+                properties.put(GraphDatabaseServiceFactoryBean.GRAPH_DATABASE_PROPERTY, GraphDatabaseServiceFactoryBean.IN_MEMORY);
+            }
+            return properties;
+        }
+
+    }
+
+    /**
+     * System properties with a layer of properties per run. A run sees its own properties, and the threads it starts inherit them;
+     * properties it sets stay within the run.
+     */
+    static class RunProperties extends Properties {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final InheritableThreadLocal<Map<String, String>> RUN = new InheritableThreadLocal<Map<String, String>>();
+
+        RunProperties(Properties properties) {
+            putAll(properties);
+        }
+
+        static synchronized void install() {
+            if (!(System.getProperties() instanceof RunProperties)) {
+                System.setProperties(new RunProperties(System.getProperties()));
+            }
+        }
+
+        static void begin(Map<String, String> properties) {
+            RUN.set(new HashMap<String, String>(properties));
+        }
+
+        static void end() {
+            RUN.remove();
+        }
+
+        static boolean isInRun() {
+            return RUN.get() != null;
+        }
+
+        @Override
+        public String getProperty(String key) {
+            Map<String, String> run = RUN.get();
+            if (run != null && run.containsKey(key)) {
+                return run.get(key);
+            }
+            return super.getProperty(key);
+        }
+
+        @Override
+        public String getProperty(String key, String defaultValue) {
+            String value = getProperty(key);
+            return value == null ? defaultValue : value;
+        }
+
+        @Override
+        public synchronized Object setProperty(String key, String value) {
+            Map<String, String> run = RUN.get();
+            if (run != null) {
+                return run.put(key, value);
+            }
+            return super.setProperty(key, value);
+        }
+
+    }
+
+    /**
+     * Turns a System.exit within a run into an {@link ExitException}, which ends the run. All other permissions are granted.
+     */
+    static class NoExitSecurityManager extends SecurityManager {
+
+        static synchronized void install() {
+            if (!(System.getSecurityManager() instanceof NoExitSecurityManager)) {
+                System.setSecurityManager(new NoExitSecurityManager());
+            }
+        }
+
+        @Override
+        public void checkPermission(Permission permission) {
+        }
+
+        @Override
+        public void checkPermission(Permission permission, Object context) {
+        }
+
+        @Override
+        public void checkExit(int status) {
+            if (RunProperties.isInRun()) {
+                throw new ExitException(status);
+            }
+        }
+
+    }
+
+    static class ExitException extends SecurityException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        ExitException(int status) {
+            super("System.exit(" + status + ") within a run");
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+    }
+
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Keeps track of what a run leaves behind when it ends by a System.exit within {@link MultiRunExecutor}: its Spring contexts, with the
+ * graph database, and the thread pools of the roles. The fields are static, so every run, which has its own class loader, has its own
+ * resources. {@link MultiRunExecutor} calls {@link #release()} in the class loader of the run when the run has ended.
+ * 
+ * The contexts register themselves by holding an instance of this class as a bean, the thread pools by {@link #register(ExecutorService)}.
+ * 
+ * @author JCRichstein
+ * 
+ */
+public class RunResources implements ApplicationContextAware {
+
+    static final Logger logger = LoggerFactory.getLogger(RunResources.class);
+
+    static final long TERMINATION_TIMEOUT_SECONDS = 10;
+
+    private static final List<ConfigurableApplicationContext> contexts = new ArrayList<ConfigurableApplicationContext>();
+    private static final List<ExecutorService> executors = new ArrayList<ExecutorService>();
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        if (applicationContext instanceof ConfigurableApplicationContext) {
+            synchronized (RunResources.class) {
+                contexts.add((ConfigurableApplicationContext) applicationContext);
+            }
+        }
+    }
+
+    public static synchronized void register(ExecutorService executor) {
+        executors.add(executor);
+    }
+
+    /**
+     * Closes the contexts and shuts down the thread pools, waiting for their threads to finish.
+     */
+    public static synchronized void release() throws InterruptedException {
+        for (ConfigurableApplicationContext context : contexts) {
+            context.close();
+        }
+        contexts.clear();
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        for (ExecutorService executor : executors) {
+            if (!executor.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Thread pool did not terminate within {} seconds, interrupting its threads", TERMINATION_TIMEOUT_SECONDS);
+                executor.shutdownNow();
+            }
+        }
+        executors.clear();
+    }
+
+}
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the wall time, number of calls and allocated bytes of the role acts and repository queries of a tick (see
+ * {@link SimulationMetricsAspect}), and writes them as a CSV file per tick next to the results of the simulation, in the folder given by
+ * the results.path system property.
+ * 
+ * Time and allocations are measured inclusively: the act of a role that calls other roles or queries also contains their time. The
+ * allocated bytes are those of the calling thread, as reported by the JVM; they are an estimate and not written if the JVM does not
+ * report them.
+ * 
+ * The iterations of the CO2 price search are recorded as {@link #CO2_SEARCH}, one call per evaluated CO2 price, so that the calls of a
+ * tick are its number of iterations.
+ * 
+ * @author jcrichstein
+ * 
+ */
+public class SimulationMetrics {
+
+    static final Logger logger = LoggerFactory.getLogger(SimulationMetrics.class);
+
+    public static final String ROLE = "role";
+    public static final String QUERY = "query";
+    public static final String CO2_SEARCH = "co2Search";
+
+    static final String HEADER = "kind,name,calls,wallTimeMs,allocatedBytes";
+
+    private static final SimulationMetrics INSTANCE = new SimulationMetrics();
+
+    private final Map<String, Metric> metrics = new TreeMap<String, Metric>();
+    private final com.sun.management.ThreadMXBean allocationBean;
+    private volatile boolean enabled = false;
+
+    public static SimulationMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    SimulationMetrics() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+            allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            allocationBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            allocationBean = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or -1 if the JVM does not report them
+     */
+    public long getAllocatedBytes() {
+        return allocationBean == null ? -1 : allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Records one call.
+     * 
+     * @param kind
+     *            {@link #ROLE}, {@link #QUERY} or {@link #CO2_SEARCH}
+     * @param name
+     *            the name of the role or query
+     * @param nanos
+     *            the wall time of the call
+     * @param allocatedBytes
+     *            the bytes allocated during the call, or a negative number if unknown
+     */
+    public synchronized void record(String kind, String name, long nanos, long allocatedBytes) {
+        String key = kind + "," + name;
+        Metric metric = metrics.get(key);
+        if (metric == null) {
+            metric = new Metric();
+            metrics.put(key, metric);
+        }
+        metric.calls++;
+        metric.nanos += nanos;
+        if (allocatedBytes >= 0) {
+            metric.allocatedBytes += allocatedBytes;
+        } else {
+            metric.allocationsKnown = false;
+        }
+    }
+
+    /**
+     * @param kind
+     *            {@link #ROLE} or {@link #QUERY}
+     * @param name
+     *            the name of the role or query
+     * @return the number of calls recorded since the last export
+     */
+    public synchronized long getCalls(String kind, String name) {
+        Metric metric = metrics.get(kind + "," + name);
+        return metric == null ? 0 : metric.calls;
+    }
+
+    public synchronized void reset() {
+        metrics.clear();
+    }
+
+    /**
+     * Writes the metrics of this tick to the results folder, as [run.id]-metrics-[tick].csv, and starts recording the next tick. A
+     * failure to write is logged and does not stop the simulation.
+     * 
+     * @param tick
+     *            the tick that ends
+     * @return the file written, or null if writing failed
+     */
+    public File exportTick(long tick) {
+        File folder = new File(System.getProperty("results.path", "."));
+        File file = new File(folder, System.getProperty("run.id", "emlab") + "-metrics-" + tick + ".csv");
+        try {
+            folder.mkdirs();
+            writeCsv(file);
+            return file;
+        } catch (IOException e) {
+            logger.warn("Could not write the metrics of tick {} to {}: {}", new Object[] { tick, file, e.getMessage() });
+            return null;
+        } finally {
+            reset();
+        }
+    }
+
+    synchronized void writeCsv(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println(HEADER);
+            for (Entry<String, Metric> entry : metrics.entrySet()) {
+                Metric metric = entry.getValue();
+                writer.println(entry.getKey() + "," + metric.calls + "," + metric.nanos / 1e6 + ","
+                        + (metric.allocationsKnown ? Long.toString(metric.allocatedBytes) : "NA"));
+            }
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Error writing " + file);
+        }
+    }
+
+    static class Metric {
+        long calls;
+        long nanos;
+        long allocatedBytes;
+        boolean allocationsKnown = true;
+    }
+
+}
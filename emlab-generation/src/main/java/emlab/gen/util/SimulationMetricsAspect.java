@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * Measures every act of a role and every call of a repository @Query method while the {@link SimulationMetrics} are enabled. The
+ * aspect is woven at compile time by the aspectj-maven-plugin, like the Spring Data Neo4j aspects. The repositories themselves are
+ * generated at runtime, so the queries are measured at the call site. The act of the DecarbonizationModelRole is left out, since it
+ * spans the whole tick and ends after the metrics of the tick have been written.
+ * 
+ * @author jcrichstein
+ * 
+ */
+@Aspect
+public class SimulationMetricsAspect {
+
+    @Around("execution(* agentspring.role.Role+.act(..)) && within(emlab.gen.role..*) "
+            + "&& !within(emlab.gen.role.DecarbonizationModelRole)")
+    public Object measureRole(ProceedingJoinPoint joinPoint) throws Throwable {
+        return measure(SimulationMetrics.ROLE, joinPoint.getSignature().getDeclaringType().getSimpleName(), joinPoint);
+    }
+
+    @Around("call(@org.springframework.data.neo4j.annotation.Query * emlab.gen.repository..*.*(..))")
+    public Object measureQuery(ProceedingJoinPoint joinPoint) throws Throwable {
+        return measure(SimulationMetrics.QUERY, joinPoint.getSignature().getDeclaringType().getSimpleName() + "."
+                + joinPoint.getSignature().getName(), joinPoint);
+    }
+
+    private Object measure(String kind, String name, ProceedingJoinPoint joinPoint) throws Throwable {
+        SimulationMetrics metrics = SimulationMetrics.getInstance();
+        if (!metrics.isEnabled()) {
+            return joinPoint.proceed();
+        }
+        long allocatedBytes = metrics.getAllocatedBytes();
+        long start = System.nanoTime();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            long nanos = System.nanoTime() - start;
+            metrics.record(kind, name, nanos, allocatedBytes < 0 ? -1 : metrics.getAllocatedBytes() - allocatedBytes);
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.util.Utils;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class CheckpointRepositoryTest {
+
+    @Autowired
+    Reps reps;
+
+    private byte[] write(long tick) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        reps.checkpointRepository.write(tick, out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private long read(byte[] checkpoint) throws IOException {
+        return reps.checkpointRepository.read(new DataInputStream(new ByteArrayInputStream(checkpoint)));
+    }
+
+    @Test
+    public void testRestoreReturnsTheGraphToTheCheckpoint() throws IOException {
+        PowerGeneratingTechnology coal = new PowerGeneratingTechnology().persist();
+        PowerGeneratingTechnology gas = new PowerGeneratingTechnology().persist();
+        PowerPlant plant = new PowerPlant().persist();
+        plant.setName("Coal plant");
+        plant.setTechnology(coal);
+        Bid bid = new Bid().persist();
+        bid.setTime(3);
+        byte[] checkpoint = write(3);
+
+        plant.setName("Changed");
+        plant.setTechnology(gas);
+        PowerPlant newPlant = new PowerPlant().persist();
+        newPlant.setName("Built after the checkpoint");
+        Bid newBid = new Bid().persist();
+        newBid.setTime(3);
+
+        assertEquals(3, read(checkpoint));
+
+        // The plant of the checkpoint is the same node, with its old state.
+        assertEquals("Coal plant", plant.getName());
+        assertEquals(coal.getNodeId(), plant.getTechnology().getNodeId());
+        List<PowerPlant> plants = Utils.asList(reps.genericRepository.findAll(PowerPlant.class));
+        assertEquals(1, plants.size());
+        assertEquals(plant.getNodeId(), plants.get(0).getNodeId());
+        assertEquals(1, Utils.asList(reps.bidRepository.findAllBidsForForTime(3)).size());
+    }
+
+    @Test
+    public void testNodesThatNoLongerExistAreCreated() throws IOException {
+        PowerPlant plant = new PowerPlant().persist();
+        plant.setName("Dismantled and deleted later");
+        byte[] checkpoint = write(7);
+        long id = plant.getNodeId();
+        plant.remove();
+
+        read(checkpoint);
+
+        List<PowerPlant> plants = Utils.asList(reps.genericRepository.findAll(PowerPlant.class));
+        assertEquals(1, plants.size());
+        assertEquals("Dismantled and deleted later", plants.get(0).getName());
+        assertFalse(plants.get(0).getNodeId() == id);
+    }
+
+    @Test
+    public void testPropertyValuesRoundTrip() throws IOException {
+        Object[] values = new Object[] { true, (byte) 1, (short) 2, 3, 4L, 5f, 6d, 'c', "previous,values", new double[] { 1, 2 },
+                new String[] { "a", "b" }, new long[0] };
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Object value : values) {
+            CheckpointRepository.writeValue(value, out);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int i = 0; i < 9; i++) {
+            assertEquals(values[i], CheckpointRepository.readValue(in));
+        }
+        assertArrayEquals((double[]) values[9], (double[]) CheckpointRepository.readValue(in), 0);
+        assertArrayEquals((String[]) values[10], (String[]) CheckpointRepository.readValue(in));
+        assertEquals(0, ((long[]) CheckpointRepository.readValue(in)).length);
+    }
+
+}
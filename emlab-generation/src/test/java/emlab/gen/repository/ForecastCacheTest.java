@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.market.CO2Auction;
+import emlab.gen.domain.technology.Substance;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class ForecastCacheTest {
+
+    @Autowired
+    Reps reps;
+
+    @After
+    public void tearDown() {
+        // The regressions and the cache are shared by all tests of the context.
+        reps.forecastCache.clear();
+        reps.priceHistory.clear();
+        reps.tickScopedCache.invalidate();
+    }
+
+    @Test
+    public void testRollingRegressionEqualsNewRegression() {
+        ForecastCache.Series series = new ForecastCache.Series(Arrays.<Object> asList("test"), true, true, null) {
+            @Override
+            double[] findValues(long tick) {
+                return tick < 0 ? new double[0] : new double[] { Math.exp(0.1 * tick) * (1 + 0.01 * (tick % 3)), 2 + tick };
+            }
+        };
+        ForecastCache.RollingRegression rolling = new ForecastCache.RollingRegression(true);
+        for (long tick = 0; tick < 30; tick++) {
+            rolling.moveTo(series, tick - 4, tick);
+            ForecastCache.RollingRegression fresh = new ForecastCache.RollingRegression(true);
+            fresh.moveTo(series, tick - 4, tick);
+            assertEquals(fresh.getN(), rolling.getN());
+            assertEquals(fresh.predict(tick + 7), rolling.predict(tick + 7), 1e-6 * Math.abs(fresh.predict(tick + 7)));
+        }
+        // Moving back starts again.
+        rolling.moveTo(series, 2, 6);
+        assertEquals(10, rolling.getN());
+    }
+
+    @Test
+    public void testCO2ForecastFollowsPricesOfTheCurrentTick() {
+        CO2Auction auction = new CO2Auction().persist();
+        auction.setSubstance(new Substance().persist());
+        for (int tick = 0; tick < 4; tick++) {
+            reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(auction, 10 * (tick + 1), 100, tick);
+        }
+        ForecastCache.Forecast fromGraph = reps.forecastCache.forecastCO2Price(auction, 4, 3, 3, 5);
+
+        reps.tickScopedCache.startTick(3);
+        ForecastCache.Forecast forecast = reps.forecastCache.forecastCO2Price(auction, 4, 3, 3, 5);
+        assertEquals(fromGraph.getPrediction(), forecast.getPrediction(), 1e-9);
+        assertEquals(60, forecast.getPrediction(), 1e-9);
+        assertEquals(4, forecast.getN());
+        assertEquals(25, forecast.getAverage(), 1e-9);
+        assertEquals(40, forecast.getLast(), 0);
+        assertSame(forecast, reps.forecastCache.forecastCO2Price(auction, 4, 3, 3, 5));
+
+        reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(auction, 50, 100, 3);
+        forecast = reps.forecastCache.forecastCO2Price(auction, 4, 3, 3, 5);
+        assertEquals(50, forecast.getLast(), 0);
+        assertEquals(27.5, forecast.getAverage(), 1e-9);
+
+        reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(auction, 60, 100, 4);
+        reps.tickScopedCache.startTick(4);
+        forecast = reps.forecastCache.forecastCO2Price(auction, 4, 4, 4, 5);
+        assertEquals(4, forecast.getN());
+        assertEquals((20 + 30 + 50 + 60) / 4d, forecast.getAverage(), 1e-9);
+        assertEquals(reps.forecastCache.forecastCO2Price(auction, 3, 4, 4, 5).getN() + 1, forecast.getN());
+    }
+
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.gis.Zone;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerGridNode;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.util.Utils;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class PowerPlantFleetTableTest {
+
+    @Autowired
+    Reps reps;
+
+    @Autowired
+    PowerPlantRepository powerPlantRepository;
+
+    @Autowired
+    PowerPlantTraversals powerPlantTraversals;
+
+    @After
+    public void tearDown() {
+        // The table and the cache are shared by all tests of the context.
+        reps.powerPlantFleetTable.clear();
+        reps.powerPlantLocationIndex.clear();
+        reps.tickScopedCache.invalidate();
+    }
+
+    private PowerPlant createPowerPlant(PowerGeneratingTechnology technology, EnergyProducer owner, PowerGridNode node,
+            long constructionStartTime, long dismantleTime, double capacity) {
+        PowerPlant plant = new PowerPlant();
+        plant.setTechnology(technology);
+        plant.setOwner(owner);
+        plant.setLocation(node);
+        plant.setConstructionStartTime(constructionStartTime);
+        plant.setActualPermittime(1);
+        plant.setActualLeadtime(2);
+        plant.setDismantleTime(dismantleTime);
+        plant.setExpectedEndOfLife(constructionStartTime + 3 + 20);
+        plant.setActualNominalCapacity(capacity);
+        plant.persist();
+        return plant;
+    }
+
+    @Test
+    public void testAggregationsMatchRepositoryQueries() {
+        Zone zoneA = new Zone();
+        zoneA.persist();
+        Zone zoneB = new Zone();
+        zoneB.persist();
+        PowerGridNode nodeA = new PowerGridNode();
+        nodeA.setZone(zoneA);
+        nodeA.persist();
+        PowerGridNode nodeB = new PowerGridNode();
+        nodeB.setZone(zoneB);
+        nodeB.persist();
+        ElectricitySpotMarket marketA = new ElectricitySpotMarket();
+        marketA.setZone(zoneA);
+        marketA.persist();
+        ElectricitySpotMarket marketB = new ElectricitySpotMarket();
+        marketB.setZone(zoneB);
+        marketB.persist();
+
+        PowerGeneratingTechnology coal = new PowerGeneratingTechnology();
+        coal.setName("Coal");
+        coal.persist();
+        PowerGeneratingTechnology wind = new PowerGeneratingTechnology();
+        wind.setName("Wind");
+        wind.persist();
+
+        EnergyProducer producer1 = new EnergyProducer();
+        producer1.persist();
+        EnergyProducer producer2 = new EnergyProducer();
+        producer2.persist();
+
+        createPowerPlant(coal, producer1, nodeA, -10, 1000, 500);
+        createPowerPlant(coal, producer2, nodeA, -30, 1000, 400);
+        createPowerPlant(wind, producer1, nodeA, -2, 1000, 100);
+        PowerPlant dismantled = createPowerPlant(wind, producer2, nodeB, -5, 1000, 200);
+        createPowerPlant(coal, producer1, nodeB, 0, 1000, 600);
+
+        // Before a tick is started the repository is queried directly.
+        assertEquals(reps.powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(marketA,
+                coal, 1), reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(marketA,
+                coal, 1), 1e-9);
+
+        reps.tickScopedCache.startTick(0);
+        for (long tick = 0; tick < 10; tick++) {
+            for (ElectricitySpotMarket market : new ElectricitySpotMarket[] { marketA, marketB }) {
+                assertEquals(reps.powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarket(market, tick),
+                        reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarket(market, tick), 1e-9);
+                assertEquals(reps.powerPlantRepository.calculateCapacityOfPowerPlantsByMarketInPipeline(market, tick),
+                        reps.powerPlantFleetTable.calculateCapacityOfPowerPlantsByMarketInPipeline(market, tick), 1e-9);
+                for (PowerGeneratingTechnology technology : new PowerGeneratingTechnology[] { coal, wind }) {
+                    assertEquals(reps.powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(
+                            market, technology, tick),
+                            reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market,
+                                    technology, tick), 1e-9);
+                }
+            }
+            for (PowerGeneratingTechnology technology : new PowerGeneratingTechnology[] { coal, wind }) {
+                assertEquals(reps.powerPlantRepository.calculateCapacityOfOperationalPowerPlantsByTechnology(technology, tick),
+                        reps.powerPlantFleetTable.calculateCapacityOfOperationalPowerPlantsByTechnology(technology, tick), 1e-9);
+                assertEquals(reps.powerPlantRepository.calculateCapacityOfPowerPlantsByTechnologyInPipeline(technology, tick),
+                        reps.powerPlantFleetTable.calculateCapacityOfPowerPlantsByTechnologyInPipeline(technology, tick), 1e-9);
+                assertEquals(reps.powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(nodeA,
+                        technology, tick), reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(
+                        nodeA, technology, tick), 1e-9);
+            }
+        }
+
+        // The owner queries give the same answer with the query, the native
+        // traversal and the table.
+        for (long tick = 0; tick < 10; tick++) {
+            for (ElectricitySpotMarket market : new ElectricitySpotMarket[] { marketA, marketB }) {
+                for (EnergyProducer producer : new EnergyProducer[] { producer1, producer2 }) {
+                    double capacity = powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(market,
+                            tick, producer);
+                    assertEquals(capacity, powerPlantTraversals.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(
+                            market, tick, producer), 1e-9);
+                    assertEquals(capacity, reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(
+                            market, tick, producer), 1e-9);
+                    for (PowerGeneratingTechnology technology : new PowerGeneratingTechnology[] { coal, wind }) {
+                        capacity = powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(
+                                market, technology, tick, producer);
+                        assertEquals(capacity, powerPlantTraversals
+                                .calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(market, technology, tick,
+                                        producer), 1e-9);
+                        assertEquals(capacity, reps.powerPlantFleetTable
+                                .calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(market, technology, tick,
+                                        producer), 1e-9);
+                    }
+                }
+            }
+        }
+        // Only the plants of the owner in the market are counted.
+        assertEquals(600, reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(marketA, 5,
+                producer1), 1e-9);
+        assertEquals(500, reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(
+                marketA, coal, 5, producer1), 1e-9);
+
+        // Incremental updates.
+        PowerPlant newPlant = createPowerPlant(wind, producer1, nodeB, 5, 1000, 300);
+        reps.powerPlantFleetTable.add(newPlant);
+        assertEquals(300, reps.powerPlantFleetTable.calculateCapacityOfPowerPlantsByMarketInPipeline(marketB, 5), 1e-9);
+        dismantled.setDismantleTime(3);
+        reps.powerPlantFleetTable.updateDismantleTime(dismantled);
+        assertEquals(100, reps.powerPlantFleetTable.calculateCapacityOfOperationalPowerPlantsByTechnology(wind, 4), 1e-9);
+    }
+
+    @Test
+    public void testRemovedPlantIsNoLongerFoundOrCounted() {
+        Zone zone = new Zone();
+        zone.persist();
+        PowerGridNode node = new PowerGridNode();
+        node.setZone(zone);
+        node.persist();
+        ElectricitySpotMarket market = new ElectricitySpotMarket();
+        market.setZone(zone);
+        market.persist();
+        PowerGeneratingTechnology coal = new PowerGeneratingTechnology();
+        coal.setName("Coal");
+        coal.persist();
+        EnergyProducer producer = new EnergyProducer();
+        producer.persist();
+
+        PowerPlant kept = createPowerPlant(coal, producer, node, -10, 1000, 500);
+        PowerPlant deleted = createPowerPlant(coal, producer, node, -5, 1000, 200);
+        PowerPlant deletedInPipeline = createPowerPlant(coal, producer, node, 4, 1000, 300);
+
+        reps.tickScopedCache.startTick(0);
+        int rows = reps.powerPlantFleetTable.getNumberOfRows();
+        assertEquals(700, reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarket(market, 5), 1e-9);
+        assertEquals(300, reps.powerPlantFleetTable.calculateCapacityOfPowerPlantsByMarketInPipeline(market, 5), 1e-9);
+
+        for (PowerPlant plant : new PowerPlant[] { deleted, deletedInPipeline }) {
+            reps.powerPlantLocationIndex.remove(plant);
+            reps.powerPlantFleetTable.remove(plant);
+            reps.powerPlantRepository.delete(plant);
+        }
+
+        // The rows stay, so that plants added since a row are still found.
+        assertEquals(rows, reps.powerPlantFleetTable.getNumberOfRows());
+        for (long tick = 0; tick < 10; tick++) {
+            List<PowerPlant> found = Utils.asList(reps.powerPlantFleetTable.findExpectedOperationalPowerPlantsInMarket(market, tick));
+            found.addAll(reps.powerPlantFleetTable.findExpectedOperationalPowerPlantsInMarketAddedSince(market, tick, 0));
+            for (PowerPlant plant : found) {
+                assertTrue(plant.getNodeId().equals(kept.getNodeId()));
+            }
+            assertFalse(found.contains(null));
+
+            double keptCapacity = 500;
+            assertEquals(keptCapacity, reps.powerPlantFleetTable.calculateCapacityOfOperationalPowerPlantsByTechnology(coal, tick), 1e-9);
+            assertEquals(keptCapacity, reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarket(market, tick),
+                    1e-9);
+            assertEquals(keptCapacity, reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(
+                    market, coal, tick), 1e-9);
+            assertEquals(keptCapacity, reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(
+                    node, coal, tick), 1e-9);
+            assertEquals(keptCapacity, reps.powerPlantFleetTable.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(market,
+                    tick, producer), 1e-9);
+            assertEquals(keptCapacity, reps.powerPlantFleetTable
+                    .calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(market, coal, tick, producer), 1e-9);
+            assertEquals(0, reps.powerPlantFleetTable.calculateCapacityOfPowerPlantsByTechnologyInPipeline(coal, tick), 1e-9);
+            assertEquals(0, reps.powerPlantFleetTable.calculateCapacityOfPowerPlantsByMarketInPipeline(market, tick), 1e-9);
+        }
+    }
+
+}
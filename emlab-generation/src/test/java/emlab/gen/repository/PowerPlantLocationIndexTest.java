@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.NationalGovernment;
+import emlab.gen.domain.gis.Zone;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerGridNode;
+import emlab.gen.domain.technology.PowerPlant;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class PowerPlantLocationIndexTest {
+
+    @Autowired
+    Reps reps;
+
+    @After
+    public void tearDown() {
+        // The index is shared by all tests of the context.
+        reps.powerPlantLocationIndex.clear();
+    }
+
+    private PowerPlant createPowerPlantInZone(Zone zone) {
+        PowerGridNode node = new PowerGridNode();
+        node.setZone(zone);
+        node.persist();
+        PowerPlant plant = new PowerPlant();
+        plant.setLocation(node);
+        plant.persist();
+        return plant;
+    }
+
+    @Test
+    public void testMarketAndGovernmentOfPowerPlants() {
+        Zone zoneA = new Zone();
+        zoneA.setName("A");
+        zoneA.persist();
+        Zone zoneB = new Zone();
+        zoneB.setName("B");
+        zoneB.persist();
+
+        ElectricitySpotMarket marketA = new ElectricitySpotMarket();
+        marketA.setZone(zoneA);
+        marketA.persist();
+        ElectricitySpotMarket marketB = new ElectricitySpotMarket();
+        marketB.setZone(zoneB);
+        marketB.persist();
+
+        NationalGovernment governmentA = new NationalGovernment();
+        governmentA.setGovernedZone(zoneA);
+        governmentA.persist();
+        NationalGovernment governmentB = new NationalGovernment();
+        governmentB.setGovernedZone(zoneB);
+        governmentB.persist();
+
+        PowerPlant plantA = createPowerPlantInZone(zoneA);
+        PowerPlant plantB = createPowerPlantInZone(zoneB);
+
+        assertEquals(marketA, reps.powerPlantLocationIndex.findElectricitySpotMarketByPowerPlant(plantA));
+        assertEquals(marketB, reps.powerPlantLocationIndex.findElectricitySpotMarketByPowerPlant(plantB));
+        assertEquals(governmentA, reps.powerPlantLocationIndex.findNationalGovernmentByPowerPlant(plantA));
+        assertEquals(governmentB, reps.powerPlantLocationIndex.findNationalGovernmentByPowerPlant(plantB));
+
+        // Added after the index has been built.
+        PowerPlant newPlant = createPowerPlantInZone(zoneB);
+        reps.powerPlantLocationIndex.add(newPlant);
+        assertEquals(marketB, reps.powerPlantLocationIndex.findElectricitySpotMarketByPowerPlant(newPlant));
+
+        // A removed plant is looked up in the repository again.
+        reps.powerPlantLocationIndex.remove(plantA);
+        assertEquals(governmentA, reps.powerPlantLocationIndex.findNationalGovernmentByPowerPlant(plantA));
+    }
+
+}
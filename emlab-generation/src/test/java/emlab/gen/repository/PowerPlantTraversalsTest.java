@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.gis.Zone;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerGridNode;
+import emlab.gen.domain.technology.PowerPlant;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class PowerPlantTraversalsTest {
+
+    @Autowired
+    PowerPlantRepository powerPlantRepository;
+
+    @Autowired
+    PowerPlantTraversals powerPlantTraversals;
+
+    ElectricitySpotMarket market;
+    EnergyProducer owner;
+    PowerGeneratingTechnology coal;
+    PowerGeneratingTechnology gas;
+
+    @Before
+    public void setUp() {
+        Zone zone = new Zone();
+        zone.persist();
+        market = new ElectricitySpotMarket();
+        market.setZone(zone);
+        market.persist();
+        PowerGridNode node = new PowerGridNode();
+        node.setZone(zone);
+        node.persist();
+
+        owner = new EnergyProducer();
+        owner.persist();
+        EnergyProducer competitor = new EnergyProducer();
+        competitor.persist();
+
+        coal = new PowerGeneratingTechnology();
+        coal.setName("Coal");
+        coal.setPeakSegmentDependentAvailability(0.9);
+        coal.persist();
+        gas = new PowerGeneratingTechnology();
+        gas.setName("Gas");
+        gas.setPeakSegmentDependentAvailability(0.5);
+        gas.persist();
+
+        // Operational, dismantled, in the pipeline and expected to close.
+        createPowerPlant(node, owner, coal, 0, 20, 30, 100);
+        createPowerPlant(node, owner, gas, 0, 5, 30, 200);
+        createPowerPlant(node, competitor, coal, 8, 30, 30, 400);
+        createPowerPlant(node, competitor, gas, 0, 30, 8, 800);
+    }
+
+    private void createPowerPlant(PowerGridNode node, EnergyProducer owner, PowerGeneratingTechnology technology,
+            long constructionStartTime, long dismantleTime, double expectedEndOfLife, double capacity) {
+        PowerPlant plant = new PowerPlant();
+        plant.setLocation(node);
+        plant.setOwner(owner);
+        plant.setTechnology(technology);
+        plant.setConstructionStartTime(constructionStartTime);
+        plant.setActualPermittime(1);
+        plant.setActualLeadtime(2);
+        plant.setDismantleTime(dismantleTime);
+        plant.setExpectedEndOfLife(expectedEndOfLife);
+        plant.setActualNominalCapacity(capacity);
+        plant.persist();
+    }
+
+    private static Set<Long> ids(Iterable<PowerPlant> plants) {
+        Set<Long> ids = new HashSet<Long>();
+        for (PowerPlant plant : plants) {
+            ids.add(plant.getNodeId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testPowerPlantsEqualGremlinResults() {
+        for (long tick = 0; tick < 12; tick += 3) {
+            assertEquals(ids(powerPlantRepository.findOperationalPowerPlants(tick)),
+                    ids(powerPlantTraversals.findOperationalPowerPlants(tick)));
+            assertEquals(ids(powerPlantRepository.findOperationalPowerPlantsByOwner(owner, tick)),
+                    ids(powerPlantTraversals.findOperationalPowerPlantsByOwner(owner, tick)));
+            assertEquals(ids(powerPlantRepository.findOperationalPowerPlantsInMarket(market, tick)),
+                    ids(powerPlantTraversals.findOperationalPowerPlantsInMarket(market, tick)));
+            assertEquals(ids(powerPlantRepository.findExpectedOperationalPowerPlantsInMarket(market, tick)),
+                    ids(powerPlantTraversals.findExpectedOperationalPowerPlantsInMarket(market, tick)));
+            assertEquals(ids(powerPlantRepository.findPowerPlantsByOwnerAndMarketInPipeline(owner, market, tick)),
+                    ids(powerPlantTraversals.findPowerPlantsByOwnerAndMarketInPipeline(owner, market, tick)));
+            assertEquals(ids(powerPlantRepository.findPowerPlantsByTechnologyInPipeline(coal, tick)),
+                    ids(powerPlantTraversals.findPowerPlantsByTechnologyInPipeline(coal, tick)));
+        }
+    }
+
+    @Test
+    public void testCapacitiesEqualGremlinResults() {
+        for (long tick = 3; tick < 12; tick += 3) {
+            assertEquals(powerPlantRepository.calculateCapacityOfOperationalPowerPlants(tick),
+                    powerPlantTraversals.calculateCapacityOfOperationalPowerPlants(tick), 1e-9);
+            assertEquals(powerPlantRepository.calculatePeakCapacityOfOperationalPowerPlantsInMarket(market, tick),
+                    powerPlantTraversals.calculatePeakCapacityOfOperationalPowerPlantsInMarket(market, tick), 1e-9);
+            assertEquals(powerPlantRepository.calculateCapacityOfOperationalPowerPlantsByTechnology(gas, tick),
+                    powerPlantTraversals.calculateCapacityOfOperationalPowerPlantsByTechnology(gas, tick), 1e-9);
+            assertEquals(powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, coal, tick),
+                    powerPlantTraversals.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, coal, tick), 1e-9);
+            assertEquals(powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(market, tick, owner),
+                    powerPlantTraversals.calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(market, tick, owner), 1e-9);
+            assertEquals(powerPlantRepository.calculateCapacityOfPowerPlantsByMarketInPipeline(market, tick),
+                    powerPlantTraversals.calculateCapacityOfPowerPlantsByMarketInPipeline(market, tick), 1e-9);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.CommoditySupplier;
+import emlab.gen.domain.market.CommodityMarket;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.trend.TimeSeriesImpl;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class PriceHistoryTest {
+
+    @Autowired
+    Reps reps;
+
+    @After
+    public void tearDown() {
+        // The history and the cache are shared by all tests of the context.
+        reps.priceHistory.clear();
+        reps.tickScopedCache.invalidate();
+    }
+
+    private CommodityMarket createMarket(String name) {
+        Substance substance = new Substance().persist();
+        substance.setName(name);
+        CommodityMarket market = new CommodityMarket().persist();
+        market.setSubstance(substance);
+        return market;
+    }
+
+    @Test
+    public void testHistoryEqualsGraphAndFollowsUpdates() {
+        CommodityMarket market = createMarket("coal");
+        reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(market, 10, 100, 0);
+        reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(market, 20, 100, 1);
+        assertEquals(20, reps.priceHistory.findAveragePrice(market, 1), 1e-9);
+
+        reps.tickScopedCache.startTick(1);
+        assertEquals(10, reps.priceHistory.findAveragePrice(market, 0), 1e-9);
+        assertEquals(20, reps.priceHistory.findAveragePrice(market, 1), 1e-9);
+        assertNull(reps.priceHistory.findAveragePrice(market, 2));
+
+        // An update replaces the earlier price of the point.
+        reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(market, 30, 50, 1);
+        assertEquals(30, reps.priceHistory.findAveragePrice(market, 1), 1e-9);
+        reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(market, 40, 100, 2);
+        assertEquals(40, reps.priceHistory.findLastKnownPriceOnMarket(market, 2), 1e-9);
+        assertEquals(40, reps.priceHistory.findLastKnownPriceOnMarket(market, 3), 1e-9);
+
+        reps.tickScopedCache.invalidate();
+        assertEquals(30, reps.priceHistory.findAveragePrice(market, 1), 1e-9);
+    }
+
+    @Test
+    public void testSegmentPricesAreVolumeWeighted() {
+        ElectricitySpotMarket market = new ElectricitySpotMarket().persist();
+        Substance electricity = new Substance().persist();
+        electricity.setName("electricity");
+        market.setSubstance(electricity);
+        Segment peak = new Segment().persist();
+        Segment base = new Segment().persist();
+        reps.tickScopedCache.startTick(0);
+        reps.clearingPointRepositoryOld.createOrUpdateSegmentClearingPoint(peak, market, 60, 100, 0);
+        reps.clearingPointRepositoryOld.createOrUpdateSegmentClearingPoint(base, market, 30, 200, 0);
+
+        assertEquals((60 * 100 + 30 * 200) / 300d, reps.priceHistory.findAveragePrice(market, 0), 1e-9);
+        assertEquals(60, reps.priceHistory.findSegmentPrice(market, peak, 0), 0);
+        assertEquals(30, reps.priceHistory.findSegmentPrice(market, base, 0), 0);
+        assertTrue(Double.isNaN(reps.priceHistory.findSegmentPrice(market, base, 1)));
+
+        reps.clearingPointRepositoryOld.createOrUpdateSegmentClearingPoint(base, market, 40, 200, 0);
+        assertEquals(40, reps.priceHistory.findSegmentPrice(market, base, 0), 0);
+        assertEquals((60 * 100 + 40 * 200) / 300d, reps.priceHistory.findAveragePrice(market, 0), 1e-9);
+    }
+
+    @Test
+    public void testFallsBackToReferencePriceAndSupplier() {
+        CommodityMarket market = createMarket("gas");
+        reps.tickScopedCache.startTick(0);
+        assertEquals(0, reps.priceHistory.findLastKnownPriceOnMarket(market, 0), 0);
+        reps.priceHistory.clear();
+
+        TimeSeriesImpl prices = new TimeSeriesImpl();
+        prices.setTimeSeries(new double[] { 5, 6 });
+        prices.persist();
+        CommoditySupplier supplier = new CommoditySupplier().persist();
+        supplier.setSubstance(market.getSubstance());
+        supplier.setPriceOfCommodity(prices);
+        assertEquals(6, reps.priceHistory.findLastKnownPriceOnMarket(market, 1), 0);
+
+        market.setReferencePrice(7);
+        assertEquals(7, reps.priceHistory.findLastKnownPriceOnMarket(market, 1), 0);
+    }
+
+    @Test
+    public void testTickSeriesGrowsInBothDirections() {
+        PriceHistory.TickSeries series = new PriceHistory.TickSeries();
+        series.add(5, 1);
+        series.add(5, 2);
+        series.set(-3, 4);
+        series.set(40, 5);
+        assertEquals(3, series.get(5), 0);
+        assertEquals(4, series.get(-3), 0);
+        assertEquals(5, series.get(40), 0);
+        assertTrue(Double.isNaN(series.get(0)));
+        assertTrue(Double.isNaN(series.get(41)));
+        assertTrue(Double.isNaN(series.get(-4)));
+    }
+
+}
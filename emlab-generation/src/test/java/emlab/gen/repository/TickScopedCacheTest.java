@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.market.CommodityMarket;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.role.operating.DetermineFuelMixRole;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class TickScopedCacheTest {
+
+    @Autowired
+    Reps reps;
+
+    @Autowired
+    DetermineFuelMixRole determineFuelMixRole;
+
+    @After
+    public void tearDown() {
+        // The cache is shared by all tests of the context.
+        reps.tickScopedCache.invalidate();
+    }
+
+    @Test
+    public void testLookupsAreCachedWithinATick() {
+        new Segment().persist();
+        reps.tickScopedCache.startTick(1);
+        long hits = reps.tickScopedCache.getHits();
+        long misses = reps.tickScopedCache.getMisses();
+
+        long segments = reps.tickScopedCache.countSegments();
+        new Segment().persist();
+        assertEquals(segments, reps.tickScopedCache.countSegments());
+        assertEquals(hits + 1, reps.tickScopedCache.getHits());
+        assertEquals(misses + 1, reps.tickScopedCache.getMisses());
+
+        reps.tickScopedCache.startTick(2);
+        assertEquals(segments + 1, reps.tickScopedCache.countSegments());
+    }
+
+    @Test
+    public void testLookupsAreNotCachedBeforeTheFirstTick() {
+        long segments = reps.tickScopedCache.countSegments();
+        new Segment().persist();
+        assertEquals(segments + 1, reps.tickScopedCache.countSegments());
+    }
+
+    @Test
+    public void testLastKnownPricesAreDroppedWhenAClearingPointIsWritten() {
+        Substance substance = new Substance().persist();
+        reps.tickScopedCache.startTick(1);
+        reps.tickScopedCache.storeLastKnownPriceForSubstance(substance, 10);
+        assertEquals(10, reps.tickScopedCache.findLastKnownPriceForSubstance(substance), 0);
+
+        CommodityMarket market = new CommodityMarket();
+        market.setSubstance(substance);
+        market.persist();
+        reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(market, 20, 1, 1);
+        assertNull(reps.tickScopedCache.findLastKnownPriceForSubstance(substance));
+    }
+
+    @Test
+    public void testComputedValuesAreKeyedByAllInputs() {
+        reps.tickScopedCache.startTick(1);
+        Object value = new Object();
+        reps.tickScopedCache.storeComputedValue(value, "test", 1L, 2.5);
+        assertEquals(value, reps.tickScopedCache.findComputedValue("test", 1L, 2.5));
+        assertNull(reps.tickScopedCache.findComputedValue("test", 1L, 3.5));
+        assertNull(reps.tickScopedCache.findComputedValue("other", 1L, 2.5));
+
+        reps.tickScopedCache.startTick(2);
+        assertNull(reps.tickScopedCache.findComputedValue("test", 1L, 2.5));
+    }
+
+    @Test
+    public void testPriceVersionChangesOnlyWithThePricesOfTheSubstance() {
+        Substance coal = new Substance().persist();
+        Substance gas = new Substance().persist();
+        CommodityMarket coalMarket = new CommodityMarket();
+        coalMarket.setSubstance(coal);
+        coalMarket.persist();
+        ElectricitySpotMarket spotMarket = new ElectricitySpotMarket();
+        spotMarket.setSubstance(new Substance().persist());
+        spotMarket.persist();
+        Segment segment = new Segment().persist();
+
+        assertEquals(-1, reps.tickScopedCache.getPriceVersion(coal));
+        reps.tickScopedCache.startTick(1);
+        long coalVersion = reps.tickScopedCache.getPriceVersion(coal);
+        long gasVersion = reps.tickScopedCache.getPriceVersion(gas);
+        reps.tickScopedCache.startTick(1);
+        assertEquals(coalVersion, reps.tickScopedCache.getPriceVersion(coal));
+
+        reps.tickScopedCache.storeLastKnownPriceForSubstance(coal, 10);
+        reps.clearingPointRepositoryOld.createOrUpdateSegmentClearingPoint(segment, spotMarket, 40, 100, 1);
+        assertEquals(coalVersion, reps.tickScopedCache.getPriceVersion(coal));
+        assertEquals(10, reps.tickScopedCache.findLastKnownPriceForSubstance(coal), 0);
+
+        reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(coalMarket, 20, 1, 1);
+        assertTrue(reps.tickScopedCache.getPriceVersion(coal) > coalVersion);
+        assertNull(reps.tickScopedCache.findLastKnownPriceForSubstance(coal));
+        assertEquals(gasVersion, reps.tickScopedCache.getPriceVersion(gas));
+    }
+
+    @Test
+    public void testEmissionIntensityIsCachedUntilTheFuelMixIsSet() {
+        Substance coal = new Substance().persist();
+        coal.setCo2Density(3);
+        PowerGeneratingTechnology technology = new PowerGeneratingTechnology().persist();
+        PowerPlant plant = new PowerPlant().persist();
+        plant.setTechnology(technology);
+        SubstanceShareInFuelMix share = new SubstanceShareInFuelMix().persist();
+        share.setSubstance(coal);
+        share.setShare(2);
+        Set<SubstanceShareInFuelMix> fuelMix = new HashSet<SubstanceShareInFuelMix>();
+        fuelMix.add(share);
+        plant.setFuelMix(fuelMix);
+
+        assertEquals(6, plant.calculateEmissionIntensity(), 1e-9);
+        long[] before = reps.tickScopedCache.getHitsAndMisses().get("emissionIntensity");
+        share.setShare(4);
+        assertEquals(6, plant.calculateEmissionIntensity(), 1e-9);
+        plant.setFuelMix(plant.getFuelMix());
+        assertEquals(12, plant.calculateEmissionIntensity(), 1e-9);
+        long[] after = reps.tickScopedCache.getHitsAndMisses().get("emissionIntensity");
+        assertEquals(before[0] + 1, after[0]);
+        assertEquals(before[1] + 1, after[1]);
+    }
+
+    @Test
+    public void testMarginalFuelCostIsKeptWhenAnElectricityClearingPointIsWritten() {
+        Substance coal = new Substance().persist();
+        CommodityMarket coalMarket = new CommodityMarket();
+        coalMarket.setSubstance(coal);
+        coalMarket.persist();
+        ElectricitySpotMarket spotMarket = new ElectricitySpotMarket();
+        spotMarket.setSubstance(new Substance().persist());
+        spotMarket.persist();
+        Segment segment = new Segment().persist();
+        PowerPlant plant = new PowerPlant().persist();
+        SubstanceShareInFuelMix share = new SubstanceShareInFuelMix().persist();
+        share.setSubstance(coal);
+        share.setShare(2);
+        Set<SubstanceShareInFuelMix> fuelMix = new HashSet<SubstanceShareInFuelMix>();
+        fuelMix.add(share);
+        plant.setFuelMix(fuelMix);
+
+        reps.tickScopedCache.startTick(1);
+        reps.tickScopedCache.storeLastKnownPriceForSubstance(coal, 5);
+        assertEquals(10, determineFuelMixRole.calculateMarginalFuelCost(plant), 1e-9);
+        long[] before = reps.tickScopedCache.getHitsAndMisses().get("marginalFuelCost");
+
+        reps.clearingPointRepositoryOld.createOrUpdateSegmentClearingPoint(segment, spotMarket, 40, 100, 1);
+        assertEquals(10, determineFuelMixRole.calculateMarginalFuelCost(plant), 1e-9);
+        long[] after = reps.tickScopedCache.getHitsAndMisses().get("marginalFuelCost");
+        assertEquals(before[0] + 1, after[0]);
+        assertEquals(before[1], after[1]);
+
+        reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(coalMarket, 7, 100, 1);
+        reps.tickScopedCache.storeLastKnownPriceForSubstance(coal, 7);
+        assertEquals(14, determineFuelMixRole.calculateMarginalFuelCost(plant), 1e-9);
+    }
+
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.ClearingPoint;
+import emlab.gen.domain.market.CommodityMarket;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.market.electricity.SegmentClearingPoint;
+import emlab.gen.util.Utils;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class TimeIndexTest {
+
+    @Autowired
+    Reps reps;
+
+    @Test
+    public void testLookupsByTimeOnlyReturnThatTick() {
+        Segment segment = new Segment().persist();
+        CommodityMarket market = new CommodityMarket().persist();
+        EnergyProducer bidder = new EnergyProducer().persist();
+        for (long time = 0; time < 3; time++) {
+            Bid bid = new Bid().persist();
+            bid.setBiddingMarket(market);
+            bid.setBidder(bidder);
+            bid.setSupplyBid(false);
+            bid.setAmount(100);
+            bid.setPrice(10 * time);
+            bid.setStatus(Bid.NOT_SUBMITTED);
+            bid.setTime(time);
+            PowerPlantDispatchPlan plan = new PowerPlantDispatchPlan();
+            plan.setSegment(segment);
+            plan.setTime(time);
+            plan.persist();
+            CashFlow cashFlow = new CashFlow().persist();
+            cashFlow.setTime(time);
+            SegmentClearingPoint point = new SegmentClearingPoint().persist();
+            point.setSegment(segment);
+            point.setTime(time);
+        }
+
+        List<PowerPlantDispatchPlan> plans = Utils.asList(reps.powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForTime(1));
+        assertEquals(1, plans.size());
+        assertEquals(1, plans.get(0).getTime());
+        assertEquals(1, Utils.asList(reps.powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForSegmentForTime(segment, 1))
+                .size());
+        List<Bid> bids = Utils.asList(reps.bidRepository.findAllBidsForForTime(2));
+        assertEquals(1, bids.size());
+        assertEquals(2, bids.get(0).getTime());
+        assertEquals(20, bids.get(0).getPrice(), 0);
+        assertEquals(bids, Utils.asList(reps.bidRepository.findDemandBidsForMarketForTime(market, 2)));
+        assertEquals(1, Utils.asList(reps.cashFlowRepository.findAllCashFlowsForForTime(0)).size());
+        assertEquals(1, Utils.asList(reps.segmentClearingPointRepository.findAllSegmentClearingPointsForSegmentAndTime(2, segment))
+                .size());
+    }
+
+    @Test
+    public void testClearingPointOfMarketAndTime() {
+        CommodityMarket market = new CommodityMarket().persist();
+        CommodityMarket otherMarket = new CommodityMarket().persist();
+        for (long time = 0; time < 3; time++) {
+            for (CommodityMarket m : new CommodityMarket[] { market, otherMarket }) {
+                ClearingPoint point = new ClearingPoint().persist();
+                point.setAbstractMarket(m);
+                point.setTime(time);
+                point.setPrice(m == market ? time : -time);
+            }
+        }
+        ClearingPoint point = reps.clearingPointRepository.findClearingPointForMarketAndTime(market, 2);
+        assertEquals(2, point.getTime());
+        assertEquals(2, point.getPrice(), 0);
+    }
+
+}
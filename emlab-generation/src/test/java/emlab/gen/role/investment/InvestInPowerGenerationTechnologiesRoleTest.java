@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.neo4j.graphdb.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.gis.Zone;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.market.electricity.SegmentLoad;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerGridNode;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.repository.Reps;
+import emlab.gen.trend.GeometricTrend;
+import emlab.gen.util.Utils;
+
+/**
+ * Evaluates the technologies of an investor in a small market with one and with several threads. The test is not transactional: the
+ * evaluation threads only see what has been committed, as in the simulation, so the world is committed in {@link #setUp()} and the
+ * context, with its graph database, is thrown away after the test.
+ * 
+ * @author JCRichstein
+ * 
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class InvestInPowerGenerationTechnologiesRoleTest {
+
+    static final long FUTURE_TICK = 7;
+    static final double CO2_PRICE = 20;
+
+    @Autowired
+    Reps reps;
+
+    InvestInPowerGenerationTechnologiesRole<EnergyProducer> role;
+    EnergyProducer investor;
+    ElectricitySpotMarket market;
+    Map<Substance, Double> fuelPrices = new HashMap<Substance, Double>();
+
+    @Before
+    public void setUp() {
+        role = new InvestInPowerGenerationTechnologiesRole<EnergyProducer>();
+        Transaction tx = reps.template.getGraphDatabaseService().beginTx();
+        try {
+            Substance coal = substance("Coal", 1, 28000, 3.0, 60);
+            Substance gas = substance("NaturalGas", 1, 36, 0.00187, 0.25);
+            Substance biomass = substance("Biomass", 0.5, 25000, 0, 70);
+
+            PowerGeneratingTechnology coalPsc = technology("CoalPSC", 500, 1434500, 56770, 0.44, 4, 1, 1, 1, 0.9, coal);
+            PowerGeneratingTechnology coFiring = technology("CoalBiomass", 500, 1600000, 60000, 0.42, 4, 1, 1, 1, 0.9, coal, biomass);
+            PowerGeneratingTechnology ccgt = technology("CCGT", 500, 679500, 22380, 0.56, 2, 1, 1, 1, 1, gas);
+            PowerGeneratingTechnology ocgt = technology("OCGT", 150, 251666.66, 67110, 0.38, 1, 1, 1, 1, 1, gas);
+            PowerGeneratingTechnology wind = technology("Wind", 100, 1400000, 25000, 1, 1, 1, 0.4, 0.1, 0);
+            // Not an option, as it may not have any share of the market.
+            PowerGeneratingTechnology igcc = technology("IGCC", 500, 1800000, 70000, 0.45, 4, 1, 1, 1, 0.9, coal);
+            igcc.setMaximumInstalledCapacityFractionInCountry(0);
+
+            Zone zone = new Zone().persist();
+            PowerGridNode node = new PowerGridNode().persist();
+            node.setZone(zone);
+            node.setCapacityMultiplicationFactor(1);
+
+            double[] hours = { 1000, 2000, 2760, 3000 };
+            double[] loads = { 7000, 6000, 4500, 3000 };
+            Set<SegmentLoad> loadDurationCurve = new HashSet<SegmentLoad>();
+            for (int i = 0; i < hours.length; i++) {
+                Segment segment = new Segment().persist();
+                segment.setSegmentID(i + 1);
+                segment.setLengthInHours(hours[i]);
+                SegmentLoad segmentLoad = new SegmentLoad().persist();
+                segmentLoad.setSegment(segment);
+                segmentLoad.setBaseLoad(loads[i]);
+                loadDurationCurve.add(segmentLoad);
+            }
+            market = new ElectricitySpotMarket().persist();
+            market.setZone(zone);
+            market.setValueOfLostLoad(2000);
+            market.setLoadDurationCurve(loadDurationCurve);
+
+            investor = producer("Investor");
+            investor.setInvestorMarket(market);
+            EnergyProducer incumbent = producer("Incumbent");
+
+            // 5600 MW, less than the peak load, so that every technology
+            // earns something in the peak.
+            for (int i = 0; i < 4; i++) {
+                plant(i % 2 == 0 ? incumbent : investor, node, coalPsc, -10 + i);
+            }
+            for (int i = 0; i < 6; i++) {
+                plant(i % 2 == 0 ? incumbent : investor, node, ccgt, -8 + i);
+            }
+            for (int i = 0; i < 4; i++) {
+                plant(incumbent, node, ocgt, -5 + i);
+            }
+            plant(investor, node, coFiring, -6);
+            plant(incumbent, node, wind, -3);
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        reps.powerPlantFleetTable.clear();
+        reps.powerPlantLocationIndex.clear();
+        reps.tickScopedCache.invalidate();
+    }
+
+    @Test
+    public void testConcurrentEvaluationGivesTheSameValuesAndChoice() {
+        List<PowerGeneratingTechnology> technologies = Utils.asList(reps.genericRepository.findAll(PowerGeneratingTechnology.class));
+        String[] names = new String[technologies.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = technologies.get(i).getName();
+        }
+        Map<ElectricitySpotMarket, Double> expectedDemand = new HashMap<ElectricitySpotMarket, Double>();
+        expectedDemand.put(market, 1.02);
+        Map<ElectricitySpotMarket, Double> expectedCO2Price = new HashMap<ElectricitySpotMarket, Double>();
+        expectedCO2Price.put(market, CO2_PRICE);
+
+        double[] sequential = role.evaluateTechnologies(investor, market, technologies, expectedDemand, fuelPrices, expectedCO2Price,
+                FUTURE_TICK, 1);
+        int sequentialChoice = TechnologyEvaluations.selectHighestValue(sequential, names);
+
+        int options = 0;
+        boolean rejected = false;
+        for (double value : sequential) {
+            options += value > 0 ? 1 : 0;
+            rejected |= Double.isNaN(value);
+        }
+        assertTrue("The market leaves no choice between technologies", options > 1);
+        assertTrue("No technology is rejected", rejected);
+
+        for (int run = 0; run < 5; run++) {
+            double[] concurrent = role.evaluateTechnologies(investor, market, technologies, expectedDemand, fuelPrices,
+                    expectedCO2Price, FUTURE_TICK, 4);
+            for (int i = 0; i < sequential.length; i++) {
+                assertEquals(names[i] + " in run " + run, sequential[i], concurrent[i], 0);
+            }
+            assertEquals(names[sequentialChoice], names[TechnologyEvaluations.selectHighestValue(concurrent, names)]);
+        }
+    }
+
+    private Substance substance(String name, double quality, double energyDensity, double co2Density, double price) {
+        Substance substance = new Substance().persist();
+        substance.setName(name);
+        substance.setQuality(quality);
+        substance.setEnergyDensity(energyDensity);
+        substance.setCo2Density(co2Density);
+        fuelPrices.put(substance, price);
+        return substance;
+    }
+
+    private PowerGeneratingTechnology technology(String name, double capacity, double investmentCost, double fixedOperatingCost,
+            double efficiency, int leadtime, int permittime, double baseAvailability, double peakAvailability, double minimumFuelQuality,
+            Substance... fuels) {
+        PowerGeneratingTechnology technology = new PowerGeneratingTechnology().persist();
+        technology.setName(name);
+        technology.setCapacity(capacity);
+        technology.setInvestmentCostTimeSeries(trend(investmentCost));
+        technology.setFixedOperatingCostTimeSeries(trend(fixedOperatingCost));
+        technology.setEfficiencyTimeSeries(trend(efficiency));
+        technology.setDepreciationTime(20);
+        technology.setExpectedLifetime(40);
+        technology.setExpectedLeadtime(leadtime);
+        technology.setExpectedPermittime(permittime);
+        technology.setFixedOperatingCostModifierAfterLifetime(0.05);
+        technology.setMinimumFuelQuality(minimumFuelQuality);
+        technology.setMaximumInstalledCapacityFractionInCountry(1);
+        technology.setMaximumInstalledCapacityFractionPerAgent(1);
+        technology.setBaseSegmentDependentAvailability(baseAvailability);
+        technology.setPeakSegmentDependentAvailability(peakAvailability);
+        technology.setIntermittent(fuels.length == 0);
+        Set<Substance> fuelSet = new HashSet<Substance>();
+        for (Substance fuel : fuels) {
+            fuelSet.add(fuel);
+        }
+        technology.setFuels(fuelSet);
+        return technology;
+    }
+
+    private GeometricTrend trend(double start) {
+        GeometricTrend trend = new GeometricTrend().persist();
+        trend.setStart(start);
+        trend.setGrowthRate(0);
+        return trend;
+    }
+
+    private EnergyProducer producer(String name) {
+        EnergyProducer producer = new EnergyProducer().persist();
+        producer.setName(name);
+        producer.setCash(1e10);
+        producer.setDownpaymentFractionOfCash(0.5);
+        producer.setDebtRatioOfInvestments(0.7);
+        producer.setLoanInterestRate(0.09);
+        producer.setEquityInterestRate(0.12);
+        return producer;
+    }
+
+    private void plant(EnergyProducer owner, PowerGridNode node, PowerGeneratingTechnology technology, long constructionStartTime) {
+        PowerPlant plant = new PowerPlant();
+        plant.specifyAndPersist(constructionStartTime, owner, node, technology);
+        Map<Substance, Double> prices = new HashMap<Substance, Double>();
+        for (Substance fuel : technology.getFuels()) {
+            prices.put(fuel, fuelPrices.get(fuel));
+        }
+        role.calculateFuelMix(plant, prices, CO2_PRICE);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+public class TechnologyEvaluationsTest {
+
+    private static final String[] TECHNOLOGIES = new String[] { "CCGT", "CoalPSC", "Lignite", "Nuclear", "OCGT", "Wind", "PV",
+            "IGCC", "Biomass", "HydroPower" };
+
+    @Test
+    public void testTiesAreBrokenByTechnologyName() {
+        assertEquals(1, TechnologyEvaluations.selectHighestValue(new double[] { 5, 5, 3 }, new String[] { "OCGT", "CCGT", "Wind" }));
+        assertEquals(0, TechnologyEvaluations.selectHighestValue(new double[] { 5, 5, 3 }, new String[] { "CCGT", "OCGT", "Wind" }));
+        assertEquals(2, TechnologyEvaluations.selectHighestValue(new double[] { 5, 5, 6 }, new String[] { "CCGT", "OCGT", "Wind" }));
+    }
+
+    @Test
+    public void testNoInvestmentWithoutPositiveValue() {
+        assertEquals(-1,
+                TechnologyEvaluations.selectHighestValue(new double[] { Double.NaN, 0, -1 }, new String[] { "CCGT", "OCGT", "Wind" }));
+    }
+
+    /**
+     * Evaluates a fixed sequence of investment rounds with random values, including ties and technologies that are no option, once in
+     * the calling thread in a fixed order and once concurrently in a shuffled order. Both have to invest in the same sequence of
+     * technologies.
+     */
+    @Test
+    public void testConcurrentEvaluationGivesTheSameInvestmentSequence() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            final double[] values = new double[TECHNOLOGIES.length];
+            for (int i = 0; i < values.length; i++) {
+                double draw = random.nextDouble();
+                values[i] = draw < 0.2 ? Double.NaN : Math.round(draw * 5) - 1;
+            }
+
+            List<Integer> order = new ArrayList<Integer>();
+            for (int i = 0; i < TECHNOLOGIES.length; i++) {
+                order.add(i);
+            }
+            String sequential = invest(order, values, 1);
+            Collections.shuffle(order, random);
+            String concurrent = invest(order, values, 4);
+            assertEquals("Round " + round, sequential, concurrent);
+        }
+    }
+
+    private String invest(List<Integer> order, final double[] values, int threads) {
+        List<Callable<Double>> evaluations = new ArrayList<Callable<Double>>();
+        String[] names = new String[order.size()];
+        for (int i = 0; i < order.size(); i++) {
+            final int technology = order.get(i);
+            names[i] = TECHNOLOGIES[technology];
+            evaluations.add(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return values[technology];
+                }
+            });
+        }
+        int best = TechnologyEvaluations.selectHighestValue(TechnologyEvaluations.evaluateAll(evaluations, threads), names);
+        return best < 0 ? null : names[best];
+    }
+
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CO2CapSolverTest {
+
+    private CO2PriceEmissionsEvaluator createRandomEvaluator(long seed, double[] nationalMinCo2Prices) {
+        Random random = new Random(seed);
+        int segments = 5;
+        int plans = 40 * segments;
+        InMemoryMeritOrder meritOrder = new InMemoryMeritOrder(plans, 2, segments);
+        double[][] loads = new double[segments][2];
+        for (int s = 0; s < segments; s++) {
+            meritOrder.setSegmentLengthInHours(s, 100);
+            loads[s][0] = 800 + 100 * s;
+            loads[s][1] = 600 + 100 * s;
+        }
+        for (int i = 0; i < plans; i++) {
+            double bid = Math.round(random.nextDouble() * 80);
+            meritOrder.setPlan(i, i % 2, i % segments, bid, bid, 100, 0, Math.round(random.nextDouble() * 10) / 10d);
+        }
+        meritOrder.sortMeritOrder();
+        return new CO2PriceEmissionsEvaluator(meritOrder, loads, 300, new double[] { 2000, 2000 }, nationalMinCo2Prices, 0);
+    }
+
+    private double point(CO2CapSolver solver, int index, double minimumPrice, double penalty) {
+        return index == 0 ? minimumPrice : index > solver.getNumberOfCrossings() ? penalty : solver.getCrossing(index - 1);
+    }
+
+    private void assertLowestPriceMeetingTheCap(CO2CapSolver solver, CO2PriceEmissionsEvaluator evaluator, double co2Cap,
+            double minimumPrice, double penalty, double price) {
+        // The emissions are constant between the crossings.
+        for (double co2Price = minimumPrice + 0.05; co2Price < penalty; co2Price += 0.1) {
+            int k = 0;
+            while (k < solver.getNumberOfCrossings() && solver.getCrossing(k) <= co2Price) {
+                k++;
+            }
+            if (k > 0 && solver.getCrossing(k - 1) == co2Price) {
+                continue;
+            }
+            double middle = (point(solver, k, minimumPrice, penalty) + point(solver, k + 1, minimumPrice, penalty)) / 2;
+            assertEquals(evaluator.calculateEmissions(middle), evaluator.calculateEmissions(co2Price), 1e-6);
+        }
+        // So the first crossing or range that meets the cap is the result.
+        double expected = Double.NaN;
+        for (int c = 0; c <= 2 * solver.getNumberOfCrossings() + 2 && Double.isNaN(expected); c++) {
+            double candidate = c % 2 == 0 ? point(solver, c / 2, minimumPrice, penalty) : (point(solver, c / 2, minimumPrice,
+                    penalty) + point(solver, c / 2 + 1, minimumPrice, penalty)) / 2;
+            if (evaluator.calculateEmissions(candidate) <= co2Cap) {
+                expected = candidate;
+            }
+        }
+        assertEquals(expected, price, 0);
+    }
+
+    @Test
+    public void testFindsLowestPriceMeetingTheCap() {
+        for (long seed = 1; seed <= 5; seed++) {
+            CO2PriceEmissionsEvaluator evaluator = createRandomEvaluator(seed, new double[] { 0, 0 });
+            double co2Cap = (evaluator.calculateEmissions(0) + evaluator.calculateEmissions(200)) / 2;
+            CO2CapSolver solver = new CO2CapSolver(evaluator);
+            double price = solver.findClearingPrice(co2Cap, 0, 200);
+            assertTrue(solver.getNumberOfCrossings() > 0);
+            assertLowestPriceMeetingTheCap(solver, evaluator, co2Cap, 0, 200, price);
+        }
+    }
+
+    @Test
+    public void testFollowsNationalMinimumPrices() {
+        CO2PriceEmissionsEvaluator evaluator = createRandomEvaluator(11, new double[] { 0, 30 });
+        double co2Cap = (evaluator.calculateEmissions(0) + evaluator.calculateEmissions(200)) / 2;
+        CO2CapSolver solver = new CO2CapSolver(evaluator);
+        double price = solver.findClearingPrice(co2Cap, 0, 200);
+        assertLowestPriceMeetingTheCap(solver, evaluator, co2Cap, 0, 200, price);
+    }
+
+    @Test
+    public void testReturnsBoundsIfTheCapIsMetOrMissedEverywhere() {
+        CO2PriceEmissionsEvaluator evaluator = createRandomEvaluator(3, new double[] { 0, 0 });
+        double emissionsAtMinimum = evaluator.calculateEmissions(5);
+        double emissionsAtPenalty = evaluator.calculateEmissions(100);
+
+        assertEquals(5, new CO2CapSolver(evaluator).findClearingPrice(emissionsAtMinimum, 5, 100), 0);
+        assertEquals(100, new CO2CapSolver(evaluator).findClearingPrice(emissionsAtPenalty / 2, 5, 100), 0);
+    }
+
+    @Test
+    public void testEvaluatesLogarithmicallyManyPrices() {
+        CO2PriceEmissionsEvaluator evaluator = createRandomEvaluator(5, new double[] { 0, 0 });
+        double co2Cap = (evaluator.calculateEmissions(0) + evaluator.calculateEmissions(200)) / 2;
+        int evaluationsBefore = evaluator.getNumberOfEvaluations();
+        CO2CapSolver solver = new CO2CapSolver(evaluator);
+        solver.findClearingPrice(co2Cap, 0, 200);
+        double bound = 3 + Math.ceil(Math.log(2 * solver.getNumberOfCrossings() + 3) / Math.log(2));
+        assertTrue(evaluator.getNumberOfEvaluations() - evaluationsBefore <= bound);
+    }
+
+}
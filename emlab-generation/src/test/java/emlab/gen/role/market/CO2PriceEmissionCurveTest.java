@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CO2PriceEmissionCurveTest {
+
+    private CO2PriceEmissionCurve createCurve() {
+        CO2PriceEmissionCurve curve = new CO2PriceEmissionCurve();
+        curve.start(3, 1000);
+        // Added out of order, as the secant search finds them.
+        curve.add(20, 600);
+        curve.add(0, 1000);
+        curve.add(40, 200);
+        curve.add(10, 800);
+        return curve;
+    }
+
+    @Test
+    public void testPairsAreSortedByPrice() {
+        CO2PriceEmissionCurve curve = createCurve();
+        assertEquals(4, curve.size());
+        assertEquals(1000, curve.findEmissions(0), 0);
+        assertEquals(700, curve.findEmissions(15), 1e-9);
+        assertEquals(400, curve.findEmissions(30), 1e-9);
+        assertTrue(Double.isNaN(curve.findEmissions(50)));
+    }
+
+    @Test
+    public void testSamePriceReplacesPair() {
+        CO2PriceEmissionCurve curve = createCurve();
+        curve.add(20, 500);
+        assertEquals(4, curve.size());
+        assertEquals(500, curve.findEmissions(20), 0);
+    }
+
+    @Test
+    public void testFindPriceInvertsCurve() {
+        CO2PriceEmissionCurve curve = createCurve();
+        assertEquals(15, curve.findPrice(700), 1e-9);
+        assertEquals(40, curve.findPrice(200), 0);
+        assertEquals(30, curve.findPrice(400), 1e-9);
+        assertTrue(Double.isNaN(curve.findPrice(100)));
+        assertTrue(Double.isNaN(curve.findPrice(1100)));
+    }
+
+    @Test
+    public void testCurveGrowsAndCopies() {
+        CO2PriceEmissionCurve curve = new CO2PriceEmissionCurve();
+        curve.start(0, 1);
+        for (int i = 99; i >= 0; i--) {
+            curve.add(i, 1000 - 10 * i);
+        }
+        CO2PriceEmissionCurve copy = new CO2PriceEmissionCurve();
+        copy.copyFrom(curve);
+        assertEquals(100, copy.size());
+        assertEquals(0, copy.getTick());
+        assertEquals(42.5, copy.findPrice(575), 1e-9);
+
+        curve.start(1, 2);
+        assertEquals(0, curve.size());
+        assertEquals(100, copy.size());
+    }
+
+}
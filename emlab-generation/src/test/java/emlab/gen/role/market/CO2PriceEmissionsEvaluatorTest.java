@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class CO2PriceEmissionsEvaluatorTest {
+
+    private CO2PriceEmissionsEvaluator createEvaluator() {
+        InMemoryMeritOrder meritOrder = new InMemoryMeritOrder(2, 1, 1);
+        meritOrder.setPlan(0, 0, 0, 20, 20, 100, 0, 1);
+        meritOrder.setPlan(1, 0, 0, 30, 30, 100, 0, 0.5);
+        meritOrder.setSegmentLengthInHours(0, 10);
+        meritOrder.sortMeritOrder();
+        CO2PriceEmissionsEvaluator evaluator = new CO2PriceEmissionsEvaluator(meritOrder, new double[][] { { 100 } }, 0,
+                new double[] { 2000 }, new double[] { 0 }, 0);
+        // A cheap emitting fuel and an expensive clean fuel.
+        evaluator.addFuelMixOption(0, 20, 1, 1);
+        evaluator.addFuelMixOption(0, 40, 0, 0);
+        return evaluator;
+    }
+
+    @Test
+    public void testFuelMixSwitchesWithCO2Price() {
+        CO2PriceEmissionsEvaluator evaluator = createEvaluator();
+
+        assertEquals(100 * 1 * 10, evaluator.calculateEmissions(0), 1e-9);
+        assertEquals(0, evaluator.getChosenFuelMixOption(0));
+        assertEquals(20, evaluator.getPrices()[0][0], 0);
+
+        // At 30 the clean fuel (40) is cheaper than the emitting fuel (50)
+        // and than the other plan (30 + 15).
+        assertEquals(0, evaluator.calculateEmissions(30), 1e-9);
+        assertEquals(1, evaluator.getChosenFuelMixOption(0));
+        assertEquals(40, evaluator.getPrices()[0][0], 0);
+        assertEquals(40, evaluator.getBidWithoutCO2(0), 0);
+    }
+
+    @Test
+    public void testRepeatedPriceIsNotEvaluatedAgain() {
+        CO2PriceEmissionsEvaluator evaluator = createEvaluator();
+        evaluator.calculateEmissions(10);
+        evaluator.calculateEmissions(10);
+        assertEquals(1, evaluator.getNumberOfEvaluations());
+    }
+
+    private CO2PriceEmissionsEvaluator createRandomEvaluator() {
+        Random random = new Random(7);
+        int segments = 10;
+        InMemoryMeritOrder meritOrder = new InMemoryMeritOrder(50 * segments, 2, segments);
+        double[][] loads = new double[segments][2];
+        for (int s = 0; s < segments; s++) {
+            meritOrder.setSegmentLengthInHours(s, 100);
+            loads[s][0] = 1000 + 100 * s;
+            loads[s][1] = 800 + 100 * s;
+        }
+        for (int i = 0; i < 50 * segments; i++) {
+            double bid = random.nextDouble() * 80;
+            meritOrder.setPlan(i, i % 2, i % segments, bid, bid, 100, 0, random.nextDouble());
+        }
+        meritOrder.sortMeritOrder();
+        return new CO2PriceEmissionsEvaluator(meritOrder, loads, 200, new double[] { 2000, 2000 }, new double[] { 0, 10 }, 0);
+    }
+
+    @Test
+    public void testConcurrentEvaluationEqualsSequentialEvaluation() {
+        CO2PriceEmissionsEvaluator sequential = createRandomEvaluator();
+        CO2PriceEmissionsEvaluator concurrent = createRandomEvaluator();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        concurrent.setExecutor(executor, 4);
+        try {
+            for (double co2Price : new double[] { 0, 60, 30, 15, 20, 18 }) {
+                assertEquals(sequential.calculateEmissions(co2Price), concurrent.calculateEmissions(co2Price), 0);
+                for (int s = 0; s < 10; s++) {
+                    assertEquals(sequential.getPrices()[s][0], concurrent.getPrices()[s][0], 0);
+                    assertEquals(sequential.getPrices()[s][1], concurrent.getPrices()[s][1], 0);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
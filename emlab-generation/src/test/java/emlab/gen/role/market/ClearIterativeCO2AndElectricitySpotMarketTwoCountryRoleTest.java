@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.DecarbonizationModel;
+import emlab.gen.domain.agent.Government;
+import emlab.gen.domain.agent.NationalGovernment;
+import emlab.gen.domain.gis.Zone;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.CO2Auction;
+import emlab.gen.domain.market.ClearingPoint;
+import emlab.gen.domain.market.CommodityMarket;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.market.electricity.SegmentClearingPoint;
+import emlab.gen.domain.market.electricity.SegmentLoad;
+import emlab.gen.domain.technology.Interconnector;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.repository.Reps;
+import emlab.gen.trend.GeometricTrend;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class ClearIterativeCO2AndElectricitySpotMarketTwoCountryRoleTest {
+
+    @Autowired
+    Reps reps;
+
+    @Autowired
+    ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole role;
+
+    Segment segment;
+    Substance coal;
+    PowerGeneratingTechnology technology;
+
+    @After
+    public void tearDown() {
+        reps.priceHistory.clear();
+        reps.tickScopedCache.invalidate();
+    }
+
+    /**
+     * The national minimum CO2 price of the second market is above the CO2 price, the one of the first market is not. The plan of the
+     * second market is created first, so that a minimum price that leaks from one plan into the next would raise the bids of the first
+     * market.
+     */
+    @Test
+    public void testNationalMinimumCO2PricesGiveTheSameClearingInMemoryAndInTheGraph() {
+        DecarbonizationModel model = new DecarbonizationModel().persist();
+        model.setCo2TradingImplemented(true);
+        model.setLongTermContractsImplemented(false);
+        model.setCapDeviationCriterion(0.01);
+        model.setNumberOfMarketClearingThreads(1);
+
+        coal = substance("Coal", 1);
+        Substance co2 = substance("CO2", 0);
+        commodityMarket(coal, 3);
+        CO2Auction co2Auction = new CO2Auction().persist();
+        co2Auction.setSubstance(co2);
+
+        Government government = new Government().persist();
+        government.setCo2TaxTrend(trend(0));
+        government.setCo2CapTrend(trend(2e6));
+        government.setMinCo2PriceTrend(trend(0));
+        government.setCo2Penalty(100);
+
+        segment = new Segment().persist();
+        segment.setSegmentID(1);
+        segment.setLengthInHours(1000);
+
+        ElectricitySpotMarket first = spotMarket(800, 0);
+        ElectricitySpotMarket second = spotMarket(400, 30);
+        Interconnector interconnector = new Interconnector().persist();
+        interconnector.setCapacity(1000);
+
+        technology = new PowerGeneratingTechnology().persist();
+        // Bids of 30 in the second market and of 10, 26 and 32 in the
+        // first, so 30 sets the price; with a CO2 price of 30 the first
+        // two bids of the first market would be 40 and 41.
+        plan(second, 18, 0.4);
+        plan(first, 10, 1);
+        plan(first, 26, 0.5);
+        plan(first, 32, 0);
+
+        model.setInMemoryMarketClearingEnabled(false);
+        role.act(model);
+        ClearingPoint co2PointInGraph = reps.clearingPointRepositoryOld.findClearingPointForMarketAndTime(co2Auction, 0);
+        double co2PriceInGraph = co2PointInGraph.getPrice();
+        double emissionsInGraph = co2PointInGraph.getVolume();
+        Map<ElectricitySpotMarket, Double> pricesInGraph = findSegmentPrices(first, second);
+
+        model.setInMemoryMarketClearingEnabled(true);
+        role.act(model);
+        ClearingPoint co2PointInMemory = reps.clearingPointRepositoryOld.findClearingPointForMarketAndTime(co2Auction, 0);
+        Map<ElectricitySpotMarket, Double> pricesInMemory = findSegmentPrices(first, second);
+
+        assertEquals(0, co2PriceInGraph, 0);
+        assertEquals(co2PriceInGraph, co2PointInMemory.getPrice(), 1e-9);
+        assertEquals(1000 * (500 * 1 + 500 * 0.5 + 200 * 0.4), emissionsInGraph, 1e-6);
+        assertEquals(emissionsInGraph, co2PointInMemory.getVolume(), 1e-6);
+        assertEquals(30, pricesInGraph.get(first), 1e-9);
+        assertEquals(30, pricesInGraph.get(second), 1e-9);
+        assertEquals(pricesInGraph.get(first), pricesInMemory.get(first), 1e-9);
+        assertEquals(pricesInGraph.get(second), pricesInMemory.get(second), 1e-9);
+    }
+
+    @Test
+    public void testConcurrentClearingInMemoryEqualsSequentialClearing() {
+        ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole.MeritOrderSnapshot sequential = createRandomSnapshot();
+        ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole.MeritOrderSnapshot concurrent = createRandomSnapshot();
+        role.clearAllSegmentsInMemory(sequential, 200, 1);
+        role.clearAllSegmentsInMemory(concurrent, 200, 4);
+        for (int s = 0; s < sequential.loads.length; s++) {
+            for (int m = 0; m < 2; m++) {
+                assertEquals(sequential.prices[s][m], concurrent.prices[s][m], 0);
+                assertEquals(sequential.supplies[s][m], concurrent.supplies[s][m], 0);
+            }
+        }
+        for (int plan = 0; plan < sequential.meritOrder.getNumberOfPlans(); plan++) {
+            assertEquals(sequential.meritOrder.getStatus(plan), concurrent.meritOrder.getStatus(plan));
+            assertEquals(sequential.meritOrder.getAcceptedAmount(plan), concurrent.meritOrder.getAcceptedAmount(plan), 0);
+        }
+    }
+
+    private ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole.MeritOrderSnapshot createRandomSnapshot() {
+        Random random = new Random(7);
+        int segments = 10;
+        ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole.MeritOrderSnapshot snapshot = role.new MeritOrderSnapshot();
+        snapshot.segments = new ArrayList<Segment>();
+        snapshot.meritOrder = new InMemoryMeritOrder(50 * segments, 2, segments);
+        snapshot.loads = new double[segments][2];
+        snapshot.prices = new double[segments][2];
+        snapshot.supplies = new double[segments][2];
+        snapshot.valueOfLostLoad = new double[] { 2000, 2000 };
+        for (int s = 0; s < segments; s++) {
+            snapshot.segments.add(new Segment());
+            snapshot.meritOrder.setSegmentLengthInHours(s, 100);
+            snapshot.loads[s][0] = 1000 + 100 * s;
+            snapshot.loads[s][1] = 800 + 100 * s;
+        }
+        for (int i = 0; i < 50 * segments; i++) {
+            double bid = random.nextDouble() * 80;
+            snapshot.meritOrder.setPlan(i, i % 2, i % segments, bid, bid, 100, 0, random.nextDouble());
+        }
+        snapshot.meritOrder.sortMeritOrder();
+        return snapshot;
+    }
+
+    private Map<ElectricitySpotMarket, Double> findSegmentPrices(ElectricitySpotMarket... markets) {
+        Map<ElectricitySpotMarket, Double> prices = new HashMap<ElectricitySpotMarket, Double>();
+        for (ElectricitySpotMarket market : markets) {
+            for (ClearingPoint point : reps.clearingPointRepositoryOld.findClearingPointsForMarketAndTime(market, 0)) {
+                if (((SegmentClearingPoint) point).getSegment().equals(segment)) {
+                    prices.put(market, point.getPrice());
+                }
+            }
+        }
+        return prices;
+    }
+
+    private Substance substance(String name, double co2Density) {
+        Substance substance = new Substance().persist();
+        substance.setName(name);
+        substance.setCo2Density(co2Density);
+        return substance;
+    }
+
+    private void commodityMarket(Substance substance, double referencePrice) {
+        CommodityMarket market = new CommodityMarket().persist();
+        market.setSubstance(substance);
+        market.setReferencePrice(referencePrice);
+    }
+
+    private ElectricitySpotMarket spotMarket(double load, double minNationalCo2Price) {
+        Zone zone = new Zone().persist();
+        SegmentLoad segmentLoad = new SegmentLoad().persist();
+        segmentLoad.setSegment(segment);
+        segmentLoad.setBaseLoad(load);
+        Set<SegmentLoad> loadDurationCurve = new HashSet<SegmentLoad>();
+        loadDurationCurve.add(segmentLoad);
+
+        ElectricitySpotMarket market = new ElectricitySpotMarket().persist();
+        market.setZone(zone);
+        market.setValueOfLostLoad(2000);
+        market.setDemandGrowthTrend(trend(1));
+        market.setLoadDurationCurve(loadDurationCurve);
+
+        NationalGovernment nationalGovernment = new NationalGovernment().persist();
+        nationalGovernment.setGovernedZone(zone);
+        nationalGovernment.setMinNationalCo2PriceTrend(trend(minNationalCo2Price));
+        return market;
+    }
+
+    private void plan(ElectricitySpotMarket market, double bidWithoutCO2, double coalShare) {
+        PowerPlant plant = new PowerPlant().persist();
+        plant.setTechnology(technology);
+        Set<SubstanceShareInFuelMix> fuelMix = new HashSet<SubstanceShareInFuelMix>();
+        if (coalShare > 0) {
+            SubstanceShareInFuelMix share = new SubstanceShareInFuelMix().persist();
+            share.setSubstance(coal);
+            share.setShare(coalShare);
+            fuelMix.add(share);
+        }
+        plant.setFuelMix(fuelMix);
+
+        PowerPlantDispatchPlan plan = new PowerPlantDispatchPlan().persist();
+        plan.setPowerPlant(plant);
+        plan.setSegment(segment);
+        plan.setBiddingMarket(market);
+        plan.setTime(0);
+        plan.setBidWithoutCO2(bidWithoutCO2);
+        plan.setPrice(bidWithoutCO2);
+        plan.setAmount(500);
+        plan.setCapacityLongTermContract(0);
+        plan.setStatus(Bid.SUBMITTED);
+    }
+
+    private GeometricTrend trend(double start) {
+        GeometricTrend trend = new GeometricTrend().persist();
+        trend.setStart(start);
+        trend.setGrowthRate(0);
+        return trend;
+    }
+
+}
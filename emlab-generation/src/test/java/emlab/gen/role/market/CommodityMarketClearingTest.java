@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import emlab.gen.domain.market.Bid;
+
+public class CommodityMarketClearingTest {
+
+    @Test
+    public void testClearingAtIntersectionWithMarginalOffer() {
+        // Offers are given out of order.
+        CommodityMarketClearing clearing = new CommodityMarketClearing(new double[] { 30, 10, 20 }, new double[] { 100, 100, 100 },
+                new double[] { 50, 15 }, new double[] { 150, 100 }, false);
+        clearing.clear(Double.NaN, 0);
+
+        // At 20 only the demand bid at 50 remains, which the offer at 20
+        // meets partly.
+        assertEquals(20, clearing.getClearingPrice(), 0);
+        assertEquals(150, clearing.getClearingVolume(), 1e-9);
+        assertEquals(Bid.ACCEPTED, clearing.getSupplyStatus(1));
+        assertEquals(100, clearing.getSupplyAcceptedAmount(1), 1e-9);
+        assertEquals(Bid.PARTLY_ACCEPTED, clearing.getSupplyStatus(2));
+        assertEquals(50, clearing.getSupplyAcceptedAmount(2), 1e-9);
+        assertEquals(CommodityMarketClearing.UNCHANGED, clearing.getSupplyStatus(0));
+        assertEquals(Bid.PARTLY_ACCEPTED, clearing.getDemandStatus(0));
+        assertEquals(150, clearing.getDemandAcceptedAmount(0), 1e-9);
+        assertEquals(CommodityMarketClearing.UNCHANGED, clearing.getDemandStatus(1));
+    }
+
+    @Test
+    public void testShortageIsPricedAtValueOfLostLoad() {
+        CommodityMarketClearing clearing = new CommodityMarketClearing(new double[] { 10, 20 }, new double[] { 50, 50 },
+                new double[] { 1000 }, new double[] { 150 }, false);
+        clearing.clear(2000, 0);
+        assertEquals(2000, clearing.getClearingPrice(), 0);
+        assertEquals(100, clearing.getClearingVolume(), 1e-9);
+        assertEquals(Bid.ACCEPTED, clearing.getSupplyStatus(0));
+        assertEquals(Bid.PARTLY_ACCEPTED, clearing.getSupplyStatus(1));
+        assertEquals(50, clearing.getSupplyAcceptedAmount(1), 1e-9);
+
+        clearing = new CommodityMarketClearing(new double[] { 10, 20 }, new double[] { 50, 50 }, new double[] { 1000 },
+                new double[] { 150 }, false);
+        clearing.clear(Double.NaN, 0);
+        assertEquals(20, clearing.getClearingPrice(), 0);
+    }
+
+    @Test
+    public void testOffersAtTheSamePriceShareTheRemainingDemand() {
+        CommodityMarketClearing clearing = new CommodityMarketClearing(new double[] { 10, 20, 20 }, new double[] { 40, 60, 20 },
+                new double[] { 100 }, new double[] { 80 }, false);
+        clearing.clear(Double.NaN, 0);
+        assertEquals(20, clearing.getClearingPrice(), 0);
+        assertEquals(80, clearing.getClearingVolume(), 1e-9);
+        assertEquals(Bid.ACCEPTED, clearing.getSupplyStatus(0));
+        assertEquals(Bid.PARTLY_ACCEPTED, clearing.getSupplyStatus(1));
+        assertEquals(30, clearing.getSupplyAcceptedAmount(1), 1e-9);
+        assertEquals(Bid.PARTLY_ACCEPTED, clearing.getSupplyStatus(2));
+        assertEquals(10, clearing.getSupplyAcceptedAmount(2), 1e-9);
+    }
+
+    @Test
+    public void testDemandMetBelowMarginalOffer() {
+        // No demand at the highest offer price: cleared at the lowest offer
+        // price without volume.
+        CommodityMarketClearing clearing = new CommodityMarketClearing(new double[] { 10, 20 }, new double[] { 60, 100 },
+                new double[] { 15 }, new double[] { 50 }, false);
+        clearing.clear(Double.NaN, 12);
+        assertEquals(0, clearing.getClearingVolume(), 0);
+        assertEquals(10, clearing.getClearingPrice(), 0);
+
+        // The offer at 10 already covers the demand left at 20.
+
+        clearing = new CommodityMarketClearing(new double[] { 10, 20 }, new double[] { 40, 100 }, new double[] { 15, 25 },
+                new double[] { 50, 10 }, false);
+        clearing.clear(Double.NaN, 12);
+        assertEquals(10, clearing.getClearingPrice(), 0);
+        assertEquals(40, clearing.getClearingVolume(), 1e-9);
+    }
+
+    @Test
+    public void testAuctionIsPricedByLastAcceptedDemandBid() {
+        CommodityMarketClearing clearing = new CommodityMarketClearing(new double[] { 5, 8 }, new double[] { 100, 100 },
+                new double[] { 30, 20, 10 }, new double[] { 50, 50, 50 }, true);
+        clearing.clear(Double.NaN, 0);
+        assertEquals(150, clearing.getClearingVolume(), 1e-9);
+        // The last fully accepted demand bid sets the price.
+        assertEquals(20, clearing.getClearingPrice(), 0);
+        assertEquals(Bid.ACCEPTED, clearing.getDemandStatus(0));
+        assertEquals(Bid.ACCEPTED, clearing.getDemandStatus(1));
+        assertEquals(Bid.PARTLY_ACCEPTED, clearing.getDemandStatus(2));
+        assertEquals(Bid.ACCEPTED, clearing.getSupplyStatus(0));
+        assertEquals(Bid.PARTLY_ACCEPTED, clearing.getSupplyStatus(1));
+        assertEquals(50, clearing.getSupplyAcceptedAmount(1), 1e-9);
+    }
+
+}
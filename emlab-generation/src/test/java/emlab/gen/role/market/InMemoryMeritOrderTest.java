@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import emlab.gen.domain.market.Bid;
+
+public class InMemoryMeritOrderTest {
+
+    private InMemoryMeritOrder createTwoMarketMeritOrder() {
+        // plan, market, segment, price, bid without CO2, amount, LTC,
+        // emission intensity
+        InMemoryMeritOrder meritOrder = new InMemoryMeritOrder(4, 2, 1);
+        meritOrder.setPlan(0, 0, 0, 30, 20, 100, 0, 1);
+        meritOrder.setPlan(1, 1, 0, 10, 10, 100, 0, 0);
+        meritOrder.setPlan(2, 0, 0, 50, 50, 100, 0, 0.5);
+        meritOrder.setPlan(3, 1, 0, 40, 40, 100, 0, 0.5);
+        meritOrder.setSegmentLengthInHours(0, 10);
+        meritOrder.sortMeritOrder();
+        return meritOrder;
+    }
+
+    @Test
+    public void testUniformPriceWhenInterconnectorIsNotCongested() {
+        InMemoryMeritOrder meritOrder = createTwoMarketMeritOrder();
+        double[] prices = new double[2];
+        double[] supplies = new double[2];
+        meritOrder.clearSegment(0, new double[] { 150, 100 }, 100, new double[] { 2000, 2000 }, prices, supplies);
+
+        assertEquals(40, prices[0], 0);
+        assertEquals(40, prices[1], 0);
+        assertEquals(100, supplies[0], 1e-9);
+        assertEquals(150, supplies[1], 1e-9);
+        assertEquals(Bid.ACCEPTED, meritOrder.getStatus(0));
+        assertEquals(Bid.PARTLY_ACCEPTED, meritOrder.getStatus(3));
+        assertEquals(Bid.FAILED, meritOrder.getStatus(2));
+        assertEquals((100 * 1 + 50 * 0.5) * 10, meritOrder.determineTotalEmissions(), 1e-9);
+    }
+
+    @Test
+    public void testSeparatePricesWhenInterconnectorIsCongested() {
+        InMemoryMeritOrder meritOrder = createTwoMarketMeritOrder();
+        double[] prices = new double[2];
+        double[] supplies = new double[2];
+        meritOrder.clearSegment(0, new double[] { 150, 100 }, 10, new double[] { 2000, 2000 }, prices, supplies);
+
+        // The first market imports 10 and the second market exports 10.
+        assertEquals(50, prices[0], 0);
+        assertEquals(40, prices[1], 0);
+        assertEquals(140, supplies[0], 1e-9);
+        assertEquals(110, supplies[1], 1e-9);
+    }
+
+    @Test
+    public void testMeritOrderFollowsCO2Price() {
+        InMemoryMeritOrder meritOrder = createTwoMarketMeritOrder();
+        meritOrder.updatePricesForCO2Price(40, new double[] { 0, 0 });
+        meritOrder.sortMeritOrder();
+        double[] prices = new double[2];
+        double[] supplies = new double[2];
+        meritOrder.clearSegment(0, new double[] { 150, 100 }, 1000, new double[] { 2000, 2000 }, prices, supplies);
+
+        // The most emission intensive plans are now marginal.
+        assertEquals(60, meritOrder.getPrice(0), 0);
+        assertEquals(60, prices[0], 0);
+        assertEquals(Bid.ACCEPTED, meritOrder.getStatus(0));
+        assertEquals(Bid.PARTLY_ACCEPTED, meritOrder.getStatus(3));
+        assertEquals(50, meritOrder.getAcceptedAmount(3), 1e-9);
+    }
+
+    @Test
+    public void testIncrementalSortEqualsFullSort() {
+        Random random = new Random(42);
+        InMemoryMeritOrder incremental = new InMemoryMeritOrder(200, 2, 2);
+        InMemoryMeritOrder full = new InMemoryMeritOrder(200, 2, 2);
+        double[] nationalMinCo2Prices = new double[] { 0, 5 };
+        for (int i = 0; i < 200; i++) {
+            // Rounded prices, so that there are ties.
+            double bid = Math.round(random.nextDouble() * 50);
+            double intensity = Math.round(random.nextDouble() * 10) / 10d;
+            incremental.setPlan(i, i % 2, (i / 2) % 2, bid, bid, 100, 0, intensity);
+            full.setPlan(i, i % 2, (i / 2) % 2, bid, bid, 100, 0, intensity);
+        }
+        for (double co2Price : new double[] { 0, 100, 50, 20, 30, 29, 29.5 }) {
+            incremental.updatePricesForCO2Price(co2Price, nationalMinCo2Prices);
+            incremental.sortMeritOrder();
+            full.updatePricesForCO2Price(co2Price, nationalMinCo2Prices);
+            full.sortMeritOrder(false);
+            for (int s = 0; s < 2; s++) {
+                assertArrayEquals(full.meritOrder[s], incremental.meritOrder[s]);
+                for (int k = 1; k < incremental.meritOrder[s].length; k++) {
+                    assertTrue(incremental.getPrice(incremental.meritOrder[s][k - 1]) <= incremental
+                            .getPrice(incremental.meritOrder[s][k]));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import emlab.gen.domain.market.Bid;
+
+public class MarketCouplingTest {
+
+    private InMemoryMeritOrder createChain() {
+        // Three markets in a row: cheap in the first, expensive in the last.
+        // plan, market, segment, price, bid without CO2, amount, LTC,
+        // emission intensity
+        InMemoryMeritOrder meritOrder = new InMemoryMeritOrder(4, 3, 1);
+        meritOrder.setPlan(0, 0, 0, 10, 10, 300, 0, 1);
+        meritOrder.setPlan(1, 1, 0, 30, 30, 100, 0, 0.5);
+        meritOrder.setPlan(2, 2, 0, 50, 50, 200, 0, 0.5);
+        meritOrder.setPlan(3, 2, 0, 60, 60, 200, 0, 0.5);
+        meritOrder.setSegmentLengthInHours(0, 1);
+        meritOrder.sortMeritOrder();
+        return meritOrder;
+    }
+
+    @Test
+    public void testUncongestedChainHasOnePrice() {
+        InMemoryMeritOrder meritOrder = createChain();
+        MarketCoupling coupling = new MarketCoupling(3, 1, new int[] { 0, 1 }, new int[] { 1, 2 }, new double[] { 1000, 1000 });
+        double[] prices = new double[3];
+        double[] supplies = new double[3];
+        coupling.clearSegment(meritOrder, 0, new double[] { 100, 100, 300 }, new double[] { 2000, 2000, 2000 }, prices, supplies);
+
+        assertEquals(50, prices[0], 0);
+        assertEquals(50, prices[1], 0);
+        assertEquals(50, prices[2], 0);
+        assertEquals(300, supplies[0], 1e-9);
+        assertEquals(100, supplies[1], 1e-9);
+        assertEquals(100, supplies[2], 1e-9);
+        assertEquals(200, coupling.getFlow(0, 0), 1e-9);
+        assertEquals(200, coupling.getFlow(0, 1), 1e-9);
+        assertEquals(Bid.PARTLY_ACCEPTED, meritOrder.getStatus(2));
+        assertEquals(Bid.FAILED, meritOrder.getStatus(3));
+    }
+
+    @Test
+    public void testCongestionSplitsPriceAreas() {
+        InMemoryMeritOrder meritOrder = createChain();
+        MarketCoupling coupling = new MarketCoupling(3, 1, new int[] { 0, 1 }, new int[] { 1, 2 }, new double[] { 1000, 50 });
+        double[] prices = new double[3];
+        double[] supplies = new double[3];
+        coupling.clearSegment(meritOrder, 0, new double[] { 100, 100, 300 }, new double[] { 2000, 2000, 2000 }, prices, supplies);
+
+        // Only 50 can reach the last market, which has to produce 250. The
+        // cheap plan covers the rest, so the middle plan is not needed.
+        assertEquals(10, prices[0], 0);
+        assertEquals(10, prices[1], 0);
+        assertEquals(60, prices[2], 0);
+        assertEquals(250, supplies[0], 1e-9);
+        assertEquals(Bid.PARTLY_ACCEPTED, meritOrder.getStatus(0));
+        assertEquals(0, supplies[1], 1e-9);
+        assertEquals(250, supplies[2], 1e-9);
+        assertEquals(50, coupling.getFlow(0, 1), 0);
+        assertEquals(Bid.FAILED, meritOrder.getStatus(1));
+        assertEquals(Bid.ACCEPTED, meritOrder.getStatus(2));
+        assertEquals(50, meritOrder.getAcceptedAmount(3), 1e-9);
+    }
+
+    @Test
+    public void testUnmetLoadGivesValueOfLostLoad() {
+        InMemoryMeritOrder meritOrder = createChain();
+        MarketCoupling coupling = new MarketCoupling(3, 1, new int[] { 0 }, new int[] { 1 }, new double[] { 1000 });
+        double[] prices = new double[3];
+        double[] supplies = new double[3];
+        coupling.clearSegment(meritOrder, 0, new double[] { 100, 100, 500 }, new double[] { 1000, 2000, 3000 }, prices, supplies);
+
+        // The last market is isolated and short of 100.
+        assertEquals(10, prices[0], 0);
+        assertEquals(10, prices[1], 0);
+        assertEquals(3000, prices[2], 0);
+        assertEquals(400, supplies[2], 1e-9);
+    }
+
+    @Test
+    public void testFlowIsReroutedForCheaperSupply() {
+        // The first market is connected to both others. Its cheap plan is
+        // first sent to the second market; the plan of the second market can
+        // only reach the load of the third market by taking that flow back.
+        InMemoryMeritOrder meritOrder = new InMemoryMeritOrder(2, 3, 1);
+        meritOrder.setPlan(0, 0, 0, 10, 10, 100, 0, 0);
+        meritOrder.setPlan(1, 1, 0, 20, 20, 100, 0, 0);
+        meritOrder.setSegmentLengthInHours(0, 1);
+        meritOrder.sortMeritOrder();
+        MarketCoupling coupling = new MarketCoupling(3, 1, new int[] { 0, 0 }, new int[] { 1, 2 }, new double[] { 100, 100 });
+        double[] prices = new double[3];
+        double[] supplies = new double[3];
+        coupling.clearSegment(meritOrder, 0, new double[] { 0, 100, 100 }, new double[] { 2000, 2000, 2000 }, prices, supplies);
+
+        assertEquals(100, supplies[0], 1e-9);
+        assertEquals(100, supplies[1], 1e-9);
+        assertEquals(0, coupling.getFlow(0, 0), 1e-9);
+        assertEquals(100, coupling.getFlow(0, 1), 1e-9);
+        assertEquals(Bid.ACCEPTED, meritOrder.getStatus(1));
+        assertEquals(20, prices[1], 0);
+    }
+
+    @Test
+    public void testTwoMarketsEqualSingleInterconnectorClearing() {
+        Random random = new Random(3);
+        for (int run = 0; run < 20; run++) {
+            InMemoryMeritOrder coupled = new InMemoryMeritOrder(40, 2, 1);
+            InMemoryMeritOrder single = new InMemoryMeritOrder(40, 2, 1);
+            for (int i = 0; i < 40; i++) {
+                double bid = random.nextDouble() * 80;
+                double amount = random.nextDouble() * 100;
+                coupled.setPlan(i, i % 2, 0, bid, bid, amount, 0, 1);
+                single.setPlan(i, i % 2, 0, bid, bid, amount, 0, 1);
+            }
+            coupled.setSegmentLengthInHours(0, 1);
+            single.setSegmentLengthInHours(0, 1);
+            coupled.sortMeritOrder();
+            single.sortMeritOrder();
+            double capacity = random.nextDouble() * 300;
+            coupled.setMarketCoupling(new MarketCoupling(2, 1, new int[] { 0 }, new int[] { 1 }, new double[] { capacity }));
+            double[] loads = new double[] { random.nextDouble() * 1000, random.nextDouble() * 1000 };
+            double[] valueOfLostLoad = new double[] { 2000, 3000 };
+
+            double[] coupledPrices = new double[2];
+            double[] coupledSupplies = new double[2];
+            double[] singlePrices = new double[2];
+            double[] singleSupplies = new double[2];
+            coupled.clearSegment(0, loads, capacity, valueOfLostLoad, coupledPrices, coupledSupplies);
+            single.clearSegment(0, loads, capacity, valueOfLostLoad, singlePrices, singleSupplies);
+            for (int m = 0; m < 2; m++) {
+                assertEquals(singlePrices[m], coupledPrices[m], 0);
+                assertEquals(singleSupplies[m], coupledSupplies[m], 1e-6);
+            }
+            for (int i = 0; i < 40; i++) {
+                assertEquals(single.getAcceptedAmount(i), coupled.getAcceptedAmount(i), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomNetworksMeetOptimalityConditions() {
+        Random random = new Random(11);
+        int markets = 12;
+        int plans = 600;
+        for (int run = 0; run < 20; run++) {
+            InMemoryMeritOrder meritOrder = new InMemoryMeritOrder(plans, markets, 1);
+            for (int i = 0; i < plans; i++) {
+                double bid = random.nextDouble() * 100;
+                meritOrder.setPlan(i, random.nextInt(markets), 0, bid, bid, random.nextDouble() * 50, 0, 1);
+            }
+            meritOrder.setSegmentLengthInHours(0, 1);
+            meritOrder.sortMeritOrder();
+            // A ring with a few random cross links.
+            int interconnectors = markets + 6;
+            int[] first = new int[interconnectors];
+            int[] second = new int[interconnectors];
+            double[] capacities = new double[interconnectors];
+            for (int i = 0; i < interconnectors; i++) {
+                first[i] = i < markets ? i : random.nextInt(markets);
+                second[i] = i < markets ? (i + 1) % markets : (first[i] + 1 + random.nextInt(markets - 1)) % markets;
+                capacities[i] = random.nextDouble() * 200;
+            }
+            MarketCoupling coupling = new MarketCoupling(markets, 1, first, second, capacities);
+            double[] loads = new double[markets];
+            double[] valueOfLostLoad = new double[markets];
+            for (int m = 0; m < markets; m++) {
+                loads[m] = random.nextDouble() * 1500;
+                valueOfLostLoad[m] = 2000;
+            }
+            double[] prices = new double[markets];
+            double[] supplies = new double[markets];
+            coupling.clearSegment(meritOrder, 0, loads, valueOfLostLoad, prices, supplies);
+
+            // Every market is balanced, or short and priced at its value of
+            // lost load.
+            double[] netImport = new double[markets];
+            for (int i = 0; i < interconnectors; i++) {
+                double flow = coupling.getFlow(0, i);
+                assertTrue(Math.abs(flow) <= capacities[i] + 1e-9);
+                netImport[first[i]] -= flow;
+                netImport[second[i]] += flow;
+            }
+            for (int m = 0; m < markets; m++) {
+                double delivered = supplies[m] + netImport[m];
+                assertTrue(delivered <= loads[m] + 1e-6);
+                if (delivered < loads[m] - 1e-6) {
+                    assertEquals(valueOfLostLoad[m], prices[m], 0);
+                }
+            }
+
+            // Plans below the price of their market run, plans above it do
+            // not.
+            for (int i = 0; i < plans; i++) {
+                int market = meritOrder.market[i];
+                if (meritOrder.getPrice(i) < prices[market]) {
+                    assertEquals(meritOrder.amount[i], meritOrder.getAcceptedAmount(i), 1e-6);
+                } else if (meritOrder.getPrice(i) > prices[market]) {
+                    assertEquals(0, meritOrder.getAcceptedAmount(i), 1e-6);
+                }
+            }
+
+            // Power only flows to markets with a price that is at least as
+            // high.
+            for (int i = 0; i < interconnectors; i++) {
+                double flow = coupling.getFlow(0, i);
+                if (flow > 1e-9) {
+                    assertTrue(prices[second[i]] >= prices[first[i]]);
+                } else if (flow < -1e-9) {
+                    assertTrue(prices[first[i]] >= prices[second[i]]);
+                }
+            }
+        }
+    }
+
+}
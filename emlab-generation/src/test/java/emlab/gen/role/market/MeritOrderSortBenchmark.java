@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.repository.Reps;
+
+/**
+ * Compares the merit order sort of the repository (ORDER BY ppdp.price) with the incremental sort of the {@link InMemoryMeritOrder} over
+ * the CO2 prices of a typical secant search, using the fleet of powerPlantsCWEandUK.csv. Bids are derived from a simple cost table per
+ * technology. The name does not end in Test, so it is not part of the normal build; run it with -Dtest=MeritOrderSortBenchmark.
+ * 
+ * @author jcrichstein
+ * 
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class MeritOrderSortBenchmark {
+
+    Logger logger = Logger.getLogger(MeritOrderSortBenchmark.class);
+
+    @Autowired
+    Reps reps;
+
+    static final String FLEET = "/data/powerPlantsCWEandUK.csv";
+    static final int NUMBER_OF_SEGMENTS = 20;
+    static final int NUMBER_OF_TICKS = 5;
+    static final double[] CO2_PRICES = { 0, 70, 35, 18, 25, 22, 23, 22.5, 22.7, 22.6 };
+
+    // Bid without CO2 (EUR/MWh) and emission intensity (t/MWh) per technology.
+    static final Map<String, double[]> COSTS = new HashMap<String, double[]>();
+    static {
+        COSTS.put("Nuclear", new double[] { 10, 0 });
+        COSTS.put("Lignite", new double[] { 25, 1.1 });
+        COSTS.put("CoalPSC", new double[] { 30, 0.85 });
+        COSTS.put("Biomass", new double[] { 40, 0 });
+        COSTS.put("Biogas", new double[] { 45, 0 });
+        COSTS.put("CCGT", new double[] { 50, 0.36 });
+        COSTS.put("OCGT", new double[] { 75, 0.55 });
+    }
+
+    List<Segment> segments = new ArrayList<Segment>();
+    List<PowerPlantDispatchPlan> plans = new ArrayList<PowerPlantDispatchPlan>();
+    InMemoryMeritOrder meritOrder;
+
+    @Before
+    @Transactional
+    public void setUp() throws Exception {
+        for (int s = 0; s < NUMBER_OF_SEGMENTS; s++) {
+            Segment segment = new Segment();
+            segment.setSegmentID(s + 1);
+            segment.setLengthInHours(8760 / NUMBER_OF_SEGMENTS);
+            segment.persist();
+            segments.add(segment);
+        }
+
+        List<String[]> fleet = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(this.getClass().getResourceAsStream(FLEET)));
+        String line = reader.readLine();
+        while ((line = reader.readLine()) != null) {
+            fleet.add(line.split(",", -1));
+        }
+        reader.close();
+
+        Random random = new Random(1);
+        meritOrder = new InMemoryMeritOrder(fleet.size() * NUMBER_OF_SEGMENTS, 2, NUMBER_OF_SEGMENTS);
+        for (int s = 0; s < NUMBER_OF_SEGMENTS; s++) {
+            meritOrder.setSegmentLengthInHours(s, segments.get(s).getLengthInHours());
+        }
+        for (String[] plant : fleet) {
+            double[] costs = COSTS.containsKey(plant[1]) ? COSTS.get(plant[1]) : new double[] { 0, 0 };
+            double bidWithoutCO2 = costs[0] * (0.9 + 0.2 * random.nextDouble());
+            double capacity = plant[5].isEmpty() ? 500 : Double.parseDouble(plant[5]);
+            int market = plant[2].equals("cweNode") ? 0 : 1;
+            for (int s = 0; s < NUMBER_OF_SEGMENTS; s++) {
+                PowerPlantDispatchPlan plan = new PowerPlantDispatchPlan();
+                plan.specifyAndPersist(null, null, null, segments.get(s), 0, bidWithoutCO2, bidWithoutCO2, capacity, 0, Bid.SUBMITTED);
+                meritOrder.setPlan(plans.size(), market, s, bidWithoutCO2, bidWithoutCO2, capacity, 0, costs[1]);
+                plans.add(plan);
+            }
+        }
+        meritOrder.sortMeritOrder();
+        logger.warn("Benchmark fleet: " + fleet.size() + " plants, " + plans.size() + " dispatch plans");
+    }
+
+    @Test
+    public void compareMeritOrderSorts() {
+        double[] noMinimumPrices = { 0, 0 };
+
+        long repositoryNanos = 0;
+        List<PowerPlantDispatchPlan> lastRepositoryOrder = null;
+        for (int tick = 0; tick < NUMBER_OF_TICKS; tick++) {
+            for (double co2Price : CO2_PRICES) {
+                meritOrder.updatePricesForCO2Price(co2Price, noMinimumPrices);
+                for (int i = 0; i < plans.size(); i++) {
+                    plans.get(i).setPrice(meritOrder.getPrice(i));
+                }
+                long start = System.nanoTime();
+                for (Segment segment : segments) {
+                    lastRepositoryOrder = new ArrayList<PowerPlantDispatchPlan>();
+                    for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository
+                            .findSortedPowerPlantDispatchPlansForSegmentForTime(segment, 0)) {
+                        lastRepositoryOrder.add(plan);
+                    }
+                }
+                repositoryNanos += System.nanoTime() - start;
+            }
+        }
+
+        long fullSortNanos = 0;
+        long incrementalSortNanos = 0;
+        for (int tick = 0; tick < NUMBER_OF_TICKS; tick++) {
+            for (double co2Price : CO2_PRICES) {
+                meritOrder.updatePricesForCO2Price(co2Price, noMinimumPrices);
+                long start = System.nanoTime();
+                meritOrder.sortMeritOrder(false);
+                fullSortNanos += System.nanoTime() - start;
+            }
+            for (double co2Price : CO2_PRICES) {
+                meritOrder.updatePricesForCO2Price(co2Price, noMinimumPrices);
+                long start = System.nanoTime();
+                meritOrder.sortMeritOrder(true);
+                incrementalSortNanos += System.nanoTime() - start;
+            }
+        }
+
+        // Both orders of the last segment have the same sequence of prices.
+        int[] inMemoryOrder = meritOrder.meritOrder[NUMBER_OF_SEGMENTS - 1];
+        assertEquals(inMemoryOrder.length, lastRepositoryOrder.size());
+        for (int k = 0; k < inMemoryOrder.length; k++) {
+            assertEquals(meritOrder.getPrice(inMemoryOrder[k]), lastRepositoryOrder.get(k).getPrice(), 0);
+        }
+
+        int sorts = NUMBER_OF_TICKS * CO2_PRICES.length;
+        logger.warn("Average time per merit order sort of all segments:");
+        logger.warn("  repository (ORDER BY ppdp.price): " + repositoryNanos / sorts / 1000 + " microseconds");
+        logger.warn("  in memory, full sort:             " + fullSortNanos / sorts / 1000 + " microseconds");
+        logger.warn("  in memory, incremental sort:      " + incrementalSortNanos / sorts / 1000 + " microseconds");
+    }
+
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FuelMixSolverTest {
+
+    @Test
+    public void testVerticesOfTwoFuels() {
+        double[][] shares = new double[FuelMixSolver.maximumNumberOfVertices(2)][2];
+        int vertices = FuelMixSolver.enumerateVertices(new double[] { 1, 1 }, new double[] { 1, 0 }, 0.5, 0.5, shares);
+
+        // Only the high quality fuel on its own, or a blend at exactly the
+        // minimum quality.
+        assertEquals(2, vertices);
+        assertEquals(7200, shares[0][0], 1e-9);
+        assertEquals(0, shares[0][1], 0);
+        assertEquals(3600, shares[1][0], 1e-9);
+        assertEquals(3600, shares[1][1], 1e-9);
+    }
+
+    @Test
+    public void testSolveFindsCheapestVertex() {
+        Random random = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            int numberOfFuels = 2 + random.nextInt(3);
+            double[] energyDensities = new double[numberOfFuels];
+            double[] qualities = new double[numberOfFuels];
+            double[] costs = new double[numberOfFuels];
+            for (int f = 0; f < numberOfFuels; f++) {
+                energyDensities[f] = 10 + random.nextInt(20);
+                qualities[f] = random.nextDouble();
+                costs[f] = random.nextDouble() * 100;
+            }
+            double[][] vertexShares = new double[FuelMixSolver.maximumNumberOfVertices(numberOfFuels)][numberOfFuels];
+            int vertices = FuelMixSolver.enumerateVertices(energyDensities, qualities, 0.5, 0.4, vertexShares);
+            double cheapest = Double.POSITIVE_INFINITY;
+            for (int v = 0; v < vertices; v++) {
+                cheapest = Math.min(cheapest, cost(costs, energyDensities, vertexShares[v]));
+            }
+
+            double[] shares = new double[numberOfFuels];
+            boolean feasible = FuelMixSolver.solve(energyDensities, qualities, 0.5, 0.4, costs, shares);
+            assertEquals(vertices > 0, feasible);
+            if (feasible) {
+                assertEquals(cheapest, cost(costs, energyDensities, shares), 1e-9);
+                double energy = 0d;
+                for (int f = 0; f < numberOfFuels; f++) {
+                    assertTrue(shares[f] >= 0);
+                    energy += shares[f] * energyDensities[f] / FuelMixSolver.MJ_PER_MWH;
+                }
+                assertEquals(1 / 0.4, energy, 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testSolveWithoutFeasibleFuelMix() {
+        double[] shares = new double[] { 1, 2 };
+        assertFalse(FuelMixSolver.solve(new double[] { 1, 1 }, new double[] { 0.2, 0.3 }, 0.5, 0.5, new double[] { 1, 1 }, shares));
+        assertEquals(1, shares[0], 0);
+        assertEquals(2, shares[1], 0);
+    }
+
+    private double cost(double[] costs, double[] energyDensities, double[] shares) {
+        double cost = 0d;
+        for (int f = 0; f < costs.length; f++) {
+            cost += costs[f] * shares[f];
+        }
+        return cost;
+    }
+
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+public class GraphDatabaseServiceFactoryBeanTest {
+
+    @After
+    public void tearDown() {
+        System.clearProperty(GraphDatabaseServiceFactoryBean.GRAPH_DATABASE_PROPERTY);
+    }
+
+    @Test
+    public void testInMemoryDatabaseWritesNothingToTheWorkingOrStoreDirectory() throws Exception {
+        System.setProperty(GraphDatabaseServiceFactoryBean.GRAPH_DATABASE_PROPERTY, GraphDatabaseServiceFactoryBean.IN_MEMORY);
+        File workingDirectory = new File(System.getProperty("user.dir"));
+        Set<String> filesBefore = new HashSet<String>(Arrays.asList(workingDirectory.list()));
+        File storeDirectory = new File(System.getProperty("java.io.tmpdir"), "emlab-graphdb-test-" + System.nanoTime());
+        GraphDatabaseServiceFactoryBean factory = new GraphDatabaseServiceFactoryBean();
+        factory.setStoreDirectory(storeDirectory.getPath());
+
+        GraphDatabaseService graphDatabaseService = factory.getObject();
+        assertSame(graphDatabaseService, factory.getObject());
+        File temporaryStoreDirectory = factory.getTemporaryStoreDirectory();
+        assertTrue(temporaryStoreDirectory.isDirectory());
+        assertFalse(temporaryStoreDirectory.getAbsolutePath().startsWith(workingDirectory.getAbsolutePath() + File.separator));
+
+        Transaction tx = graphDatabaseService.beginTx();
+        try {
+            Node node = graphDatabaseService.createNode();
+            node.setProperty("name", "plant");
+            assertEquals("plant", graphDatabaseService.getNodeById(node.getId()).getProperty("name"));
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+        assertEquals(filesBefore, new HashSet<String>(Arrays.asList(workingDirectory.list())));
+        factory.destroy();
+
+        assertFalse(storeDirectory.exists());
+        assertFalse(temporaryStoreDirectory.exists());
+        assertNull(factory.getTemporaryStoreDirectory());
+        assertEquals(filesBefore, new HashSet<String>(Arrays.asList(workingDirectory.list())));
+    }
+
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.support.GenericApplicationContext;
+
+import emlab.gen.util.MultiRunExecutor.Run;
+import emlab.gen.util.MultiRunExecutor.RunProperties;
+
+public class MultiRunExecutorTest {
+
+    private static final long GB = 1024 * MultiRunExecutor.MEGABYTE;
+
+    private static final int NUMBER_OF_RUNS = 5;
+    private static final int POOL_THREADS = 3;
+
+    @Test
+    public void testThreadsAreBoundedByCoresAndHeap() {
+        assertEquals(2, MultiRunExecutor.determineNumberOfThreads(8, 8 * GB, 3 * GB));
+        assertEquals(4, MultiRunExecutor.determineNumberOfThreads(4, 64 * GB, 3 * GB));
+        assertEquals(1, MultiRunExecutor.determineNumberOfThreads(8, 1 * GB, 3 * GB));
+    }
+
+    @Test
+    public void testRunListIsRead() throws IOException {
+        File runList = File.createTempFile("runs", ".txt");
+        runList.deleteOnExit();
+        FileWriter writer = new FileWriter(runList);
+        writer.write("# run id, scenario, query file\nsweep-1 scenarioA-1.xml\n\nsweep-2\tscenarioA-2.xml queries.properties\n");
+        writer.close();
+
+        List<Run> runs = MultiRunExecutor.readRuns(runList);
+
+        assertEquals(2, runs.size());
+        assertEquals("sweep-1", runs.get(0).getRunId());
+        assertEquals("scenarioA-1.xml", runs.get(0).getScenarioFile());
+        assertNull(runs.get(0).getQueryFile());
+        assertEquals("queries.properties", runs.get(1).getQueryFile());
+    }
+
+    @Test
+    public void testRunPropertiesAreSeenByTheRunAndItsThreadsOnly() throws InterruptedException {
+        Properties global = new Properties();
+        global.setProperty("run.id", "global");
+        global.setProperty("results.path", "/results");
+        final RunProperties properties = new RunProperties(global);
+        Map<String, String> run = new HashMap<String, String>();
+        run.put("run.id", "run-1");
+
+        final String[] seenByChild = new String[2];
+        RunProperties.begin(run);
+        try {
+            Thread child = new Thread() {
+                @Override
+                public void run() {
+                    seenByChild[0] = properties.getProperty("run.id");
+                    properties.setProperty("scenario.file", "scenarioA-1.xml");
+                    seenByChild[1] = properties.getProperty("scenario.file");
+                }
+            };
+            child.start();
+            child.join();
+            assertEquals("run-1", properties.getProperty("run.id"));
+            assertEquals("/results", properties.getProperty("results.path"));
+        } finally {
+            RunProperties.end();
+        }
+
+        assertEquals("run-1", seenByChild[0]);
+        assertEquals("scenarioA-1.xml", seenByChild[1]);
+        assertEquals("global", properties.getProperty("run.id"));
+        assertNull(properties.getProperty("scenario.file"));
+    }
+
+    /**
+     * Runs several models in a row, each of which starts a Spring context holding a thread, like the graph database, and a thread pool,
+     * like the roles, and ends by System.exit. Unless the context is closed and the pool shut down when a run ends, every run leaves its
+     * threads behind.
+     */
+    @Test
+    public void testThreadsOfEndedRunsAreStopped() throws Exception {
+        List<Run> runs = new ArrayList<Run>();
+        for (int i = 0; i < NUMBER_OF_RUNS; i++) {
+            runs.add(new Run("run-" + i, "scenario-" + i + ".xml", null));
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+
+        MultiRunExecutor executor = new MultiRunExecutor(runs, 1, MultiRunExecutor.findClassPath(), ExitingModel.class.getName());
+        assertEquals(0, executor.execute());
+
+        // The thread of the executor ends shortly after the last run.
+        long deadline = System.currentTimeMillis() + 10000;
+        while (threads.getThreadCount() > threadsBefore && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue("Threads left behind: " + (threads.getThreadCount() - threadsBefore),
+                threads.getThreadCount() < threadsBefore + POOL_THREADS + 1);
+    }
+
+    /**
+     * The main class of the runs of {@link MultiRunExecutorTest#testThreadsOfEndedRunsAreStopped()}, loaded by the class loader of each
+     * run.
+     */
+    public static class ExitingModel {
+
+        public static void main(String[] args) {
+            GenericApplicationContext context = new GenericApplicationContext();
+            context.registerBeanDefinition("runResources", new RootBeanDefinition(RunResources.class));
+            context.registerBeanDefinition("graphDatabase", new RootBeanDefinition(ThreadHoldingBean.class));
+            context.refresh();
+            ExecutorService pool = Executors.newFixedThreadPool(POOL_THREADS);
+            RunResources.register(pool);
+            for (int i = 0; i < POOL_THREADS; i++) {
+                pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                });
+            }
+            System.exit(0);
+        }
+
+    }
+
+    public static class ThreadHoldingBean implements DisposableBean {
+
+        private final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(Long.MAX_VALUE);
+                } catch (InterruptedException e) {
+                    // Destroyed.
+                }
+            }
+        };
+
+        public ThreadHoldingBean() {
+            thread.start();
+        }
+
+        @Override
+        public void destroy() throws InterruptedException {
+            thread.interrupt();
+            thread.join();
+        }
+
+    }
+
+}
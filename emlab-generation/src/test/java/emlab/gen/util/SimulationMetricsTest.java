@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SimulationMetricsTest {
+
+    private List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    @Test
+    public void testCallsAreSummedPerRoleAndQuery() throws IOException {
+        SimulationMetrics metrics = new SimulationMetrics();
+        metrics.record(SimulationMetrics.ROLE, "PayForLoansRole", 2000000, 100);
+        metrics.record(SimulationMetrics.ROLE, "PayForLoansRole", 1000000, 50);
+        metrics.record(SimulationMetrics.QUERY, "PowerPlantRepository.findOperationalPowerPlants", 500000, -1);
+        assertEquals(2, metrics.getCalls(SimulationMetrics.ROLE, "PayForLoansRole"));
+
+        File file = File.createTempFile("metrics", ".csv");
+        file.deleteOnExit();
+        metrics.writeCsv(file);
+        List<String> lines = readLines(file);
+
+        assertEquals(3, lines.size());
+        assertEquals(SimulationMetrics.HEADER, lines.get(0));
+        // Queries sort before roles, and unknown allocations are written as
+        // NA.
+        assertEquals("query,PowerPlantRepository.findOperationalPowerPlants,1,0.5,NA", lines.get(1));
+        assertEquals("role,PayForLoansRole,2,3.0,150", lines.get(2));
+    }
+
+    @Test
+    public void testExportWritesOneFilePerTickAndResets() throws IOException {
+        File folder = File.createTempFile("results", "");
+        folder.delete();
+        String resultsPath = System.getProperty("results.path");
+        System.setProperty("results.path", folder.getPath());
+        try {
+            SimulationMetrics metrics = new SimulationMetrics();
+            metrics.record(SimulationMetrics.ROLE, "PayForLoansRole", 1000, 0);
+            File file = metrics.exportTick(3);
+            file.deleteOnExit();
+            folder.deleteOnExit();
+
+            assertEquals(folder, file.getParentFile());
+            assertTrue(file.getName().endsWith("-metrics-3.csv"));
+            assertEquals(2, readLines(file).size());
+            assertEquals(0, metrics.getCalls(SimulationMetrics.ROLE, "PayForLoansRole"));
+        } finally {
+            if (resultsPath == null) {
+                System.clearProperty("results.path");
+            } else {
+                System.setProperty("results.path", resultsPath);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+#!/bin/bash
+
+########################################################################
+# The jobname must only consist of the characters A-Z, a-z and 0-9!!!! #
+########################################################################
+USAGE="Provide name of run, scenario file without ending, first and last run number"
+#Load configuration script to substitute
+if [ -f scriptConfigurations.cfg ];then 
+	. scriptConfigurations.cfg
+	HOME=$REMOTERESULTFOLDER
+else
+    echo "Define scriptConfigurations.cfg, by changing the template. Exiting script."
+    exit
+fi
+
+## Runs the same scenario files as localHeadlessArray.sh, but all in one JVM.
+## The heap is shared by the runs, MULTIRUNHEAP should allow for 3GB per
+## concurrent run, and MULTIRUNTHREADS can limit the number of concurrent runs.
+## Example sh localHeadlessMultiRun.sh example scenarioA 1 8
+JOBNAME=$1
+SCENARIO=$2
+SCENARIOPATH=file://$LOCALSCENARIOFOLDER
+START=$3
+END=$4
+if [ ! -z $5 ] 
+then 
+    QUERYFILE=$5
+else
+    QUERYFILE=""
+fi
+if [ -z $MULTIRUNHEAP ]
+then
+    MULTIRUNHEAP=12288m
+fi
+if [ ! -z $MULTIRUNTHREADS ]
+then
+    THREADSCOMMAND="-Dmultirun.threads=$MULTIRUNTHREADS"
+else
+    THREADSCOMMAND=""
+fi
+
+mkdir $LOCALRESULTFOLDER/$JOBNAME
+cd $LOCALRESULTFOLDER/$JOBNAME
+RUNLIST=$JOBNAME-runs.txt
+rm -f $RUNLIST
+for PBS_ARRAYID in $(eval echo "{$START..$END}")
+do
+echo "$JOBNAME-$PBS_ARRAYID $SCENARIO-$PBS_ARRAYID.xml $QUERYFILE" >> $RUNLIST
+done
+java -d64 -server -Xmx$MULTIRUNHEAP -DSCENARIO_FOLDER=$SCENARIOPATH -Dresults.path=$LOCALRESULTFOLDER/$JOBNAME $THREADSCOMMAND -cp $LOCALJARFILE emlab.gen.util.MultiRunExecutor $RUNLIST
+mv simulation.log "$JOBNAME.log"
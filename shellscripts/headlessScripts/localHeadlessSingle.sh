@@ -27,8 +27,14 @@ then
 else
     QUERYCOMMAND=""
 fi
+if [ "$GRAPHDB" = "memory" ]
+then
+    GRAPHDBCOMMAND="-Demlab.graphdb=memory"
+else
+    GRAPHDBCOMMAND=""
+fi
 
-java -d64 -server -Xmx3072m -Drun.id=$JOBNAME -DSCENARIO_FOLDER=$SCENARIOPATH -Dresults.path=$LOCALRESULTFOLDER/$JOBNAME -Dscenario.file=$SCENARIO".xml" $QUERYCOMMAND -jar $LOCALJARFILE >  $JOBNAME.log
+java -d64 -server -Xmx3072m -Drun.id=$JOBNAME -DSCENARIO_FOLDER=$SCENARIOPATH -Dresults.path=$LOCALRESULTFOLDER/$JOBNAME -Dscenario.file=$SCENARIO".xml" $QUERYCOMMAND $GRAPHDBCOMMAND -jar $LOCALJARFILE >  $JOBNAME.log
 rm -rf /tmp/ramdisk/emlab.gen-db/$JOBNAME
 
 #mv simulation.log $JOBNAME.log
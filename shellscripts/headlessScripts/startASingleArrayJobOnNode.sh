@@ -9,8 +9,13 @@ if [ ! $TEMP ];then
     exit
 fi
 
-if [ ! $RAMDISK ];then
-    exit
+if [ "$GRAPHDB" = "memory" ];then
+    GRAPHDBCOMMAND="-Demlab.graphdb=memory"
+else
+    GRAPHDBCOMMAND=""
+    if [ ! $RAMDISK ];then
+        exit
+    fi
 fi
 
 # the job number
@@ -19,10 +24,12 @@ dir=$JOBNAME-$PBS_ARRAYID
 NEWJARNAME=$JOBNAME".jar"
 #delete database of possible previous run
 #rm -rf $RAMDISK/$EMLABDB/$dir
+if [ -z "$GRAPHDBCOMMAND" ];then
 rm -rf $RAMDISK/$EMLABDB/$dir
 mkdir -p $RAMDISK/$EMLABDB
 chmod go+rxw $RAMDISK/
 chmod go+rxw $RAMDISK/$EMLABDB
+fi
 
 #cd /var/tmp
 
@@ -55,13 +62,23 @@ cp $PBS_O_WORKDIR/$JARNAME $TEMP/$NEWJARNAME
 #cp $PBS_O_WORKDIR/$SCENARIO $TEMP/$dir
 fi
 
+if [ -z "$GRAPHDBCOMMAND" ];then
 RAMDU=$(du -sh $RAMDISK)
 
 echo "Disk usage on Ramdisk: $RAMDU"
+fi
+
+#Results and checkpoints are written straight to the head node, so that nothing
+#is lost when the job is killed at its walltime and the epilogue deletes the
+#temporary folder, and a job that is resubmitted with the same name resumes
+#where it was stopped.
+RESULTSFOLDER=$PBS_O_WORKDIR/$RUNNAME
+mkdir -p $RESULTSFOLDER
+CHECKPOINTCOMMAND="-Demlab.checkpoint.path=$RESULTSFOLDER -Demlab.resume=latest"
 
 #Execute the job 
 #java -Drun.id=$JOBNAME-$PBS_ARRAYID -Dresults.path=$TEMP/$dir -Dscenario.file=$SCENARIO -jar $PBS_O_WORKDIR/$JARNAME
-java -d64 -server -Xmx3072m -Drun.id=$JOBNAME-$PBS_ARRAYID -DSCENARIO_FOLDER=file://$NODESCENARIOFOLDER -Dresults.path=$TEMP/$dir -Dscenario.file=$SCENARIO -jar $TEMP/$NEWJARNAME > $JOBNAME-$PBS_ARRAYID.elog
+java -d64 -server -Xmx3072m -Drun.id=$JOBNAME-$PBS_ARRAYID -DSCENARIO_FOLDER=file://$NODESCENARIOFOLDER -Dresults.path=$RESULTSFOLDER -Dscenario.file=$SCENARIO $GRAPHDBCOMMAND $CHECKPOINTCOMMAND -jar $TEMP/$NEWJARNAME > $JOBNAME-$PBS_ARRAYID.elog
 
 
 #REMOVE JAR File
@@ -72,8 +89,8 @@ java -d64 -server -Xmx3072m -Drun.id=$JOBNAME-$PBS_ARRAYID -DSCENARIO_FOLDER=fil
 #then
 #Rename simulation.log
 mv simulation.log $JOBNAME-$PBS_ARRAYID.log
-#Make a dir for the data and copy it to that directory so we can access the data from the head node
-cp -r $TEMP/$dir/* $PBS_O_WORKDIR/$RUNNAME/
+#Copy the logs to the results on the head node
+cp $JOBNAME-$PBS_ARRAYID.log $JOBNAME-$PBS_ARRAYID.elog $RESULTSFOLDER/
 #fi
 
 #Delete folder and ramdisk.